@@ -0,0 +1,457 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Jeff Martin.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public
+ * License v3.0 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * Contributors:
+ * Jeff Martin - initial API and implementation
+ ******************************************************************************/
+package cuchaz.enigma;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.io.BaseEncoding;
+
+import cuchaz.enigma.CommandMain.ConsoleProgressListener;
+import cuchaz.enigma.ExportProfile.ClassProfile;
+import cuchaz.enigma.mapping.ClassEntry;
+import cuchaz.enigma.mapping.MappingParseException;
+import cuchaz.enigma.mapping.Mappings;
+import cuchaz.enigma.mapping.MappingsReader;
+
+public class CommandDaemon
+{
+	
+	// NOTE: one command per line, with tab separated arguments. Each reply is
+	// "ok <n>" and n lines of output, or "error <message>".
+	
+	public static final String Command = "daemon";
+	
+	private static final Set<String> PathCommands = Sets.newHashSet(
+		"decompile", "deobfuscate", "protectify", "publify", "reload-mappings");
+	
+	private static final String OkStatus = "ok";
+	private static final String ErrorStatus = "error";
+	private static final int TokenBytes = 32;
+	
+	private Deobfuscator m_deobfuscator;
+	private File m_fileMappings;
+	private long m_timeoutMillis;
+	private int m_numThreads;
+	private int m_numProcesses;
+	private boolean m_isIncremental;
+	private boolean m_isVerbose;
+	private boolean m_isShutdown;
+	
+	/**
+	 * The mappings file can be null.
+	 */
+	public CommandDaemon(Deobfuscator deobfuscator, File fileMappings)
+	{
+		m_deobfuscator = deobfuscator;
+		m_fileMappings = fileMappings;
+		m_timeoutMillis = DecompileWatchdog.DefaultTimeoutMillis;
+		m_numThreads = Runtime.getRuntime().availableProcessors();
+		m_numProcesses = 0;
+		m_isIncremental = true;
+		m_isVerbose = false;
+		m_isShutdown = false;
+	}
+	
+	public void setTimeout(long millis)
+	{
+		m_timeoutMillis = millis;
+	}
+	
+	public void setNumThreads(int val)
+	{
+		m_numThreads = val;
+	}
+	
+	public void setNumProcesses(int val)
+	{
+		m_numProcesses = val;
+	}
+	
+	public void setIncremental(boolean val)
+	{
+		m_isIncremental = val;
+	}
+	
+	/**
+	 * Prints how long each command took, and the stack traces of the ones
+	 * that failed.
+	 */
+	public void setVerbose(boolean val)
+	{
+		m_isVerbose = val;
+	}
+	
+	/**
+	 * Answers commands from local clients until one of them shuts the daemon
+	 * down. Clients find the token in getTokenFile(port).
+	 */
+	public void listen(int port) throws IOException
+	{
+		listen(port, null);
+	}
+	
+	void listen(int port, File fileToken) throws IOException
+	{
+		try(ServerSocket server =
+			new ServerSocket(port, 0, InetAddress.getLoopbackAddress()))
+		{
+			// other users on this machine can reach the port too, but they
+			// can't read the token
+			if(fileToken == null)
+				fileToken = getTokenFile(server.getLocalPort());
+			byte[] token = writeToken(fileToken);
+			try
+			{
+				System.out.println("Listening on port "
+					+ server.getLocalPort());
+				while(!m_isShutdown)
+					try(Socket socket = server.accept())
+					{
+						BufferedReader reader =
+							newReader(socket.getInputStream());
+						Writer writer = newWriter(socket.getOutputStream());
+						String line = reader.readLine();
+						if(line != null
+							&& MessageDigest.isEqual(token,
+								line.getBytes(Charsets.UTF_8)))
+							serve(reader, writer);
+						else
+						{
+							writer.write(ErrorStatus + " Wrong token\n");
+							writer.flush();
+						}
+					}catch(IOException ex)
+					{
+						// the client went away, that's their problem
+						System.err.println("WARNING: Lost client: " + ex);
+					}
+			}finally
+			{
+				fileToken.delete();
+			}
+		}
+	}
+	
+	/**
+	 * Answers commands until the input ends or someone says quit. Don't
+	 * print anything else to the output, eg when it's stdout.
+	 */
+	public void serve(InputStream in, OutputStream out) throws IOException
+	{
+		serve(newReader(in), newWriter(out));
+	}
+	
+	private void serve(BufferedReader reader, Writer writer)
+		throws IOException
+	{
+		String line;
+		while(!m_isShutdown && (line = reader.readLine()) != null)
+		{
+			if(line.trim().isEmpty())
+				continue;
+			String[] args = line.split("\t");
+			if(args[0].equals("quit"))
+				break;
+			writeReply(writer, args);
+			writer.flush();
+		}
+		writer.flush();
+	}
+	
+	private void writeReply(Writer writer, String[] args) throws IOException
+	{
+		List<String> lines;
+		try
+		{
+			lines = run(args);
+		}catch(VirtualMachineError ex)
+		{
+			throw ex;
+		}catch(Throwable t)
+		{
+			// the client only gets one line, so name what went wrong unless
+			// it's just a bad command
+			if(m_isVerbose && !(t instanceof IllegalArgumentException))
+				t.printStackTrace();
+			String message =
+				t instanceof IllegalArgumentException && t.getMessage() != null
+					? t.getMessage() : t.toString();
+			writer.write(ErrorStatus + " " + message.replace('\n', ' ')
+				+ "\n");
+			return;
+		}
+		writer.write(OkStatus + " " + lines.size() + "\n");
+		for(String line : lines)
+			writer.write(line + "\n");
+	}
+	
+	private List<String> run(String[] args) throws Exception
+	{
+		String command = args[0];
+		long startNanos = System.nanoTime();
+		List<String> lines;
+		if(command.equals("deobfuscate-entry"))
+			lines =
+				Arrays.asList(m_deobfuscator.deobfuscateEntry(
+					CommandMain.getEntry(getArg(args, 1, "entry"))).toString());
+		else if(command.equals("obfuscate-entry"))
+			lines =
+				Arrays.asList(m_deobfuscator.obfuscateEntry(
+					CommandMain.getEntry(getArg(args, 1, "entry"))).toString());
+		else if(command.equals("decompile-class"))
+			lines = decompileClass(getArg(args, 1, "class"));
+		else if(command.equals("decompile"))
+			lines = export(new File(getArg(args, 1, "out folder")));
+		else if(command.equals("deobfuscate"))
+		{
+			m_deobfuscator.writeJar(new File(getArg(args, 1, "out jar")),
+				new ConsoleProgressListener());
+			lines = Lists.newArrayList();
+		}else if(command.equals("protectify"))
+		{
+			m_deobfuscator.protectifyJar(new File(getArg(args, 1, "out jar")),
+				new ConsoleProgressListener());
+			lines = Lists.newArrayList();
+		}else if(command.equals("publify"))
+		{
+			m_deobfuscator.publifyJar(new File(getArg(args, 1, "out jar")),
+				new ConsoleProgressListener());
+			lines = Lists.newArrayList();
+		}else if(command.equals("reload-mappings"))
+		{
+			if(args.length > 1)
+				m_fileMappings = new File(args[1]);
+			reloadMappings();
+			lines = Lists.newArrayList();
+		}else if(command.equals("stats"))
+		{
+			ByteArrayOutputStream buf = new ByteArrayOutputStream();
+			Metrics.printSummary(new PrintStream(buf, true, "UTF-8"));
+			lines = getLines(buf.toString("UTF-8"));
+		}else if(command.equals("shutdown"))
+		{
+			m_isShutdown = true;
+			lines = Lists.newArrayList();
+		}else
+			throw new IllegalArgumentException("Command not recognized: "
+				+ command);
+		if(m_isVerbose)
+			System.out.println(String.format("%s took %.1f ms", command,
+				(System.nanoTime() - startNanos) / 1000000.0));
+		return lines;
+	}
+	
+	private List<String> decompileClass(String className)
+	{
+		// only top-level classes have sources of their own
+		ClassEntry obfClassEntry =
+			m_deobfuscator.obfuscateEntry(new ClassEntry(className))
+				.getOutermostClassEntry();
+		if(!m_deobfuscator.getJarIndex().containsObfClass(obfClassEntry))
+			throw new IllegalArgumentException("Class isn't in the jar: "
+				+ className);
+		SourceExporter exporter = new SourceExporter(m_deobfuscator);
+		ClassProfile classProfile =
+			new ClassProfile(className, obfClassEntry.getName());
+		String source =
+			exporter.decompileClass(new DecompileWatchdog(m_deobfuscator,
+				m_timeoutMillis), obfClassEntry, classProfile);
+		if(source == null)
+			throw new IllegalArgumentException("Unable to decompile "
+				+ className + ": " + classProfile.getFailure());
+		return getLines(source);
+	}
+	
+	private List<String> export(File dirOut) throws IOException
+	{
+		if(!dirOut.isDirectory() && !dirOut.mkdirs())
+			throw new IllegalArgumentException("Cannot write to folder: "
+				+ dirOut);
+		SourceExporter exporter = new SourceExporter(m_deobfuscator);
+		exporter.setTimeout(m_timeoutMillis);
+		exporter.setNumThreads(m_numThreads);
+		exporter.setNumProcesses(m_numProcesses);
+		exporter.setIncremental(m_isIncremental);
+		exporter.export(dirOut, new ConsoleProgressListener());
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		exporter.getProfile().printSummary(new PrintStream(buf, true, "UTF-8"),
+			10);
+		return getLines(buf.toString("UTF-8"));
+	}
+	
+	private void reloadMappings() throws IOException
+	{
+		if(m_fileMappings == null)
+			throw new IllegalArgumentException("No mappings file to reload");
+		try(Reader in = new FileReader(m_fileMappings))
+		{
+			Mappings mappings = new MappingsReader().read(in);
+			m_deobfuscator.setMappings(mappings);
+		}catch(MappingParseException ex)
+		{
+			throw new IllegalArgumentException(ex.getMessage());
+		}
+	}
+	
+	/**
+	 * Sends one command to a daemon on this machine and prints the output.
+	 * Returns false if the daemon said it failed.
+	 */
+	public static boolean send(int port, List<String> args, PrintStream out)
+		throws IOException
+	{
+		return send(port, getTokenFile(port), args, out);
+	}
+	
+	static boolean send(int port, File fileToken, List<String> args,
+		PrintStream out) throws IOException
+	{
+		String token;
+		try
+		{
+			token = new String(Files.readAllBytes(fileToken.toPath()),
+				Charsets.UTF_8);
+		}catch(NoSuchFileException ex)
+		{
+			throw new IOException("No daemon is listening on port " + port
+				+ ", " + fileToken + " is missing");
+		}
+		try(Socket socket = new Socket(InetAddress.getLoopbackAddress(), port))
+		{
+			Writer writer = newWriter(socket.getOutputStream());
+			writer.write(token + "\n" + Joiner.on('\t').join(args)
+				+ "\nquit\n");
+			writer.flush();
+			BufferedReader reader = newReader(socket.getInputStream());
+			String status = reader.readLine();
+			if(status == null)
+				throw new IOException("The daemon hung up");
+			if(status.startsWith(ErrorStatus + " "))
+			{
+				System.err.println(status.substring(ErrorStatus.length() + 1));
+				return false;
+			}
+			int numLines =
+				Integer.parseInt(status.substring(OkStatus.length() + 1));
+			for(int i = 0; i < numLines; i++)
+				out.println(reader.readLine());
+			return true;
+		}
+	}
+	
+	/**
+	 * Returns true if the first argument of the command is a file or folder,
+	 * which clients have to send as an absolute path.
+	 */
+	public static boolean takesPath(String command)
+	{
+		return PathCommands.contains(command);
+	}
+	
+	public static File getTokenFile(int port)
+	{
+		return new File(new File(System.getProperty("user.home"), ".enigma"),
+			"daemon-" + port + ".token");
+	}
+	
+	private static byte[] writeToken(File fileToken) throws IOException
+	{
+		byte[] bytes = new byte[TokenBytes];
+		new SecureRandom().nextBytes(bytes);
+		byte[] token =
+			BaseEncoding.base16().encode(bytes).getBytes(Charsets.UTF_8);
+		
+		// make the file private before the token goes in, and only give it
+		// its name once the token is there
+		File dir = fileToken.getAbsoluteFile().getParentFile();
+		if(!dir.isDirectory() && !dir.mkdirs())
+			throw new IOException("Cannot create folder: " + dir);
+		Path tempPath;
+		try
+		{
+			tempPath = Files.createTempFile(dir.toPath(), "daemon", ".tmp",
+				PosixFilePermissions.asFileAttribute(PosixFilePermissions
+					.fromString("rw-------")));
+		}catch(UnsupportedOperationException ex)
+		{
+			tempPath = Files.createTempFile(dir.toPath(), "daemon", ".tmp");
+			File tempFile = tempPath.toFile();
+			if(!tempFile.setReadable(false, false)
+				|| !tempFile.setReadable(true, true)
+				|| !tempFile.setWritable(false, false)
+				|| !tempFile.setWritable(true, true))
+			{
+				tempFile.delete();
+				throw new IOException("Cannot make the token private: "
+					+ fileToken);
+			}
+		}
+		Files.write(tempPath, token);
+		Files.move(tempPath, fileToken.toPath(),
+			StandardCopyOption.REPLACE_EXISTING,
+			StandardCopyOption.ATOMIC_MOVE);
+		return token;
+	}
+	
+	private static BufferedReader newReader(InputStream in)
+	{
+		return new BufferedReader(new InputStreamReader(in, Charsets.UTF_8));
+	}
+	
+	private static Writer newWriter(OutputStream out)
+	{
+		return new BufferedWriter(new OutputStreamWriter(out, Charsets.UTF_8));
+	}
+	
+	private static String getArg(String[] args, int i, String name)
+	{
+		if(i >= args.length)
+			throw new IllegalArgumentException(args[0] + " needs a " + name);
+		return args[i];
+	}
+	
+	private static List<String> getLines(String text)
+	{
+		List<String> lines = Lists.newArrayList(text.split("\r?\n", -1));
+		if(lines.get(lines.size() - 1).isEmpty())
+			lines.remove(lines.size() - 1);
+		return lines;
+	}
+}
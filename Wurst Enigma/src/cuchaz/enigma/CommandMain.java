@@ -12,9 +12,26 @@ package cuchaz.enigma;
 
 import java.io.File;
 import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
 import java.util.jar.JarFile;
 
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+
 import cuchaz.enigma.Deobfuscator.ProgressListener;
+import cuchaz.enigma.ExportProfile.ClassProfile;
+import cuchaz.enigma.analysis.JarIndex;
+import cuchaz.enigma.analysis.ReachabilityAnalysis;
+import cuchaz.enigma.mapping.BehaviorEntry;
+import cuchaz.enigma.mapping.ClassEntry;
+import cuchaz.enigma.mapping.Entry;
+import cuchaz.enigma.mapping.EntryFactory;
+import cuchaz.enigma.mapping.FieldEntry;
 import cuchaz.enigma.mapping.Mappings;
 import cuchaz.enigma.mapping.MappingsReader;
 
@@ -29,6 +46,7 @@ public class CommandMain
 		private int m_totalWork;
 		private long m_startTime;
 		private long m_lastReportTime;
+		private ProgressRate m_rate = new ProgressRate();
 		
 		@Override
 		public void init(int totalWork, String title)
@@ -36,6 +54,7 @@ public class CommandMain
 			m_totalWork = totalWork;
 			m_startTime = System.currentTimeMillis();
 			m_lastReportTime = m_startTime;
+			m_rate.init(totalWork);
 			System.out.println(title);
 		}
 		
@@ -48,10 +67,19 @@ public class CommandMain
 			boolean shouldReport =
 				isLastUpdate || now - m_lastReportTime > ReportTime;
 			
+			m_rate.update(numDone);
 			if(shouldReport)
 			{
-				int percent = numDone * 100 / m_totalWork;
-				System.out.println(String.format("\tProgress: %3d%%", percent));
+				// there might be nothing to do, eg when nothing changed
+				int percent =
+					m_totalWork > 0 ? numDone * 100 / m_totalWork : 100;
+				String rate = m_rate.toString();
+				if(isLastUpdate || rate.isEmpty())
+					System.out.println(String.format("\tProgress: %3d%%",
+						percent));
+				else
+					System.out.println(String.format("\tProgress: %3d%% (%s)",
+						percent, rate));
 				m_lastReportTime = now;
 			}
 			if(isLastUpdate)
@@ -69,12 +97,48 @@ public class CommandMain
 		try
 		{
 			
+			// pull out the options
+			List<String> argsList = Lists.newArrayList(args);
+			boolean printStats = argsList.remove("--stats");
+			boolean useCache = !argsList.remove("--no-cache");
+			boolean isIncremental = !argsList.remove("--full");
+			boolean isVerbose = argsList.remove("--verbose");
+			File fileProfile =
+				getWritableFile(removeOption(argsList, "--profile"));
+			long timeoutMillis =
+				getTimeoutMillis(removeOption(argsList, "--timeout"));
+			int numThreads =
+				getNumThreads(removeOption(argsList, "--threads"));
+			int numProcesses =
+				getNumProcesses(removeOption(argsList, "--processes"));
+			List<String> roots = getRoots(removeOption(argsList, "--roots"));
+			int port = getPort(removeOption(argsList, "--port"));
+			boolean hasOptions = argsList.size() < args.length;
+			args = argsList.toArray(new String[argsList.size()]);
+			Metrics.setEnabled(printStats);
+			
 			// process the command
 			String command = getArg(args, 0, "command", true);
+			boolean succeeded = true;
 			if(command.equalsIgnoreCase("deobfuscate"))
-				deobfuscate(args);
+				deobfuscate(args, roots);
 			else if(command.equalsIgnoreCase("decompile"))
-				decompile(args);
+				succeeded =
+					decompile(args, fileProfile, timeoutMillis, numThreads,
+						numProcesses, useCache, isIncremental, roots);
+			else if(command.equals(ExportWorker.Command))
+				exportWorker(args);
+			else if(command.equalsIgnoreCase(CommandDaemon.Command))
+				daemon(args, port, timeoutMillis, numThreads, numProcesses,
+					useCache, isIncremental, isVerbose);
+			else if(command.equalsIgnoreCase("client"))
+			{
+				// the daemon already has its settings
+				if(hasOptions)
+					throw new IllegalArgumentException(
+						"The client takes no options, give them to the daemon instead");
+				client(args);
+			}
 			else if(command.equalsIgnoreCase("protectify"))
 				protectify(args);
 			else if(command.equalsIgnoreCase("publify"))
@@ -82,6 +146,14 @@ public class CommandMain
 			else
 				throw new IllegalArgumentException("Command not recognized: "
 					+ command);
+			
+			if(printStats)
+			{
+				System.out.println();
+				Metrics.printSummary(System.out);
+			}
+			if(!succeeded)
+				System.exit(1);
 		}catch(IllegalArgumentException ex)
 		{
 			System.out.println(ex.getMessage());
@@ -95,16 +167,66 @@ public class CommandMain
 			Constants.Version));
 		System.out.println("Usage:");
 		System.out
-			.println("\tjava -cp enigma.jar cuchaz.enigma.CommandMain <command>");
+			.println("\tjava -cp enigma.jar cuchaz.enigma.CommandMain [<options>] <command>");
 		System.out.println("\twhere <command> is one of:");
 		System.out
 			.println("\t\tdeobfuscate <in jar> <out jar> [<mappings file>]");
 		System.out
 			.println("\t\tdecompile <in jar> <out folder> [<mappings file>]");
 		System.out.println("\t\tprotectify <in jar> <out jar>");
+		System.out.println("\t\tpublify <in jar> <out jar>");
+		System.out
+			.println("\t\tdaemon <in jar> [<mappings file>] (keep the jar loaded and take commands from stdin or --port)");
+		System.out
+			.println("\t\tclient <port> <daemon command> [<args>...] (send one command to a daemon, without options)");
+		System.out.println("\twhere <daemon command> is one of:");
+		System.out.println("\t\tdeobfuscate-entry <entry>");
+		System.out.println("\t\tobfuscate-entry <entry>");
+		System.out.println("\t\tdecompile-class <class>");
+		System.out.println("\t\tdecompile <out folder>");
+		System.out.println("\t\tdeobfuscate <out jar>");
+		System.out.println("\t\tprotectify <out jar>");
+		System.out.println("\t\tpublify <out jar>");
+		System.out.println("\t\treload-mappings [<mappings file>]");
+		System.out.println("\t\tstats");
+		System.out.println("\t\tshutdown");
+		System.out.println("\twhere <options> are any of:");
+		System.out
+			.println("\t\t--stats (print where the time went when done)");
+		System.out
+			.println("\t\t--no-cache (don't reuse or keep decompiled sources in ~/.enigma/sources)");
+		System.out
+			.println("\t\t--full (decompile every class, even if the out folder has it up to date)");
+		System.out
+			.println("\t\t--profile <csv file> (write the time of each decompiled class)");
+		System.out
+			.println("\t\t--timeout <seconds> (time limit per decompiled class, default "
+				+ DecompileWatchdog.DefaultTimeoutMillis / 1000
+				+ ", 0 for none)");
+		System.out
+			.println("\t\t--threads <n> (most classes to decompile at once, default is one per core)");
+		System.out
+			.println("\t\t--processes <n> (decompile in n worker JVMs instead of threads)");
+		System.out
+			.println("\t\t--roots <entries or file> (only deobfuscate or decompile what these can reach)");
+		System.out
+			.println("\t\t\tentries are comma separated, or one per line in the file,");
+		System.out
+			.println("\t\t\tlike a/b/C or a/b/C.method(La/b/D;)V or a/b/C.<init>()V");
+		System.out
+			.println("\t\t--port <n> (have the daemon listen on this local port instead of stdin)");
+		System.out
+			.println("\t\t\tclients need the token the daemon writes to ~/.enigma/daemon-<n>.token");
+		System.out
+			.println("\t\t--verbose (have the daemon print the time and errors of each command)");
 	}
 	
-	private static void decompile(String[] args) throws Exception
+	/**
+	 * Returns false if any class failed to decompile.
+	 */
+	private static boolean decompile(String[] args, File fileProfile,
+		long timeoutMillis, int numThreads, int numProcesses, boolean useCache,
+		boolean isIncremental, List<String> roots) throws Exception
 	{
 		File fileJarIn = getReadableFile(getArg(args, 1, "in jar", true));
 		File fileJarOut =
@@ -113,10 +235,88 @@ public class CommandMain
 			getReadableFile(getArg(args, 3, "mappings file", false));
 		Deobfuscator deobfuscator =
 			getDeobfuscator(fileMappings, new JarFile(fileJarIn));
-		deobfuscator.writeSources(fileJarOut, new ConsoleProgressListener());
+		if(useCache)
+			deobfuscator.setSourceCache(new SourceCache(SourceCache
+				.getDefaultDir(), SourceCache.DefaultMaxBytes));
+		SourceExporter exporter = new SourceExporter(deobfuscator);
+		exporter.setTimeout(timeoutMillis);
+		exporter.setNumThreads(numThreads);
+		exporter.setNumProcesses(numProcesses);
+		exporter.setIncremental(isIncremental);
+		exporter.setClasses(getReachableClasses(deobfuscator, roots));
+		exporter.export(fileJarOut, new ConsoleProgressListener());
+		exporter.getProfile().printSummary(System.out, 10);
+		if(fileProfile != null)
+			exporter.getProfile().writeCsv(fileProfile);
+		
+		List<ClassProfile> failedClasses =
+			exporter.getProfile().getFailedClasses();
+		for(ClassProfile classProfile : failedClasses)
+			System.err.println(String.format("Failed to decompile %s: %s",
+				classProfile.getClassName(), classProfile.getFailure()));
+		return failedClasses.isEmpty();
+	}
+	
+	private static void exportWorker(String[] args) throws Exception
+	{
+		// NOTE: ExportWorkerPool starts these, they're not for people
+		File fileJar = getReadableFile(getArg(args, 1, "jar", true));
+		File fileState = getReadableFile(getArg(args, 2, "state file", true));
+		long timeoutMillis = Long.parseLong(getArg(args, 3, "timeout", true));
+		String cacheDir = getArg(args, 4, "cache folder", false);
+		File dirCache = cacheDir != null ? new File(cacheDir) : null;
+		long maxCacheBytes =
+			dirCache != null ? Long.parseLong(getArg(args, 5, "cache size",
+				true)) : 0;
+		ExportWorker.run(fileJar, fileState, timeoutMillis, dirCache,
+			maxCacheBytes);
+	}
+	
+	private static void daemon(String[] args, int port, long timeoutMillis,
+		int numThreads, int numProcesses, boolean useCache,
+		boolean isIncremental, boolean isVerbose) throws Exception
+	{
+		// keep stdout clean for the protocol
+		PrintStream out = System.out;
+		if(port < 0)
+			System.setOut(System.err);
+		File fileJarIn = getReadableFile(getArg(args, 1, "in jar", true));
+		File fileMappings =
+			getReadableFile(getArg(args, 2, "mappings file", false));
+		Deobfuscator deobfuscator =
+			getDeobfuscator(fileMappings, new JarFile(fileJarIn));
+		if(useCache)
+			deobfuscator.setSourceCache(new SourceCache(SourceCache
+				.getDefaultDir(), SourceCache.DefaultMaxBytes));
+		deobfuscator.waitForIndex();
+		CommandDaemon daemon = new CommandDaemon(deobfuscator, fileMappings);
+		daemon.setTimeout(timeoutMillis);
+		daemon.setNumThreads(numThreads);
+		daemon.setNumProcesses(numProcesses);
+		daemon.setIncremental(isIncremental);
+		daemon.setVerbose(isVerbose);
+		if(port >= 0)
+			daemon.listen(port);
+		else
+			daemon.serve(System.in, out);
 	}
 	
-	private static void deobfuscate(String[] args) throws Exception
+	private static void client(String[] args) throws Exception
+	{
+		int port = getPort(getArg(args, 1, "port", true));
+		getArg(args, 2, "daemon command", true);
+		List<String> daemonArgs =
+			Lists.newArrayList(Arrays.asList(args).subList(2, args.length));
+		
+		// the daemon might run in another folder
+		if(daemonArgs.size() > 1 && CommandDaemon.takesPath(daemonArgs.get(0)))
+			daemonArgs.set(1, new File(daemonArgs.get(1)).getAbsolutePath());
+		if(!CommandDaemon.send(port, daemonArgs, System.out))
+			System.exit(1);
+	}
+	
+	private static void deobfuscate(String[] args, List<String> roots)
+		throws Exception
 	{
 		File fileJarIn = getReadableFile(getArg(args, 1, "in jar", true));
 		File fileJarOut = getWritableFile(getArg(args, 2, "out jar", true));
@@ -124,7 +324,8 @@ public class CommandMain
 			getReadableFile(getArg(args, 3, "mappings file", false));
 		Deobfuscator deobfuscator =
 			getDeobfuscator(fileMappings, new JarFile(fileJarIn));
-		deobfuscator.writeJar(fileJarOut, new ConsoleProgressListener());
+		deobfuscator.writeJar(fileJarOut, new ConsoleProgressListener(),
+			getReachableClasses(deobfuscator, roots));
 	}
 	
 	private static void protectify(String[] args) throws Exception
@@ -160,6 +361,166 @@ public class CommandMain
 		return deobfuscator;
 	}
 	
+	private static Set<ClassEntry> getReachableClasses(
+		Deobfuscator deobfuscator, List<String> roots)
+	{
+		if(roots == null)
+			return null;
+		deobfuscator.waitForIndex();
+		
+		// roots use the names from the mappings
+		JarIndex index = deobfuscator.getJarIndex();
+		List<Entry> obfRoots = Lists.newArrayList();
+		for(String root : roots)
+		{
+			Entry obfRoot = deobfuscator.obfuscateEntry(getEntry(root));
+			if(obfRoot instanceof FieldEntry)
+				throw new IllegalArgumentException(
+					"Roots have to be classes or behaviors: " + root);
+			if(obfRoot instanceof ClassEntry ? !index
+				.containsObfClass((ClassEntry)obfRoot) : !index
+				.containsObfBehavior((BehaviorEntry)obfRoot))
+				System.err.println("WARNING: Root isn't in the jar: " + root);
+			obfRoots.add(obfRoot);
+		}
+		
+		System.out.println("Finding reachable classes...");
+		Set<ClassEntry> obfClassEntries =
+			ReachabilityAnalysis.getTopClasses(index, obfRoots);
+		System.out.println(String.format("Reached %d classes",
+			obfClassEntries.size()));
+		return obfClassEntries;
+	}
+	
+	/**
+	 * Reads an entry the way Entry.toString() writes it, eg a/b/C,
+	 * a/b/C.method(I)V or a/b/C.field:I.
+	 */
+	static Entry getEntry(String name)
+	{
+		int parenPos = name.indexOf('(');
+		int colonPos = name.indexOf(':');
+		int end = parenPos >= 0 ? parenPos : colonPos >= 0 ? colonPos : -1;
+		if(end < 0)
+			return new ClassEntry(name);
+		int dotPos = name.lastIndexOf('.', end);
+		if(dotPos < 0)
+			throw new IllegalArgumentException("Not a valid entry: " + name);
+		String className = name.substring(0, dotPos);
+		String memberName = name.substring(dotPos + 1, end);
+		try
+		{
+			if(parenPos >= 0)
+				return EntryFactory.getBehaviorEntry(className, memberName,
+					name.substring(parenPos));
+			else
+				return EntryFactory.getFieldEntry(className, memberName,
+					name.substring(colonPos + 1));
+		}catch(RuntimeException ex)
+		{
+			// bad signatures and types
+			throw new IllegalArgumentException("Not a valid entry: " + name);
+		}
+	}
+	
+	private static List<String> getRoots(String val) throws IOException
+	{
+		if(val == null)
+			return null;
+		List<String> roots = Lists.newArrayList();
+		File file = new File(val);
+		Iterable<String> parts =
+			file.isFile() ? Files.readLines(file, Charsets.UTF_8) : Arrays
+				.asList(val.split(","));
+		for(String part : parts)
+		{
+			part = part.trim();
+			if(!part.isEmpty() && !part.startsWith("#"))
+				roots.add(part);
+		}
+		if(roots.isEmpty())
+			throw new IllegalArgumentException("--roots needs at least one entry");
+		return roots;
+	}
+	
+	private static int getPort(String port)
+	{
+		if(port == null)
+			return -1;
+		try
+		{
+			int val = Integer.parseInt(port);
+			if(val < 0 || val > 65535)
+				throw new NumberFormatException();
+			return val;
+		}catch(NumberFormatException ex)
+		{
+			throw new IllegalArgumentException("Not a valid port: " + port);
+		}
+	}
+	
+	private static String removeOption(List<String> args, String name)
+	{
+		int i = args.indexOf(name);
+		if(i < 0)
+			return null;
+		if(i + 1 >= args.size())
+			throw new IllegalArgumentException(name + " needs a value");
+		args.remove(i);
+		return args.remove(i);
+	}
+	
+	private static long getTimeoutMillis(String seconds)
+	{
+		if(seconds == null)
+			return DecompileWatchdog.DefaultTimeoutMillis;
+		try
+		{
+			long val = Long.parseLong(seconds);
+			if(val < 0)
+				throw new NumberFormatException();
+			return val * 1000;
+		}catch(NumberFormatException ex)
+		{
+			throw new IllegalArgumentException("Not a valid timeout: "
+				+ seconds);
+		}
+	}
+	
+	private static int getNumThreads(String numThreads)
+	{
+		if(numThreads == null)
+			return Runtime.getRuntime().availableProcessors();
+		try
+		{
+			int val = Integer.parseInt(numThreads);
+			if(val < 1)
+				throw new NumberFormatException();
+			return val;
+		}catch(NumberFormatException ex)
+		{
+			throw new IllegalArgumentException("Not a valid number of threads: "
+				+ numThreads);
+		}
+	}
+	
+	private static int getNumProcesses(String numProcesses)
+	{
+		if(numProcesses == null)
+			return 0;
+		try
+		{
+			int val = Integer.parseInt(numProcesses);
+			if(val < 0)
+				throw new NumberFormatException();
+			return val;
+		}catch(NumberFormatException ex)
+		{
+			throw new IllegalArgumentException(
+				"Not a valid number of processes: " + numProcesses);
+		}
+	}
+	
 	private static String getArg(String[] args, int i, String name,
 		boolean required)
 	{
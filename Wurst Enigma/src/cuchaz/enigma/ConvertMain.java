@@ -11,14 +11,18 @@
 package cuchaz.enigma;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.jar.JarFile;
 
+import cuchaz.enigma.convert.ClassFeaturesCache;
 import cuchaz.enigma.convert.ClassMatches;
 import cuchaz.enigma.convert.MappingsConverter;
 import cuchaz.enigma.convert.MatchesReader;
+import cuchaz.enigma.convert.MatchesWriter;
 import cuchaz.enigma.convert.MemberMatches;
 import cuchaz.enigma.mapping.*;
 
@@ -45,30 +49,108 @@ public class ConvertMain
 			new File(inMappingsFile.getName() + ".field.matches");
 		File methodMatchesFile =
 			new File(inMappingsFile.getName() + ".method.matches");
+		File featuresCacheFile = new File("class.features.cache");
+		
+		// the step to run can be picked on the command line
+		String step = args.length > 0 ? args[0] : "convert";
 		
 		// match classes
-		// computeClassMatches(classMatchesFile, sourceJar, destJar, mappings);
+		if(step.equals("classes"))
+		{
+			computeClassMatches(classMatchesFile, sourceJar, destJar, mappings,
+				featuresCacheFile);
+			return;
+		}
 		// editClasssMatches(classMatchesFile, sourceJar, destJar, mappings);
 		// convertMappings(outMappingsFile, sourceJar, destJar, mappings,
 		// classMatchesFile);
 		
 		// match fields
-		// computeFieldMatches(fieldMatchesFile, destJar, outMappingsFile,
-		// classMatchesFile);
+		if(step.equals("fields"))
+		{
+			computeMemberMatches(fieldMatchesFile, sourceJar, destJar,
+				outMappingsFile, classMatchesFile,
+				MappingsConverter.getFieldDoer());
+			return;
+		}
 		// editFieldMatches(sourceJar, destJar, outMappingsFile, mappings,
 		// classMatchesFile, fieldMatchesFile);
 		// convertMappings(outMappingsFile, sourceJar, destJar, mappings,
 		// classMatchesFile, fieldMatchesFile);
 		
 		// match methods/constructors
-		// computeMethodMatches(methodMatchesFile, destJar, outMappingsFile,
-		// classMatchesFile);
+		if(step.equals("methods"))
+		{
+			computeMemberMatches(methodMatchesFile, sourceJar, destJar,
+				outMappingsFile, classMatchesFile,
+				MappingsConverter.getMethodDoer());
+			return;
+		}
 		// editMethodMatches(sourceJar, destJar, outMappingsFile, mappings,
 		// classMatchesFile, methodMatchesFile);
+		if(!step.equals("convert"))
+			throw new IllegalArgumentException("Unknown step: " + step);
 		convertMappings(outMappingsFile, sourceJar, destJar, mappings,
 			classMatchesFile, fieldMatchesFile, methodMatchesFile);
 	}
 	
+	private static void computeClassMatches(File classMatchesFile,
+		JarFile sourceJar, JarFile destJar, Mappings mappings,
+		File featuresCacheFile) throws IOException
+	{
+		
+		// reuse the class features from the last run
+		ClassFeaturesCache featuresCache = new ClassFeaturesCache();
+		if(featuresCacheFile.exists())
+		{
+			try(FileInputStream in = new FileInputStream(featuresCacheFile))
+			{
+				featuresCache.read(in);
+			}
+			System.out.println("Read " + featuresCache.size()
+				+ " cached classes");
+		}
+		
+		ClassMatches classMatches =
+			MappingsConverter.computeClassMatches(sourceJar, destJar,
+				mappings, featuresCache);
+		MatchesWriter.writeClasses(classMatches, classMatchesFile);
+		System.out.println("Wrote:\n\t" + classMatchesFile.getAbsolutePath());
+		
+		// forget the classes of jars we're not converting anymore
+		featuresCache.prune();
+		if(featuresCache.isDirty())
+			try(FileOutputStream out = new FileOutputStream(featuresCacheFile))
+			{
+				featuresCache.write(out);
+			}
+	}
+	
+	private static <T extends Entry> void computeMemberMatches(
+		File memberMatchesFile, JarFile sourceJar, JarFile destJar,
+		File destMappingsFile, File classMatchesFile,
+		MappingsConverter.Doer<T> doer) throws IOException,
+		MappingParseException
+	{
+		
+		System.out.println("Reading class matches...");
+		ClassMatches classMatches = MatchesReader.readClasses(classMatchesFile);
+		System.out.println("Reading mappings...");
+		Mappings destMappings;
+		try(FileReader in = new FileReader(destMappingsFile))
+		{
+			destMappings = new MappingsReader().read(in);
+		}
+		
+		// with both jars, members can be matched by their code too
+		Deobfuscators deobfuscators = new Deobfuscators(sourceJar, destJar);
+		MemberMatches<T> memberMatches =
+			MappingsConverter.computeMemberMatches(deobfuscators.source,
+				deobfuscators.dest, destMappings, classMatches, doer);
+		MatchesWriter.writeMembers(memberMatches, memberMatchesFile);
+		System.out.println("Wrote:\n\t" + memberMatchesFile.getAbsolutePath());
+	}
+	
 	private static void convertMappings(File outMappingsFile,
 		JarFile sourceJar, JarFile destJar, Mappings mappings,
 		File classMatchesFile, File fieldMatchesFile, File methodMatchesFile)
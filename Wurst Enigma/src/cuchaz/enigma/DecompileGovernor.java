@@ -0,0 +1,216 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Jeff Martin.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public
+ * License v3.0 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * Contributors:
+ * Jeff Martin - initial API and implementation
+ ******************************************************************************/
+package cuchaz.enigma;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.Collection;
+
+import cuchaz.enigma.analysis.JarIndex;
+import cuchaz.enigma.mapping.ClassEntry;
+
+public class DecompileGovernor
+{
+	
+	// NOTE: admits decompiles while their estimated heap fits the budget, and runs
+	// fewer at once when the heap gets tight or the GC eats the CPU
+	
+	private static final int MethodCost = 64; // bytes of code per method
+	private static final long BytesPerCost = 2048; // rough heap per cost
+	private static final double BudgetFraction = 0.6;
+	private static final double HighHeapFraction = 0.8;
+	private static final double LowHeapFraction = 0.5;
+	private static final double HighGcFraction = 0.2;
+	private static final long AdaptNanos = 500000000L; // 0.5s
+	private static final long WaitMillis = 100;
+	
+	private static final Metrics.Counter ThrottleCounter = Metrics
+		.getCounter("DecompileGovernor.throttles");
+	private static final Metrics.Counter ShrinkCounter = Metrics
+		.getCounter("DecompileGovernor.shrinks");
+	private static final Metrics.Counter GrowCounter = Metrics
+		.getCounter("DecompileGovernor.grows");
+	
+	private MemoryMXBean m_memory;
+	private int m_maxConcurrency;
+	private int m_concurrency;
+	private int m_numRunning;
+	private int m_numAbandoned;
+	private long m_budgetBytes;
+	private long m_reservedBytes;
+	private long m_lastAdaptNanos;
+	private long m_lastGcMillis;
+	
+	public DecompileGovernor(int maxConcurrency)
+	{
+		m_memory = ManagementFactory.getMemoryMXBean();
+		m_maxConcurrency = Math.max(1, maxConcurrency);
+		m_concurrency = m_maxConcurrency;
+		m_numRunning = 0;
+		m_numAbandoned = 0;
+		m_budgetBytes =
+			(long)((getMaxHeapBytes() - getLiveHeapBytes()) * BudgetFraction);
+		m_reservedBytes = 0;
+		m_lastAdaptNanos = System.nanoTime();
+		m_lastGcMillis = getGcMillis();
+	}
+	
+	/**
+	 * Returns the estimated cost of decompiling the class, including its
+	 * inner classes since they're decompiled along with it.
+	 */
+	public static long estimateCost(JarIndex index, ClassEntry obfClassEntry)
+	{
+		long cost =
+			index.getCodeSize(obfClassEntry) + MethodCost
+				* index.getObfBehaviorEntries(obfClassEntry).size();
+		Collection<ClassEntry> obfInnerClassEntries =
+			index.getInnerClasses(obfClassEntry);
+		if(obfInnerClassEntries != null)
+			for(ClassEntry obfInnerClassEntry : obfInnerClassEntries)
+				cost += estimateCost(index, obfInnerClassEntry);
+		return cost;
+	}
+	
+	public synchronized int getConcurrency()
+	{
+		return m_concurrency;
+	}
+	
+	public synchronized long getBudgetBytes()
+	{
+		return m_budgetBytes;
+	}
+	
+	/**
+	 * Blocks until there's room for a decompile of the given cost. Pass the
+	 * same cost to release() when it's done.
+	 */
+	public synchronized void acquire(long cost) throws InterruptedException
+	{
+		long bytes = cost * BytesPerCost;
+		boolean isThrottled = false;
+		while(m_numRunning > 0
+			&& (m_numRunning + m_numAbandoned >= m_concurrency
+				|| m_reservedBytes + bytes > m_budgetBytes))
+		{
+			if(!isThrottled)
+			{
+				ThrottleCounter.increment();
+				isThrottled = true;
+			}
+			wait(WaitMillis);
+			adapt();
+		}
+		m_numRunning++;
+		m_reservedBytes += bytes;
+	}
+	
+	public synchronized void release(long cost)
+	{
+		m_numRunning--;
+		m_reservedBytes -= cost * BytesPerCost;
+		adapt();
+		notifyAll();
+	}
+	
+	/**
+	 * Keeps the bytes of a decompile that was abandoned, until
+	 * releaseAbandoned() says its thread finished. Doesn't block.
+	 */
+	public synchronized void holdAbandoned(long cost)
+	{
+		m_numAbandoned++;
+		m_reservedBytes += cost * BytesPerCost;
+	}
+	
+	public synchronized void releaseAbandoned(long cost)
+	{
+		m_numAbandoned--;
+		m_reservedBytes -= cost * BytesPerCost;
+		notifyAll();
+	}
+	
+	public synchronized int getNumAbandoned()
+	{
+		return m_numAbandoned;
+	}
+	
+	private void adapt()
+	{
+		long now = System.nanoTime();
+		long elapsedNanos = now - m_lastAdaptNanos;
+		if(elapsedNanos < AdaptNanos)
+			return;
+		long gcMillis = getGcMillis();
+		double gcFraction = (gcMillis - m_lastGcMillis) * 1e6 / elapsedNanos;
+		double heapFraction = (double)getLiveHeapBytes() / getMaxHeapBytes();
+		m_lastAdaptNanos = now;
+		m_lastGcMillis = gcMillis;
+		
+		if(heapFraction > HighHeapFraction || gcFraction > HighGcFraction)
+		{
+			if(m_concurrency > 1)
+			{
+				m_concurrency--;
+				ShrinkCounter.increment();
+			}
+		}else if(heapFraction < LowHeapFraction
+			&& m_concurrency < m_maxConcurrency)
+		{
+			m_concurrency++;
+			GrowCounter.increment();
+		}
+	}
+	
+	private long getMaxHeapBytes()
+	{
+		long max = m_memory.getHeapMemoryUsage().getMax();
+		if(max <= 0)
+			max = Runtime.getRuntime().maxMemory();
+		return max;
+	}
+	
+	private long getLiveHeapBytes()
+	{
+		// what was left after the last GC says more than what's used right
+		// now, which includes all the garbage since then
+		long liveBytes = 0;
+		boolean hasCollectionUsage = false;
+		for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+		{
+			if(pool.getType() != MemoryType.HEAP)
+				continue;
+			MemoryUsage usage = pool.getCollectionUsage();
+			if(usage == null)
+				usage = pool.getUsage();
+			else
+				hasCollectionUsage = true;
+			liveBytes += usage.getUsed();
+		}
+		if(!hasCollectionUsage)
+			return m_memory.getHeapMemoryUsage().getUsed();
+		return liveBytes;
+	}
+	
+	private static long getGcMillis()
+	{
+		long millis = 0;
+		for(GarbageCollectorMXBean gc : ManagementFactory
+			.getGarbageCollectorMXBeans())
+			millis += Math.max(0, gc.getCollectionTime());
+		return millis;
+	}
+}
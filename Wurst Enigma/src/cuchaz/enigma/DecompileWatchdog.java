@@ -0,0 +1,376 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Jeff Martin.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public
+ * License v3.0 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * Contributors:
+ * Jeff Martin - initial API and implementation
+ ******************************************************************************/
+package cuchaz.enigma;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.collect.Lists;
+import com.strobel.decompiler.languages.java.ast.CompilationUnit;
+
+import cuchaz.enigma.analysis.JarIndex;
+import cuchaz.enigma.mapping.*;
+
+public class DecompileWatchdog
+{
+	
+	// NOTE: Procyon ignores interrupts, so a decompile that runs out of time is
+	// abandoned on its thread, and the class gets a cheap decompile or a stub
+	
+	public static final long DefaultTimeoutMillis = 60000; // 1 min
+	public static final String StubMarker =
+		"ENIGMA: decompiling this class took too long";
+	
+	public static class Decompilation
+	{
+		
+		private CompilationUnit m_sourceTree;
+		private boolean m_isCheap;
+		private int m_numLoadedBytes;
+		
+		private Decompilation(CompilationUnit sourceTree, boolean isCheap,
+			int numLoadedBytes)
+		{
+			m_sourceTree = sourceTree;
+			m_isCheap = isCheap;
+			m_numLoadedBytes = numLoadedBytes;
+		}
+		
+		public CompilationUnit getSourceTree()
+		{
+			return m_sourceTree;
+		}
+		
+		public boolean isCheap()
+		{
+			return m_isCheap;
+		}
+		
+		public int getNumLoadedBytes()
+		{
+			return m_numLoadedBytes;
+		}
+	}
+	
+	private static final Metrics.Counter TimeoutCounter = Metrics
+		.getCounter("DecompileWatchdog.timeouts");
+	private static final Metrics.Counter RefusalCounter = Metrics
+		.getCounter("DecompileWatchdog.refusals");
+	
+	private static final int MaxAbandoned = Math.max(2, Runtime.getRuntime()
+		.availableProcessors());
+	private static final int Running = 0;
+	private static final int Finished = 1;
+	private static final int Abandoned = 2;
+	
+	private static final Object AbandonedLock = new Object();
+	private static int NumAbandoned = 0;
+	
+	// abandoned decompiles keep their threads, MaxAbandoned bounds them
+	private static final ExecutorService Pool = Executors
+		.newCachedThreadPool(new ThreadFactory()
+		{
+			private AtomicInteger m_numThreads = new AtomicInteger();
+			
+			@Override
+			public Thread newThread(Runnable runnable)
+			{
+				Thread thread =
+					new Thread(runnable, "Decompile watchdog "
+						+ m_numThreads.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	
+	private Deobfuscator m_deobfuscator;
+	private long m_timeoutMillis;
+	private DecompileGovernor m_governor;
+	
+	/**
+	 * A timeout of 0 means no time limit.
+	 */
+	public DecompileWatchdog(Deobfuscator deobfuscator, long timeoutMillis)
+	{
+		m_deobfuscator = deobfuscator;
+		m_timeoutMillis = timeoutMillis;
+		m_governor = null;
+	}
+	
+	public long getTimeoutMillis()
+	{
+		return m_timeoutMillis;
+	}
+	
+	/**
+	 * Abandoned decompiles keep their reservation with the governor until
+	 * their threads finish.
+	 */
+	public void setGovernor(DecompileGovernor val)
+	{
+		m_governor = val;
+	}
+	
+	public static int getMaxAbandoned()
+	{
+		return MaxAbandoned;
+	}
+	
+	public static int getNumAbandoned()
+	{
+		synchronized(AbandonedLock)
+		{
+			return NumAbandoned;
+		}
+	}
+	
+	/**
+	 * Returns null if even the cheap decompile ran out of time.
+	 */
+	public Decompilation decompile(String className,
+		Translator obfuscatingTranslator, Translator deobfuscatingTranslator)
+	{
+		return decompile(className, obfuscatingTranslator,
+			deobfuscatingTranslator, null);
+	}
+	
+	/**
+	 * Lets the first try reuse a loader that already transformed the class,
+	 * eg the one that computed its source key. The loader must use the same
+	 * translators, and nothing else may use it anymore.
+	 */
+	public Decompilation decompile(String className,
+		Translator obfuscatingTranslator, Translator deobfuscatingTranslator,
+		TranslatingTypeLoader loader)
+	{
+		Decompilation decompilation =
+			decompile(className, obfuscatingTranslator,
+				deobfuscatingTranslator, false, loader);
+		if(decompilation != null)
+			return decompilation;
+		System.err.println(String.format(
+			"WARNING: Decompiling %s took over %d ms, trying a cheap decompile",
+			className, m_timeoutMillis));
+		return decompile(className, obfuscatingTranslator,
+			deobfuscatingTranslator, true, null);
+	}
+	
+	private Decompilation decompile(final String className,
+		final Translator obfuscatingTranslator,
+		final Translator deobfuscatingTranslator, final boolean isCheap,
+		final TranslatingTypeLoader loader)
+	{
+		if(m_timeoutMillis <= 0)
+			return decompileNow(className, obfuscatingTranslator,
+				deobfuscatingTranslator, isCheap, loader);
+		
+		// don't pile up runaway decompiles until the heap runs out
+		if(!waitForAbandoned())
+		{
+			RefusalCounter.increment();
+			System.err.println(String.format(
+				"WARNING: %d abandoned decompiles are still running, not decompiling %s",
+				MaxAbandoned, className));
+			return null;
+		}
+		
+		final DecompileGovernor governor = m_governor;
+		final long cost =
+			governor != null ? DecompileGovernor.estimateCost(
+				m_deobfuscator.getJarIndex(), new ClassEntry(className)) : 0;
+		final AtomicInteger state = new AtomicInteger(Running);
+		Future<Decompilation> future =
+			Pool.submit(new Callable<Decompilation>()
+			{
+				@Override
+				public Decompilation call()
+				{
+					try
+					{
+						return decompileNow(className, obfuscatingTranslator,
+							deobfuscatingTranslator, isCheap, loader);
+					}finally
+					{
+						if(!state.compareAndSet(Running, Finished))
+							onAbandonedFinished(governor, cost);
+					}
+				}
+			});
+		try
+		{
+			return future.get(m_timeoutMillis, TimeUnit.MILLISECONDS);
+		}catch(TimeoutException ex)
+		{
+			// NOTE: don't cancel the future, if the task hadn't started yet,
+			// it would never run and never give its reservation back
+			if(state.compareAndSet(Running, Abandoned))
+			{
+				synchronized(AbandonedLock)
+				{
+					NumAbandoned++;
+				}
+				if(governor != null)
+					governor.holdAbandoned(cost);
+			}
+			TimeoutCounter.increment();
+			return null;
+		}catch(ExecutionException ex)
+		{
+			if(ex.getCause() instanceof RuntimeException)
+				throw (RuntimeException)ex.getCause();
+			if(ex.getCause() instanceof Error)
+				throw (Error)ex.getCause();
+			throw new Error(ex.getCause());
+		}catch(InterruptedException ex)
+		{
+			future.cancel(true);
+			throw new Error(ex);
+		}
+	}
+	
+	private static void onAbandonedFinished(DecompileGovernor governor,
+		long cost)
+	{
+		if(governor != null)
+			governor.releaseAbandoned(cost);
+		synchronized(AbandonedLock)
+		{
+			NumAbandoned--;
+			AbandonedLock.notifyAll();
+		}
+	}
+	
+	/**
+	 * Waits up to the timeout for fewer than MaxAbandoned abandoned
+	 * decompiles. Returns false if there are still too many.
+	 */
+	private boolean waitForAbandoned()
+	{
+		long deadline = System.currentTimeMillis() + m_timeoutMillis;
+		synchronized(AbandonedLock)
+		{
+			while(NumAbandoned >= MaxAbandoned)
+			{
+				long waitMillis = deadline - System.currentTimeMillis();
+				if(waitMillis <= 0)
+					return false;
+				try
+				{
+					AbandonedLock.wait(waitMillis);
+				}catch(InterruptedException ex)
+				{
+					throw new Error(ex);
+				}
+			}
+		}
+		return true;
+	}
+	
+	private Decompilation decompileNow(String className,
+		Translator obfuscatingTranslator, Translator deobfuscatingTranslator,
+		boolean isCheap, TranslatingTypeLoader loader)
+	{
+		// a fresh loader each try, an abandoned try might still be using its
+		if(loader == null)
+			loader =
+				m_deobfuscator.newTypeLoader(obfuscatingTranslator,
+					deobfuscatingTranslator);
+		CompilationUnit sourceTree =
+			m_deobfuscator.getSourceTree(className, deobfuscatingTranslator,
+				loader, isCheap);
+		return new Decompilation(sourceTree, isCheap,
+			loader.getNumLoadedBytes());
+	}
+	
+	/**
+	 * Returns source for the class that only lists its members, for when
+	 * decompiling it takes too long.
+	 */
+	public String getStubSource(ClassEntry obfClassEntry,
+		Translator deobfuscatingTranslator)
+	{
+		JarIndex index = m_deobfuscator.getJarIndex();
+		ClassEntry deobfClassEntry =
+			deobfuscatingTranslator.translateEntry(obfClassEntry);
+		
+		StringBuilder buf = new StringBuilder();
+		String packageName = deobfClassEntry.getPackageName();
+		if(packageName != null)
+			buf.append("package ").append(packageName.replace('/', '.'))
+				.append(";\n\n");
+		buf.append("// ").append(StubMarker).append(" (over ")
+			.append(m_timeoutMillis).append(" ms), so only its members are ")
+			.append("listed here\n");
+		buf.append("class ").append(deobfClassEntry.getSimpleName())
+			.append("\n{\n");
+		
+		for(String line : getMemberLines(index, obfClassEntry,
+			deobfuscatingTranslator))
+			buf.append("\t// ").append(line).append("\n");
+		buf.append("}\n");
+		return buf.toString();
+	}
+	
+	private List<String> getMemberLines(JarIndex index,
+		ClassEntry obfClassEntry, Translator deobfuscatingTranslator)
+	{
+		List<String> fieldLines = Lists.newArrayList();
+		for(FieldEntry obfFieldEntry : index
+			.getObfFieldEntries(obfClassEntry))
+		{
+			FieldEntry deobfFieldEntry =
+				deobfuscatingTranslator.translateEntry(obfFieldEntry);
+			fieldLines.add("field " + deobfFieldEntry.getName() + " "
+				+ deobfFieldEntry.getType());
+		}
+		List<String> behaviorLines = Lists.newArrayList();
+		for(BehaviorEntry obfBehaviorEntry : index
+			.getObfBehaviorEntries(obfClassEntry))
+		{
+			BehaviorEntry deobfBehaviorEntry =
+				deobfuscatingTranslator.translateEntry(obfBehaviorEntry);
+			if(deobfBehaviorEntry instanceof ConstructorEntry)
+				behaviorLines.add("constructor "
+					+ deobfBehaviorEntry.getSignature());
+			else
+				behaviorLines.add("method " + deobfBehaviorEntry.getName()
+					+ " " + deobfBehaviorEntry.getSignature());
+		}
+		List<String> innerClassLines = Lists.newArrayList();
+		Collection<ClassEntry> obfInnerClassEntries =
+			index.getInnerClasses(obfClassEntry);
+		if(obfInnerClassEntries != null)
+			for(ClassEntry obfInnerClassEntry : obfInnerClassEntries)
+				innerClassLines.add("class "
+					+ deobfuscatingTranslator.translateEntry(
+						obfInnerClassEntry).getName());
+		
+		// keep the stub the same from run to run
+		List<String> lines = Lists.newArrayList();
+		Collections.sort(fieldLines);
+		Collections.sort(behaviorLines);
+		Collections.sort(innerClassLines);
+		lines.addAll(fieldLines);
+		lines.addAll(behaviorLines);
+		lines.addAll(innerClassLines);
+		return lines;
+	}
+}
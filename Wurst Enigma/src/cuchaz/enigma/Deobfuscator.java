@@ -12,12 +12,15 @@ package cuchaz.enigma;
 
 import java.io.File;
 import java.io.FileOutputStream;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 import java.util.jar.JarOutputStream;
@@ -25,8 +28,8 @@ import java.util.jar.JarOutputStream;
 import javassist.CtClass;
 import javassist.bytecode.Descriptor;
 
-import com.google.common.collect.Maps;
-import com.google.common.collect.Sets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import com.strobel.assembler.metadata.MetadataSystem;
 import com.strobel.assembler.metadata.TypeDefinition;
 import com.strobel.assembler.metadata.TypeReference;
@@ -38,6 +41,7 @@ import com.strobel.decompiler.languages.java.ast.AstBuilder;
 import com.strobel.decompiler.languages.java.ast.CompilationUnit;
 import com.strobel.decompiler.languages.java.ast.InsertParenthesesVisitor;
 
+import cuchaz.enigma.analysis.DependencyIndex;
 import cuchaz.enigma.analysis.EntryReference;
 import cuchaz.enigma.analysis.JarClassIterator;
 import cuchaz.enigma.analysis.JarIndex;
@@ -58,36 +62,176 @@ public class Deobfuscator
 		void onProgress(int numDone, String message);
 	}
 	
+	private static final Metrics.Timer SourceTreeTimer = Metrics
+		.getTimer("Deobfuscator.sourceTree");
+	private static final Metrics.Timer SourceIndexTimer = Metrics
+		.getTimer("Deobfuscator.sourceIndex");
+	private static final Metrics.Timer RenderTimer = Metrics
+		.getTimer("Deobfuscator.render");
+	private static final Metrics.Timer TransformClassTimer = Metrics
+		.getTimer("Deobfuscator.transformClass");
+	private static final Metrics.Timer WriteClassTimer = Metrics
+		.getTimer("Deobfuscator.writeClass");
+	private static final Metrics.Timer TransformJarTimer = Metrics
+		.getTimer("Deobfuscator.transformJar");
+	
 	private JarFile m_jar;
 	private DecompilerSettings m_settings;
 	private JarIndex m_jarIndex;
+	private List<ClassEntry> m_obfClassNames;
+	private CountDownLatch m_indexLatch;
+	private Throwable m_indexError;
+	
+	// NOTE: only the writer touches the working mappings, readers get
+	// snapshots of them that never change
+	private final Object m_writeLock = new Object();
 	private Mappings m_mappings;
 	private MappingsRenamer m_renamer;
-	private Map<TranslationDirection, Translator> m_translatorCache;
+	private volatile MappingsSnapshot m_snapshot;
+	private volatile SourceCache m_sourceCache;
+	private DependencyIndex m_dependencyIndex;
 	
 	public Deobfuscator(JarFile jar) throws IOException
+	{
+		this(jar, true);
+	}
+	
+	/**
+	 * If <code>buildIndex</code> is false, only the class names are read here.
+	 * The rest of the jar index must then be built with
+	 * {@link #buildIndex(ProgressListener)}, usually from a background thread.
+	 */
+	public Deobfuscator(JarFile jar, boolean buildIndex) throws IOException
 	{
 		m_jar = jar;
 		
-		// build the jar index
+		// read the class names, that's all we need to show the classes
 		m_jarIndex = new JarIndex();
-		m_jarIndex.indexJar(m_jar, true);
+		m_obfClassNames =
+			Collections.unmodifiableList(m_jarIndex.indexClassNames(m_jar));
+		m_indexLatch = new CountDownLatch(1);
+		m_indexError = null;
 		
 		// config the decompiler
-		m_settings = DecompilerSettings.javaDefaults();
-		m_settings.setMergeVariables(true);
-		m_settings.setForceExplicitImports(true);
-		m_settings.setForceExplicitTypeArguments(false);
-		m_settings.setRetainRedundantCasts(false);
-		// m_settings.setShowDebugLineNumbers(true);
-		// DEBUG
-		// m_settings.setShowSyntheticMembers(true);
-		
-		// init defaults
-		m_translatorCache = Maps.newTreeMap();
+		m_settings = newDecompilerSettings();
 		
 		// init mappings
-		setMappings(new Mappings());
+		synchronized(m_writeLock)
+		{
+			m_mappings = new Mappings();
+			m_renamer = new MappingsRenamer(m_jarIndex, m_mappings);
+			publishSnapshot();
+		}
+		
+		// build the rest of the jar index
+		if(buildIndex)
+			buildIndex(null);
+	}
+	
+	/**
+	 * Uses an index that was already built for this jar, eg by another
+	 * process, instead of indexing the jar again.
+	 */
+	public Deobfuscator(JarFile jar, JarIndex jarIndex)
+	{
+		m_jar = jar;
+		m_jarIndex = jarIndex;
+		m_obfClassNames =
+			Collections.unmodifiableList(new ArrayList<ClassEntry>(jarIndex
+				.getObfClassEntries()));
+		m_indexLatch = new CountDownLatch(0);
+		m_indexError = null;
+		m_settings = newDecompilerSettings();
+		synchronized(m_writeLock)
+		{
+			m_mappings = new Mappings();
+			m_renamer = new MappingsRenamer(m_jarIndex, m_mappings);
+			publishSnapshot();
+		}
+	}
+	
+	public void buildIndex(ProgressListener progress)
+	{
+		try
+		{
+			m_jarIndex.indexClasses(m_jar, true, progress);
+		}catch(Throwable t)
+		{
+			m_indexError = t;
+			throw t;
+		}finally
+		{
+			// translators made before now saw an incomplete index
+			synchronized(m_writeLock)
+			{
+				publishSnapshot();
+			}
+			m_indexLatch.countDown();
+		}
+	}
+	
+	private DecompilerSettings newDecompilerSettings()
+	{
+		DecompilerSettings settings = DecompilerSettings.javaDefaults();
+		settings.setMergeVariables(true);
+		settings.setForceExplicitImports(true);
+		settings.setForceExplicitTypeArguments(false);
+		settings.setRetainRedundantCasts(false);
+		// settings.setShowDebugLineNumbers(true);
+		// DEBUG
+		// settings.setShowSyntheticMembers(true);
+		return settings;
+	}
+	
+	private void publishSnapshot()
+	{
+		// NOTE: the caller must hold the write lock
+		long version = m_snapshot == null ? 0 : m_snapshot.getVersion() + 1;
+		
+		// copy on write: snapshots share the class mappings that didn't
+		// change, so a rename only copies the classes it touched
+		Set<String> changedClasses = m_renamer.getChangedClasses();
+		Mappings mappings;
+		if(m_snapshot == null || changedClasses == null)
+			mappings = new Mappings(m_mappings);
+		else
+		{
+			List<ClassMapping> classMappings = new ArrayList<ClassMapping>();
+			for(ClassMapping classMapping : m_snapshot.getMappings().classes())
+				if(!changedClasses.contains(classMapping.getObfFullName()))
+					classMappings.add(classMapping);
+			for(String obfClassName : changedClasses)
+			{
+				ClassMapping classMapping =
+					m_mappings.getClassByObf(obfClassName);
+				if(classMapping != null)
+					classMappings.add(new ClassMapping(classMapping));
+			}
+			mappings = new Mappings(classMappings);
+		}
+		m_renamer.clearChangedClasses();
+		m_snapshot =
+			new MappingsSnapshot(version, mappings,
+				m_jarIndex.getTranslationIndex());
+	}
+	
+	public boolean isIndexed()
+	{
+		return m_indexLatch.getCount() == 0;
+	}
+	
+	public void waitForIndex()
+	{
+		try
+		{
+			m_indexLatch.await();
+		}catch(InterruptedException ex)
+		{
+			throw new Error(ex);
+		}
+		if(m_indexError != null)
+			throw new Error("Unable to index jar " + getJarName(),
+				m_indexError);
 	}
 	
 	public JarFile getJar()
@@ -100,14 +244,49 @@ public class Deobfuscator
 		return m_jar.getName();
 	}
 	
+	/**
+	 * Returns null if decompiled sources aren't cached.
+	 */
+	public SourceCache getSourceCache()
+	{
+		return m_sourceCache;
+	}
+	
+	public void setSourceCache(SourceCache val)
+	{
+		m_sourceCache = val;
+	}
+	
 	public JarIndex getJarIndex()
 	{
 		return m_jarIndex;
 	}
 	
+	/**
+	 * The dependency index is built the first time it's needed, since only
+	 * some callers care what a rename invalidates.
+	 */
+	public synchronized DependencyIndex getDependencyIndex()
+	{
+		if(m_dependencyIndex == null)
+		{
+			waitForIndex();
+			DependencyIndex dependencyIndex = new DependencyIndex(m_jarIndex);
+			dependencyIndex.indexJar(m_jar);
+			m_dependencyIndex = dependencyIndex;
+		}
+		return m_dependencyIndex;
+	}
+	
 	public Mappings getMappings()
 	{
-		return m_mappings;
+		// NOTE: don't change these, use the rename methods instead
+		return m_snapshot.getMappings();
+	}
+	
+	public MappingsSnapshot getSnapshot()
+	{
+		return m_snapshot;
 	}
 	
 	public void setMappings(Mappings val)
@@ -120,72 +299,78 @@ public class Deobfuscator
 		if(val == null)
 			val = new Mappings();
 		
-		// drop mappings that don't match the jar
-		MappingsChecker checker = new MappingsChecker(m_jarIndex);
-		checker.dropBrokenMappings(val);
-		if(warnAboutDrops)
+		// the checker needs the full index
+		waitForIndex();
+		
+		synchronized(m_writeLock)
 		{
-			for(java.util.Map.Entry<ClassEntry, ClassMapping> mapping : checker
-				.getDroppedClassMappings().entrySet())
-				System.out.println("WARNING: Couldn't find class entry "
-					+ mapping.getKey() + " ("
-					+ mapping.getValue().getDeobfName()
-					+ ") in jar. Mapping was dropped.");
-			for(java.util.Map.Entry<ClassEntry, ClassMapping> mapping : checker
-				.getDroppedInnerClassMappings().entrySet())
-				System.out.println("WARNING: Couldn't find inner class entry "
-					+ mapping.getKey() + " ("
-					+ mapping.getValue().getDeobfName()
-					+ ") in jar. Mapping was dropped.");
-			for(java.util.Map.Entry<FieldEntry, FieldMapping> mapping : checker
-				.getDroppedFieldMappings().entrySet())
-				System.out.println("WARNING: Couldn't find field entry "
-					+ mapping.getKey() + " ("
-					+ mapping.getValue().getDeobfName()
-					+ ") in jar. Mapping was dropped.");
-			for(java.util.Map.Entry<BehaviorEntry, MethodMapping> mapping : checker
-				.getDroppedMethodMappings().entrySet())
-				System.out.println("WARNING: Couldn't find behavior entry "
-					+ mapping.getKey() + " ("
-					+ mapping.getValue().getDeobfName()
-					+ ") in jar. Mapping was dropped.");
+			// drop mappings that don't match the jar
+			MappingsChecker checker = new MappingsChecker(m_jarIndex);
+			checker.dropBrokenMappings(val);
+			if(warnAboutDrops)
+			{
+				for(java.util.Map.Entry<ClassEntry, ClassMapping> mapping : checker
+					.getDroppedClassMappings().entrySet())
+					System.out.println("WARNING: Couldn't find class entry "
+						+ mapping.getKey() + " ("
+						+ mapping.getValue().getDeobfName()
+						+ ") in jar. Mapping was dropped.");
+				for(java.util.Map.Entry<ClassEntry, ClassMapping> mapping : checker
+					.getDroppedInnerClassMappings().entrySet())
+					System.out.println("WARNING: Couldn't find inner class entry "
+						+ mapping.getKey() + " ("
+						+ mapping.getValue().getDeobfName()
+						+ ") in jar. Mapping was dropped.");
+				for(java.util.Map.Entry<FieldEntry, FieldMapping> mapping : checker
+					.getDroppedFieldMappings().entrySet())
+					System.out.println("WARNING: Couldn't find field entry "
+						+ mapping.getKey() + " ("
+						+ mapping.getValue().getDeobfName()
+						+ ") in jar. Mapping was dropped.");
+				for(java.util.Map.Entry<BehaviorEntry, MethodMapping> mapping : checker
+					.getDroppedMethodMappings().entrySet())
+					System.out.println("WARNING: Couldn't find behavior entry "
+						+ mapping.getKey() + " ("
+						+ mapping.getValue().getDeobfName()
+						+ ") in jar. Mapping was dropped.");
+			}
+			
+			// check for related method inconsistencies
+			if(checker.getRelatedMethodChecker().hasProblems())
+				throw new Error(
+					"Related methods are inconsistent! Need to fix the mappings manually.\n"
+						+ checker.getRelatedMethodChecker().getReport());
+			
+			m_mappings = val;
+			m_renamer = new MappingsRenamer(m_jarIndex, val);
+			publishSnapshot();
 		}
-		
-		// check for related method inconsistencies
-		if(checker.getRelatedMethodChecker().hasProblems())
-			throw new Error(
-				"Related methods are inconsistent! Need to fix the mappings manually.\n"
-					+ checker.getRelatedMethodChecker().getReport());
-		
-		m_mappings = val;
-		m_renamer = new MappingsRenamer(m_jarIndex, val);
-		m_translatorCache.clear();
 	}
 	
 	public Translator getTranslator(TranslationDirection direction)
 	{
-		Translator translator = m_translatorCache.get(direction);
-		if(translator == null)
-		{
-			translator =
-				m_mappings.getTranslator(direction,
-					m_jarIndex.getTranslationIndex());
-			m_translatorCache.put(direction, translator);
-		}
-		return translator;
+		return m_snapshot.getTranslator(direction);
 	}
 	
 	public void getSeparatedClasses(List<ClassEntry> obfClasses,
 		List<ClassEntry> deobfClasses)
 	{
-		for(ClassEntry obfClassEntry : m_jarIndex.getObfClassEntries())
+		// until the index is built, go with the class names from the jar,
+		// there can't be any mappings yet and the translators need the index
+		boolean isIndexed = isIndexed();
+		Collection<ClassEntry> obfClassEntries = m_obfClassNames;
+		if(isIndexed)
+			obfClassEntries = m_jarIndex.getObfClassEntries();
+		
+		for(ClassEntry obfClassEntry : obfClassEntries)
 		{
 			// skip inner classes
 			if(obfClassEntry.isInnerClass())
 				continue;
 			
 			// separate the classes
-			ClassEntry deobfClassEntry = deobfuscateEntry(obfClassEntry);
+			ClassEntry deobfClassEntry =
+				isIndexed ? deobfuscateEntry(obfClassEntry) : obfClassEntry;
 			if(!deobfClassEntry.equals(obfClassEntry))
 				// if the class has a mapping, clearly it's deobfuscated
 				deobfClasses.add(deobfClassEntry);
@@ -201,6 +386,46 @@ public class Deobfuscator
 	
 	public CompilationUnit getSourceTree(String className)
 	{
+		return getSourceTree(className, m_snapshot);
+	}
+	
+	public CompilationUnit getSourceTree(String className,
+		MappingsSnapshot snapshot)
+	{
+		return getSourceTree(className,
+			snapshot.getTranslator(TranslationDirection.Obfuscating),
+			snapshot.getTranslator(TranslationDirection.Deobfuscating));
+	}
+	
+	public CompilationUnit getSourceTree(String className,
+		Translator obfuscatingTranslator, Translator deobfuscatingTranslator)
+	{
+		return getSourceTree(className, deobfuscatingTranslator,
+			newTypeLoader(obfuscatingTranslator, deobfuscatingTranslator));
+	}
+	
+	/**
+	 * The loader must use the same translators as
+	 * <code>deobfuscatingTranslator</code>. Hang on to it to see what it
+	 * loaded for the class.
+	 */
+	public CompilationUnit getSourceTree(String className,
+		Translator deobfuscatingTranslator, TranslatingTypeLoader loader)
+	{
+		return getSourceTree(className, deobfuscatingTranslator, loader, false);
+	}
+	
+	/**
+	 * A cheap decompile skips the AST transformations and variable merging.
+	 * The source is rougher, but it's the fallback for classes that take
+	 * forever otherwise.
+	 */
+	public CompilationUnit getSourceTree(String className,
+		Translator deobfuscatingTranslator, TranslatingTypeLoader loader,
+		boolean isCheap)
+	{
+		waitForIndex();
+		long startNanos = SourceTreeTimer.start();
 		
 		// we don't know if this class name is obfuscated or deobfuscated
 		// we need to tell the decompiler the deobfuscated name so it doesn't
@@ -211,18 +436,22 @@ public class Deobfuscator
 		// first, assume class name is deobf
 		String deobfClassName = className;
 		
-		// if it wasn't actually deobf, then we can find a mapping for it and
-		// get the deobf name
-		ClassMapping classMapping = m_mappings.getClassByObf(className);
-		if(classMapping != null && classMapping.getDeobfName() != null)
-			deobfClassName = classMapping.getDeobfName();
+		// if it wasn't actually deobf, then the translator can find a mapping
+		// for it and get the deobf name
+		ClassEntry classEntry = new ClassEntry(className);
+		if(!classEntry.isInnerClass())
+			deobfClassName =
+				deobfuscatingTranslator.translateEntry(classEntry).getName();
 		
 		// set the type loader
-		TranslatingTypeLoader loader =
-			new TranslatingTypeLoader(m_jar, m_jarIndex,
-				getTranslator(TranslationDirection.Obfuscating),
-				getTranslator(TranslationDirection.Deobfuscating));
-		m_settings.setTypeLoader(loader);
+		// NOTE: each decompile gets its own settings since they hold the loader
+		DecompilerSettings settings = newDecompilerSettings();
+		settings.setTypeLoader(loader);
+		if(isCheap)
+		{
+			settings.setMergeVariables(false);
+			settings.setDisableForEachTransforms(true);
+		}
 		
 		// see if procyon can find the type
 		TypeReference type =
@@ -237,13 +466,100 @@ public class Deobfuscator
 		// decompile it!
 		DecompilerContext context = new DecompilerContext();
 		context.setCurrentType(resolvedType);
-		context.setSettings(m_settings);
+		context.setSettings(settings);
 		AstBuilder builder = new AstBuilder(context);
 		builder.addType(resolvedType);
-		builder.runTransformations(null);
+		if(!isCheap)
+			builder.runTransformations(null);
+		SourceTreeTimer.stop(startNanos, className);
 		return builder.getCompilationUnit();
 	}
 	
+	/**
+	 * Returns the key the decompiled source of the class is cached under. It
+	 * hashes the class and its inner classes as the decompiler sees them,
+	 * with the mappings already applied, so renames that don't show up in
+	 * the class leave the key alone.
+	 */
+	public String getSourceKey(ClassEntry obfClassEntry,
+		Translator obfuscatingTranslator, Translator deobfuscatingTranslator)
+	{
+		return getSourceKey(obfClassEntry, deobfuscatingTranslator,
+			newTypeLoader(obfuscatingTranslator, deobfuscatingTranslator));
+	}
+	
+	/**
+	 * The loader must use the same translators as
+	 * <code>deobfuscatingTranslator</code>. It keeps the transformed classes,
+	 * so a decompile after a cache miss doesn't transform them again.
+	 */
+	public String getSourceKey(ClassEntry obfClassEntry,
+		Translator deobfuscatingTranslator, TranslatingTypeLoader loader)
+	{
+		waitForIndex();
+		Hasher hasher = Hashing.sha1().newHasher();
+		hasher.putUnencodedChars(getDecompilerKey());
+		putClass(hasher, obfClassEntry, obfClassEntry,
+			deobfuscatingTranslator, loader);
+		return hasher.hash().toString();
+	}
+	
+	/**
+	 * Returns a string that changes whenever the decompiler could turn the
+	 * same class into different source.
+	 */
+	public String getDecompilerKey()
+	{
+		DecompilerSettings settings = newDecompilerSettings();
+		return String.format("%s %b %b %b %b", Constants.Version,
+			settings.getMergeVariables(), settings.getForceExplicitImports(),
+			settings.getForceExplicitTypeArguments(),
+			settings.getRetainRedundantCasts());
+	}
+	
+	private void putClass(Hasher hasher, ClassEntry obfClassEntry,
+		ClassEntry obfChainEntry, Translator deobfuscatingTranslator,
+		TranslatingTypeLoader loader)
+	{
+		// the decompiler loads classes by their deobf names
+		String deobfClassName =
+			deobfuscatingTranslator.translateEntry(obfChainEntry).getName();
+		byte[] data = loader.loadTransformedType(deobfClassName);
+		hasher.putUnencodedChars(deobfClassName);
+		hasher.putInt(data != null ? data.length : -1);
+		if(data != null)
+			hasher.putBytes(data);
+		
+		// inner classes are decompiled along with their outer class
+		Collection<ClassEntry> obfInnerClassEntries =
+			m_jarIndex.getInnerClasses(obfClassEntry);
+		if(obfInnerClassEntries == null)
+			return;
+		List<ClassEntry> sortedObfInnerClassEntries =
+			new ArrayList<ClassEntry>(obfInnerClassEntries);
+		Collections.sort(sortedObfInnerClassEntries,
+			new Comparator<ClassEntry>()
+			{
+				@Override
+				public int compare(ClassEntry a, ClassEntry b)
+				{
+					return a.getName().compareTo(b.getName());
+				}
+			});
+		for(ClassEntry obfInnerClassEntry : sortedObfInnerClassEntries)
+			putClass(hasher, obfInnerClassEntry, obfInnerClassEntry
+				.buildClassEntry(m_jarIndex
+					.getObfClassChain(obfInnerClassEntry)),
+				deobfuscatingTranslator, loader);
+	}
+	
+	public TranslatingTypeLoader newTypeLoader(Translator obfuscatingTranslator,
+		Translator deobfuscatingTranslator)
+	{
+		return new TranslatingTypeLoader(m_jar, m_jarIndex,
+			obfuscatingTranslator, deobfuscatingTranslator);
+	}
+	
 	public SourceIndex getSourceIndex(CompilationUnit sourceTree, String source)
 	{
 		return getSourceIndex(sourceTree, source, null);
@@ -252,8 +568,15 @@ public class Deobfuscator
 	public SourceIndex getSourceIndex(CompilationUnit sourceTree,
 		String source, Boolean ignoreBadTokens)
 	{
+		return getSourceIndex(sourceTree, source, ignoreBadTokens, m_snapshot);
+	}
+	
+	public SourceIndex getSourceIndex(CompilationUnit sourceTree,
+		String source, Boolean ignoreBadTokens, MappingsSnapshot snapshot)
+	{
 		
 		// build the source index
+		long startNanos = SourceIndexTimer.start();
 		SourceIndex index;
 		if(ignoreBadTokens != null)
 			index = new SourceIndex(source, ignoreBadTokens);
@@ -272,7 +595,7 @@ public class Deobfuscator
 				index.getDeobfReference(token);
 			
 			// get the obfuscated entry
-			Entry obfEntry = obfuscateEntry(deobfReference.entry);
+			Entry obfEntry = snapshot.obfuscateEntry(deobfReference.entry);
 			
 			// try to resolve the class
 			ClassEntry resolvedObfClassEntry =
@@ -284,7 +607,7 @@ public class Deobfuscator
 				obfEntry = obfEntry.cloneToNewClass(resolvedObfClassEntry);
 				
 				// save the new deobfuscated reference
-				deobfReference.entry = deobfuscateEntry(obfEntry);
+				deobfReference.entry = snapshot.deobfuscateEntry(obfEntry);
 				index.replaceDeobfReference(token, deobfReference);
 			}
 			
@@ -293,77 +616,57 @@ public class Deobfuscator
 			// index.getReferenceToken( reference ) );
 		}
 		
+		SourceIndexTimer.stop(startNanos);
 		return index;
 	}
 	
 	public String getSource(CompilationUnit sourceTree)
 	{
 		// render the AST into source
+		long startNanos = RenderTimer.start();
 		StringWriter buf = new StringWriter();
 		sourceTree.acceptVisitor(new InsertParenthesesVisitor(), null);
 		sourceTree.acceptVisitor(new JavaOutputVisitor(
 			new PlainTextOutput(buf), m_settings), null);
+		RenderTimer.stop(startNanos);
 		return buf.toString();
 	}
 	
 	public void writeSources(File dirOut, ProgressListener progress)
 		throws IOException
 	{
-		// get the classes to decompile
-		Set<ClassEntry> classEntries = Sets.newHashSet();
-		for(ClassEntry obfClassEntry : m_jarIndex.getObfClassEntries())
-		{
-			// skip inner classes
-			if(obfClassEntry.isInnerClass())
-				continue;
-			
-			classEntries.add(obfClassEntry);
-		}
-		
-		if(progress != null)
-			progress.init(classEntries.size(), "Decompiling classes...");
-		
-		// DEOBFUSCATE ALL THE THINGS!! @_@
-		int i = 0;
-		for(ClassEntry obfClassEntry : classEntries)
-		{
-			ClassEntry deobfClassEntry =
-				deobfuscateEntry(new ClassEntry(obfClassEntry));
-			if(progress != null)
-				progress.onProgress(i++, deobfClassEntry.toString());
-			
-			try
-			{
-				// get the source
-				String source =
-					getSource(getSourceTree(obfClassEntry.getName()));
-				
-				// write the file
-				File file =
-					new File(dirOut, deobfClassEntry.getName()
-						.replace('.', '/') + ".java");
-				file.getParentFile().mkdirs();
-				try(FileWriter out = new FileWriter(file))
-				{
-					out.write(source);
-				}
-			}catch(Throwable t)
-			{
-				throw new Error("Unable to deobfuscate class "
-					+ deobfClassEntry.toString() + " ("
-					+ obfClassEntry.toString() + ")", t);
-			}
-		}
-		if(progress != null)
-			progress.onProgress(i, "Done!");
+		writeSources(dirOut, progress, null);
+	}
+	
+	/**
+	 * Only writes the given top-level classes, or all of them if it's null.
+	 */
+	public void writeSources(File dirOut, ProgressListener progress,
+		Set<ClassEntry> obfTopClassEntries) throws IOException
+	{
+		SourceExporter exporter = new SourceExporter(this);
+		exporter.setClasses(obfTopClassEntries);
+		exporter.export(dirOut, progress);
 	}
 	
 	public void writeJar(File out, ProgressListener progress)
 	{
+		writeJar(out, progress, null);
+	}
+	
+	/**
+	 * Only writes the given top-level classes and their inner classes, or all
+	 * classes if it's null.
+	 */
+	public void writeJar(File out, ProgressListener progress,
+		Set<ClassEntry> obfTopClassEntries)
+	{
+		waitForIndex();
+		MappingsSnapshot snapshot = m_snapshot;
 		final TranslatingTypeLoader loader =
 			new TranslatingTypeLoader(m_jar, m_jarIndex,
-				getTranslator(TranslationDirection.Obfuscating),
-				getTranslator(TranslationDirection.Deobfuscating));
+				snapshot.getTranslator(TranslationDirection.Obfuscating),
+				snapshot.getTranslator(TranslationDirection.Deobfuscating));
 		transformJar(out, progress, new ClassTransformer()
 		{
 			
@@ -372,7 +675,7 @@ public class Deobfuscator
 			{
 				return loader.transformClass(c);
 			}
-		});
+		}, obfTopClassEntries);
 	}
 	
 	public void protectifyJar(File out, ProgressListener progress)
@@ -385,7 +688,7 @@ public class Deobfuscator
 			{
 				return ClassProtectifier.protectify(c);
 			}
-		});
+		}, null);
 	}
 	
 	public void publifyJar(File out, ProgressListener progress)
@@ -398,7 +701,7 @@ public class Deobfuscator
 			{
 				return ClassPublifier.publify(c);
 			}
-		});
+		}, null);
 	}
 	
 	private interface ClassTransformer
@@ -407,8 +710,10 @@ public class Deobfuscator
 	}
 	
 	private void transformJar(File out, ProgressListener progress,
-		ClassTransformer transformer)
+		ClassTransformer transformer, Set<ClassEntry> obfTopClassEntries)
 	{
+		waitForIndex();
+		
 		try(JarOutputStream outJar =
 			new JarOutputStream(new FileOutputStream(out)))
 		{
@@ -416,26 +721,38 @@ public class Deobfuscator
 				progress.init(JarClassIterator.getClassEntries(m_jar).size(),
 					"Transforming classes...");
 			
+			long startNanos = TransformJarTimer.start();
 			int i = 0;
 			for(CtClass c : JarClassIterator.classes(m_jar))
 			{
 				if(progress != null)
 					progress.onProgress(i++, c.getName());
+				if(obfTopClassEntries != null
+					&& !obfTopClassEntries.contains(getObfTopClassEntry(c)))
+					continue;
 				
 				try
 				{
+					long classStartNanos = TransformClassTimer.start();
+					String className = c.getName();
 					c = transformer.transform(c);
+					byte[] data = c.toBytecode();
+					TransformClassTimer.stop(classStartNanos, className);
+					
+					long writeStartNanos = WriteClassTimer.start();
 					outJar.putNextEntry(new JarEntry(c.getName().replace('.',
 						'/')
 						+ ".class"));
-					outJar.write(c.toBytecode());
+					outJar.write(data);
 					outJar.closeEntry();
+					WriteClassTimer.stop(writeStartNanos);
 				}catch(Throwable t)
 				{
 					throw new Error("Unable to transform class " + c.getName(),
 						t);
 				}
 			}
+			TransformJarTimer.stop(startNanos);
 			if(progress != null)
 				progress.onProgress(i, "Done!");
 			
@@ -446,20 +763,26 @@ public class Deobfuscator
 		}
 	}
 	
+	private ClassEntry getObfTopClassEntry(CtClass c)
+	{
+		// the jar still has the flat inner class names
+		ClassEntry obfClassEntry = EntryFactory.getClassEntry(c);
+		if(obfClassEntry.isInDefaultPackage())
+			obfClassEntry =
+				new ClassEntry(Constants.NonePackage + "/"
+					+ obfClassEntry.getName());
+		return obfClassEntry.buildClassEntry(
+			m_jarIndex.getObfClassChain(obfClassEntry)).getOutermostClassEntry();
+	}
+	
 	public <T extends Entry> T obfuscateEntry(T deobfEntry)
 	{
-		if(deobfEntry == null)
-			return null;
-		return getTranslator(TranslationDirection.Obfuscating).translateEntry(
-			deobfEntry);
+		return m_snapshot.obfuscateEntry(deobfEntry);
 	}
 	
 	public <T extends Entry> T deobfuscateEntry(T obfEntry)
 	{
-		if(obfEntry == null)
-			return null;
-		return getTranslator(TranslationDirection.Deobfuscating)
-			.translateEntry(obfEntry);
+		return m_snapshot.deobfuscateEntry(obfEntry);
 	}
 	
 	public <E extends Entry, C extends Entry> EntryReference<E, C> obfuscateReference(
@@ -529,14 +852,19 @@ public class Deobfuscator
 	// NOTE: these methods are a bit messy... oh well
 	
 	public boolean hasDeobfuscatedName(Entry obfEntry)
+	{
+		return hasDeobfuscatedName(obfEntry, m_snapshot);
+	}
+	
+	public boolean hasDeobfuscatedName(Entry obfEntry, MappingsSnapshot snapshot)
 	{
 		Translator translator =
-			getTranslator(TranslationDirection.Deobfuscating);
+			snapshot.getTranslator(TranslationDirection.Deobfuscating);
 		if(obfEntry instanceof ClassEntry)
 		{
 			ClassEntry obfClass = (ClassEntry)obfEntry;
 			List<ClassMapping> mappingChain =
-				m_mappings.getClassMappingChain(obfClass);
+				snapshot.getMappings().getClassMappingChain(obfClass);
 			ClassMapping classMapping =
 				mappingChain.get(mappingChain.size() - 1);
 			return classMapping != null && classMapping.getDeobfName() != null;
@@ -556,60 +884,73 @@ public class Deobfuscator
 	
 	public void rename(Entry obfEntry, String newName)
 	{
-		if(obfEntry instanceof ClassEntry)
-			m_renamer.setClassName((ClassEntry)obfEntry,
-				Descriptor.toJvmName(newName));
-		else if(obfEntry instanceof FieldEntry)
-			m_renamer.setFieldName((FieldEntry)obfEntry, newName);
-		else if(obfEntry instanceof MethodEntry)
-			m_renamer.setMethodTreeName((MethodEntry)obfEntry, newName);
-		else if(obfEntry instanceof ConstructorEntry)
-			throw new IllegalArgumentException("Cannot rename constructors");
-		else if(obfEntry instanceof ArgumentEntry)
-			m_renamer.setArgumentName((ArgumentEntry)obfEntry, newName);
-		else
-			throw new Error("Unknown entry type: "
-				+ obfEntry.getClass().getName());
+		// the renamer needs the full index
+		waitForIndex();
 		
-		// clear caches
-		m_translatorCache.clear();
+		synchronized(m_writeLock)
+		{
+			if(obfEntry instanceof ClassEntry)
+				m_renamer.setClassName((ClassEntry)obfEntry,
+					Descriptor.toJvmName(newName));
+			else if(obfEntry instanceof FieldEntry)
+				m_renamer.setFieldName((FieldEntry)obfEntry, newName);
+			else if(obfEntry instanceof MethodEntry)
+				m_renamer.setMethodTreeName((MethodEntry)obfEntry, newName);
+			else if(obfEntry instanceof ConstructorEntry)
+				throw new IllegalArgumentException("Cannot rename constructors");
+			else if(obfEntry instanceof ArgumentEntry)
+				m_renamer.setArgumentName((ArgumentEntry)obfEntry, newName);
+			else
+				throw new Error("Unknown entry type: "
+					+ obfEntry.getClass().getName());
+			
+			publishSnapshot();
+		}
 	}
 	
 	public void removeMapping(Entry obfEntry)
 	{
-		if(obfEntry instanceof ClassEntry)
-			m_renamer.removeClassMapping((ClassEntry)obfEntry);
-		else if(obfEntry instanceof FieldEntry)
-			m_renamer.removeFieldMapping((FieldEntry)obfEntry);
-		else if(obfEntry instanceof MethodEntry)
-			m_renamer.removeMethodTreeMapping((MethodEntry)obfEntry);
-		else if(obfEntry instanceof ConstructorEntry)
-			throw new IllegalArgumentException("Cannot rename constructors");
-		else if(obfEntry instanceof ArgumentEntry)
-			m_renamer.removeArgumentMapping((ArgumentEntry)obfEntry);
-		else
-			throw new Error("Unknown entry type: " + obfEntry);
+		waitForIndex();
 		
-		// clear caches
-		m_translatorCache.clear();
+		synchronized(m_writeLock)
+		{
+			if(obfEntry instanceof ClassEntry)
+				m_renamer.removeClassMapping((ClassEntry)obfEntry);
+			else if(obfEntry instanceof FieldEntry)
+				m_renamer.removeFieldMapping((FieldEntry)obfEntry);
+			else if(obfEntry instanceof MethodEntry)
+				m_renamer.removeMethodTreeMapping((MethodEntry)obfEntry);
+			else if(obfEntry instanceof ConstructorEntry)
+				throw new IllegalArgumentException("Cannot rename constructors");
+			else if(obfEntry instanceof ArgumentEntry)
+				m_renamer.removeArgumentMapping((ArgumentEntry)obfEntry);
+			else
+				throw new Error("Unknown entry type: " + obfEntry);
+			
+			publishSnapshot();
+		}
 	}
 	
 	public void markAsDeobfuscated(Entry obfEntry)
 	{
-		if(obfEntry instanceof ClassEntry)
-			m_renamer.markClassAsDeobfuscated((ClassEntry)obfEntry);
-		else if(obfEntry instanceof FieldEntry)
-			m_renamer.markFieldAsDeobfuscated((FieldEntry)obfEntry);
-		else if(obfEntry instanceof MethodEntry)
-			m_renamer.markMethodTreeAsDeobfuscated((MethodEntry)obfEntry);
-		else if(obfEntry instanceof ConstructorEntry)
-			throw new IllegalArgumentException("Cannot rename constructors");
-		else if(obfEntry instanceof ArgumentEntry)
-			m_renamer.markArgumentAsDeobfuscated((ArgumentEntry)obfEntry);
-		else
-			throw new Error("Unknown entry type: " + obfEntry);
+		waitForIndex();
 		
-		// clear caches
-		m_translatorCache.clear();
+		synchronized(m_writeLock)
+		{
+			if(obfEntry instanceof ClassEntry)
+				m_renamer.markClassAsDeobfuscated((ClassEntry)obfEntry);
+			else if(obfEntry instanceof FieldEntry)
+				m_renamer.markFieldAsDeobfuscated((FieldEntry)obfEntry);
+			else if(obfEntry instanceof MethodEntry)
+				m_renamer.markMethodTreeAsDeobfuscated((MethodEntry)obfEntry);
+			else if(obfEntry instanceof ConstructorEntry)
+				throw new IllegalArgumentException("Cannot rename constructors");
+			else if(obfEntry instanceof ArgumentEntry)
+				m_renamer.markArgumentAsDeobfuscated((ArgumentEntry)obfEntry);
+			else
+				throw new Error("Unknown entry type: " + obfEntry);
+			
+			publishSnapshot();
+		}
 	}
 }
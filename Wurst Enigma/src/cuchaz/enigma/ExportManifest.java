@@ -0,0 +1,188 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Jeff Martin.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public
+ * License v3.0 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * Contributors:
+ * Jeff Martin - initial API and implementation
+ ******************************************************************************/
+package cuchaz.enigma;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.Map;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+public class ExportManifest
+{
+	
+	// NOTE: remembers what went into each exported source and what came out, so the
+	// next export into the folder only redoes the classes that changed
+	
+	public static final String DirName = ".enigma";
+	public static final String FileName = "export-manifest.txt";
+	
+	public static class ClassRecord
+	{
+		
+		private String m_obfClassName;
+		private String m_inputHash;
+		private String m_mappingsHash;
+		private String m_path;
+		private String m_outputHash;
+		
+		public ClassRecord(String obfClassName, String inputHash,
+			String mappingsHash, String path, String outputHash)
+		{
+			m_obfClassName = obfClassName;
+			m_inputHash = inputHash;
+			m_mappingsHash = mappingsHash;
+			m_path = path;
+			m_outputHash = outputHash;
+		}
+		
+		public String getObfClassName()
+		{
+			return m_obfClassName;
+		}
+		
+		public String getInputHash()
+		{
+			return m_inputHash;
+		}
+		
+		public String getMappingsHash()
+		{
+			return m_mappingsHash;
+		}
+		
+		/**
+		 * Returns the path of the source, relative to the export folder.
+		 */
+		public String getPath()
+		{
+			return m_path;
+		}
+		
+		/**
+		 * Returns null if nothing was written yet.
+		 */
+		public String getOutputHash()
+		{
+			return m_outputHash;
+		}
+		
+		public boolean hasSameInputs(ClassRecord other)
+		{
+			return m_inputHash.equals(other.m_inputHash)
+				&& m_mappingsHash.equals(other.m_mappingsHash)
+				&& m_path.equals(other.m_path);
+		}
+	}
+	
+	private static final String Header = "enigma-export-manifest";
+	private static final int FormatVersion = 1;
+	
+	private String m_key;
+	private Map<String, ClassRecord> m_records;
+	
+	public ExportManifest(String key)
+	{
+		m_key = key;
+		m_records = Maps.newTreeMap();
+	}
+	
+	/**
+	 * Returns where the manifest of the given export folder goes.
+	 */
+	public static File getFile(File dirOut)
+	{
+		return new File(new File(dirOut, DirName), FileName);
+	}
+	
+	/**
+	 * Returns null if there's no manifest, or one this version can't read.
+	 */
+	public static ExportManifest read(File file) throws IOException
+	{
+		if(!file.exists())
+			return null;
+		try(BufferedReader in = new BufferedReader(new FileReader(file)))
+		{
+			if(!(Header + " " + FormatVersion).equals(in.readLine()))
+				return null;
+			String key = in.readLine();
+			if(key == null)
+				return null;
+			ExportManifest manifest = new ExportManifest(key);
+			String line;
+			while((line = in.readLine()) != null)
+			{
+				String[] parts = line.split("\t");
+				if(parts.length != 5)
+				{
+					// start over rather than trust the rest of it
+					System.err.println("WARNING: Ignoring malformed manifest "
+						+ file + ": " + line);
+					return null;
+				}
+				manifest.put(new ClassRecord(parts[0], parts[1], parts[2],
+					parts[3], parts[4]));
+			}
+			return manifest;
+		}
+	}
+	
+	public void write(File file) throws IOException
+	{
+		file.getParentFile().mkdirs();
+		
+		// a half-written manifest would be worse than none
+		File tempFile = new File(file.getPath() + ".tmp");
+		try(Writer out = new FileWriter(tempFile))
+		{
+			out.write(Header + " " + FormatVersion + "\n");
+			out.write(m_key + "\n");
+			for(ClassRecord record : getRecords())
+				out.write(String.format("%s\t%s\t%s\t%s\t%s\n",
+					record.getObfClassName(), record.getInputHash(),
+					record.getMappingsHash(), record.getPath(),
+					record.getOutputHash()));
+		}
+		file.delete();
+		if(!tempFile.renameTo(file))
+			throw new IOException("Unable to rename " + tempFile);
+	}
+	
+	public String getKey()
+	{
+		return m_key;
+	}
+	
+	/**
+	 * Returns null if the class isn't in the manifest.
+	 */
+	public synchronized ClassRecord get(String obfClassName)
+	{
+		return m_records.get(obfClassName);
+	}
+	
+	public synchronized void put(ClassRecord record)
+	{
+		m_records.put(record.getObfClassName(), record);
+	}
+	
+	public synchronized Collection<ClassRecord> getRecords()
+	{
+		return Lists.newArrayList(m_records.values());
+	}
+}
@@ -0,0 +1,352 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Jeff Martin.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public
+ * License v3.0 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * Contributors:
+ * Jeff Martin - initial API and implementation
+ ******************************************************************************/
+package cuchaz.enigma;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+import com.google.common.collect.Lists;
+
+public class ExportProfile
+{
+	
+	public static class ClassProfile
+	{
+		
+		private String m_className;
+		private String m_obfClassName;
+		private long m_decompileNanos;
+		private long m_renderNanos;
+		private long m_writeNanos;
+		private int m_sourceLength;
+		private int m_transformedBytes;
+		private String m_failure;
+		private String m_fallback;
+		private boolean m_isCached;
+		
+		public ClassProfile(String className, String obfClassName)
+		{
+			m_className = className;
+			m_obfClassName = obfClassName;
+			m_decompileNanos = 0;
+			m_renderNanos = 0;
+			m_writeNanos = 0;
+			m_sourceLength = 0;
+			m_transformedBytes = 0;
+			m_failure = null;
+			m_fallback = null;
+			m_isCached = false;
+		}
+		
+		public String getClassName()
+		{
+			return m_className;
+		}
+		
+		public String getObfClassName()
+		{
+			return m_obfClassName;
+		}
+		
+		public long getDecompileNanos()
+		{
+			return m_decompileNanos;
+		}
+		
+		public void setDecompileNanos(long val)
+		{
+			m_decompileNanos = val;
+		}
+		
+		public long getRenderNanos()
+		{
+			return m_renderNanos;
+		}
+		
+		public void setRenderNanos(long val)
+		{
+			m_renderNanos = val;
+		}
+		
+		public long getWriteNanos()
+		{
+			return m_writeNanos;
+		}
+		
+		public void setWriteNanos(long val)
+		{
+			m_writeNanos = val;
+		}
+		
+		public long getTotalNanos()
+		{
+			return m_decompileNanos + m_renderNanos + m_writeNanos;
+		}
+		
+		public int getSourceLength()
+		{
+			return m_sourceLength;
+		}
+		
+		public void setSourceLength(int val)
+		{
+			m_sourceLength = val;
+		}
+		
+		/**
+		 * Returns the size of all the transformed classes the decompiler read,
+		 * including the inner classes.
+		 */
+		public int getTransformedBytes()
+		{
+			return m_transformedBytes;
+		}
+		
+		public void setTransformedBytes(int val)
+		{
+			m_transformedBytes = val;
+		}
+		
+		public String getFailure()
+		{
+			return m_failure;
+		}
+		
+		public boolean isFailed()
+		{
+			return m_failure != null;
+		}
+		
+		public void setFailure(Throwable t)
+		{
+			// the cause at the bottom usually says the most
+			while(t.getCause() != null)
+				t = t.getCause();
+			m_failure = t.toString();
+		}
+		
+		/**
+		 * For failures that were already described elsewhere, eg in a worker
+		 * process.
+		 */
+		public void setFailure(String val)
+		{
+			m_failure = val;
+		}
+		
+		/**
+		 * Returns "cheap" or "stub" if the full decompile ran out of time, or
+		 * null if it didn't.
+		 */
+		public String getFallback()
+		{
+			return m_fallback;
+		}
+		
+		public void setFallback(String val)
+		{
+			m_fallback = val;
+		}
+		
+		/**
+		 * Returns true if the source came from the source cache instead of
+		 * the decompiler.
+		 */
+		public boolean isCached()
+		{
+			return m_isCached;
+		}
+		
+		public void setCached(boolean val)
+		{
+			m_isCached = val;
+		}
+	}
+	
+	private List<ClassProfile> m_classes;
+	private long m_elapsedNanos;
+	private int m_numUnchanged;
+	private int m_numDeleted;
+	
+	public ExportProfile()
+	{
+		m_classes = Lists.newArrayList();
+		m_elapsedNanos = 0;
+		m_numUnchanged = 0;
+		m_numDeleted = 0;
+	}
+	
+	public synchronized void add(ClassProfile classProfile)
+	{
+		m_classes.add(classProfile);
+	}
+	
+	public synchronized List<ClassProfile> getClasses()
+	{
+		return Lists.newArrayList(m_classes);
+	}
+	
+	public synchronized long getElapsedNanos()
+	{
+		return m_elapsedNanos;
+	}
+	
+	public synchronized void setElapsedNanos(long val)
+	{
+		m_elapsedNanos = val;
+	}
+	
+	/**
+	 * Returns how many classes the manifest said were still up to date, they
+	 * aren't in the class list.
+	 */
+	public synchronized int getNumUnchanged()
+	{
+		return m_numUnchanged;
+	}
+	
+	public synchronized void setNumUnchanged(int val)
+	{
+		m_numUnchanged = val;
+	}
+	
+	/**
+	 * Returns how many old sources were deleted because their class was
+	 * renamed or is gone.
+	 */
+	public synchronized int getNumDeleted()
+	{
+		return m_numDeleted;
+	}
+	
+	public synchronized void setNumDeleted(int val)
+	{
+		m_numDeleted = val;
+	}
+	
+	public List<ClassProfile> getSlowestClasses(int numClasses)
+	{
+		List<ClassProfile> classes = getClasses();
+		Collections.sort(classes, new Comparator<ClassProfile>()
+		{
+			@Override
+			public int compare(ClassProfile a, ClassProfile b)
+			{
+				return Long.compare(b.getTotalNanos(), a.getTotalNanos());
+			}
+		});
+		return classes.subList(0, Math.min(numClasses, classes.size()));
+	}
+	
+	public List<ClassProfile> getFailedClasses()
+	{
+		List<ClassProfile> failedClasses = Lists.newArrayList();
+		for(ClassProfile classProfile : getClasses())
+			if(classProfile.isFailed())
+				failedClasses.add(classProfile);
+		return failedClasses;
+	}
+	
+	public List<ClassProfile> getFallbackClasses()
+	{
+		List<ClassProfile> fallbackClasses = Lists.newArrayList();
+		for(ClassProfile classProfile : getClasses())
+			if(classProfile.getFallback() != null)
+				fallbackClasses.add(classProfile);
+		return fallbackClasses;
+	}
+	
+	public List<ClassProfile> getCachedClasses()
+	{
+		List<ClassProfile> cachedClasses = Lists.newArrayList();
+		for(ClassProfile classProfile : getClasses())
+			if(classProfile.isCached())
+				cachedClasses.add(classProfile);
+		return cachedClasses;
+	}
+	
+	public void writeCsv(File file) throws IOException
+	{
+		try(FileWriter out = new FileWriter(file))
+		{
+			writeCsv(out);
+		}
+	}
+	
+	public void writeCsv(Writer out) throws IOException
+	{
+		out.write("class,obfClass,decompileMs,renderMs,writeMs,sourceChars,transformedBytes,cached,fallback,failure\n");
+		for(ClassProfile classProfile : getClasses())
+		{
+			out.write(String.format(Locale.ROOT, "%s,%s,%.3f,%.3f,%.3f,%d,%d,%b,%s,%s\n",
+				escapeCsv(classProfile.getClassName()),
+				escapeCsv(classProfile.getObfClassName()),
+				classProfile.getDecompileNanos() / 1e6,
+				classProfile.getRenderNanos() / 1e6,
+				classProfile.getWriteNanos() / 1e6,
+				classProfile.getSourceLength(),
+				classProfile.getTransformedBytes(), classProfile.isCached(),
+				escapeCsv(classProfile.getFallback()),
+				escapeCsv(classProfile.getFailure())));
+		}
+	}
+	
+	public void printSummary(PrintStream out, int numSlowest)
+	{
+		List<ClassProfile> classes = getClasses();
+		long decompileNanos = 0;
+		long renderNanos = 0;
+		long writeNanos = 0;
+		for(ClassProfile classProfile : classes)
+		{
+			decompileNanos += classProfile.getDecompileNanos();
+			renderNanos += classProfile.getRenderNanos();
+			writeNanos += classProfile.getWriteNanos();
+		}
+		out.println(String.format(
+			"Exported %d classes in %.1f s (%d cached, %d failed, %d timed out)",
+			classes.size(), getElapsedNanos() / 1e9, getCachedClasses().size(),
+			getFailedClasses().size(), getFallbackClasses().size()));
+		if(getNumUnchanged() > 0 || getNumDeleted() > 0)
+			out.println(String.format(
+				"\tkept %d unchanged classes, deleted %d old sources",
+				getNumUnchanged(), getNumDeleted()));
+		out.println(String.format(
+			"\tdecompile %.1f s, render %.1f s, write %.1f s",
+			decompileNanos / 1e9, renderNanos / 1e9, writeNanos / 1e9));
+		
+		out.println("Slowest classes:");
+		for(ClassProfile classProfile : getSlowestClasses(numSlowest))
+			out.println(String.format(
+				"\t%10.1f ms %8d bytes  %s%s",
+				classProfile.getTotalNanos() / 1e6,
+				classProfile.getTransformedBytes(),
+				classProfile.getClassName(), classProfile.isFailed()
+					? " (failed: " + classProfile.getFailure() + ")" : ""));
+	}
+	
+	private static String escapeCsv(String text)
+	{
+		if(text == null)
+			return "";
+		text = text.replace('\n', ' ').replace('\r', ' ');
+		if(text.contains(",") || text.contains("\""))
+			return "\"" + text.replace("\"", "\"\"") + "\"";
+		return text;
+	}
+}
@@ -0,0 +1,200 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Jeff Martin.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public
+ * License v3.0 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * Contributors:
+ * Jeff Martin - initial API and implementation
+ ******************************************************************************/
+package cuchaz.enigma;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.jar.JarFile;
+
+import cuchaz.enigma.ExportProfile.ClassProfile;
+import cuchaz.enigma.analysis.JarIndex;
+import cuchaz.enigma.mapping.ClassEntry;
+import cuchaz.enigma.mapping.Mappings;
+
+public class ExportWorker
+{
+	
+	// NOTE: a worker runs in its own JVM, started by ExportWorkerPool. It
+	// reads the jar index and mappings from the state file, then reads obf
+	// class names from stdin and writes one result per class to stdout. An
+	// empty class name means it's time to quit. Anything else that gets
+	// printed goes to stderr so it can't break the protocol.
+	
+	public static final String Command = "export-worker";
+	
+	public static class Result
+	{
+		
+		private ClassProfile m_profile;
+		private String m_source;
+		
+		public Result(ClassProfile profile, String source)
+		{
+			m_profile = profile;
+			m_source = source;
+		}
+		
+		public ClassProfile getProfile()
+		{
+			return m_profile;
+		}
+		
+		/**
+		 * Returns null if the class couldn't be decompiled.
+		 */
+		public String getSource()
+		{
+			return m_source;
+		}
+	}
+	
+	public static void writeState(File file, JarIndex jarIndex,
+		Mappings mappings) throws IOException
+	{
+		// the index is gzipped, and a gzip stream reads past its own end, so
+		// the reader needs to know how long it is
+		ByteArrayOutputStream indexBuf = new ByteArrayOutputStream();
+		jarIndex.write(indexBuf);
+		try(DataOutputStream out =
+			new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(file))))
+		{
+			out.writeInt(indexBuf.size());
+			indexBuf.writeTo(out);
+			ObjectOutputStream oout = new ObjectOutputStream(out);
+			oout.writeObject(mappings);
+			oout.flush();
+		}
+	}
+	
+	public static Deobfuscator readState(JarFile jar, File file)
+		throws IOException
+	{
+		try(DataInputStream in =
+			new DataInputStream(new BufferedInputStream(new FileInputStream(
+				file))))
+		{
+			byte[] indexBytes = new byte[in.readInt()];
+			in.readFully(indexBytes);
+			JarIndex jarIndex = new JarIndex();
+			jarIndex.read(new ByteArrayInputStream(indexBytes));
+			Mappings mappings =
+				(Mappings)new ObjectInputStream(in).readObject();
+			Deobfuscator deobfuscator = new Deobfuscator(jar, jarIndex);
+			deobfuscator.setMappings(mappings, false);
+			return deobfuscator;
+		}catch(ClassNotFoundException ex)
+		{
+			throw new Error(ex);
+		}
+	}
+	
+	/**
+	 * The cache folder can be null.
+	 */
+	public static void run(File fileJar, File fileState, long timeoutMillis,
+		File dirCache, long maxCacheBytes) throws IOException
+	{
+		DataOutputStream out =
+			new DataOutputStream(new BufferedOutputStream(System.out));
+		System.setOut(System.err);
+		DataInputStream in =
+			new DataInputStream(new BufferedInputStream(System.in));
+		
+		Deobfuscator deobfuscator =
+			readState(new JarFile(fileJar), fileState);
+		if(dirCache != null)
+			deobfuscator.setSourceCache(new SourceCache(dirCache,
+				maxCacheBytes));
+		SourceExporter exporter = new SourceExporter(deobfuscator);
+		DecompileWatchdog watchdog =
+			new DecompileWatchdog(deobfuscator, timeoutMillis);
+		while(true)
+		{
+			String obfClassName = in.readUTF();
+			if(obfClassName.isEmpty())
+				break;
+			ClassEntry obfClassEntry = new ClassEntry(obfClassName);
+			ClassEntry deobfClassEntry =
+				exporter.getSnapshot().deobfuscateEntry(
+					new ClassEntry(obfClassEntry));
+			ClassProfile classProfile =
+				new ClassProfile(deobfClassEntry.getName(), obfClassName);
+			String source =
+				exporter.decompileClass(watchdog, obfClassEntry, classProfile);
+			writeResult(out, new Result(classProfile, source));
+			out.flush();
+		}
+	}
+	
+	static void writeResult(DataOutputStream out, Result result)
+		throws IOException
+	{
+		ClassProfile classProfile = result.getProfile();
+		out.writeUTF(classProfile.getClassName());
+		out.writeUTF(classProfile.getObfClassName());
+		out.writeLong(classProfile.getDecompileNanos());
+		out.writeLong(classProfile.getRenderNanos());
+		out.writeInt(classProfile.getTransformedBytes());
+		out.writeBoolean(classProfile.isCached());
+		writeNullableString(out, classProfile.getFallback());
+		writeNullableString(out, classProfile.getFailure());
+		writeNullableString(out, result.getSource());
+	}
+	
+	static Result readResult(DataInputStream in) throws IOException
+	{
+		ClassProfile classProfile =
+			new ClassProfile(in.readUTF(), in.readUTF());
+		classProfile.setDecompileNanos(in.readLong());
+		classProfile.setRenderNanos(in.readLong());
+		classProfile.setTransformedBytes(in.readInt());
+		classProfile.setCached(in.readBoolean());
+		classProfile.setFallback(readNullableString(in));
+		classProfile.setFailure(readNullableString(in));
+		return new Result(classProfile, readNullableString(in));
+	}
+	
+	private static void writeNullableString(DataOutputStream out, String val)
+		throws IOException
+	{
+		// writeUTF() can't do more than 64k, sources can be bigger
+		if(val == null)
+		{
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = val.getBytes("UTF-8");
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+	
+	private static String readNullableString(DataInputStream in)
+		throws IOException
+	{
+		int length = in.readInt();
+		if(length < 0)
+			return null;
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, "UTF-8");
+	}
+}
@@ -0,0 +1,352 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Jeff Martin.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public
+ * License v3.0 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * Contributors:
+ * Jeff Martin - initial API and implementation
+ ******************************************************************************/
+package cuchaz.enigma;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import cuchaz.enigma.ExportProfile.ClassProfile;
+import cuchaz.enigma.ExportWorker.Result;
+import cuchaz.enigma.mapping.ClassEntry;
+import cuchaz.enigma.mapping.MappingsSnapshot;
+
+public class ExportWorkerPool
+{
+	
+	// NOTE: Procyon's caches only grow, so classes are decompiled in worker JVMs that
+	// get recycled, and replaced when they die or stop answering
+	
+	public interface ResultListener
+	{
+		/**
+		 * Called from the pool's threads, one at a time. The source is null if
+		 * the class couldn't be decompiled.
+		 */
+		void onResult(ClassEntry obfClassEntry, ClassProfile classProfile,
+			String source);
+	}
+	
+	private static final int RecycleClasses = 1000;
+	private static final int MaxAttempts = 2;
+	private static final long MinWorkerHeapBytes = 256L * 1024 * 1024;
+	private static final double MachineMemoryFraction = 0.75;
+	
+	// a class gets a decompile, a cheap decompile and a stub, each of them
+	// can wait up to the timeout
+	private static final int ReadTimeoutFactor = 4;
+	private static final long ReadGraceMillis = 60000; // 1 min, for startup
+	// even without a timeout, a worker that hangs this long is stuck
+	private static final long MaxReadMillis = 30 * 60000; // 30 min
+	
+	private static final Metrics.Counter StartCounter = Metrics
+		.getCounter("ExportWorkerPool.workerStarts");
+	private static final Metrics.Counter DeathCounter = Metrics
+		.getCounter("ExportWorkerPool.workerDeaths");
+	private static final Metrics.Counter KillCounter = Metrics
+		.getCounter("ExportWorkerPool.workerKills");
+	
+	private static final ScheduledExecutorService Killer = Executors
+		.newSingleThreadScheduledExecutor(new ThreadFactory()
+		{
+			@Override
+			public Thread newThread(Runnable runnable)
+			{
+				Thread thread = new Thread(runnable, "Export worker killer");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	
+	private Deobfuscator m_deobfuscator;
+	private MappingsSnapshot m_snapshot;
+	private int m_numWorkers;
+	private long m_timeoutMillis;
+	private long m_workerHeapBytes;
+	private File m_fileState;
+	private BlockingDeque<ClassEntry> m_queue;
+	private Map<ClassEntry, Integer> m_numAttempts;
+	private ResultListener m_listener;
+	private volatile Throwable m_error;
+	private volatile boolean m_isCancelled;
+	
+	/**
+	 * The workers decompile with the snapshot's mappings, whatever the
+	 * deobfuscator has by then.
+	 */
+	public ExportWorkerPool(Deobfuscator deobfuscator,
+		MappingsSnapshot snapshot, int numWorkers, long timeoutMillis)
+	{
+		m_deobfuscator = deobfuscator;
+		m_snapshot = snapshot;
+		m_numWorkers = Math.max(1, numWorkers);
+		m_timeoutMillis = timeoutMillis;
+		m_queue = new LinkedBlockingDeque<ClassEntry>();
+		m_numAttempts = Maps.newHashMap();
+		m_error = null;
+		m_isCancelled = false;
+	}
+	
+	public void cancel()
+	{
+		m_isCancelled = true;
+	}
+	
+	/**
+	 * Decompiles the classes in the given order and blocks until they're all
+	 * done.
+	 */
+	public void run(List<ClassEntry> obfClassEntries, ResultListener listener)
+		throws IOException
+	{
+		m_queue.addAll(obfClassEntries);
+		m_listener = listener;
+		m_workerHeapBytes = getWorkerHeapBytes();
+		m_fileState = File.createTempFile("enigma-export", ".state");
+		try
+		{
+			ExportWorker.writeState(m_fileState, m_deobfuscator.getJarIndex(),
+				m_snapshot.getMappings());
+			
+			List<Thread> threads = Lists.newArrayList();
+			for(int i = 0; i < m_numWorkers; i++)
+			{
+				Thread thread = new Thread("Export worker " + (i + 1))
+				{
+					@Override
+					public void run()
+					{
+						try
+						{
+							while(!m_isCancelled && !m_queue.isEmpty())
+								runWorker();
+						}catch(Throwable t)
+						{
+							// stop the other workers too
+							m_error = t;
+							m_isCancelled = true;
+						}
+					}
+				};
+				thread.start();
+				threads.add(thread);
+			}
+			for(Thread thread : threads)
+				thread.join();
+			if(m_error != null)
+				throw new Error("Export worker failed", m_error);
+		}catch(InterruptedException ex)
+		{
+			throw new Error(ex);
+		}finally
+		{
+			m_fileState.delete();
+		}
+	}
+	
+	private void runWorker()
+	{
+		final Process process;
+		try
+		{
+			process = startWorker();
+		}catch(IOException ex)
+		{
+			throw new Error("Unable to start export worker", ex);
+		}
+		
+		final AtomicBoolean isKilled = new AtomicBoolean(false);
+		Runnable kill = new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				isKilled.set(true);
+				process.destroy();
+			}
+		};
+		long readTimeoutMillis = getReadTimeoutMillis();
+		
+		ClassEntry obfClassEntry = null;
+		try
+		{
+			DataOutputStream out =
+				new DataOutputStream(new BufferedOutputStream(
+					process.getOutputStream()));
+			DataInputStream in =
+				new DataInputStream(new BufferedInputStream(
+					process.getInputStream()));
+			for(int i = 0; i < RecycleClasses && !m_isCancelled; i++)
+			{
+				obfClassEntry = m_queue.poll();
+				if(obfClassEntry == null)
+					break;
+				out.writeUTF(obfClassEntry.getName());
+				out.flush();
+				
+				ScheduledFuture<?> deadline =
+					Killer.schedule(kill, readTimeoutMillis,
+						TimeUnit.MILLISECONDS);
+				Result result;
+				try
+				{
+					result = ExportWorker.readResult(in);
+				}finally
+				{
+					deadline.cancel(false);
+				}
+				synchronized(m_listener)
+				{
+					m_listener.onResult(obfClassEntry, result.getProfile(),
+						result.getSource());
+				}
+				obfClassEntry = null;
+			}
+			
+			// tell the worker to quit
+			out.writeUTF("");
+			out.flush();
+			process.waitFor();
+		}catch(IOException ex)
+		{
+			// the worker died, probably out of memory, or we killed it
+			if(isKilled.get())
+			{
+				KillCounter.increment();
+				ex =
+					new IOException("No answer after " + readTimeoutMillis
+						+ " ms", ex);
+			}else
+				DeathCounter.increment();
+			if(obfClassEntry != null)
+				retry(obfClassEntry, ex);
+		}catch(InterruptedException ex)
+		{
+			throw new Error(ex);
+		}finally
+		{
+			process.destroy();
+		}
+	}
+	
+	/**
+	 * Returns how long to wait for a worker's answer before killing it.
+	 */
+	long getReadTimeoutMillis()
+	{
+		// without a timeout, a class may take as long as it takes, almost
+		if(m_timeoutMillis <= 0)
+			return MaxReadMillis;
+		return Math.min(MaxReadMillis, m_timeoutMillis * ReadTimeoutFactor
+			+ ReadGraceMillis);
+	}
+	
+	private Process startWorker() throws IOException
+	{
+		ProcessBuilder builder = new ProcessBuilder(getWorkerCommand());
+		builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+		StartCounter.increment();
+		return builder.start();
+	}
+	
+	List<String> getWorkerCommand()
+	{
+		List<String> command = Lists.newArrayList();
+		command.add(new File(new File(System.getProperty("java.home"), "bin"),
+			"java").getPath());
+		command.add("-Xmx" + m_workerHeapBytes / 1024 / 1024 + "m");
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(CommandMain.class.getName());
+		command.add(ExportWorker.Command);
+		command.add(m_deobfuscator.getJarName());
+		command.add(m_fileState.getPath());
+		command.add(Long.toString(m_timeoutMillis));
+		SourceCache cache = m_deobfuscator.getSourceCache();
+		if(cache != null)
+		{
+			command.add(cache.getDir().getPath());
+			command.add(Long.toString(cache.getMaxBytes()));
+		}
+		return command;
+	}
+	
+	private long getWorkerHeapBytes()
+	{
+		long coordinatorBytes = Runtime.getRuntime().maxMemory();
+		long budgetBytes;
+		OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+		if(os instanceof com.sun.management.OperatingSystemMXBean)
+		{
+			// split what the machine has left between the workers
+			long machineBytes =
+				((com.sun.management.OperatingSystemMXBean)os)
+					.getTotalPhysicalMemorySize();
+			budgetBytes =
+				(long)(machineBytes * MachineMemoryFraction) - coordinatorBytes;
+		}else
+			// no idea how big the machine is, so guess it's twice our heap
+			budgetBytes = coordinatorBytes;
+		long heapBytes =
+			Math.max(MinWorkerHeapBytes, budgetBytes / m_numWorkers);
+		if(heapBytes * m_numWorkers > budgetBytes)
+			System.err.println(String.format(
+				"WARNING: %d export workers need %d MB, but only %d MB are left",
+				m_numWorkers, heapBytes * m_numWorkers / 1024 / 1024,
+				Math.max(0, budgetBytes) / 1024 / 1024));
+		return heapBytes;
+	}
+	
+	private void retry(ClassEntry obfClassEntry, IOException ex)
+	{
+		int numAttempts;
+		synchronized(m_numAttempts)
+		{
+			Integer val = m_numAttempts.get(obfClassEntry);
+			numAttempts = (val != null ? val : 0) + 1;
+			m_numAttempts.put(obfClassEntry, numAttempts);
+		}
+		if(numAttempts < MaxAttempts)
+		{
+			// put it back in front so it doesn't wait for the whole queue
+			m_queue.addFirst(obfClassEntry);
+			return;
+		}
+		
+		ClassProfile classProfile =
+			new ClassProfile(m_snapshot.deobfuscateEntry(
+				new ClassEntry(obfClassEntry)).getName(),
+				obfClassEntry.getName());
+		classProfile.setFailure("Export worker died: " + ex);
+		synchronized(m_listener)
+		{
+			m_listener.onResult(obfClassEntry, classProfile, null);
+		}
+	}
+}
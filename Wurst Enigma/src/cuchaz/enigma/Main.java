@@ -11,8 +11,11 @@
 package cuchaz.enigma;
 
 import java.io.File;
+import java.util.List;
 import java.util.jar.JarFile;
 
+import com.google.common.collect.Lists;
+
 import cuchaz.enigma.gui.Gui;
 
 public class Main
@@ -20,7 +23,13 @@ public class Main
 	
 	public static void main(String[] args) throws Exception
 	{
+		// like the command line, don't touch ~/.enigma/sources if asked not to
+		List<String> argsList = Lists.newArrayList(args);
+		boolean useCache = !argsList.remove("--no-cache");
+		args = argsList.toArray(new String[argsList.size()]);
+		
 		Gui gui = new Gui();
+		gui.getController().setUseSourceCache(useCache);
 		
 		// parse command-line args
 		if(args.length >= 1)
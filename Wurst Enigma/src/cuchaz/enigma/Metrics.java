@@ -0,0 +1,238 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Jeff Martin.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public
+ * License v3.0 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * Contributors:
+ * Jeff Martin - initial API and implementation
+ ******************************************************************************/
+package cuchaz.enigma;
+
+import java.io.PrintStream;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.collect.Maps;
+
+public class Metrics
+{
+	
+	// NOTE: metrics are off by default and then cost one volatile read each,
+	// so they can stay in the hot paths. Get the timers and counters once and
+	// keep them in static fields.
+	
+	public static class Counter
+	{
+		
+		private String m_name;
+		private AtomicLong m_count;
+		
+		private Counter(String name)
+		{
+			m_name = name;
+			m_count = new AtomicLong();
+		}
+		
+		public String getName()
+		{
+			return m_name;
+		}
+		
+		public long getCount()
+		{
+			return m_count.get();
+		}
+		
+		public void increment()
+		{
+			if(Enabled)
+				m_count.incrementAndGet();
+		}
+		
+		public void add(long amount)
+		{
+			if(Enabled)
+				m_count.addAndGet(amount);
+		}
+		
+		private void reset()
+		{
+			m_count.set(0);
+		}
+		
+		@Override
+		public String toString()
+		{
+			return String.format("%-40s %12d", m_name, m_count.get());
+		}
+	}
+	
+	public static class Timer
+	{
+		
+		private String m_name;
+		private AtomicLong m_count;
+		private AtomicLong m_totalNanos;
+		private long m_maxNanos;
+		private String m_maxLabel;
+		
+		private Timer(String name)
+		{
+			m_name = name;
+			m_count = new AtomicLong();
+			m_totalNanos = new AtomicLong();
+			m_maxNanos = 0;
+			m_maxLabel = null;
+		}
+		
+		public String getName()
+		{
+			return m_name;
+		}
+		
+		public long getCount()
+		{
+			return m_count.get();
+		}
+		
+		public long getTotalNanos()
+		{
+			return m_totalNanos.get();
+		}
+		
+		public synchronized long getMaxNanos()
+		{
+			return m_maxNanos;
+		}
+		
+		/**
+		 * Returns the label of the slowest stop() that had one, eg the class
+		 * that took the longest to decompile.
+		 */
+		public synchronized String getMaxLabel()
+		{
+			return m_maxLabel;
+		}
+		
+		/**
+		 * Returns the start time to pass to stop().
+		 */
+		public long start()
+		{
+			if(!Enabled)
+				return NotStarted;
+			return System.nanoTime();
+		}
+		
+		public void stop(long startNanos)
+		{
+			stop(startNanos, null);
+		}
+		
+		public void stop(long startNanos, String label)
+		{
+			if(startNanos == NotStarted)
+				return;
+			long nanos = System.nanoTime() - startNanos;
+			m_count.incrementAndGet();
+			m_totalNanos.addAndGet(nanos);
+			synchronized(this)
+			{
+				if(nanos > m_maxNanos)
+				{
+					m_maxNanos = nanos;
+					m_maxLabel = label;
+				}
+			}
+		}
+		
+		private synchronized void reset()
+		{
+			m_count.set(0);
+			m_totalNanos.set(0);
+			m_maxNanos = 0;
+			m_maxLabel = null;
+		}
+		
+		@Override
+		public String toString()
+		{
+			long count = m_count.get();
+			double totalMillis = m_totalNanos.get() / 1e6;
+			double meanMillis = count > 0 ? totalMillis / count : 0;
+			String text =
+				String.format("%-40s %12d %12.1f ms %10.3f ms %10.3f ms",
+					m_name, count, totalMillis, meanMillis,
+					getMaxNanos() / 1e6);
+			String maxLabel = getMaxLabel();
+			if(maxLabel != null)
+				text += " (" + maxLabel + ")";
+			return text;
+		}
+	}
+	
+	private static final long NotStarted = Long.MIN_VALUE;
+	
+	private static volatile boolean Enabled = false;
+	private static final ConcurrentMap<String, Counter> Counters = Maps
+		.newConcurrentMap();
+	private static final ConcurrentMap<String, Timer> Timers = Maps
+		.newConcurrentMap();
+	
+	public static boolean isEnabled()
+	{
+		return Enabled;
+	}
+	
+	public static void setEnabled(boolean val)
+	{
+		Enabled = val;
+	}
+	
+	public static Counter getCounter(String name)
+	{
+		Counter counter = Counters.get(name);
+		if(counter == null)
+		{
+			Counters.putIfAbsent(name, new Counter(name));
+			counter = Counters.get(name);
+		}
+		return counter;
+	}
+	
+	public static Timer getTimer(String name)
+	{
+		Timer timer = Timers.get(name);
+		if(timer == null)
+		{
+			Timers.putIfAbsent(name, new Timer(name));
+			timer = Timers.get(name);
+		}
+		return timer;
+	}
+	
+	public static void reset()
+	{
+		for(Counter counter : Counters.values())
+			counter.reset();
+		for(Timer timer : Timers.values())
+			timer.reset();
+	}
+	
+	public static void printSummary(PrintStream out)
+	{
+		out.println(String.format("%-40s %12s %15s %13s %13s", "Timer",
+			"Count", "Total", "Mean", "Max"));
+		for(Timer timer : new TreeMap<String, Timer>(Timers).values())
+			if(timer.getCount() > 0)
+				out.println(timer);
+		out.println();
+		out.println(String.format("%-40s %12s", "Counter", "Count"));
+		for(Counter counter : new TreeMap<String, Counter>(Counters).values())
+			if(counter.getCount() > 0)
+				out.println(counter);
+	}
+}
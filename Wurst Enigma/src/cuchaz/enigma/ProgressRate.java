@@ -0,0 +1,94 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Jeff Martin.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public
+ * License v3.0 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * Contributors:
+ * Jeff Martin - initial API and implementation
+ ******************************************************************************/
+package cuchaz.enigma;
+
+public class ProgressRate
+{
+	
+	// NOTE: progress listeners use this to show throughput and ETA. The rate
+	// is smoothed over samples at least SampleNanos apart, so one slow class
+	// doesn't swing the ETA around.
+	
+	private static final long SampleNanos = 1000000000L; // 1s
+	private static final double Smoothing = 0.3;
+	
+	private int m_totalWork;
+	private long m_startNanos;
+	private long m_sampleNanos;
+	private int m_sampleDone;
+	private double m_rate;
+	private int m_numDone;
+	
+	public ProgressRate()
+	{
+		init(0);
+	}
+	
+	public void init(int totalWork)
+	{
+		m_totalWork = totalWork;
+		m_startNanos = System.nanoTime();
+		m_sampleNanos = m_startNanos;
+		m_sampleDone = 0;
+		m_rate = Double.NaN;
+		m_numDone = 0;
+	}
+	
+	public void update(int numDone)
+	{
+		m_numDone = numDone;
+		long now = System.nanoTime();
+		long elapsedNanos = now - m_sampleNanos;
+		if(elapsedNanos < SampleNanos)
+			return;
+		
+		double sampleRate = (numDone - m_sampleDone) * 1e9 / elapsedNanos;
+		if(Double.isNaN(m_rate))
+			m_rate = sampleRate;
+		else
+			m_rate = Smoothing * sampleRate + (1 - Smoothing) * m_rate;
+		m_sampleNanos = now;
+		m_sampleDone = numDone;
+	}
+	
+	/**
+	 * Returns the work done per second, or NaN if it's too early to tell.
+	 */
+	public double getRate()
+	{
+		return m_rate;
+	}
+	
+	/**
+	 * Returns the seconds left, or -1 if it's too early to tell.
+	 */
+	public long getSecondsLeft()
+	{
+		if(Double.isNaN(m_rate) || m_rate <= 0)
+			return -1;
+		return (long)Math.ceil((m_totalWork - m_numDone) / m_rate);
+	}
+	
+	public double getElapsedSeconds()
+	{
+		return (System.nanoTime() - m_startNanos) / 1e9;
+	}
+	
+	@Override
+	public String toString()
+	{
+		long secondsLeft = getSecondsLeft();
+		if(secondsLeft < 0)
+			return "";
+		return String.format("%.1f/s, %d:%02d left", m_rate, secondsLeft / 60,
+			secondsLeft % 60);
+	}
+}
@@ -0,0 +1,369 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Jeff Martin.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public
+ * License v3.0 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * Contributors:
+ * Jeff Martin - initial API and implementation
+ ******************************************************************************/
+package cuchaz.enigma;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import cuchaz.enigma.analysis.EntryReference;
+import cuchaz.enigma.analysis.SourceIndex;
+import cuchaz.enigma.analysis.Token;
+import cuchaz.enigma.mapping.ArgumentEntry;
+import cuchaz.enigma.mapping.ClassEntry;
+import cuchaz.enigma.mapping.ConstructorEntry;
+import cuchaz.enigma.mapping.Entry;
+import cuchaz.enigma.mapping.FieldEntry;
+import cuchaz.enigma.mapping.MappingsSnapshot;
+import cuchaz.enigma.mapping.MethodEntry;
+import cuchaz.enigma.mapping.Signature;
+import cuchaz.enigma.mapping.Type;
+
+public class SourceCache
+{
+	
+	// NOTE: one file per top-level class, keyed by Deobfuscator.getSourceKey(). Bump
+	// FormatVersion whenever the file format changes.
+	
+	public static final long DefaultMaxBytes = 512L * 1024 * 1024;
+	
+	private static class CachedSource
+	{
+		
+		public String source;
+		public Map<Token, EntryReference<Entry, Entry>> obfReferences;
+		public Map<Entry, Token> obfDeclarations;
+	}
+	
+	private static final int FormatVersion = 1;
+	
+	// anyone who can write to the folder controls what read() deserializes,
+	// so it only makes the classes a cache file can hold
+	private static final Set<String> CachedClasses = Sets.newHashSet(
+		ArrayList.class.getName(), HashMap.class.getName(),
+		LinkedHashMap.class.getName(), Token.class.getName(),
+		EntryReference.class.getName(), ClassEntry.class.getName(),
+		FieldEntry.class.getName(), MethodEntry.class.getName(),
+		ConstructorEntry.class.getName(), ArgumentEntry.class.getName(),
+		Signature.class.getName(), Type.class.getName());
+	
+	// someone else might still be writing younger temp files
+	private static final long TempFileMaxAgeMillis = 60L * 60 * 1000; // 1h
+	
+	private static final Metrics.Counter HitCounter = Metrics
+		.getCounter("SourceCache.hits");
+	private static final Metrics.Counter MissCounter = Metrics
+		.getCounter("SourceCache.misses");
+	private static final Metrics.Counter EvictionCounter = Metrics
+		.getCounter("SourceCache.evictions");
+	
+	private File m_dir;
+	private long m_maxBytes;
+	private LinkedHashMap<String, Long> m_sizes;
+	private long m_numBytes;
+	
+	public SourceCache(File dir, long maxBytes)
+	{
+		m_dir = dir;
+		m_maxBytes = maxBytes;
+		
+		// least recently used first
+		m_sizes = new LinkedHashMap<String, Long>(16, 0.75f, true);
+		m_numBytes = 0;
+		List<File> files = Lists.newArrayList();
+		File[] subdirs = dir.listFiles();
+		if(subdirs != null)
+			for(File subdir : subdirs)
+			{
+				File[] subdirFiles = subdir.listFiles();
+				if(subdirFiles != null)
+					Collections.addAll(files, subdirFiles);
+			}
+		Collections.sort(files, new Comparator<File>()
+		{
+			@Override
+			public int compare(File a, File b)
+			{
+				return Long.compare(a.lastModified(), b.lastModified());
+			}
+		});
+		long now = System.currentTimeMillis();
+		for(File file : files)
+		{
+			// clean up after anyone who didn't finish writing
+			if(file.getName().endsWith(".tmp"))
+			{
+				if(now - file.lastModified() > TempFileMaxAgeMillis)
+					file.delete();
+				continue;
+			}
+			m_sizes.put(file.getName(), file.length());
+			m_numBytes += file.length();
+		}
+	}
+	
+	public static File getDefaultDir()
+	{
+		return new File(new File(System.getProperty("user.home"), ".enigma"),
+			"sources");
+	}
+	
+	public File getDir()
+	{
+		return m_dir;
+	}
+	
+	public long getMaxBytes()
+	{
+		return m_maxBytes;
+	}
+	
+	public synchronized int size()
+	{
+		return m_sizes.size();
+	}
+	
+	public synchronized long getNumBytes()
+	{
+		return m_numBytes;
+	}
+	
+	/**
+	 * Returns null if the class isn't cached.
+	 */
+	public String getSource(String key)
+	{
+		CachedSource cached = read(key);
+		if(cached == null)
+			return null;
+		return cached.source;
+	}
+	
+	/**
+	 * Returns null if the class isn't cached, or was cached without its
+	 * index.
+	 */
+	public SourceIndex getSourceIndex(String key, MappingsSnapshot snapshot)
+	{
+		CachedSource cached = read(key);
+		if(cached == null || cached.obfReferences == null)
+			return null;
+		
+		// put the current deobf names back in
+		SourceIndex index = new SourceIndex(cached.source);
+		for(Map.Entry<Token, EntryReference<Entry, Entry>> mapEntry : cached.obfReferences
+			.entrySet())
+		{
+			EntryReference<Entry, Entry> obfReference = mapEntry.getValue();
+			index.addReference(mapEntry.getKey(),
+				new EntryReference<Entry, Entry>(snapshot
+					.deobfuscateEntry(obfReference.entry), snapshot
+					.deobfuscateEntry(obfReference.context), obfReference));
+		}
+		for(Map.Entry<Entry, Token> mapEntry : cached.obfDeclarations
+			.entrySet())
+			index.addDeclaration(mapEntry.getValue(),
+				snapshot.deobfuscateEntry(mapEntry.getKey()));
+		return index;
+	}
+	
+	/**
+	 * Caches the source, with its index if it's not null. The snapshot must
+	 * be the one the index was built with.
+	 */
+	public void put(String key, String source, SourceIndex index,
+		MappingsSnapshot snapshot)
+	{
+		LinkedHashMap<Token, EntryReference<Entry, Entry>> obfReferences =
+			null;
+		LinkedHashMap<Entry, Token> obfDeclarations = null;
+		if(index != null)
+		{
+			obfReferences =
+				new LinkedHashMap<Token, EntryReference<Entry, Entry>>();
+			for(Token token : index.referenceTokens())
+			{
+				EntryReference<Entry, Entry> deobfReference =
+					index.getDeobfReference(token);
+				obfReferences.put(token, new EntryReference<Entry, Entry>(
+					snapshot.obfuscateEntry(deobfReference.entry), snapshot
+						.obfuscateEntry(deobfReference.context),
+					deobfReference));
+			}
+			obfDeclarations = new LinkedHashMap<Entry, Token>();
+			for(Entry deobfEntry : index.declarations())
+				obfDeclarations.put(snapshot.obfuscateEntry(deobfEntry),
+					index.getDeclarationToken(deobfEntry));
+		}
+		
+		File file = getFile(key);
+		File tempFile = null;
+		try
+		{
+			// worker processes share the folder, so the temp names have to
+			// be unique across processes too
+			file.getParentFile().mkdirs();
+			tempFile =
+				File.createTempFile(key + ".", ".tmp", file.getParentFile());
+			try(ObjectOutputStream oout =
+				new ObjectOutputStream(new GZIPOutputStream(
+					new BufferedOutputStream(new FileOutputStream(tempFile)))))
+			{
+				oout.writeInt(FormatVersion);
+				oout.writeObject(source);
+				oout.writeObject(obfReferences);
+				oout.writeObject(obfDeclarations);
+			}
+			file.delete();
+			if(!tempFile.renameTo(file))
+				throw new IOException("Unable to rename " + tempFile);
+		}catch(IOException ex)
+		{
+			// the cache is just an optimization, so keep going without it
+			if(tempFile != null)
+				tempFile.delete();
+			System.err.println("WARNING: Unable to cache source for " + key
+				+ ": " + ex);
+			return;
+		}
+		
+		synchronized(this)
+		{
+			Long oldSize = m_sizes.put(key, file.length());
+			if(oldSize != null)
+				m_numBytes -= oldSize;
+			m_numBytes += file.length();
+			evict();
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	private CachedSource read(String key)
+	{
+		File file = getFile(key);
+		if(!file.exists())
+		{
+			synchronized(this)
+			{
+				Long size = m_sizes.remove(key);
+				if(size != null)
+					m_numBytes -= size;
+			}
+			MissCounter.increment();
+			return null;
+		}
+		
+		CachedSource cached = new CachedSource();
+		try(ObjectInputStream oin =
+			new CachedSourceInputStream(new GZIPInputStream(
+				new BufferedInputStream(new FileInputStream(file)))))
+		{
+			if(oin.readInt() != FormatVersion)
+			{
+				MissCounter.increment();
+				return null;
+			}
+			cached.source = (String)oin.readObject();
+			cached.obfReferences =
+				(Map<Token, EntryReference<Entry, Entry>>)oin.readObject();
+			cached.obfDeclarations = (Map<Entry, Token>)oin.readObject();
+		}catch(IOException | ClassNotFoundException ex)
+		{
+			// probably evicted by someone else while we were reading
+			MissCounter.increment();
+			return null;
+		}
+		
+		// mark it as recently used, for us and for anyone else sharing the
+		// folder
+		file.setLastModified(System.currentTimeMillis());
+		synchronized(this)
+		{
+			if(!m_sizes.containsKey(key))
+			{
+				m_sizes.put(key, file.length());
+				m_numBytes += file.length();
+			}else
+				m_sizes.get(key);
+		}
+		HitCounter.increment();
+		return cached;
+	}
+	
+	private void evict()
+	{
+		// NOTE: the caller must hold the lock
+		Iterator<Map.Entry<String, Long>> iter =
+			m_sizes.entrySet().iterator();
+		while(m_numBytes > m_maxBytes && iter.hasNext())
+		{
+			Map.Entry<String, Long> mapEntry = iter.next();
+			getFile(mapEntry.getKey()).delete();
+			m_numBytes -= mapEntry.getValue();
+			iter.remove();
+			EvictionCounter.increment();
+		}
+	}
+	
+	private File getFile(String key)
+	{
+		return new File(new File(m_dir, key.substring(0, 2)), key);
+	}
+	
+	private static class CachedSourceInputStream extends ObjectInputStream
+	{
+		
+		public CachedSourceInputStream(InputStream in) throws IOException
+		{
+			super(in);
+		}
+		
+		@Override
+		protected Class<?> resolveClass(ObjectStreamClass desc)
+			throws IOException, ClassNotFoundException
+		{
+			if(!CachedClasses.contains(desc.getName()))
+				throw new InvalidClassException(desc.getName(),
+					"Not allowed in the source cache");
+			return super.resolveClass(desc);
+		}
+		
+		@Override
+		protected Class<?> resolveProxyClass(String[] interfaces)
+			throws IOException
+		{
+			throw new InvalidClassException("Proxies aren't allowed in the"
+				+ " source cache");
+		}
+	}
+}
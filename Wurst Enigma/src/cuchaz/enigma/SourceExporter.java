@@ -0,0 +1,750 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Jeff Martin.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public
+ * License v3.0 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * Contributors:
+ * Jeff Martin - initial API and implementation
+ ******************************************************************************/
+package cuchaz.enigma;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+import cuchaz.enigma.DecompileWatchdog.Decompilation;
+import cuchaz.enigma.Deobfuscator.ProgressListener;
+import cuchaz.enigma.ExportManifest.ClassRecord;
+import cuchaz.enigma.ExportProfile.ClassProfile;
+import cuchaz.enigma.analysis.DependencyIndex;
+import cuchaz.enigma.analysis.JarIndex;
+import cuchaz.enigma.analysis.SourceIndex;
+import cuchaz.enigma.mapping.ArgumentEntry;
+import cuchaz.enigma.mapping.BehaviorEntry;
+import cuchaz.enigma.mapping.ClassEntry;
+import cuchaz.enigma.mapping.Entry;
+import cuchaz.enigma.mapping.MappingsSnapshot;
+import cuchaz.enigma.mapping.TranslationDirection;
+import cuchaz.enigma.mapping.Translator;
+
+public class SourceExporter
+{
+	
+	// NOTE: a class that can't be decompiled shows up as failed in the profile
+	// instead of stopping the export
+	
+	public interface SourceProcessor
+	{
+		/**
+		 * Returns the source to write, or null to skip the class.
+		 */
+		String process(ClassEntry obfClassEntry, String source);
+	}
+	
+	private static final Metrics.Timer DecompileClassTimer = Metrics
+		.getTimer("SourceExporter.decompileClass");
+	private static final Metrics.Timer WriteSourceTimer = Metrics
+		.getTimer("SourceExporter.writeSource");
+	private static final Metrics.Timer ExportTimer = Metrics
+		.getTimer("SourceExporter.export");
+	private static final Metrics.Timer ManifestTimer = Metrics
+		.getTimer("SourceExporter.manifest");
+	
+	private Deobfuscator m_deobfuscator;
+	private MappingsSnapshot m_snapshot;
+	private Translator m_obfuscatingTranslator;
+	private Translator m_deobfuscatingTranslator;
+	private SourceProcessor m_processor;
+	private long m_timeoutMillis;
+	private int m_numThreads;
+	private int m_numProcesses;
+	private boolean m_hasCustomTranslators;
+	private String m_customKey;
+	private boolean m_isIncremental;
+	private Set<ClassEntry> m_obfClassEntries;
+	private ExportManifest m_manifest;
+	private Map<ClassEntry, ClassRecord> m_pendingRecords;
+	private volatile ExportWorkerPool m_pool;
+	private ExportProfile m_profile;
+	private volatile boolean m_isCancelled;
+	
+	public SourceExporter(Deobfuscator deobfuscator)
+	{
+		m_deobfuscator = deobfuscator;
+		
+		// stick with these mappings even if they change while we're exporting
+		m_snapshot = deobfuscator.getSnapshot();
+		m_obfuscatingTranslator =
+			m_snapshot.getTranslator(TranslationDirection.Obfuscating);
+		m_deobfuscatingTranslator =
+			m_snapshot.getTranslator(TranslationDirection.Deobfuscating);
+		m_processor = null;
+		m_timeoutMillis = DecompileWatchdog.DefaultTimeoutMillis;
+		m_numThreads = Runtime.getRuntime().availableProcessors();
+		m_numProcesses = 0;
+		m_hasCustomTranslators = false;
+		m_customKey = null;
+		m_isIncremental = true;
+		m_obfClassEntries = null;
+		m_manifest = null;
+		m_pendingRecords = null;
+		m_pool = null;
+		m_profile = new ExportProfile();
+		m_isCancelled = false;
+	}
+	
+	public MappingsSnapshot getSnapshot()
+	{
+		return m_snapshot;
+	}
+	
+	/**
+	 * Sets the translators the decompiler sees. The files are still named by
+	 * the snapshot.
+	 */
+	public void setTranslators(Translator obfuscatingTranslator,
+		Translator deobfuscatingTranslator)
+	{
+		m_obfuscatingTranslator = obfuscatingTranslator;
+		m_deobfuscatingTranslator = deobfuscatingTranslator;
+		m_hasCustomTranslators = true;
+	}
+	
+	public void setProcessor(SourceProcessor val)
+	{
+		m_processor = val;
+	}
+	
+	/**
+	 * Describes the custom translators and the processor, so the next export
+	 * can tell if they would write different sources. Without it, exports
+	 * that use either of them can't skip any classes.
+	 */
+	public void setCustomKey(String val)
+	{
+		m_customKey = val;
+	}
+	
+	/**
+	 * Exports all classes if false, even the ones the manifest says are up
+	 * to date.
+	 */
+	public void setIncremental(boolean val)
+	{
+		m_isIncremental = val;
+	}
+	
+	/**
+	 * Sets how long one class may take to decompile, 0 means no limit.
+	 */
+	public void setTimeout(long millis)
+	{
+		m_timeoutMillis = millis;
+	}
+	
+	/**
+	 * Sets the most classes to decompile at once. The governor may run fewer
+	 * if the heap gets tight.
+	 */
+	public void setNumThreads(int val)
+	{
+		m_numThreads = Math.max(1, val);
+	}
+	
+	/**
+	 * Decompiles in this many worker JVMs instead of threads, or in this JVM
+	 * if it's 0. The workers only know the snapshot's own translators.
+	 */
+	public void setNumProcesses(int val)
+	{
+		m_numProcesses = Math.max(0, val);
+	}
+	
+	/**
+	 * Only exports these top-level classes, eg the ones reachable from some
+	 * entry points. Null means all of them. Sources of other classes left
+	 * over from an earlier incremental export get deleted.
+	 */
+	public void setClasses(Set<ClassEntry> obfClassEntries)
+	{
+		m_obfClassEntries = obfClassEntries;
+	}
+	
+	public ExportProfile getProfile()
+	{
+		return m_profile;
+	}
+	
+	public void cancel()
+	{
+		m_isCancelled = true;
+		ExportWorkerPool pool = m_pool;
+		if(pool != null)
+			pool.cancel();
+	}
+	
+	public boolean isCancelled()
+	{
+		return m_isCancelled;
+	}
+	
+	public void export(File dirOut, ProgressListener progress)
+		throws IOException
+	{
+		m_deobfuscator.waitForIndex();
+		long startNanos = System.nanoTime();
+		long timerStartNanos = ExportTimer.start();
+		
+		// get the classes to decompile, most expensive first
+		JarIndex index = m_deobfuscator.getJarIndex();
+		final Map<ClassEntry, Long> costs = Maps.newHashMap();
+		List<ClassEntry> classEntries = Lists.newArrayList();
+		for(ClassEntry obfClassEntry : index.getObfClassEntries())
+		{
+			// skip inner classes
+			if(obfClassEntry.isInnerClass())
+				continue;
+			if(m_obfClassEntries != null
+				&& !m_obfClassEntries.contains(obfClassEntry))
+				continue;
+			
+			classEntries.add(obfClassEntry);
+			costs.put(obfClassEntry,
+				DecompileGovernor.estimateCost(index, obfClassEntry));
+		}
+		Collections.sort(classEntries, new Comparator<ClassEntry>()
+		{
+			@Override
+			public int compare(ClassEntry a, ClassEntry b)
+			{
+				int diff = Long.compare(costs.get(b), costs.get(a));
+				if(diff != 0)
+					return diff;
+				return a.getName().compareTo(b.getName());
+			}
+		});
+		
+		// skip the classes that didn't change since the last export
+		File fileManifest = ExportManifest.getFile(dirOut);
+		String key = getManifestKey();
+		if(key != null)
+		{
+			if(progress != null)
+				progress.init(classEntries.size(), "Checking for changes...");
+			m_manifest = new ExportManifest(key);
+			classEntries = getChangedClasses(dirOut, classEntries);
+		}else
+			// we can't tell what changed, so don't let the next export guess
+			fileManifest.delete();
+		
+		if(progress != null)
+			progress.init(classEntries.size(), "Decompiling classes...");
+		DecompileWatchdog watchdog =
+			new DecompileWatchdog(m_deobfuscator, m_timeoutMillis);
+		
+		// DEOBFUSCATE ALL THE THINGS!! @_@
+		try
+		{
+			if(m_numProcesses > 0)
+				exportInProcesses(dirOut, classEntries, progress);
+			else if(m_numThreads <= 1)
+			{
+				int i = 0;
+				for(ClassEntry obfClassEntry : classEntries)
+				{
+					if(m_isCancelled)
+						break;
+					ClassEntry deobfClassEntry =
+						m_snapshot.deobfuscateEntry(new ClassEntry(
+							obfClassEntry));
+					if(progress != null)
+						progress.onProgress(i++, deobfClassEntry.toString());
+					exportClass(dirOut, watchdog, obfClassEntry,
+						deobfClassEntry);
+				}
+			}else
+				exportInParallel(dirOut, watchdog, classEntries, costs,
+					progress);
+		}finally
+		{
+			// even a cancelled export knows which sources are up to date
+			if(m_manifest != null)
+				m_manifest.write(fileManifest);
+			m_manifest = null;
+			m_pendingRecords = null;
+		}
+		
+		ExportTimer.stop(timerStartNanos);
+		m_profile.setElapsedNanos(System.nanoTime() - startNanos);
+		if(progress != null)
+			progress.onProgress(classEntries.size(), "Done!");
+	}
+	
+	private String getManifestKey()
+	{
+		if((m_hasCustomTranslators || m_processor != null)
+			&& m_customKey == null)
+			return null;
+		return Hashing
+			.sha1()
+			.hashUnencodedChars(
+				m_deobfuscator.getDecompilerKey() + "\0"
+					+ (m_customKey != null ? m_customKey : "")).toString();
+	}
+	
+	private List<ClassEntry> getChangedClasses(File dirOut,
+		List<ClassEntry> classEntries) throws IOException
+	{
+		long timerStartNanos = ManifestTimer.start();
+		
+		// even when the old sources can't be reused, the old manifest still
+		// says which ones are there
+		ExportManifest oldManifest =
+			ExportManifest.read(ExportManifest.getFile(dirOut));
+		boolean canSkip = m_isIncremental && oldManifest != null;
+		if(canSkip && !oldManifest.getKey().equals(m_manifest.getKey()))
+		{
+			System.out.println("Export settings changed, exporting all classes");
+			canSkip = false;
+		}
+		
+		DependencyIndex dependencyIndex = m_deobfuscator.getDependencyIndex();
+		TranslatingTypeLoader loader =
+			m_deobfuscator.newTypeLoader(m_obfuscatingTranslator,
+				m_deobfuscatingTranslator);
+		m_pendingRecords = Maps.newHashMap();
+		Set<String> paths = Sets.newHashSet();
+		List<ClassEntry> changedClassEntries = Lists.newArrayList();
+		for(ClassEntry obfClassEntry : classEntries)
+		{
+			ClassRecord record =
+				new ClassRecord(obfClassEntry.getName(), getInputHash(
+					obfClassEntry, loader), getMappingsHash(obfClassEntry,
+					dependencyIndex), getPath(m_snapshot.deobfuscateEntry(
+					new ClassEntry(obfClassEntry)).getName()), null);
+			paths.add(record.getPath());
+			ClassRecord oldRecord =
+				canSkip ? oldManifest.get(obfClassEntry.getName()) : null;
+			if(oldRecord != null && oldRecord.hasSameInputs(record)
+				&& isUnchanged(dirOut, oldRecord))
+			{
+				m_manifest.put(oldRecord);
+				continue;
+			}
+			
+			// the source still belongs to the class until it's written again
+			if(oldRecord != null && oldRecord.getPath().equals(record.getPath()))
+				m_manifest.put(oldRecord);
+			m_pendingRecords.put(obfClassEntry, record);
+			changedClassEntries.add(obfClassEntry);
+		}
+		
+		// delete the sources of classes that were renamed or are gone
+		int numDeleted = 0;
+		if(oldManifest != null)
+			for(ClassRecord oldRecord : oldManifest.getRecords())
+				if(!paths.contains(oldRecord.getPath())
+					&& deleteSource(dirOut, oldRecord.getPath()))
+					numDeleted++;
+		
+		m_profile.setNumUnchanged(classEntries.size()
+			- changedClassEntries.size());
+		m_profile.setNumDeleted(numDeleted);
+		ManifestTimer.stop(timerStartNanos);
+		return changedClassEntries;
+	}
+	
+	private String getInputHash(ClassEntry obfClassEntry,
+		TranslatingTypeLoader loader) throws IOException
+	{
+		Hasher hasher = Hashing.sha1().newHasher();
+		putRawClass(hasher, obfClassEntry, loader);
+		return hasher.hash().toString();
+	}
+	
+	private void putRawClass(Hasher hasher, ClassEntry obfClassEntry,
+		TranslatingTypeLoader loader) throws IOException
+	{
+		byte[] data = loader.loadRawType(obfClassEntry);
+		hasher.putInt(data != null ? data.length : -1);
+		if(data != null)
+			hasher.putBytes(data);
+		
+		// inner classes are decompiled along with their outer class
+		Collection<ClassEntry> obfInnerClassEntries =
+			m_deobfuscator.getJarIndex().getInnerClasses(obfClassEntry);
+		if(obfInnerClassEntries == null)
+			return;
+		for(ClassEntry obfInnerClassEntry : sortByName(obfInnerClassEntries))
+			putRawClass(hasher, obfInnerClassEntry, loader);
+	}
+	
+	private String getMappingsHash(ClassEntry obfClassEntry,
+		DependencyIndex dependencyIndex)
+	{
+		Hasher hasher = Hashing.sha1().newHasher();
+		List<String> lines = Lists.newArrayList();
+		for(Entry obfEntry : dependencyIndex.getDependencies(obfClassEntry))
+		{
+			StringBuilder buf = new StringBuilder();
+			buf.append(obfEntry).append(" -> ")
+				.append(m_deobfuscatingTranslator.translateEntry(obfEntry));
+			
+			// argument names only show up in the class that declares them
+			if(obfEntry instanceof BehaviorEntry
+				&& obfEntry.getClassEntry().getOutermostClassEntry()
+					.equals(obfClassEntry))
+			{
+				BehaviorEntry obfBehaviorEntry = (BehaviorEntry)obfEntry;
+				if(obfBehaviorEntry.getSignature() != null)
+					for(int i = 0; i < obfBehaviorEntry.getSignature()
+						.getArgumentTypes().size(); i++)
+						buf.append(" ").append(
+							m_deobfuscatingTranslator.translate(new ArgumentEntry(
+								obfBehaviorEntry, i, "")));
+			}
+			lines.add(buf.toString());
+		}
+		Collections.sort(lines);
+		for(String line : lines)
+			hasher.putUnencodedChars(line).putChar('\n');
+		return hasher.hash().toString();
+	}
+	
+	private static List<ClassEntry> sortByName(
+		Collection<ClassEntry> classEntries)
+	{
+		List<ClassEntry> sortedClassEntries = Lists.newArrayList(classEntries);
+		Collections.sort(sortedClassEntries, new Comparator<ClassEntry>()
+		{
+			@Override
+			public int compare(ClassEntry a, ClassEntry b)
+			{
+				return a.getName().compareTo(b.getName());
+			}
+		});
+		return sortedClassEntries;
+	}
+	
+	private static boolean isUnchanged(File dirOut, ClassRecord record)
+	{
+		File file = new File(dirOut, record.getPath());
+		if(!file.isFile())
+			return false;
+		try
+		{
+			return Files.hash(file, Hashing.sha1()).toString()
+				.equals(record.getOutputHash());
+		}catch(IOException ex)
+		{
+			return false;
+		}
+	}
+	
+	private static boolean deleteSource(File dirOut, String path)
+		throws IOException
+	{
+		// the manifest is just a file in the folder, don't trust it
+		dirOut = dirOut.getCanonicalFile();
+		File file = new File(dirOut, path).getCanonicalFile();
+		if(!file.toPath().startsWith(dirOut.toPath()) || file.equals(dirOut))
+		{
+			System.err.println("WARNING: Not deleting " + path
+				+ ", it's outside of " + dirOut);
+			return false;
+		}
+		if(!file.delete())
+			return false;
+		
+		// don't leave empty packages behind
+		File dir = file.getParentFile();
+		while(!dir.equals(dirOut) && dir.delete())
+			dir = dir.getParentFile();
+		return true;
+	}
+	
+	private static String getPath(String className)
+	{
+		return className.replace('.', '/') + ".java";
+	}
+	
+	private void exportInParallel(final File dirOut,
+		final DecompileWatchdog watchdog, final List<ClassEntry> classEntries,
+		final Map<ClassEntry, Long> costs, final ProgressListener progress)
+	{
+		final DecompileGovernor governor = new DecompileGovernor(m_numThreads);
+		watchdog.setGovernor(governor);
+		final AtomicInteger nextIndex = new AtomicInteger();
+		final int[] numDone = {0};
+		List<Callable<Void>> workers = Lists.newArrayList();
+		for(int i = 0; i < m_numThreads; i++)
+			workers.add(new Callable<Void>()
+			{
+				@Override
+				public Void call() throws InterruptedException
+				{
+					while(!m_isCancelled)
+					{
+						int index = nextIndex.getAndIncrement();
+						if(index >= classEntries.size())
+							break;
+						ClassEntry obfClassEntry = classEntries.get(index);
+						ClassEntry deobfClassEntry =
+							m_snapshot.deobfuscateEntry(new ClassEntry(
+								obfClassEntry));
+						long cost = costs.get(obfClassEntry);
+						governor.acquire(cost);
+						try
+						{
+							exportClass(dirOut, watchdog, obfClassEntry,
+								deobfClassEntry);
+						}finally
+						{
+							governor.release(cost);
+						}
+						if(progress != null)
+							synchronized(numDone)
+							{
+								progress.onProgress(numDone[0]++,
+									deobfClassEntry.toString());
+							}
+					}
+					return null;
+				}
+			});
+		
+		ExecutorService pool = Executors.newFixedThreadPool(m_numThreads);
+		try
+		{
+			for(Future<Void> future : pool.invokeAll(workers))
+				future.get();
+		}catch(ExecutionException ex)
+		{
+			if(ex.getCause() instanceof RuntimeException)
+				throw (RuntimeException)ex.getCause();
+			if(ex.getCause() instanceof Error)
+				throw (Error)ex.getCause();
+			throw new Error(ex.getCause());
+		}catch(InterruptedException ex)
+		{
+			throw new Error(ex);
+		}finally
+		{
+			pool.shutdownNow();
+		}
+	}
+	
+	private void exportInProcesses(final File dirOut,
+		List<ClassEntry> classEntries, final ProgressListener progress)
+		throws IOException
+	{
+		if(m_hasCustomTranslators)
+			throw new IllegalStateException(
+				"Export workers can't use custom translators");
+		
+		final int[] numDone = {0};
+		m_pool =
+			new ExportWorkerPool(m_deobfuscator, m_snapshot, m_numProcesses,
+				m_timeoutMillis);
+		if(m_isCancelled)
+			m_pool.cancel();
+		try
+		{
+			m_pool.run(classEntries, new ExportWorkerPool.ResultListener()
+			{
+				@Override
+				public void onResult(ClassEntry obfClassEntry,
+					ClassProfile classProfile, String source)
+				{
+					// the worker already warned about failures
+					writeClass(dirOut, obfClassEntry, source, classProfile);
+					if(progress != null)
+						progress.onProgress(numDone[0]++,
+							classProfile.getClassName());
+				}
+			});
+		}finally
+		{
+			m_pool = null;
+		}
+	}
+	
+	private void exportClass(File dirOut, DecompileWatchdog watchdog,
+		ClassEntry obfClassEntry, ClassEntry deobfClassEntry)
+	{
+		ClassProfile classProfile =
+			new ClassProfile(deobfClassEntry.getName(),
+				obfClassEntry.getName());
+		String source = decompileClass(watchdog, obfClassEntry, classProfile);
+		writeClass(dirOut, obfClassEntry, source, classProfile);
+	}
+	
+	/**
+	 * Returns null if the class couldn't be decompiled, the profile says why.
+	 */
+	String decompileClass(DecompileWatchdog watchdog,
+		ClassEntry obfClassEntry, ClassProfile classProfile)
+	{
+		long startNanos = System.nanoTime();
+		try
+		{
+			// see if the class was decompiled before
+			SourceCache cache = m_deobfuscator.getSourceCache();
+			String key = null;
+			TranslatingTypeLoader loader = null;
+			if(cache != null)
+			{
+				loader =
+					m_deobfuscator.newTypeLoader(m_obfuscatingTranslator,
+						m_deobfuscatingTranslator);
+				key =
+					m_deobfuscator.getSourceKey(obfClassEntry,
+						m_deobfuscatingTranslator, loader);
+				String source = cache.getSource(key);
+				if(source != null)
+				{
+					classProfile.setCached(true);
+					classProfile.setDecompileNanos(System.nanoTime()
+						- startNanos);
+					return source;
+				}
+			}
+			
+			// get the source
+			long timerStartNanos = DecompileClassTimer.start();
+			Decompilation decompilation =
+				watchdog.decompile(obfClassEntry.getName(),
+					m_obfuscatingTranslator, m_deobfuscatingTranslator, loader);
+			long renderStartNanos = System.nanoTime();
+			classProfile.setDecompileNanos(renderStartNanos - startNanos);
+			String source;
+			if(decompilation == null)
+			{
+				classProfile.setFallback("stub");
+				source =
+					watchdog.getStubSource(obfClassEntry,
+						m_deobfuscatingTranslator);
+			}else
+			{
+				if(decompilation.isCheap())
+					classProfile.setFallback("cheap");
+				classProfile.setTransformedBytes(decompilation
+					.getNumLoadedBytes());
+				source =
+					m_deobfuscator.getSource(decompilation.getSourceTree());
+			}
+			classProfile.setRenderNanos(System.nanoTime() - renderStartNanos);
+			DecompileClassTimer.stop(timerStartNanos,
+				classProfile.getClassName());
+			
+			// only cache full decompiles, the fallbacks get another chance
+			// next time
+			if(cache != null && decompilation != null
+				&& !decompilation.isCheap())
+			{
+				// the GUI can't use an index built with custom translators
+				SourceIndex index = null;
+				if(!m_hasCustomTranslators)
+					index =
+						m_deobfuscator.getSourceIndex(
+							decompilation.getSourceTree(), source, null,
+							m_snapshot);
+				cache.put(key, source, index, m_snapshot);
+			}
+			return source;
+		}catch(Throwable t)
+		{
+			// charge the time to where it failed
+			if(classProfile.getDecompileNanos() == 0)
+				classProfile.setDecompileNanos(System.nanoTime() - startNanos);
+			else
+				classProfile.setRenderNanos(System.nanoTime() - startNanos
+					- classProfile.getDecompileNanos());
+			classProfile.setFailure(t);
+			
+			// there's no point going on without memory
+			if(t instanceof VirtualMachineError)
+				throw (VirtualMachineError)t;
+			printFailure(classProfile);
+			return null;
+		}
+	}
+	
+	/**
+	 * Runs the processor on the source, writes it and adds the class to the
+	 * profile. A null source means the class failed to decompile.
+	 */
+	void writeClass(File dirOut, ClassEntry obfClassEntry, String source,
+		ClassProfile classProfile)
+	{
+		try
+		{
+			if(source == null)
+				return;
+			if(m_processor != null)
+			{
+				source = m_processor.process(obfClassEntry, source);
+				if(source == null)
+					return;
+			}
+			classProfile.setSourceLength(source.length());
+			
+			// write the file, the manifest hashes the very same bytes
+			long timerStartNanos = WriteSourceTimer.start();
+			long startNanos = System.nanoTime();
+			String path = getPath(classProfile.getClassName());
+			File file = new File(dirOut, path);
+			file.getParentFile().mkdirs();
+			byte[] bytes = source.getBytes(Charsets.UTF_8);
+			Files.write(bytes, file);
+			classProfile.setWriteNanos(System.nanoTime() - startNanos);
+			WriteSourceTimer.stop(timerStartNanos);
+			
+			// only full decompiles count as up to date
+			ExportManifest manifest = m_manifest;
+			if(manifest != null && classProfile.getFallback() == null)
+			{
+				ClassRecord record = m_pendingRecords.get(obfClassEntry);
+				manifest.put(new ClassRecord(record.getObfClassName(), record
+					.getInputHash(), record.getMappingsHash(), path, Hashing
+					.sha1().hashBytes(bytes).toString()));
+			}
+		}catch(IOException | RuntimeException ex)
+		{
+			classProfile.setFailure(ex);
+			printFailure(classProfile);
+		}finally
+		{
+			m_profile.add(classProfile);
+		}
+	}
+	
+	private static void printFailure(ClassProfile classProfile)
+	{
+		System.err.println("WARNING: Unable to deobfuscate class "
+			+ classProfile.getClassName() + " ("
+			+ classProfile.getObfClassName() + "): "
+			+ classProfile.getFailure());
+	}
+}
@@ -44,11 +44,21 @@ import cuchaz.enigma.mapping.Translator;
 public class TranslatingTypeLoader implements ITypeLoader
 {
 	
+	private static final Metrics.Timer LoadTimer = Metrics
+		.getTimer("TranslatingTypeLoader.load");
+	private static final Metrics.Timer TransformTimer = Metrics
+		.getTimer("TranslatingTypeLoader.transform");
+	private static final Metrics.Counter CacheHits = Metrics
+		.getCounter("TranslatingTypeLoader.cacheHits");
+	private static final Metrics.Counter CacheMisses = Metrics
+		.getCounter("TranslatingTypeLoader.cacheMisses");
+	
 	private JarFile m_jar;
 	private JarIndex m_jarIndex;
 	private Translator m_obfuscatingTranslator;
 	private Translator m_deobfuscatingTranslator;
 	private Map<String, byte[]> m_cache;
+	private int m_numLoadedBytes;
 	private ClasspathTypeLoader m_defaultTypeLoader;
 	
 	public TranslatingTypeLoader(JarFile jar, JarIndex jarIndex)
@@ -64,6 +74,7 @@ public class TranslatingTypeLoader implements ITypeLoader
 		m_obfuscatingTranslator = obfuscatingTranslator;
 		m_deobfuscatingTranslator = deobfuscatingTranslator;
 		m_cache = Maps.newHashMap();
+		m_numLoadedBytes = 0;
 		m_defaultTypeLoader = new ClasspathTypeLoader();
 	}
 	
@@ -72,20 +83,19 @@ public class TranslatingTypeLoader implements ITypeLoader
 		m_cache.clear();
 	}
 	
+	/**
+	 * Returns the size of the transformed classes from the jar that were sent
+	 * to the decompiler so far.
+	 */
+	public int getNumLoadedBytes()
+	{
+		return m_numLoadedBytes;
+	}
+	
 	@Override
 	public boolean tryLoadType(String className, Buffer out)
 	{
-		
-		// check the cache
-		byte[] data;
-		if(m_cache.containsKey(className))
-			data = m_cache.get(className);
-		else
-		{
-			data = loadType(className);
-			m_cache.put(className, data);
-		}
-		
+		byte[] data = loadTransformedType(className);
 		if(data == null)
 			// chain to default type loader
 			return m_defaultTypeLoader.tryLoadType(className, out);
@@ -97,6 +107,29 @@ public class TranslatingTypeLoader implements ITypeLoader
 		return true;
 	}
 	
+	/**
+	 * Returns the class as the decompiler sees it, or null if it's not in the
+	 * jar. The class is kept for the decompiler.
+	 */
+	public byte[] loadTransformedType(String className)
+	{
+		// check the cache
+		byte[] data;
+		if(m_cache.containsKey(className))
+		{
+			CacheHits.increment();
+			data = m_cache.get(className);
+		}else
+		{
+			CacheMisses.increment();
+			data = loadType(className);
+			m_cache.put(className, data);
+			if(data != null)
+				m_numLoadedBytes += data.length;
+		}
+		return data;
+	}
+	
 	public CtClass loadClass(String deobfClassName)
 	{
 		
@@ -119,6 +152,18 @@ public class TranslatingTypeLoader implements ITypeLoader
 	}
 	
 	private byte[] loadType(String className)
+	{
+		long startNanos = LoadTimer.start();
+		try
+		{
+			return loadTypeUntimed(className);
+		}finally
+		{
+			LoadTimer.stop(startNanos, className);
+		}
+	}
+	
+	private byte[] loadTypeUntimed(String className)
 	{
 		
 		// NOTE: don't know if class name is obf or deobf
@@ -161,21 +206,7 @@ public class TranslatingTypeLoader implements ITypeLoader
 		try
 		{
 			// read the class file into a buffer
-			ByteArrayOutputStream data = new ByteArrayOutputStream();
-			byte[] buf = new byte[1024 * 1024]; // 1 KiB
-			InputStream in =
-				m_jar.getInputStream(m_jar.getJarEntry(classInJarName
-					+ ".class"));
-			while(true)
-			{
-				int bytesRead = in.read(buf);
-				if(bytesRead <= 0)
-					break;
-				data.write(buf, 0, bytesRead);
-			}
-			data.close();
-			in.close();
-			buf = data.toByteArray();
+			byte[] buf = readClassFile(classInJarName);
 			
 			// load the javassist handle to the raw class
 			ClassPool classPool = new ClassPool();
@@ -200,6 +231,36 @@ public class TranslatingTypeLoader implements ITypeLoader
 		}
 	}
 	
+	/**
+	 * Reads the class file exactly as it is in the jar, without any of the
+	 * transformations. Returns null if the jar doesn't have the class.
+	 */
+	public byte[] loadRawType(ClassEntry obfClassEntry) throws IOException
+	{
+		String classInJarName = findClassInJar(obfClassEntry);
+		if(classInJarName == null)
+			return null;
+		return readClassFile(classInJarName);
+	}
+	
+	private byte[] readClassFile(String classInJarName) throws IOException
+	{
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		byte[] buf = new byte[1024 * 1024]; // 1 KiB
+		InputStream in =
+			m_jar.getInputStream(m_jar.getJarEntry(classInJarName + ".class"));
+		while(true)
+		{
+			int bytesRead = in.read(buf);
+			if(bytesRead <= 0)
+				break;
+			data.write(buf, 0, bytesRead);
+		}
+		data.close();
+		in.close();
+		return data.toByteArray();
+	}
+	
 	private String findClassInJar(ClassEntry obfClassEntry)
 	{
 		
@@ -237,6 +298,8 @@ public class TranslatingTypeLoader implements ITypeLoader
 	public CtClass transformClass(CtClass c) throws IOException,
 		NotFoundException, CannotCompileException
 	{
+		long startNanos = TransformTimer.start();
+		String className = c.getName();
 		
 		// we moved a lot of classes out of the default package into the none
 		// package
@@ -268,6 +331,7 @@ public class TranslatingTypeLoader implements ITypeLoader
 		new LocalVariableRenamer(m_deobfuscatingTranslator).rename(c);
 		new ClassTranslator(m_deobfuscatingTranslator).translate(c);
 		
+		TransformTimer.stop(startNanos, className);
 		return c;
 	}
 	
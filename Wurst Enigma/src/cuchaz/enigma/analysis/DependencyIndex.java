@@ -0,0 +1,214 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Jeff Martin.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public
+ * License v3.0 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * Contributors:
+ * Jeff Martin - initial API and implementation
+ ******************************************************************************/
+package cuchaz.enigma.analysis;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.JarFile;
+
+import javassist.CtBehavior;
+import javassist.CtClass;
+import javassist.CtField;
+import javassist.bytecode.ConstPool;
+import javassist.bytecode.Descriptor;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Sets;
+
+import cuchaz.enigma.Constants;
+import cuchaz.enigma.Metrics;
+import cuchaz.enigma.bytecode.ClassRenamer;
+import cuchaz.enigma.mapping.ArgumentEntry;
+import cuchaz.enigma.mapping.ClassEntry;
+import cuchaz.enigma.mapping.ClassNameReplacer;
+import cuchaz.enigma.mapping.Entry;
+import cuchaz.enigma.mapping.EntryFactory;
+
+public class DependencyIndex
+{
+	
+	// NOTE: maps each obf entry to the top-level classes whose decompiled source
+	// would change if the entry got renamed
+	
+	private static final Metrics.Timer IndexTimer = Metrics
+		.getTimer("DependencyIndex.index");
+	
+	private JarIndex m_jarIndex;
+	private Multimap<Entry, ClassEntry> m_dependentClasses;
+	private Multimap<ClassEntry, Entry> m_dependencies;
+	
+	public DependencyIndex(JarIndex jarIndex)
+	{
+		m_jarIndex = jarIndex;
+		m_dependentClasses = HashMultimap.create();
+		m_dependencies = HashMultimap.create();
+	}
+	
+	public void indexJar(JarFile jar)
+	{
+		// NOTE: the jar index has to be built already, with inner classes
+		long startNanos = IndexTimer.start();
+		
+		// the jar has flat inner class names, the index has class chains
+		final Map<String, String> renames = Maps.newHashMap();
+		for(ClassEntry classEntry : JarClassIterator.getClassEntries(jar))
+		{
+			if(classEntry.isInDefaultPackage())
+				classEntry =
+					new ClassEntry(Constants.NonePackage + "/"
+						+ classEntry.getName());
+			List<ClassEntry> obfClassChain =
+				m_jarIndex.getObfClassChain(classEntry);
+			if(obfClassChain.size() > 1)
+				renames.put(classEntry.getName(), classEntry
+					.buildClassEntry(obfClassChain).getName());
+		}
+		
+		for(CtClass c : JarClassIterator.classes(jar))
+		{
+			ClassRenamer.moveAllClassesOutOfDefaultPackage(c,
+				Constants.NonePackage);
+			ClassRenamer.renameClasses(c, new ClassNameReplacer()
+			{
+				@Override
+				public String replace(String className)
+				{
+					return renames.get(className);
+				}
+			});
+			indexClass(c);
+		}
+		IndexTimer.stop(startNanos);
+	}
+	
+	private void indexClass(CtClass c)
+	{
+		final ClassEntry obfTopClassEntry =
+			EntryFactory.getClassEntry(c).getOutermostClassEntry();
+		
+		// class names anywhere in the class, the renamer finds them all
+		ClassRenamer.renameClasses(c, new ClassNameReplacer()
+		{
+			@Override
+			public String replace(String className)
+			{
+				addClass(new ClassEntry(className), obfTopClassEntry);
+				return null;
+			}
+		});
+		
+		// field and method references
+		ConstPool constants = c.getClassFile().getConstPool();
+		for(int i = 1; i < constants.getSize(); i++)
+			switch(constants.getTag(i))
+			{
+				case ConstPool.CONST_Fieldref:
+					addMember(EntryFactory.getFieldEntry(
+						Descriptor.toJvmName(constants.getFieldrefClassName(i)),
+						constants.getFieldrefName(i),
+						constants.getFieldrefType(i)), obfTopClassEntry);
+					break;
+				
+				case ConstPool.CONST_Methodref:
+					addMember(EntryFactory.getBehaviorEntry(
+						Descriptor.toJvmName(constants
+							.getMethodrefClassName(i)), constants
+							.getMethodrefName(i), constants.getMethodrefType(i)),
+						obfTopClassEntry);
+					break;
+				
+				case ConstPool.CONST_InterfaceMethodref:
+					addMember(EntryFactory.getBehaviorEntry(Descriptor
+						.toJvmName(constants.getInterfaceMethodrefClassName(i)),
+						constants.getInterfaceMethodrefName(i), constants
+							.getInterfaceMethodrefType(i)), obfTopClassEntry);
+					break;
+			}
+		
+		// declared members
+		for(CtField field : c.getDeclaredFields())
+			addMember(EntryFactory.getFieldEntry(field), obfTopClassEntry);
+		for(CtBehavior behavior : c.getDeclaredBehaviors())
+			addMember(EntryFactory.getBehaviorEntry(behavior),
+				obfTopClassEntry);
+	}
+	
+	private void addClass(ClassEntry obfClassEntry, ClassEntry obfTopClassEntry)
+	{
+		if(!m_jarIndex.containsObfClass(obfClassEntry))
+			return;
+		
+		// an inner class name has its outer class names in it
+		for(ClassEntry obfChainClassEntry : obfClassEntry.getClassChain())
+			add(obfChainClassEntry, obfTopClassEntry);
+	}
+	
+	private void addMember(Entry obfEntry, ClassEntry obfTopClassEntry)
+	{
+		if(!m_jarIndex.containsObfClass(obfEntry.getClassEntry()))
+			return;
+		add(obfEntry, obfTopClassEntry);
+		
+		// references name the member by whichever class they go through
+		ClassEntry obfResolvedClassEntry =
+			m_jarIndex.getTranslationIndex().resolveEntryClass(obfEntry);
+		if(obfResolvedClassEntry != null
+			&& !obfResolvedClassEntry.equals(obfEntry.getClassEntry()))
+			add(obfEntry.cloneToNewClass(obfResolvedClassEntry),
+				obfTopClassEntry);
+	}
+	
+	private void add(Entry obfEntry, ClassEntry obfTopClassEntry)
+	{
+		m_dependentClasses.put(obfEntry, obfTopClassEntry);
+		m_dependencies.put(obfTopClassEntry, obfEntry);
+	}
+	
+	/**
+	 * Returns the top-level classes whose source mentions the entry.
+	 */
+	public Collection<ClassEntry> getDependentClasses(Entry obfEntry)
+	{
+		if(obfEntry instanceof ArgumentEntry)
+			return Collections.singleton(obfEntry.getClassEntry()
+				.getOutermostClassEntry());
+		return Collections.unmodifiableCollection(m_dependentClasses
+			.get(obfEntry));
+	}
+	
+	/**
+	 * Returns the entries the source of the top-level class mentions, not
+	 * counting arguments.
+	 */
+	public Collection<Entry> getDependencies(ClassEntry obfTopClassEntry)
+	{
+		return Collections.unmodifiableCollection(m_dependencies
+			.get(obfTopClassEntry));
+	}
+	
+	/**
+	 * Returns the top-level classes that need to be decompiled again after
+	 * the entries got renamed.
+	 */
+	public Set<ClassEntry> getAffectedClasses(
+		Iterable<? extends Entry> obfEntries)
+	{
+		Set<ClassEntry> obfClassEntries = Sets.newHashSet();
+		for(Entry obfEntry : obfEntries)
+			obfClassEntries.addAll(getDependentClasses(obfEntry));
+		return obfClassEntries;
+	}
+}
@@ -10,6 +10,7 @@
  ******************************************************************************/
 package cuchaz.enigma.analysis;
 
+import java.io.Serializable;
 import java.util.Arrays;
 import java.util.List;
 
@@ -18,9 +19,11 @@ import cuchaz.enigma.mapping.ClassEntry;
 import cuchaz.enigma.mapping.ConstructorEntry;
 import cuchaz.enigma.mapping.Entry;
 
-public class EntryReference<E extends Entry, C extends Entry>
+public class EntryReference<E extends Entry, C extends Entry> implements
+	Serializable
 {
 	
+	private static final long serialVersionUID = -2384573265913642517L;
 	private static final List<String> ConstructorNonNames = Arrays.asList(
 		"this", "super", "static");
 	public E entry;
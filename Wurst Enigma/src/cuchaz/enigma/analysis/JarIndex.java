@@ -10,6 +10,11 @@
  ******************************************************************************/
 package cuchaz.enigma.analysis;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.lang.reflect.Modifier;
 import java.util.Collection;
 import java.util.Collections;
@@ -18,6 +23,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.jar.JarFile;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import javassist.CannotCompileException;
 import javassist.CtBehavior;
@@ -27,10 +34,16 @@ import javassist.CtField;
 import javassist.CtMethod;
 import javassist.NotFoundException;
 import javassist.bytecode.AccessFlag;
+import javassist.bytecode.BadBytecode;
+import javassist.bytecode.CodeAttribute;
+import javassist.bytecode.CodeIterator;
+import javassist.bytecode.ConstPool;
 import javassist.bytecode.Descriptor;
 import javassist.bytecode.EnclosingMethodAttribute;
+import javassist.bytecode.ExceptionTable;
 import javassist.bytecode.FieldInfo;
 import javassist.bytecode.InnerClassesAttribute;
+import javassist.bytecode.Opcode;
 import javassist.expr.ConstructorCall;
 import javassist.expr.ExprEditor;
 import javassist.expr.FieldAccess;
@@ -44,12 +57,25 @@ import com.google.common.collect.Multimap;
 import com.google.common.collect.Sets;
 
 import cuchaz.enigma.Constants;
+import cuchaz.enigma.Deobfuscator.ProgressListener;
+import cuchaz.enigma.Metrics;
 import cuchaz.enigma.bytecode.ClassRenamer;
 import cuchaz.enigma.mapping.*;
 
 public class JarIndex
 {
 	
+	private static final Metrics.Timer ClassNamesTimer = Metrics
+		.getTimer("JarIndex.classNames");
+	private static final Metrics.Timer MembersTimer = Metrics
+		.getTimer("JarIndex.members");
+	private static final Metrics.Timer HierarchyTimer = Metrics
+		.getTimer("JarIndex.hierarchy");
+	private static final Metrics.Timer ReferencesTimer = Metrics
+		.getTimer("JarIndex.references");
+	private static final Metrics.Timer InnerClassesTimer = Metrics
+		.getTimer("JarIndex.innerClasses");
+	
 	private Set<ClassEntry> m_obfClassEntries;
 	private TranslationIndex m_translationIndex;
 	private Map<Entry, Access> m_access;
@@ -58,10 +84,12 @@ public class JarIndex
 	private Multimap<String, MethodEntry> m_methodImplementations;
 	private Multimap<BehaviorEntry, EntryReference<BehaviorEntry, BehaviorEntry>> m_behaviorReferences;
 	private Multimap<FieldEntry, EntryReference<FieldEntry, BehaviorEntry>> m_fieldReferences;
+	private Multimap<BehaviorEntry, ClassEntry> m_classReferences;
 	private Multimap<ClassEntry, ClassEntry> m_innerClassesByOuter;
 	private Map<ClassEntry, ClassEntry> m_outerClassesByInner;
 	private Map<ClassEntry, BehaviorEntry> m_anonymousClasses;
 	private Map<MethodEntry, MethodEntry> m_bridgedMethods;
+	private Map<ClassEntry, Integer> m_codeSizes;
 	
 	public JarIndex()
 	{
@@ -73,16 +101,26 @@ public class JarIndex
 		m_methodImplementations = HashMultimap.create();
 		m_behaviorReferences = HashMultimap.create();
 		m_fieldReferences = HashMultimap.create();
+		m_classReferences = HashMultimap.create();
 		m_innerClassesByOuter = HashMultimap.create();
 		m_outerClassesByInner = Maps.newHashMap();
 		m_anonymousClasses = Maps.newHashMap();
 		m_bridgedMethods = Maps.newHashMap();
+		m_codeSizes = Maps.newHashMap();
 	}
 	
 	public void indexJar(JarFile jar, boolean buildInnerClasses)
+	{
+		indexClassNames(jar);
+		indexClasses(jar, buildInnerClasses, null);
+	}
+	
+	public List<ClassEntry> indexClassNames(JarFile jar)
 	{
 		
 		// step 1: read the class names
+		long startNanos = ClassNamesTimer.start();
+		List<ClassEntry> classEntries = Lists.newArrayList();
 		for(ClassEntry classEntry : JarClassIterator.getClassEntries(jar))
 		{
 			if(classEntry.isInDefaultPackage())
@@ -91,11 +129,28 @@ public class JarIndex
 					new ClassEntry(Constants.NonePackage + "/"
 						+ classEntry.getName());
 			m_obfClassEntries.add(classEntry);
+			classEntries.add(classEntry);
 		}
+		ClassNamesTimer.stop(startNanos);
+		return classEntries;
+	}
+	
+	public void indexClasses(JarFile jar, boolean buildInnerClasses,
+		ProgressListener progress)
+	{
+		// NOTE: the class names have to be indexed already
+		int numClasses = m_obfClassEntries.size();
+		int numSteps = buildInnerClasses ? 4 : 3;
+		if(progress != null)
+			progress.init(numClasses * numSteps, "Indexing jar...");
+		int i = 0;
 		
 		// step 2: index field/method/constructor access
+		long startNanos = MembersTimer.start();
 		for(CtClass c : JarClassIterator.classes(jar))
 		{
+			if(progress != null)
+				progress.onProgress(i++, "Indexing members...");
 			ClassRenamer.moveAllClassesOutOfDefaultPackage(c,
 				Constants.NonePackage);
 			for(CtField field : c.getDeclaredFields())
@@ -104,18 +159,29 @@ public class JarIndex
 				m_access.put(fieldEntry, Access.get(field));
 				m_fields.put(fieldEntry.getClassEntry(), fieldEntry);
 			}
+			int codeSize = 0;
 			for(CtBehavior behavior : c.getDeclaredBehaviors())
 			{
 				BehaviorEntry behaviorEntry =
 					EntryFactory.getBehaviorEntry(behavior);
 				m_access.put(behaviorEntry, Access.get(behavior));
 				m_behaviors.put(behaviorEntry.getClassEntry(), behaviorEntry);
+				CodeAttribute code =
+					behavior.getMethodInfo().getCodeAttribute();
+				if(code != null)
+					codeSize += code.getCodeLength();
 			}
+			m_codeSizes.put(EntryFactory.getClassEntry(c), codeSize);
 		}
 		
+		MembersTimer.stop(startNanos);
+		
 		// step 3: index extends, implements, fields, and methods
+		startNanos = HierarchyTimer.start();
 		for(CtClass c : JarClassIterator.classes(jar))
 		{
+			if(progress != null)
+				progress.onProgress(i++, "Indexing hierarchy...");
 			ClassRenamer.moveAllClassesOutOfDefaultPackage(c,
 				Constants.NonePackage);
 			m_translationIndex.indexClass(c);
@@ -132,21 +198,30 @@ public class JarIndex
 				indexBehavior(behavior);
 		}
 		
+		HierarchyTimer.stop(startNanos);
+		
 		// step 4: index field, method, constructor references
+		startNanos = ReferencesTimer.start();
 		for(CtClass c : JarClassIterator.classes(jar))
 		{
+			if(progress != null)
+				progress.onProgress(i++, "Indexing references...");
 			ClassRenamer.moveAllClassesOutOfDefaultPackage(c,
 				Constants.NonePackage);
 			for(CtBehavior behavior : c.getDeclaredBehaviors())
 				indexBehaviorReferences(behavior);
 		}
+		ReferencesTimer.stop(startNanos);
 		
 		if(buildInnerClasses)
 		{
 			
 			// step 5: index inner classes and anonymous classes
+			startNanos = InnerClassesTimer.start();
 			for(CtClass c : JarClassIterator.classes(jar))
 			{
+				if(progress != null)
+					progress.onProgress(i++, "Indexing inner classes...");
 				ClassRenamer.moveAllClassesOutOfDefaultPackage(c,
 					Constants.NonePackage);
 				ClassEntry innerClassEntry = EntryFactory.getClassEntry(c);
@@ -193,8 +268,13 @@ public class JarIndex
 				m_methodImplementations);
 			EntryRenamer.renameClassesInMultimap(renames, m_behaviorReferences);
 			EntryRenamer.renameClassesInMultimap(renames, m_fieldReferences);
+			EntryRenamer.renameClassesInMultimap(renames, m_classReferences);
 			EntryRenamer.renameClassesInMap(renames, m_access);
+			InnerClassesTimer.stop(startNanos);
 		}
+		
+		if(progress != null)
+			progress.onProgress(numClasses * numSteps, "Done!");
 	}
 	
 	private void indexBehavior(CtBehavior behavior)
@@ -296,6 +376,75 @@ public class JarIndex
 		{
 			throw new Error(ex);
 		}
+		indexClassReferences(behavior, behaviorEntry);
+	}
+	
+	private void indexClassReferences(CtBehavior behavior,
+		BehaviorEntry behaviorEntry)
+	{
+		// casts, instanceof, new arrays, class literals and catch blocks name
+		// classes without calling into them
+		CodeAttribute code = behavior.getMethodInfo().getCodeAttribute();
+		if(code == null)
+			return;
+		ConstPool constants = code.getConstPool();
+		CodeIterator iter = code.iterator();
+		try
+		{
+			while(iter.hasNext())
+			{
+				int pos = iter.next();
+				int index;
+				switch(iter.byteAt(pos))
+				{
+					case Opcode.CHECKCAST:
+					case Opcode.INSTANCEOF:
+					case Opcode.ANEWARRAY:
+					case Opcode.MULTIANEWARRAY:
+					case Opcode.LDC_W:
+						index = iter.u16bitAt(pos + 1);
+						break;
+					
+					case Opcode.LDC:
+						index = iter.byteAt(pos + 1);
+						break;
+					
+					default:
+						continue;
+				}
+				if(constants.getTag(index) == ConstPool.CONST_Class)
+					addClassReference(behaviorEntry,
+						constants.getClassInfo(index));
+			}
+		}catch(BadBytecode ex)
+		{
+			throw new Error(ex);
+		}
+		ExceptionTable exceptions = code.getExceptionTable();
+		for(int i = 0; i < exceptions.size(); i++)
+			// finally blocks don't have a type
+			if(exceptions.catchType(i) != 0)
+				addClassReference(behaviorEntry,
+					constants.getClassInfo(exceptions.catchType(i)));
+	}
+	
+	private void addClassReference(BehaviorEntry behaviorEntry,
+		String className)
+	{
+		className = Descriptor.toJvmName(className);
+		ClassEntry classEntry;
+		if(className.startsWith("["))
+		{
+			Type type = new Type(className);
+			if(!type.hasClass())
+				return;
+			classEntry = type.getClassEntry();
+		}else
+			classEntry = new ClassEntry(className);
+		
+		// only classes in the jar are worth keeping
+		if(m_obfClassEntries.contains(classEntry))
+			m_classReferences.put(behaviorEntry, classEntry);
 	}
 	
 	private CtMethod getBridgedMethod(CtMethod method)
@@ -627,6 +776,16 @@ public class JarIndex
 		return m_behaviors.get(classEntry);
 	}
 	
+	/**
+	 * Returns the bytecode size of all the methods and constructors in the
+	 * class, not counting its inner classes.
+	 */
+	public int getCodeSize(ClassEntry obfClassEntry)
+	{
+		Integer codeSize = m_codeSizes.get(obfClassEntry);
+		return codeSize != null ? codeSize : 0;
+	}
+	
 	public TranslationIndex getTranslationIndex()
 	{
 		return m_translationIndex;
@@ -782,6 +941,11 @@ public class JarIndex
 				(MethodImplementationsTreeNode)node.getChildAt(i));
 	}
 	
+	public Collection<EntryReference<FieldEntry, BehaviorEntry>> getFieldReferences()
+	{
+		return m_fieldReferences.values();
+	}
+	
 	public Collection<EntryReference<FieldEntry, BehaviorEntry>> getFieldReferences(
 		FieldEntry fieldEntry)
 	{
@@ -800,6 +964,11 @@ public class JarIndex
 		return fieldEntries;
 	}
 	
+	public Collection<EntryReference<BehaviorEntry, BehaviorEntry>> getBehaviorReferences()
+	{
+		return m_behaviorReferences.values();
+	}
+	
 	public Collection<EntryReference<BehaviorEntry, BehaviorEntry>> getBehaviorReferences(
 		BehaviorEntry behaviorEntry)
 	{
@@ -818,6 +987,16 @@ public class JarIndex
 		return behaviorEntries;
 	}
 	
+	/**
+	 * Returns the classes the code of the behavior names as types, in casts,
+	 * instanceof checks, new arrays, class literals and catch blocks.
+	 */
+	public Collection<ClassEntry> getReferencedClasses(
+		BehaviorEntry behaviorEntry)
+	{
+		return m_classReferences.get(behaviorEntry);
+	}
+	
 	public Collection<ClassEntry> getInnerClasses(ClassEntry obfOuterClassEntry)
 	{
 		return m_innerClassesByOuter.get(obfOuterClassEntry);
@@ -944,4 +1123,67 @@ public class JarIndex
 		
 		return obfClassChain;
 	}
+	
+	/**
+	 * Writes the whole index, so another process can use it without indexing
+	 * the jar again.
+	 */
+	public void write(OutputStream out) throws IOException
+	{
+		GZIPOutputStream gzipout = new GZIPOutputStream(out);
+		ObjectOutputStream oout = new ObjectOutputStream(gzipout);
+		oout.writeObject(m_obfClassEntries);
+		oout.writeObject(m_translationIndex);
+		oout.writeObject(m_access);
+		oout.writeObject(m_fields);
+		oout.writeObject(m_behaviors);
+		oout.writeObject(m_methodImplementations);
+		oout.writeObject(m_behaviorReferences);
+		oout.writeObject(m_fieldReferences);
+		oout.writeObject(m_classReferences);
+		oout.writeObject(m_innerClassesByOuter);
+		oout.writeObject(m_outerClassesByInner);
+		oout.writeObject(m_anonymousClasses);
+		oout.writeObject(m_bridgedMethods);
+		oout.writeObject(m_codeSizes);
+		oout.flush();
+		gzipout.finish();
+	}
+	
+	@SuppressWarnings("unchecked")
+	public void read(InputStream in) throws IOException
+	{
+		try
+		{
+			ObjectInputStream oin =
+				new ObjectInputStream(new GZIPInputStream(in));
+			m_obfClassEntries = (Set<ClassEntry>)oin.readObject();
+			m_translationIndex = (TranslationIndex)oin.readObject();
+			m_access = (Map<Entry, Access>)oin.readObject();
+			m_fields = (Multimap<ClassEntry, FieldEntry>)oin.readObject();
+			m_behaviors =
+				(Multimap<ClassEntry, BehaviorEntry>)oin.readObject();
+			m_methodImplementations =
+				(Multimap<String, MethodEntry>)oin.readObject();
+			m_behaviorReferences =
+				(Multimap<BehaviorEntry, EntryReference<BehaviorEntry, BehaviorEntry>>)oin
+					.readObject();
+			m_fieldReferences =
+				(Multimap<FieldEntry, EntryReference<FieldEntry, BehaviorEntry>>)oin
+					.readObject();
+			m_classReferences =
+				(Multimap<BehaviorEntry, ClassEntry>)oin.readObject();
+			m_innerClassesByOuter =
+				(Multimap<ClassEntry, ClassEntry>)oin.readObject();
+			m_outerClassesByInner =
+				(Map<ClassEntry, ClassEntry>)oin.readObject();
+			m_anonymousClasses =
+				(Map<ClassEntry, BehaviorEntry>)oin.readObject();
+			m_bridgedMethods = (Map<MethodEntry, MethodEntry>)oin.readObject();
+			m_codeSizes = (Map<ClassEntry, Integer>)oin.readObject();
+		}catch(ClassNotFoundException ex)
+		{
+			throw new Error(ex);
+		}
+	}
 }
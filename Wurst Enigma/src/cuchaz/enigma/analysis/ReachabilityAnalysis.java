@@ -0,0 +1,283 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Jeff Martin.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public
+ * License v3.0 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * Contributors:
+ * Jeff Martin - initial API and implementation
+ ******************************************************************************/
+package cuchaz.enigma.analysis;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Sets;
+
+import cuchaz.enigma.Metrics;
+import cuchaz.enigma.mapping.BehaviorEntry;
+import cuchaz.enigma.mapping.ClassEntry;
+import cuchaz.enigma.mapping.ConstructorEntry;
+import cuchaz.enigma.mapping.Entry;
+import cuchaz.enigma.mapping.FieldEntry;
+import cuchaz.enigma.mapping.MethodEntry;
+import cuchaz.enigma.mapping.Type;
+
+public class ReachabilityAnalysis
+{
+	
+	// NOTE: a call reaches every implementation of its method, and a constructed
+	// class reaches all of its methods, since code outside the jar can call them
+	
+	private static final Metrics.Timer AnalyzeTimer = Metrics
+		.getTimer("ReachabilityAnalysis.analyze");
+	
+	private JarIndex m_index;
+	private Multimap<ClassEntry, BehaviorEntry> m_classBehaviors;
+	private Multimap<ClassEntry, FieldEntry> m_classFields;
+	private Multimap<BehaviorEntry, BehaviorEntry> m_calledBehaviors;
+	private Multimap<BehaviorEntry, FieldEntry> m_accessedFields;
+	private Set<ClassEntry> m_classes;
+	private Set<ClassEntry> m_constructedClasses;
+	private Set<BehaviorEntry> m_behaviors;
+	private Deque<Entry> m_queue;
+	
+	public ReachabilityAnalysis(JarIndex index)
+	{
+		m_index = index;
+		
+		// the jar index keeps members by flat inner class names, but the
+		// references use class chains
+		Set<ClassEntry> obfFlatClassEntries = Sets.newHashSet();
+		for(BehaviorEntry obfBehaviorEntry : index.getObfBehaviorEntries())
+			obfFlatClassEntries.add(obfBehaviorEntry.getClassEntry());
+		for(FieldEntry obfFieldEntry : index.getObfFieldEntries())
+			obfFlatClassEntries.add(obfFieldEntry.getClassEntry());
+		Map<String, String> renames = Maps.newHashMap();
+		for(ClassEntry obfClassEntry : obfFlatClassEntries)
+		{
+			String chainName =
+				obfClassEntry.buildClassEntry(
+					index.getObfClassChain(obfClassEntry)).getName();
+			if(!chainName.equals(obfClassEntry.getName()))
+				renames.put(obfClassEntry.getName(), chainName);
+		}
+		m_classBehaviors = HashMultimap.create();
+		for(BehaviorEntry obfBehaviorEntry : index.getObfBehaviorEntries())
+		{
+			obfBehaviorEntry =
+				EntryRenamer.renameClassesInThing(renames, obfBehaviorEntry);
+			m_classBehaviors.put(obfBehaviorEntry.getClassEntry(),
+				obfBehaviorEntry);
+		}
+		m_classFields = HashMultimap.create();
+		for(FieldEntry obfFieldEntry : index.getObfFieldEntries())
+		{
+			obfFieldEntry =
+				EntryRenamer.renameClassesInThing(renames, obfFieldEntry);
+			m_classFields.put(obfFieldEntry.getClassEntry(), obfFieldEntry);
+		}
+		
+		// the jar index only goes from entries to their references
+		m_calledBehaviors = HashMultimap.create();
+		for(EntryReference<BehaviorEntry, BehaviorEntry> reference : index
+			.getBehaviorReferences())
+			m_calledBehaviors.put(reference.context, reference.entry);
+		m_accessedFields = HashMultimap.create();
+		for(EntryReference<FieldEntry, BehaviorEntry> reference : index
+			.getFieldReferences())
+			m_accessedFields.put(reference.context, reference.entry);
+		
+		m_classes = Sets.newHashSet();
+		m_constructedClasses = Sets.newHashSet();
+		m_behaviors = Sets.newHashSet();
+		m_queue = Lists.newLinkedList();
+	}
+	
+	/**
+	 * Reaches all behaviors of the class.
+	 */
+	public void addRoot(ClassEntry obfClassEntry)
+	{
+		addClass(obfClassEntry);
+		for(BehaviorEntry obfBehaviorEntry : m_classBehaviors
+			.get(obfClassEntry))
+			addBehavior(obfBehaviorEntry);
+	}
+	
+	public void addRoot(BehaviorEntry obfBehaviorEntry)
+	{
+		addBehavior(obfBehaviorEntry);
+	}
+	
+	/**
+	 * Follows everything the roots added so far can reach. Roots added later
+	 * need another call.
+	 */
+	public void analyze()
+	{
+		long startNanos = AnalyzeTimer.start();
+		while(!m_queue.isEmpty())
+		{
+			Entry obfEntry = m_queue.removeFirst();
+			if(obfEntry instanceof ClassEntry)
+				analyzeClass((ClassEntry)obfEntry);
+			else
+				analyzeBehavior((BehaviorEntry)obfEntry);
+		}
+		AnalyzeTimer.stop(startNanos);
+	}
+	
+	private void analyzeClass(ClassEntry obfClassEntry)
+	{
+		TranslationIndex translationIndex = m_index.getTranslationIndex();
+		addClass(translationIndex.getSuperclass(obfClassEntry));
+		for(ClassEntry obfInterfaceEntry : translationIndex
+			.getInterfaces(obfClassEntry))
+			addClass(obfInterfaceEntry);
+		if(obfClassEntry.isInnerClass())
+			addClass(obfClassEntry.getOuterClassEntry());
+		addBehavior(new ConstructorEntry(obfClassEntry));
+		
+		// the source declares all the fields, whoever uses them
+		for(FieldEntry obfFieldEntry : m_classFields.get(obfClassEntry))
+			addType(obfFieldEntry.getType());
+	}
+	
+	private void analyzeBehavior(BehaviorEntry obfBehaviorEntry)
+	{
+		ClassEntry obfClassEntry = obfBehaviorEntry.getClassEntry();
+		addClass(obfClassEntry);
+		
+		// a constructed object can end up anywhere
+		if(obfBehaviorEntry instanceof ConstructorEntry
+			&& !((ConstructorEntry)obfBehaviorEntry).isStatic()
+			&& m_constructedClasses.add(obfClassEntry))
+			addCallableMethods(obfClassEntry);
+		
+		// virtual calls can land on any related implementation
+		if(obfBehaviorEntry instanceof MethodEntry)
+			for(MethodEntry obfRelatedMethodEntry : m_index
+				.getRelatedMethodImplementations((MethodEntry)obfBehaviorEntry))
+				addBehavior(obfRelatedMethodEntry);
+		
+		for(BehaviorEntry obfCalledBehaviorEntry : m_calledBehaviors
+			.get(obfBehaviorEntry))
+			addBehavior(obfCalledBehaviorEntry);
+		for(FieldEntry obfFieldEntry : m_accessedFields.get(obfBehaviorEntry))
+		{
+			addClass(obfFieldEntry.getClassEntry());
+			addType(obfFieldEntry.getType());
+		}
+		
+		// classes that are only named as types still have to be there
+		if(obfBehaviorEntry.getSignature() != null)
+			for(Type type : obfBehaviorEntry.getSignature().types())
+				addType(type);
+		for(ClassEntry obfReferencedClassEntry : m_index
+			.getReferencedClasses(obfBehaviorEntry))
+			addClass(obfReferencedClassEntry);
+	}
+	
+	private void addCallableMethods(ClassEntry obfClassEntry)
+	{
+		TranslationIndex translationIndex = m_index.getTranslationIndex();
+		Set<ClassEntry> obfAncestorEntries = Sets.newHashSet();
+		Deque<ClassEntry> queue = Lists.newLinkedList();
+		queue.addLast(obfClassEntry);
+		while(!queue.isEmpty())
+		{
+			ClassEntry obfAncestorEntry = queue.removeFirst();
+			if(!m_index.containsObfClass(obfAncestorEntry)
+				|| !obfAncestorEntries.add(obfAncestorEntry))
+				continue;
+			
+			// the index doesn't know which methods are static, so those count too
+			for(BehaviorEntry obfAncestorBehaviorEntry : m_classBehaviors
+				.get(obfAncestorEntry))
+				if(obfAncestorBehaviorEntry instanceof MethodEntry
+					&& (obfAncestorEntry.equals(obfClassEntry) || m_index
+						.getAccess(obfAncestorBehaviorEntry) != Access.Private))
+					addBehavior(obfAncestorBehaviorEntry);
+			
+			ClassEntry obfSuperclassEntry =
+				translationIndex.getSuperclass(obfAncestorEntry);
+			if(obfSuperclassEntry != null)
+				queue.addLast(obfSuperclassEntry);
+			queue.addAll(translationIndex.getInterfaces(obfAncestorEntry));
+		}
+	}
+	
+	private void addClass(ClassEntry obfClassEntry)
+	{
+		if(obfClassEntry == null || !m_index.containsObfClass(obfClassEntry))
+			return;
+		if(m_classes.add(obfClassEntry))
+			m_queue.addLast(obfClassEntry);
+	}
+	
+	private void addType(Type type)
+	{
+		if(type.hasClass())
+			addClass(type.getClassEntry());
+	}
+	
+	private void addBehavior(BehaviorEntry obfBehaviorEntry)
+	{
+		// there's nothing to follow in code that isn't in the jar
+		if(!m_index.containsObfBehavior(obfBehaviorEntry))
+			return;
+		if(m_behaviors.add(obfBehaviorEntry))
+			m_queue.addLast(obfBehaviorEntry);
+	}
+	
+	public Set<ClassEntry> getClasses()
+	{
+		return Collections.unmodifiableSet(m_classes);
+	}
+	
+	public Set<BehaviorEntry> getBehaviors()
+	{
+		return Collections.unmodifiableSet(m_behaviors);
+	}
+	
+	/**
+	 * Returns the top-level classes of the reached classes, ie the ones an
+	 * export has to write.
+	 */
+	public Set<ClassEntry> getTopClasses()
+	{
+		Set<ClassEntry> obfTopClassEntries = Sets.newHashSet();
+		for(ClassEntry obfClassEntry : m_classes)
+			obfTopClassEntries.add(obfClassEntry.getOutermostClassEntry());
+		return obfTopClassEntries;
+	}
+	
+	/**
+	 * Returns the top-level classes the roots reach. Roots have to be
+	 * classes or behaviors.
+	 */
+	public static Set<ClassEntry> getTopClasses(JarIndex index,
+		Collection<? extends Entry> obfRoots)
+	{
+		ReachabilityAnalysis analysis = new ReachabilityAnalysis(index);
+		for(Entry obfRoot : obfRoots)
+			if(obfRoot instanceof ClassEntry)
+				analysis.addRoot((ClassEntry)obfRoot);
+			else if(obfRoot instanceof BehaviorEntry)
+				analysis.addRoot((BehaviorEntry)obfRoot);
+			else
+				throw new IllegalArgumentException(
+					"Roots have to be classes or behaviors: " + obfRoot);
+		analysis.analyze();
+		return analysis.getTopClasses();
+	}
+}
@@ -113,11 +113,8 @@ public class SourceIndex
 		Token token = getToken(node);
 		if(token != null)
 		{
-			EntryReference<Entry, Entry> deobfReference =
-				new EntryReference<Entry, Entry>(deobfEntry, token.text,
-					deobfContext);
-			m_tokenToReference.put(token, deobfReference);
-			m_referenceToTokens.put(deobfReference, token);
+			addReference(token, new EntryReference<Entry, Entry>(deobfEntry,
+				token.text, deobfContext));
 		}
 	}
 	
@@ -125,13 +122,27 @@ public class SourceIndex
 	{
 		Token token = getToken(node);
 		if(token != null)
-		{
-			EntryReference<Entry, Entry> reference =
-				new EntryReference<Entry, Entry>(deobfEntry, token.text);
-			m_tokenToReference.put(token, reference);
-			m_referenceToTokens.put(reference, token);
-			m_declarationToToken.put(deobfEntry, token);
-		}
+			addDeclaration(token, deobfEntry);
+	}
+	
+	/**
+	 * Adds a reference for a token that's already known, eg from a cached
+	 * index.
+	 */
+	public void addReference(Token token,
+		EntryReference<Entry, Entry> deobfReference)
+	{
+		m_tokenToReference.put(token, deobfReference);
+		m_referenceToTokens.put(deobfReference, token);
+	}
+	
+	public void addDeclaration(Token token, Entry deobfEntry)
+	{
+		EntryReference<Entry, Entry> reference =
+			new EntryReference<Entry, Entry>(deobfEntry, token.text);
+		m_tokenToReference.put(token, reference);
+		m_referenceToTokens.put(reference, token);
+		m_declarationToToken.put(deobfEntry, token);
 	}
 	
 	public Token getReferenceToken(int pos)
@@ -10,9 +10,13 @@
  ******************************************************************************/
 package cuchaz.enigma.analysis;
 
-public class Token implements Comparable<Token>
+import java.io.Serializable;
+
+public class Token implements Comparable<Token>, Serializable
 {
 	
+	private static final long serialVersionUID = 5870473929585328371L;
+	
 	public int start;
 	public int end;
 	public String text;
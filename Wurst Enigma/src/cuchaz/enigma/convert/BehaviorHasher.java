@@ -0,0 +1,91 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Jeff Martin.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public
+ * License v3.0 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * Contributors:
+ * Jeff Martin - initial API and implementation
+ ******************************************************************************/
+package cuchaz.enigma.convert;
+
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+import javassist.CtBehavior;
+import javassist.CtClass;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.Maps;
+import com.google.common.hash.HashCode;
+
+import cuchaz.enigma.Deobfuscator;
+import cuchaz.enigma.TranslatingTypeLoader;
+import cuchaz.enigma.convert.ClassFeatures.Behavior;
+import cuchaz.enigma.mapping.BehaviorEntry;
+import cuchaz.enigma.mapping.ClassEntry;
+import cuchaz.enigma.mapping.EntryFactory;
+
+public class BehaviorHasher
+{
+	
+	// NOTE: getHash() gets called from many threads at once during member
+	// matching, so the cache reads each class only once
+	
+	private TranslatingTypeLoader m_loader;
+	private LoadingCache<ClassEntry, Map<BehaviorEntry, HashCode>> m_hashes;
+	
+	public BehaviorHasher(Deobfuscator deobfuscator)
+	{
+		// read the classes without any mappings applied
+		m_loader =
+			new TranslatingTypeLoader(deobfuscator.getJar(),
+				deobfuscator.getJarIndex());
+		m_hashes =
+			CacheBuilder.newBuilder().build(
+				new CacheLoader<ClassEntry, Map<BehaviorEntry, HashCode>>()
+				{
+					@Override
+					public Map<BehaviorEntry, HashCode> load(
+						ClassEntry classEntry)
+					{
+						return readHashes(classEntry);
+					}
+				});
+	}
+	
+	/**
+	 * Returns a hash of the behavior's bytecode with the obfuscated names
+	 * replaced, or null if the behavior has no code.
+	 */
+	public HashCode getHash(BehaviorEntry obfBehaviorEntry)
+	{
+		try
+		{
+			return m_hashes.get(obfBehaviorEntry.getClassEntry()).get(
+				obfBehaviorEntry);
+		}catch(ExecutionException ex)
+		{
+			throw new Error(ex.getCause());
+		}
+	}
+	
+	private Map<BehaviorEntry, HashCode> readHashes(ClassEntry classEntry)
+	{
+		Map<BehaviorEntry, HashCode> hashes = Maps.newHashMap();
+		CtClass c = m_loader.loadClass(classEntry.getName());
+		if(c == null)
+			return hashes;
+		for(CtBehavior behavior : c.getDeclaredBehaviors())
+		{
+			Behavior features = ClassFeatures.readBehavior(behavior);
+			if(features.hasCode())
+				hashes.put(EntryFactory.getBehaviorEntry(behavior),
+					ExactClassMatcher.computeHash(classEntry, features));
+		}
+		return hashes;
+	}
+}
@@ -0,0 +1,463 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Jeff Martin.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public
+ * License v3.0 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * Contributors:
+ * Jeff Martin - initial API and implementation
+ ******************************************************************************/
+package cuchaz.enigma.convert;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Set;
+
+import javassist.CannotCompileException;
+import javassist.CtBehavior;
+import javassist.CtClass;
+import javassist.CtConstructor;
+import javassist.CtField;
+import javassist.CtMethod;
+import javassist.bytecode.BadBytecode;
+import javassist.bytecode.CodeIterator;
+import javassist.bytecode.ConstPool;
+import javassist.bytecode.Descriptor;
+import javassist.bytecode.Opcode;
+import javassist.expr.ConstructorCall;
+import javassist.expr.ExprEditor;
+import javassist.expr.FieldAccess;
+import javassist.expr.MethodCall;
+import javassist.expr.NewExpr;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import cuchaz.enigma.Constants;
+import cuchaz.enigma.analysis.ClassImplementationsTreeNode;
+import cuchaz.enigma.analysis.EntryReference;
+import cuchaz.enigma.analysis.JarIndex;
+import cuchaz.enigma.bytecode.ConstPoolEditor;
+import cuchaz.enigma.bytecode.InfoType;
+import cuchaz.enigma.bytecode.accessors.ConstInfoAccessor;
+import cuchaz.enigma.mapping.*;
+
+public class ClassFeatures implements Serializable
+{
+	
+	// NOTE: kept as it is in the jar, ClassIdentity scrubs the names each
+	// round. Only the bytecode part is serialized, see readIndex().
+	
+	private static final long serialVersionUID = -2791835462713104557L;
+	
+	public enum AccessType
+	{
+		MethodCall,
+		FieldAccess,
+		ConstructorCall,
+		NewExpr;
+	}
+	
+	public static class Access implements Serializable
+	{
+		
+		private static final long serialVersionUID = 5308329541067721943L;
+		
+		private AccessType m_type;
+		private String m_className;
+		private String m_signature;
+		private String m_memberName;
+		
+		public Access(AccessType type, String className, String signature,
+			String memberName)
+		{
+			m_type = type;
+			m_className = className;
+			m_signature = signature;
+			m_memberName = memberName;
+		}
+		
+		public AccessType getType()
+		{
+			return m_type;
+		}
+		
+		public String getClassName()
+		{
+			return m_className;
+		}
+		
+		public String getSignature()
+		{
+			return m_signature;
+		}
+		
+		public String getMemberName()
+		{
+			return m_memberName;
+		}
+	}
+	
+	public static class Behavior implements Serializable
+	{
+		
+		private static final long serialVersionUID = -6483904217780936245L;
+		
+		private String m_signature;
+		private byte[] m_code;
+		private List<Access> m_accesses;
+		
+		public Behavior(String signature, byte[] code, List<Access> accesses)
+		{
+			m_signature = signature;
+			m_code = code;
+			m_accesses = accesses;
+		}
+		
+		public String getSignature()
+		{
+			return m_signature;
+		}
+		
+		public boolean hasCode()
+		{
+			return m_code != null;
+		}
+		
+		public byte[] getCode()
+		{
+			return m_code;
+		}
+		
+		public List<Access> getAccesses()
+		{
+			return m_accesses;
+		}
+	}
+	
+	private ClassEntry m_classEntry;
+	private List<String> m_fields;
+	private List<Behavior> m_methods;
+	private List<Behavior> m_constructors;
+	private Behavior m_staticInitializer;
+	private String m_superclass;
+	private List<String> m_interfaces;
+	private Set<String> m_stringLiterals;
+	private String m_outer;
+	private List<FieldEntry> m_fieldEntries;
+	private List<BehaviorEntry> m_behaviorEntries;
+	private transient List<String> m_implementations;
+	private transient List<BehaviorEntry> m_references;
+	private transient Set<String> m_referencedClasses;
+	
+	public ClassFeatures(CtClass c, JarIndex index)
+	{
+		
+		// stuff from the bytecode
+		
+		m_classEntry = new ClassEntry(Descriptor.toJvmName(c.getName()));
+		m_fields = Lists.newArrayList();
+		for(CtField field : c.getDeclaredFields())
+			m_fields.add(field.getSignature());
+		m_methods = Lists.newArrayList();
+		for(CtMethod method : c.getDeclaredMethods())
+			m_methods.add(readBehavior(method));
+		m_constructors = Lists.newArrayList();
+		for(CtConstructor constructor : c.getDeclaredConstructors())
+			m_constructors.add(readBehavior(constructor));
+		m_staticInitializer = null;
+		if(c.getClassInitializer() != null)
+			m_staticInitializer = readBehavior(c.getClassInitializer());
+		m_superclass = null;
+		if(c.getClassFile().getSuperclass() != null)
+			m_superclass =
+				Descriptor.toJvmName(c.getClassFile().getSuperclass());
+		m_interfaces = Lists.newArrayList();
+		for(String interfaceName : c.getClassFile().getInterfaces())
+			m_interfaces.add(Descriptor.toJvmName(interfaceName));
+		
+		m_stringLiterals = Sets.newHashSet();
+		ConstPool constants = c.getClassFile().getConstPool();
+		for(int i = 1; i < constants.getSize(); i++)
+			if(constants.getTag(i) == ConstPool.CONST_String)
+				m_stringLiterals.add(constants.getStringInfo(i));
+		
+		ClassEntry classEntry = EntryFactory.getClassEntry(c);
+		m_outer =
+			classEntry.isInnerClass() ? classEntry.getOuterClassName() : null;
+		
+		// remember the members, so the references can be looked up later
+		m_fieldEntries = Lists.newArrayList();
+		for(CtField field : c.getDeclaredFields())
+			m_fieldEntries.add(EntryFactory.getFieldEntry(field));
+		m_behaviorEntries = Lists.newArrayList();
+		for(CtBehavior behavior : c.getDeclaredBehaviors())
+			m_behaviorEntries.add(EntryFactory.getBehaviorEntry(behavior));
+		
+		readIndex(index);
+	}
+	
+	/**
+	 * Reads the stuff from the jar index. This has to be done again after
+	 * the features are deserialized, since the index can differ even if the
+	 * bytecode of this class didn't change.
+	 */
+	void readIndex(JarIndex index)
+	{
+		m_implementations = Lists.newArrayList();
+		ClassImplementationsTreeNode implementationsNode =
+			index.getClassImplementations(null, m_classEntry);
+		if(implementationsNode != null)
+		{
+			@SuppressWarnings("unchecked")
+			Enumeration<ClassImplementationsTreeNode> implementations =
+				implementationsNode.children();
+			while(implementations.hasMoreElements())
+				m_implementations.add(implementations.nextElement()
+					.getClassEntry().getName());
+		}
+		
+		m_references = Lists.newArrayList();
+		for(FieldEntry fieldEntry : m_fieldEntries)
+			for(EntryReference<FieldEntry, BehaviorEntry> reference : index
+				.getFieldReferences(fieldEntry))
+				m_references.add(reference.context);
+		for(BehaviorEntry behaviorEntry : m_behaviorEntries)
+			for(EntryReference<BehaviorEntry, BehaviorEntry> reference : index
+				.getBehaviorReferences(behaviorEntry))
+				m_references.add(reference.context);
+		
+		m_referencedClasses = Collections.unmodifiableSet(collectClasses());
+	}
+	
+	public ClassEntry getClassEntry()
+	{
+		return m_classEntry;
+	}
+	
+	public List<String> getFields()
+	{
+		return m_fields;
+	}
+	
+	public List<Behavior> getMethods()
+	{
+		return m_methods;
+	}
+	
+	public List<Behavior> getConstructors()
+	{
+		return m_constructors;
+	}
+	
+	public Behavior getStaticInitializer()
+	{
+		return m_staticInitializer;
+	}
+	
+	public String getSuperclass()
+	{
+		return m_superclass;
+	}
+	
+	public List<String> getInterfaces()
+	{
+		return m_interfaces;
+	}
+	
+	public Set<String> getStringLiterals()
+	{
+		return m_stringLiterals;
+	}
+	
+	public List<String> getImplementations()
+	{
+		return m_implementations;
+	}
+	
+	public List<BehaviorEntry> getReferences()
+	{
+		return m_references;
+	}
+	
+	/**
+	 * Returns null for top-level classes.
+	 */
+	public String getOuter()
+	{
+		return m_outer;
+	}
+	
+	/**
+	 * Returns the names of all the obfuscated classes these features mention.
+	 * A class identity only has to be recomputed when one of these classes
+	 * gets a new name.
+	 */
+	public Set<String> getReferencedClasses()
+	{
+		return m_referencedClasses;
+	}
+	
+	private Set<String> collectClasses()
+	{
+		final Set<String> classNames = Sets.newHashSet();
+		ClassNameReplacer collector = new ClassNameReplacer()
+		{
+			@Override
+			public String replace(String className)
+			{
+				if(new ClassEntry(className).getPackageName().equals(
+					Constants.NonePackage))
+					classNames.add(className);
+				return null;
+			}
+		};
+		for(String field : m_fields)
+			new Type(new Type(field), collector);
+		List<Behavior> behaviors = Lists.newArrayList(m_methods);
+		behaviors.addAll(m_constructors);
+		if(m_staticInitializer != null)
+			behaviors.add(m_staticInitializer);
+		for(Behavior behavior : behaviors)
+		{
+			if(behavior.getSignature() != null)
+				new Signature(new Signature(behavior.getSignature()), collector);
+			if(!behavior.hasCode())
+				continue;
+			for(Access access : behavior.getAccesses())
+			{
+				collector.replace(access.getClassName());
+				if(access.getType() == AccessType.FieldAccess)
+					new Type(new Type(access.getSignature()), collector);
+				else if(access.getSignature() != null)
+					new Signature(new Signature(access.getSignature()),
+						collector);
+			}
+		}
+		if(m_superclass != null)
+			collector.replace(m_superclass);
+		for(String interfaceName : m_interfaces)
+			collector.replace(interfaceName);
+		for(String implementation : m_implementations)
+			collector.replace(implementation);
+		for(BehaviorEntry context : m_references)
+		{
+			collector.replace(context.getClassName());
+			if(context.getSignature() != null)
+				new Signature(context.getSignature(), collector);
+		}
+		
+		// NOTE: keep the class itself, its own accesses are named after it
+		// once it's matched
+		return classNames;
+	}
+	
+	static Behavior readBehavior(CtBehavior behavior)
+	{
+		String signature = null;
+		if(!(behavior instanceof CtConstructor)
+			|| !((CtConstructor)behavior).isClassInitializer())
+			signature = behavior.getSignature();
+		
+		// does this method have an implementation?
+		if(behavior.getMethodInfo().getCodeAttribute() == null)
+			return new Behavior(signature, null, null);
+		
+		try
+		{
+			
+			// read the opcodes
+			ConstPool constants = behavior.getMethodInfo().getConstPool();
+			ByteArrayOutputStream code = new ByteArrayOutputStream();
+			CodeIterator iter =
+				behavior.getMethodInfo().getCodeAttribute().iterator();
+			while(iter.hasNext())
+			{
+				int pos = iter.next();
+				int opcode = iter.byteAt(pos);
+				code.write(opcode);
+				
+				switch(opcode)
+				{
+					case Opcode.LDC:
+					{
+						int constIndex = iter.byteAt(pos + 1);
+						writeConstant(code, constants, constIndex);
+					}
+						break;
+					
+					case Opcode.LDC_W:
+					case Opcode.LDC2_W:
+					{
+						int constIndex =
+							iter.byteAt(pos + 1) << 8 | iter.byteAt(pos + 2);
+						writeConstant(code, constants, constIndex);
+					}
+						break;
+				}
+			}
+			
+			// read the method and field accesses
+			final List<Access> accesses = Lists.newArrayList();
+			behavior.instrument(new ExprEditor()
+			{
+				@Override
+				public void edit(MethodCall call)
+				{
+					accesses.add(new Access(AccessType.MethodCall, Descriptor
+						.toJvmName(call.getClassName()), call.getSignature(),
+						call.getMethodName()));
+				}
+				
+				@Override
+				public void edit(FieldAccess access)
+				{
+					accesses.add(new Access(AccessType.FieldAccess, Descriptor
+						.toJvmName(access.getClassName()), access
+						.getSignature(), access.getFieldName()));
+				}
+				
+				@Override
+				public void edit(ConstructorCall call)
+				{
+					accesses.add(new Access(AccessType.ConstructorCall,
+						Descriptor.toJvmName(call.getClassName()), call
+							.getSignature(), null));
+				}
+				
+				@Override
+				public void edit(NewExpr expr)
+				{
+					accesses.add(new Access(AccessType.NewExpr, Descriptor
+						.toJvmName(expr.getClassName()), null, null));
+				}
+			});
+			
+			return new Behavior(signature, code.toByteArray(), accesses);
+		}catch(BadBytecode | CannotCompileException ex)
+		{
+			throw new Error(ex);
+		}
+	}
+	
+	private static void writeConstant(ByteArrayOutputStream code,
+		ConstPool constants, int index)
+	{
+		ConstPoolEditor editor = new ConstPoolEditor(constants);
+		ConstInfoAccessor item = editor.getItem(index);
+		if(item.getType() == InfoType.StringInfo)
+			try
+			{
+				byte[] bytes = constants.getStringInfo(index).getBytes("UTF8");
+				code.write(bytes, 0, bytes.length);
+			}catch(UnsupportedEncodingException ex)
+			{
+				throw new Error(ex);
+			}
+	}
+}
@@ -0,0 +1,164 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Jeff Martin.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public
+ * License v3.0 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * Contributors:
+ * Jeff Martin - initial API and implementation
+ ******************************************************************************/
+package cuchaz.enigma.convert;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import cuchaz.enigma.analysis.JarIndex;
+
+public class ClassFeaturesCache
+{
+	
+	// NOTE: the features are keyed by a hash of the class file, so a class
+	// that didn't change since the last run (or that is the same in both
+	// jars) only gets read from the bytecode once. Each entry is kept
+	// serialized, since every get() needs its own copy to read the jar index
+	// into. Bump FormatVersion whenever ClassFeatures reads something new.
+	
+	private static final int FormatVersion = 1;
+	private static final HashFunction KeyHash = Hashing.sha1();
+	
+	private Map<String, byte[]> m_features;
+	private Set<String> m_usedKeys;
+	private boolean m_isDirty;
+	
+	public ClassFeaturesCache()
+	{
+		m_features = Maps.newHashMap();
+		m_usedKeys = Sets.newHashSet();
+		m_isDirty = false;
+	}
+	
+	public synchronized int size()
+	{
+		return m_features.size();
+	}
+	
+	public synchronized boolean isDirty()
+	{
+		return m_isDirty;
+	}
+	
+	public ClassFeatures get(byte[] classFile, JarIndex index)
+	{
+		String key = getKey(classFile);
+		byte[] data;
+		synchronized(this)
+		{
+			data = m_features.get(key);
+			if(data != null)
+				m_usedKeys.add(key);
+		}
+		if(data == null)
+			return null;
+		
+		try
+		{
+			ObjectInputStream oin =
+				new ObjectInputStream(new ByteArrayInputStream(data));
+			ClassFeatures features = (ClassFeatures)oin.readObject();
+			features.readIndex(index);
+			return features;
+		}catch(IOException | ClassNotFoundException | ClassCastException ex)
+		{
+			// read the class again, put() replaces the entry
+			return null;
+		}
+	}
+	
+	public void put(byte[] classFile, ClassFeatures features)
+	{
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		try
+		{
+			ObjectOutputStream oout = new ObjectOutputStream(data);
+			oout.writeObject(features);
+			oout.close();
+		}catch(IOException ex)
+		{
+			throw new Error(ex);
+		}
+		String key = getKey(classFile);
+		synchronized(this)
+		{
+			m_features.put(key, data.toByteArray());
+			m_usedKeys.add(key);
+			m_isDirty = true;
+		}
+	}
+	
+	/**
+	 * Drops every class that wasn't looked up or added since the cache was
+	 * read, so the features of old jars don't pile up.
+	 */
+	public synchronized void prune()
+	{
+		if(m_features.keySet().retainAll(m_usedKeys))
+			m_isDirty = true;
+	}
+	
+	public synchronized void write(OutputStream out) throws IOException
+	{
+		GZIPOutputStream gzipout = new GZIPOutputStream(out);
+		ObjectOutputStream oout = new ObjectOutputStream(gzipout);
+		oout.writeInt(FormatVersion);
+		oout.writeObject(m_features);
+		oout.flush();
+		gzipout.finish();
+		m_isDirty = false;
+	}
+	
+	/**
+	 * A cache that can't be read counts as empty.
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized void read(InputStream in)
+	{
+		try
+		{
+			ObjectInputStream oin =
+				new ObjectInputStream(new GZIPInputStream(in));
+			
+			// just start over if the cache is from an older version
+			if(oin.readInt() != FormatVersion)
+				return;
+			m_features = (HashMap<String, byte[]>)oin.readObject();
+		}catch(IOException | ClassNotFoundException | ClassCastException ex)
+		{
+			System.err.println("WARNING: Ignoring unreadable class features "
+				+ "cache: " + ex);
+			m_features = Maps.newHashMap();
+		}
+		m_usedKeys.clear();
+		m_isDirty = false;
+	}
+	
+	private static String getKey(byte[] classFile)
+	{
+		return KeyHash.hashBytes(classFile).toString();
+	}
+}
@@ -11,15 +11,25 @@
 package cuchaz.enigma.convert;
 
 import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Multimap;
+import com.google.common.collect.Sets;
 
 import cuchaz.enigma.mapping.ClassEntry;
 
 public class ClassForest
 {
 	
+	static final ForkJoinPool Pool = new ForkJoinPool();
+	
 	private ClassIdentifier m_identifier;
 	private Multimap<ClassIdentity, ClassEntry> m_forest;
 	
@@ -29,10 +39,44 @@ public class ClassForest
 		m_forest = HashMultimap.create();
 	}
 	
-	public void addAll(Iterable<ClassEntry> entries)
+	public Set<ClassIdentity> addAll(Iterable<ClassEntry> entries)
 	{
-		for(ClassEntry entry : entries)
-			add(entry);
+		
+		// identify the classes in parallel, each one is independent
+		List<ClassEntry> entryList = Lists.newArrayList(entries);
+		List<Callable<ClassIdentity>> tasks = Lists.newArrayList();
+		for(final ClassEntry entry : entryList)
+			tasks.add(new Callable<ClassIdentity>()
+			{
+				@Override
+				public ClassIdentity call() throws ClassNotFoundException
+				{
+					return m_identifier.identify(entry);
+				}
+			});
+		List<Future<ClassIdentity>> identities = Pool.invokeAll(tasks);
+		
+		// then add them to the forest in order
+		Set<ClassIdentity> touchedIdentities = Sets.newHashSet();
+		for(int i = 0; i < entryList.size(); i++)
+		{
+			ClassEntry entry = entryList.get(i);
+			try
+			{
+				ClassIdentity identity = identities.get(i).get();
+				m_forest.put(identity, entry);
+				touchedIdentities.add(identity);
+			}catch(InterruptedException ex)
+			{
+				throw new Error(ex);
+			}catch(ExecutionException ex)
+			{
+				if(ex.getCause() instanceof ClassNotFoundException)
+					throw new Error("Unable to find class " + entry.getName());
+				throw new Error(ex.getCause());
+			}
+		}
+		return touchedIdentities;
 	}
 	
 	public void add(ClassEntry entry)
@@ -10,12 +10,17 @@
  ******************************************************************************/
 package cuchaz.enigma.convert;
 
+import java.io.IOException;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
 import java.util.jar.JarFile;
 
 import javassist.CtClass;
 
-import com.google.common.collect.Maps;
+import com.google.common.base.Objects;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
 
 import cuchaz.enigma.TranslatingTypeLoader;
 import cuchaz.enigma.analysis.JarIndex;
@@ -25,34 +30,163 @@ import cuchaz.enigma.mapping.ClassEntry;
 public class ClassIdentifier
 {
 	
+	// NOTE: identify() gets called from many threads at once when classes
+	// are added to a ClassForest, so the caches compute each value only once
+	// and everything else here is read-only
+	
 	private JarIndex m_index;
 	private SidedClassNamer m_namer;
 	private boolean m_useReferences;
 	private TranslatingTypeLoader m_loader;
-	private Map<ClassEntry, ClassIdentity> m_cache;
+	private ClassFeaturesCache m_featuresCache;
+	private LoadingCache<ClassEntry, ClassFeatures> m_features;
+	private LoadingCache<ClassEntry, ClassIdentity> m_cache;
 	
 	public ClassIdentifier(JarFile jar, JarIndex index, SidedClassNamer namer,
 		boolean useReferences)
+	{
+		this(jar, index, null, namer, useReferences);
+	}
+	
+	public ClassIdentifier(JarFile jar, JarIndex index,
+		ClassFeaturesCache featuresCache, SidedClassNamer namer,
+		boolean useReferences)
 	{
 		m_index = index;
 		m_namer = namer;
 		m_useReferences = useReferences;
 		m_loader = new TranslatingTypeLoader(jar, index);
-		m_cache = Maps.newHashMap();
+		m_featuresCache = featuresCache;
+		m_features =
+			CacheBuilder.newBuilder().build(
+				new CacheLoader<ClassEntry, ClassFeatures>()
+				{
+					@Override
+					public ClassFeatures load(ClassEntry classEntry)
+						throws ClassNotFoundException
+					{
+						return readFeatures(classEntry);
+					}
+				});
+		m_cache = newIdentityCache();
+	}
+	
+	public ClassIdentifier(ClassIdentifier other, SidedClassNamer namer,
+		boolean useReferences)
+	{
+		m_index = other.m_index;
+		m_namer = namer;
+		m_useReferences = useReferences;
+		m_loader = other.m_loader;
+		m_featuresCache = other.m_featuresCache;
+		
+		// the bytecode didn't change, so keep everything we read from it
+		m_features = other.m_features;
+		
+		// identities only change if a class they mention got a new name
+		m_cache = newIdentityCache();
+		if(useReferences == other.m_useReferences)
+			for(Map.Entry<ClassEntry, ClassIdentity> entry : other.m_cache
+				.asMap().entrySet())
+				if(!isRenamed(entry.getValue().getFeatures(), other.m_namer))
+					m_cache.put(entry.getKey(), entry.getValue());
 	}
 	
 	public ClassIdentity identify(ClassEntry classEntry)
 		throws ClassNotFoundException
 	{
-		ClassIdentity identity = m_cache.get(classEntry);
-		if(identity == null)
+		try
+		{
+			return m_cache.get(classEntry);
+		}catch(ExecutionException ex)
+		{
+			throw unwrap(ex);
+		}
+	}
+	
+	public ClassFeatures getFeatures(ClassEntry classEntry)
+		throws ClassNotFoundException
+	{
+		try
+		{
+			return m_features.get(classEntry);
+		}catch(ExecutionException ex)
+		{
+			throw unwrap(ex);
+		}
+	}
+	
+	private LoadingCache<ClassEntry, ClassIdentity> newIdentityCache()
+	{
+		return CacheBuilder.newBuilder().build(
+			new CacheLoader<ClassEntry, ClassIdentity>()
+			{
+				@Override
+				public ClassIdentity load(ClassEntry classEntry)
+					throws ClassNotFoundException
+				{
+					return new ClassIdentity(getFeatures(classEntry),
+						m_namer, m_useReferences);
+				}
+			});
+	}
+	
+	private ClassFeatures readFeatures(ClassEntry classEntry)
+		throws ClassNotFoundException
+	{
+		if(m_featuresCache == null)
+			return new ClassFeatures(loadClass(classEntry), m_index);
+		
+		// did we read this class file in an earlier run?
+		byte[] classFile;
+		try
 		{
-			CtClass c = m_loader.loadClass(classEntry.getName());
-			if(c == null)
-				throw new ClassNotFoundException(classEntry.getName());
-			identity = new ClassIdentity(c, m_namer, m_index, m_useReferences);
-			m_cache.put(classEntry, identity);
+			classFile = m_loader.loadRawType(classEntry);
+		}catch(IOException ex)
+		{
+			throw new Error(ex);
+		}
+		if(classFile == null)
+			throw new ClassNotFoundException(classEntry.getName());
+		ClassFeatures features = m_featuresCache.get(classFile, m_index);
+		if(features == null)
+		{
+			features = new ClassFeatures(loadClass(classEntry), m_index);
+			m_featuresCache.put(classFile, features);
 		}
-		return identity;
+		return features;
+	}
+	
+	private CtClass loadClass(ClassEntry classEntry)
+		throws ClassNotFoundException
+	{
+		CtClass c = m_loader.loadClass(classEntry.getName());
+		if(c == null)
+			throw new ClassNotFoundException(classEntry.getName());
+		return c;
+	}
+	
+	private boolean isRenamed(ClassFeatures features, SidedClassNamer oldNamer)
+	{
+		for(String className : features.getReferencedClasses())
+			if(!Objects.equal(getName(oldNamer, className),
+				getName(m_namer, className)))
+				return true;
+		return false;
+	}
+	
+	private static String getName(SidedClassNamer namer, String className)
+	{
+		if(namer == null)
+			return null;
+		return namer.getName(className);
+	}
+	
+	private static ClassNotFoundException unwrap(ExecutionException ex)
+	{
+		// the loaders only throw ClassNotFoundException
+		if(ex.getCause() instanceof ClassNotFoundException)
+			return (ClassNotFoundException)ex.getCause();
+		throw new Error(ex.getCause());
 	}
 }
@@ -10,51 +10,37 @@
  ******************************************************************************/
 package cuchaz.enigma.convert;
 
-import java.io.UnsupportedEncodingException;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.util.Enumeration;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
-import javassist.CannotCompileException;
-import javassist.CtBehavior;
 import javassist.CtClass;
-import javassist.CtConstructor;
-import javassist.CtField;
-import javassist.CtMethod;
-import javassist.bytecode.BadBytecode;
-import javassist.bytecode.CodeIterator;
-import javassist.bytecode.ConstPool;
 import javassist.bytecode.Descriptor;
-import javassist.bytecode.Opcode;
-import javassist.expr.ConstructorCall;
-import javassist.expr.ExprEditor;
-import javassist.expr.FieldAccess;
-import javassist.expr.MethodCall;
-import javassist.expr.NewExpr;
 
+import com.google.common.base.Charsets;
 import com.google.common.collect.HashMultiset;
-import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Multiset;
-import com.google.common.collect.Sets;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 
 import cuchaz.enigma.Constants;
-import cuchaz.enigma.Util;
-import cuchaz.enigma.analysis.ClassImplementationsTreeNode;
-import cuchaz.enigma.analysis.EntryReference;
 import cuchaz.enigma.analysis.JarIndex;
-import cuchaz.enigma.bytecode.ConstPoolEditor;
-import cuchaz.enigma.bytecode.InfoType;
-import cuchaz.enigma.bytecode.accessors.ConstInfoAccessor;
 import cuchaz.enigma.convert.ClassNamer.SidedClassNamer;
 import cuchaz.enigma.mapping.*;
 
 public class ClassIdentity
 {
 	
+	// non-cryptographic hashes, we only need to tell classes apart
+	private static final HashFunction BehaviorHash = Hashing.murmur3_128();
+	private static final HashFunction FingerprintHash = Hashing
+		.murmur3_128(1);
+	
+	private ClassFeatures m_features;
 	private ClassEntry m_classEntry;
 	private SidedClassNamer m_namer;
 	private Multiset<String> m_fields;
@@ -67,6 +53,11 @@ public class ClassIdentity
 	private Multiset<String> m_implementations;
 	private Multiset<String> m_references;
 	private String m_outer;
+	private boolean m_useReferences;
+	private long[] m_methodHashes;
+	private long[] m_constructorHashes;
+	private long[] m_fingerprint;
+	private int m_hashCode;
 	
 	private final ClassNameReplacer m_classNameReplacer =
 		new ClassNameReplacer()
@@ -110,93 +101,86 @@ public class ClassIdentity
 	public ClassIdentity(CtClass c, SidedClassNamer namer, JarIndex index,
 		boolean useReferences)
 	{
+		this(new ClassFeatures(c, index), namer, useReferences);
+	}
+	
+	public ClassIdentity(ClassFeatures features, SidedClassNamer namer,
+		boolean useReferences)
+	{
+		m_features = features;
 		m_namer = namer;
+		m_classEntry = features.getClassEntry();
+		m_stringLiterals = features.getStringLiterals();
+		m_outer = features.getOuter();
+		m_useReferences = useReferences;
+		
+		// the feature strings are only needed to score matches, so they're
+		// built when something asks for them
+		computeFingerprint();
+	}
+	
+	private synchronized void scrubFeatures()
+	{
+		if(m_fields != null)
+			return;
+		
+		// NOTE: computeFingerprint() already numbered the classes the namer
+		// doesn't know, so the order here doesn't change the names
 		
 		// stuff from the bytecode
 		
-		m_classEntry = new ClassEntry(Descriptor.toJvmName(c.getName()));
 		m_fields = HashMultiset.create();
-		for(CtField field : c.getDeclaredFields())
-			m_fields.add(scrubType(field.getSignature()));
+		for(String field : m_features.getFields())
+			m_fields.add(scrubType(field));
 		m_methods = HashMultiset.create();
-		for(CtMethod method : c.getDeclaredMethods())
-			m_methods.add(scrubSignature(method.getSignature()) + "0x"
-				+ getBehaviorSignature(method));
+		List<ClassFeatures.Behavior> methods = m_features.getMethods();
+		for(int i = 0; i < methods.size(); i++)
+			m_methods.add(scrubSignature(methods.get(i).getSignature())
+				+ "0x" + getBehaviorSignature(methods.get(i), m_methodHashes[i]));
 		m_constructors = HashMultiset.create();
-		for(CtConstructor constructor : c.getDeclaredConstructors())
-			m_constructors.add(scrubSignature(constructor.getSignature())
-				+ "0x" + getBehaviorSignature(constructor));
+		List<ClassFeatures.Behavior> constructors =
+			m_features.getConstructors();
+		for(int i = 0; i < constructors.size(); i++)
+			m_constructors.add(scrubSignature(constructors.get(i)
+				.getSignature())
+				+ "0x"
+				+ getBehaviorSignature(constructors.get(i),
+					m_constructorHashes[i]));
 		m_staticInitializer = "";
-		if(c.getClassInitializer() != null)
-			m_staticInitializer = getBehaviorSignature(c.getClassInitializer());
+		ClassFeatures.Behavior staticInitializer =
+			m_features.getStaticInitializer();
+		if(staticInitializer != null)
+			m_staticInitializer =
+				getBehaviorSignature(staticInitializer,
+					getBehaviorHash(staticInitializer));
 		m_extends = "";
-		if(c.getClassFile().getSuperclass() != null)
-			m_extends =
-				scrubClassName(Descriptor.toJvmName(c.getClassFile()
-					.getSuperclass()));
+		if(m_features.getSuperclass() != null)
+			m_extends = scrubClassName(m_features.getSuperclass());
 		m_implements = HashMultiset.create();
-		for(String interfaceName : c.getClassFile().getInterfaces())
-			m_implements
-				.add(scrubClassName(Descriptor.toJvmName(interfaceName)));
-		
-		m_stringLiterals = Sets.newHashSet();
-		ConstPool constants = c.getClassFile().getConstPool();
-		for(int i = 1; i < constants.getSize(); i++)
-			if(constants.getTag(i) == ConstPool.CONST_String)
-				m_stringLiterals.add(constants.getStringInfo(i));
+		for(String interfaceName : m_features.getInterfaces())
+			m_implements.add(scrubClassName(interfaceName));
 		
 		// stuff from the jar index
 		
 		m_implementations = HashMultiset.create();
-		ClassImplementationsTreeNode implementationsNode =
-			index.getClassImplementations(null, m_classEntry);
-		if(implementationsNode != null)
-		{
-			@SuppressWarnings("unchecked")
-			Enumeration<ClassImplementationsTreeNode> implementations =
-				implementationsNode.children();
-			while(implementations.hasMoreElements())
-			{
-				ClassImplementationsTreeNode node =
-					implementations.nextElement();
-				m_implementations.add(scrubClassName(node.getClassEntry()
-					.getName()));
-			}
-		}
+		for(String implementation : m_features.getImplementations())
+			m_implementations.add(scrubClassName(implementation));
 		
 		m_references = HashMultiset.create();
-		if(useReferences)
-		{
-			for(CtField field : c.getDeclaredFields())
-			{
-				FieldEntry fieldEntry = EntryFactory.getFieldEntry(field);
-				for(EntryReference<FieldEntry, BehaviorEntry> reference : index
-					.getFieldReferences(fieldEntry))
-					addReference(reference);
-			}
-			for(CtBehavior behavior : c.getDeclaredBehaviors())
-			{
-				BehaviorEntry behaviorEntry =
-					EntryFactory.getBehaviorEntry(behavior);
-				for(EntryReference<BehaviorEntry, BehaviorEntry> reference : index
-					.getBehaviorReferences(behaviorEntry))
-					addReference(reference);
-			}
-		}
-		
-		m_outer = EntryFactory.getClassEntry(c).getOuterClassName();
+		if(m_useReferences)
+			for(BehaviorEntry context : m_features.getReferences())
+				addReference(context);
 	}
 	
-	private void addReference(
-		EntryReference<? extends Entry, BehaviorEntry> reference)
+	private void addReference(BehaviorEntry context)
 	{
-		if(reference.context.getSignature() != null)
+		if(context.getSignature() != null)
 			m_references.add(String.format("%s_%s",
-				scrubClassName(reference.context.getClassName()),
-				scrubSignature(reference.context.getSignature())));
+				scrubClassName(context.getClassName()),
+				scrubSignature(context.getSignature())));
 		else
 			m_references.add(String.format("%s_<clinit>",
-				scrubClassName(reference.context.getClassName())));
+				scrubClassName(context.getClassName())));
 	}
 	
 	public ClassEntry getClassEntry()
@@ -204,9 +188,15 @@ public class ClassIdentity
 		return m_classEntry;
 	}
 	
+	public ClassFeatures getFeatures()
+	{
+		return m_features;
+	}
+	
 	@Override
 	public String toString()
 	{
+		scrubFeatures();
 		StringBuilder buf = new StringBuilder();
 		buf.append("class: ");
 		buf.append(m_classEntry.getName());
@@ -301,130 +291,170 @@ public class ClassIdentity
 			&& m_namer.getName(Descriptor.toJvmName(className)) != null;
 	}
 	
-	private String getBehaviorSignature(CtBehavior behavior)
+	private String getBehaviorSignature(ClassFeatures.Behavior behavior,
+		long hash)
+	{
+		// does this method have an implementation?
+		if(!behavior.hasCode())
+			return "(none)";
+		return String.format("%016X", hash);
+	}
+	
+	private long getBehaviorHash(ClassFeatures.Behavior behavior)
 	{
-		try
+		if(!behavior.hasCode())
+			return 0;
+		
+		// compute the hash from the opcodes
+		Hasher hasher = BehaviorHash.newHasher();
+		hasher.putBytes(behavior.getCode());
+		
+		// update hash with method and field accesses
+		for(ClassFeatures.Access access : behavior.getAccesses())
 		{
-			// does this method have an implementation?
-			if(behavior.getMethodInfo().getCodeAttribute() == null)
-				return "(none)";
-			
-			// compute the hash from the opcodes
-			ConstPool constants = behavior.getMethodInfo().getConstPool();
-			final MessageDigest digest = MessageDigest.getInstance("MD5");
-			CodeIterator iter =
-				behavior.getMethodInfo().getCodeAttribute().iterator();
-			while(iter.hasNext())
-			{
-				int pos = iter.next();
-				
-				// update the hash with the opcode
-				int opcode = iter.byteAt(pos);
-				digest.update((byte)opcode);
-				
-				switch(opcode)
-				{
-					case Opcode.LDC:
-					{
-						int constIndex = iter.byteAt(pos + 1);
-						updateHashWithConstant(digest, constants, constIndex);
-					}
-						break;
-					
-					case Opcode.LDC_W:
-					case Opcode.LDC2_W:
-					{
-						int constIndex =
-							iter.byteAt(pos + 1) << 8 | iter.byteAt(pos + 2);
-						updateHashWithConstant(digest, constants, constIndex);
-					}
-						break;
-				}
-			}
-			
-			// update hash with method and field accesses
-			behavior.instrument(new ExprEditor()
+			hasher.putString(scrubClassName(access.getClassName()),
+				Charsets.UTF_8);
+			switch(access.getType())
 			{
-				@Override
-				public void edit(MethodCall call)
-				{
-					updateHashWithString(digest, scrubClassName(Descriptor
-						.toJvmName(call.getClassName())));
-					updateHashWithString(digest,
-						scrubSignature(call.getSignature()));
-					if(isClassMatchedUniquely(call.getClassName()))
-						updateHashWithString(digest, call.getMethodName());
-				}
+				case MethodCall:
+					hasher.putString(scrubSignature(access.getSignature()),
+						Charsets.UTF_8);
+					if(isClassMatchedUniquely(access.getClassName()))
+						hasher.putString(access.getMemberName(), Charsets.UTF_8);
+					break;
 				
-				@Override
-				public void edit(FieldAccess access)
-				{
-					updateHashWithString(digest, scrubClassName(Descriptor
-						.toJvmName(access.getClassName())));
-					updateHashWithString(digest,
-						scrubType(access.getSignature()));
+				case FieldAccess:
+					hasher.putString(scrubType(access.getSignature()),
+						Charsets.UTF_8);
 					if(isClassMatchedUniquely(access.getClassName()))
-						updateHashWithString(digest, access.getFieldName());
-				}
+						hasher.putString(access.getMemberName(), Charsets.UTF_8);
+					break;
 				
-				@Override
-				public void edit(ConstructorCall call)
-				{
-					updateHashWithString(digest, scrubClassName(Descriptor
-						.toJvmName(call.getClassName())));
-					updateHashWithString(digest,
-						scrubSignature(call.getSignature()));
-				}
+				case ConstructorCall:
+					hasher.putString(scrubSignature(access.getSignature()),
+						Charsets.UTF_8);
+					break;
 				
-				@Override
-				public void edit(NewExpr expr)
-				{
-					updateHashWithString(digest, scrubClassName(Descriptor
-						.toJvmName(expr.getClassName())));
-				}
-			});
-			
-			// convert the hash to a hex string
-			return toHex(digest.digest());
-		}catch(BadBytecode | NoSuchAlgorithmException | CannotCompileException ex)
-		{
-			throw new Error(ex);
+				case NewExpr:
+					break;
+			}
 		}
+		return hasher.hash().asLong();
 	}
 	
-	private void updateHashWithConstant(MessageDigest digest,
-		ConstPool constants, int index)
+	private void computeFingerprint()
 	{
-		ConstPoolEditor editor = new ConstPoolEditor(constants);
-		ConstInfoAccessor item = editor.getItem(index);
-		if(item.getType() == InfoType.StringInfo)
-			updateHashWithString(digest, constants.getStringInfo(index));
+		// NOTE: scrub in the same order as scrubFeatures(), the namer numbers
+		// unknown classes in the order it sees them
+		List<String> fields = m_features.getFields();
+		List<ClassFeatures.Behavior> methods = m_features.getMethods();
+		List<ClassFeatures.Behavior> constructors =
+			m_features.getConstructors();
+		List<String> interfaces = m_features.getInterfaces();
+		List<String> implementations = m_features.getImplementations();
+		List<BehaviorEntry> references =
+			m_useReferences ? m_features.getReferences() : Collections
+				.<BehaviorEntry> emptyList();
+		long[] fingerprint =
+			new long[8 + fields.size() + methods.size() + constructors.size()
+				+ interfaces.size() + implementations.size()
+				+ references.size()];
+		int pos = 0;
+		
+		fingerprint[pos++] = fields.size();
+		int start = pos;
+		for(String field : fields)
+			fingerprint[pos++] =
+				FingerprintHash.newHasher()
+					.putString(scrubType(field), Charsets.UTF_8).hash()
+					.asLong();
+		Arrays.sort(fingerprint, start, pos);
+		
+		m_methodHashes = new long[methods.size()];
+		pos = putBehaviors(fingerprint, pos, methods, m_methodHashes);
+		m_constructorHashes = new long[constructors.size()];
+		pos =
+			putBehaviors(fingerprint, pos, constructors, m_constructorHashes);
+		
+		Hasher hasher = FingerprintHash.newHasher();
+		ClassFeatures.Behavior staticInitializer =
+			m_features.getStaticInitializer();
+		hasher.putBoolean(staticInitializer != null);
+		if(staticInitializer != null)
+			putBehavior(hasher, staticInitializer,
+				getBehaviorHash(staticInitializer));
+		fingerprint[pos++] = hasher.hash().asLong();
+		
+		hasher = FingerprintHash.newHasher();
+		if(m_features.getSuperclass() != null)
+			hasher.putString(scrubClassName(m_features.getSuperclass()),
+				Charsets.UTF_8);
+		fingerprint[pos++] = hasher.hash().asLong();
+		
+		pos = putClassNames(fingerprint, pos, interfaces);
+		pos = putClassNames(fingerprint, pos, implementations);
+		
+		fingerprint[pos++] = references.size();
+		start = pos;
+		for(BehaviorEntry context : references)
+		{
+			// a class name can't contain the ( a signature starts with
+			hasher = FingerprintHash.newHasher();
+			hasher.putString(scrubClassName(context.getClassName()),
+				Charsets.UTF_8);
+			hasher.putBoolean(context.getSignature() != null);
+			if(context.getSignature() != null)
+				hasher.putString(scrubSignature(context.getSignature())
+					.toString(), Charsets.UTF_8);
+			fingerprint[pos++] = hasher.hash().asLong();
+		}
+		Arrays.sort(fingerprint, start, pos);
+		assert pos == fingerprint.length;
+		
+		m_fingerprint = fingerprint;
+		m_hashCode = Arrays.hashCode(fingerprint);
 	}
 	
-	private void updateHashWithString(MessageDigest digest, String val)
+	private int putBehaviors(long[] fingerprint, int pos,
+		List<ClassFeatures.Behavior> behaviors, long[] hashes)
 	{
-		try
+		fingerprint[pos++] = behaviors.size();
+		int start = pos;
+		for(int i = 0; i < behaviors.size(); i++)
 		{
-			digest.update(val.getBytes("UTF8"));
-		}catch(UnsupportedEncodingException ex)
-		{
-			throw new Error(ex);
+			ClassFeatures.Behavior behavior = behaviors.get(i);
+			
+			// scrub the signature before the body, like the strings do
+			Hasher hasher = FingerprintHash.newHasher();
+			hasher.putString(scrubSignature(behavior.getSignature()),
+				Charsets.UTF_8);
+			hashes[i] = getBehaviorHash(behavior);
+			putBehavior(hasher, behavior, hashes[i]);
+			fingerprint[pos++] = hasher.hash().asLong();
 		}
+		Arrays.sort(fingerprint, start, pos);
+		return pos;
 	}
 	
-	private String toHex(byte[] bytes)
+	private void putBehavior(Hasher hasher, ClassFeatures.Behavior behavior,
+		long hash)
 	{
-		// function taken from:
-		// http://stackoverflow.com/questions/9655181/convert-from-byte-array-to-hex-string-in-java
-		final char[] hexArray = "0123456789ABCDEF".toCharArray();
-		char[] hexChars = new char[bytes.length * 2];
-		for(int j = 0; j < bytes.length; j++)
-		{
-			int v = bytes[j] & 0xFF;
-			hexChars[j * 2] = hexArray[v >>> 4];
-			hexChars[j * 2 + 1] = hexArray[v & 0x0F];
-		}
-		return new String(hexChars);
+		hasher.putBoolean(behavior.hasCode());
+		hasher.putLong(hash);
+	}
+	
+	private int putClassNames(long[] fingerprint, int pos,
+		List<String> classNames)
+	{
+		fingerprint[pos++] = classNames.size();
+		int start = pos;
+		for(String className : classNames)
+			fingerprint[pos++] =
+				FingerprintHash.newHasher()
+					.putString(scrubClassName(className), Charsets.UTF_8)
+					.hash().asLong();
+		Arrays.sort(fingerprint, start, pos);
+		return pos;
 	}
 	
 	@Override
@@ -437,6 +467,24 @@ public class ClassIdentity
 	
 	public boolean equals(ClassIdentity other)
 	{
+		return m_hashCode == other.m_hashCode
+			&& Arrays.equals(m_fingerprint, other.m_fingerprint);
+	}
+	
+	@Override
+	public int hashCode()
+	{
+		return m_hashCode;
+	}
+	
+	/**
+	 * Compares the feature strings one by one, the way equals() used to
+	 * before the fingerprints.
+	 */
+	public boolean hasSameFeatures(ClassIdentity other)
+	{
+		scrubFeatures();
+		other.scrubFeatures();
 		return m_fields.equals(other.m_fields)
 			&& m_methods.equals(other.m_methods)
 			&& m_constructors.equals(other.m_constructors)
@@ -447,23 +495,10 @@ public class ClassIdentity
 			&& m_references.equals(other.m_references);
 	}
 	
-	@Override
-	public int hashCode()
-	{
-		List<Object> objs = Lists.newArrayList();
-		objs.addAll(m_fields);
-		objs.addAll(m_methods);
-		objs.addAll(m_constructors);
-		objs.add(m_staticInitializer);
-		objs.add(m_extends);
-		objs.addAll(m_implements);
-		objs.addAll(m_implementations);
-		objs.addAll(m_references);
-		return Util.combineHashesOrdered(objs);
-	}
-	
 	public int getMatchScore(ClassIdentity other)
 	{
+		scrubFeatures();
+		other.scrubFeatures();
 		return 2 * getNumMatches(m_extends, other.m_extends) + 2
 			* getNumMatches(m_outer, other.m_outer) + 2
 			* getNumMatches(m_implements, other.m_implements)
@@ -473,8 +508,42 @@ public class ClassIdentity
 			+ getNumMatches(m_constructors, other.m_constructors);
 	}
 	
+	/**
+	 * Returns every feature getMatchScore() compares, with its weight times
+	 * the number of times it occurs. For two identities, adding up the
+	 * weights of the shared features from both sides gives the same total as
+	 * a.getMatchScore(b) + b.getMatchScore(a).
+	 */
+	public Map<String, Integer> getMatchFeatures()
+	{
+		scrubFeatures();
+		Map<String, Integer> features = Maps.newHashMap();
+		addMatchFeature(features, "extends " + m_extends, 2);
+		if(m_outer != null)
+			addMatchFeature(features, "outer " + m_outer, 2);
+		for(String interfaceName : m_implements)
+			addMatchFeature(features, "implements " + interfaceName, 2);
+		for(String stringLiteral : m_stringLiterals)
+			addMatchFeature(features, "string " + stringLiteral, 1);
+		for(String field : m_fields)
+			addMatchFeature(features, "field " + field, 1);
+		for(String method : m_methods)
+			addMatchFeature(features, "method " + method, 1);
+		for(String constructor : m_constructors)
+			addMatchFeature(features, "constructor " + constructor, 1);
+		return features;
+	}
+	
+	private void addMatchFeature(Map<String, Integer> features,
+		String feature, int weight)
+	{
+		Integer oldWeight = features.get(feature);
+		features.put(feature, oldWeight != null ? oldWeight + weight : weight);
+	}
+	
 	public int getMaxMatchScore()
 	{
+		scrubFeatures();
 		return 2 + 2 + 2 * m_implements.size() + m_stringLiterals.size()
 			+ m_fields.size() + m_methods.size() + m_constructors.size();
 	}
@@ -482,6 +551,7 @@ public class ClassIdentity
 	public boolean matches(CtClass c)
 	{
 		// just compare declaration counts
+		scrubFeatures();
 		return m_fields.size() == c.getDeclaredFields().length
 			&& m_methods.size() == c.getDeclaredMethods().length
 			&& m_constructors.size() == c.getDeclaredConstructors().length;
@@ -507,7 +577,8 @@ public class ClassIdentity
 	
 	private int getNumMatches(String a, String b)
 	{
-		if(a.equals(b))
+		// top-level classes have no outer class to match
+		if(a != null && a.equals(b))
 			return 1;
 		return 0;
 	}
@@ -0,0 +1,177 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Jeff Martin.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public
+ * License v3.0 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * Contributors:
+ * Jeff Martin - initial API and implementation
+ ******************************************************************************/
+package cuchaz.enigma.convert;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
+
+import cuchaz.enigma.mapping.ClassEntry;
+
+public class ClassMatchRanker
+{
+	
+	// NOTE: common features only add to the scores of candidates found through rarer
+	// ones, since visiting every class that has them is most of the work
+	
+	public static class Candidate
+	{
+		
+		private ClassEntry m_classEntry;
+		private float m_score;
+		
+		public Candidate(ClassEntry classEntry, float score)
+		{
+			m_classEntry = classEntry;
+			m_score = score;
+		}
+		
+		public ClassEntry getClassEntry()
+		{
+			return m_classEntry;
+		}
+		
+		public float getScore()
+		{
+			return m_score;
+		}
+	}
+	
+	private static final Comparator<Candidate> ByScore =
+		new Comparator<Candidate>()
+		{
+			@Override
+			public int compare(Candidate a, Candidate b)
+			{
+				return Float.compare(a.getScore(), b.getScore());
+			}
+		};
+	
+	private static final int MinCommonClasses = 64;
+	private static final float CommonFraction = 0.05f;
+	
+	private Map<ClassEntry, Map<String, Integer>> m_destFeatures;
+	private Map<ClassEntry, Integer> m_destMaxScores;
+	private Multimap<String, ClassEntry> m_destClassesByFeature;
+	private Multimap<String, ClassEntry> m_destClassesByCommonFeature;
+	
+	public ClassMatchRanker(ClassIdentifier destIdentifier,
+		Iterable<ClassEntry> destClasses) throws ClassNotFoundException
+	{
+		
+		// index the dest classes by their features, so ranking only has to
+		// look at the classes that have something in common with the source
+		m_destFeatures = Maps.newHashMap();
+		m_destMaxScores = Maps.newHashMap();
+		m_destClassesByFeature = HashMultimap.create();
+		for(ClassEntry destClass : destClasses)
+		{
+			ClassIdentity destIdentity = destIdentifier.identify(destClass);
+			Map<String, Integer> features = destIdentity.getMatchFeatures();
+			m_destFeatures.put(destClass, features);
+			m_destMaxScores.put(destClass, destIdentity.getMaxMatchScore());
+			for(String feature : features.keySet())
+				m_destClassesByFeature.put(feature, destClass);
+		}
+		
+		// set the common features aside
+		int maxClasses =
+			Math.max(MinCommonClasses,
+				(int)(m_destFeatures.size() * CommonFraction));
+		m_destClassesByCommonFeature = HashMultimap.create();
+		for(String feature : Lists.newArrayList(m_destClassesByFeature
+			.keySet()))
+			if(m_destClassesByFeature.get(feature).size() > maxClasses)
+				m_destClassesByCommonFeature.putAll(feature,
+					m_destClassesByFeature.removeAll(feature));
+	}
+	
+	/**
+	 * Returns the number of features too common to find candidates with.
+	 */
+	public int getNumCommonFeatures()
+	{
+		return m_destClassesByCommonFeature.keySet().size();
+	}
+	
+	public List<Candidate> rank(ClassIdentity sourceIdentity, int maxCandidates)
+	{
+		
+		// add up the scores in both directions, this gives the same number
+		// as getMatchScore(dest) + dest.getMatchScore(source)
+		Map<String, Integer> sourceFeatures = sourceIdentity.getMatchFeatures();
+		Map<ClassEntry, Integer> scores = Maps.newHashMap();
+		List<Map.Entry<String, Integer>> commonFeatures = Lists.newArrayList();
+		for(Map.Entry<String, Integer> feature : sourceFeatures.entrySet())
+			if(m_destClassesByCommonFeature.containsKey(feature.getKey()))
+				commonFeatures.add(feature);
+			else
+				addScores(scores, feature,
+					m_destClassesByFeature.get(feature.getKey()));
+		
+		if(scores.isEmpty())
+			for(Map.Entry<String, Integer> feature : commonFeatures)
+				addScores(scores, feature,
+					m_destClassesByCommonFeature.get(feature.getKey()));
+		else
+			for(Map.Entry<String, Integer> feature : commonFeatures)
+				for(Map.Entry<ClassEntry, Integer> entry : scores.entrySet())
+				{
+					Integer destWeight =
+						m_destFeatures.get(entry.getKey()).get(
+							feature.getKey());
+					if(destWeight != null)
+						entry.setValue(entry.getValue() + feature.getValue()
+							+ destWeight);
+				}
+		
+		// keep only the best candidates
+		int sourceMaxScore = sourceIdentity.getMaxMatchScore();
+		PriorityQueue<Candidate> best =
+			new PriorityQueue<Candidate>(maxCandidates + 1, ByScore);
+		for(Map.Entry<ClassEntry, Integer> entry : scores.entrySet())
+		{
+			float score =
+				100.0f * entry.getValue()
+					/ (sourceMaxScore + m_destMaxScores.get(entry.getKey()));
+			best.add(new Candidate(entry.getKey(), score));
+			if(best.size() > maxCandidates)
+				best.poll();
+		}
+		
+		List<Candidate> candidates = Lists.newArrayList(best);
+		Collections.sort(candidates, Collections.reverseOrder(ByScore));
+		return candidates;
+	}
+	
+	private void addScores(Map<ClassEntry, Integer> scores,
+		Map.Entry<String, Integer> feature, Collection<ClassEntry> destClasses)
+	{
+		for(ClassEntry destClass : destClasses)
+		{
+			int score =
+				feature.getValue()
+					+ m_destFeatures.get(destClass).get(feature.getKey());
+			Integer oldScore = scores.get(destClass);
+			if(oldScore != null)
+				score += oldScore;
+			scores.put(destClass, score);
+		}
+	}
+}
@@ -119,6 +119,21 @@ public class ClassMatches implements Iterable<ClassMatch>
 		return m_uniqueMatches;
 	}
 	
+	public Set<ClassEntry> getSourceClasses()
+	{
+		return m_matchesBySource.keySet();
+	}
+	
+	public Set<ClassEntry> getDestClasses()
+	{
+		return m_matchesByDest.keySet();
+	}
+	
+	public Set<ClassMatch> getAmbiguousMatches()
+	{
+		return Sets.newHashSet(m_ambiguousMatchesBySource.values());
+	}
+	
 	public Set<ClassEntry> getUnmatchedSourceClasses()
 	{
 		return m_unmatchedSourceClasses;
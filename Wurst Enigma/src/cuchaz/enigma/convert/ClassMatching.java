@@ -12,13 +12,16 @@ package cuchaz.enigma.convert;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 
 import com.google.common.collect.BiMap;
 import com.google.common.collect.HashBiMap;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 
 import cuchaz.enigma.mapping.ClassEntry;
@@ -30,96 +33,121 @@ public class ClassMatching
 	private ClassForest m_destClasses;
 	private BiMap<ClassEntry, ClassEntry> m_knownMatches;
 	
+	// the match partition is built once and then kept up to date, so the
+	// views below don't have to rebuild every match on each call
+	private ClassMatches m_matches;
+	private Map<ClassIdentity, ClassMatch> m_matchesByIdentity;
+	
 	public ClassMatching(ClassIdentifier sourceIdentifier,
 		ClassIdentifier destIdentifier)
 	{
 		m_sourceClasses = new ClassForest(sourceIdentifier);
 		m_destClasses = new ClassForest(destIdentifier);
 		m_knownMatches = HashBiMap.create();
+		m_matches = null;
+		m_matchesByIdentity = null;
 	}
 	
 	public void addKnownMatches(BiMap<ClassEntry, ClassEntry> knownMatches)
 	{
 		m_knownMatches.putAll(knownMatches);
+		
+		// known matches can shadow classes that are already in the forests,
+		// so just start over next time
+		m_matches = null;
+		m_matchesByIdentity = null;
 	}
 	
 	public void match(Iterable<ClassEntry> sourceClasses,
 		Iterable<ClassEntry> destClasses)
 	{
+		List<ClassEntry> newSourceClasses = Lists.newArrayList();
 		for(ClassEntry sourceClass : sourceClasses)
 			if(!m_knownMatches.containsKey(sourceClass))
-				m_sourceClasses.add(sourceClass);
+				newSourceClasses.add(sourceClass);
+		List<ClassEntry> newDestClasses = Lists.newArrayList();
 		for(ClassEntry destClass : destClasses)
 			if(!m_knownMatches.containsValue(destClass))
-				m_destClasses.add(destClass);
+				newDestClasses.add(destClass);
+		Set<ClassIdentity> touchedIdentities = Sets.newHashSet();
+		touchedIdentities.addAll(m_sourceClasses.addAll(newSourceClasses));
+		touchedIdentities.addAll(m_destClasses.addAll(newDestClasses));
+		
+		// only the matches of the identities that got new classes changed
+		if(m_matches != null)
+			for(ClassIdentity identity : touchedIdentities)
+				updateMatch(identity);
+	}
+	
+	private ClassMatches getMatches()
+	{
+		if(m_matches == null)
+		{
+			m_matches = new ClassMatches(Sets.<ClassMatch> newLinkedHashSet());
+			m_matchesByIdentity = Maps.newHashMap();
+			for(Entry<ClassEntry, ClassEntry> entry : m_knownMatches.entrySet())
+				m_matches.add(new ClassMatch(entry.getKey(), entry.getValue()));
+			for(ClassIdentity identity : m_sourceClasses.identities())
+				updateMatch(identity);
+			for(ClassIdentity identity : m_destClasses.identities())
+				if(!m_sourceClasses.containsIdentity(identity))
+					updateMatch(identity);
+		}
+		return m_matches;
+	}
+	
+	private void updateMatch(ClassIdentity identity)
+	{
+		ClassMatch oldMatch = m_matchesByIdentity.remove(identity);
+		if(oldMatch != null)
+			m_matches.remove(oldMatch);
+		ClassMatch match;
+		if(m_sourceClasses.containsIdentity(identity))
+			match = new ClassMatch(m_sourceClasses.getClasses(identity),
+				m_destClasses.getClasses(identity));
+		else
+			match = new ClassMatch(new ArrayList<ClassEntry>(),
+				m_destClasses.getClasses(identity));
+		m_matches.add(match);
+		m_matchesByIdentity.put(identity, match);
 	}
 	
 	public Collection<ClassMatch> matches()
 	{
-		List<ClassMatch> matches = Lists.newArrayList();
-		for(Entry<ClassEntry, ClassEntry> entry : m_knownMatches.entrySet())
-			matches.add(new ClassMatch(entry.getKey(), entry.getValue()));
-		for(ClassIdentity identity : m_sourceClasses.identities())
-			matches.add(new ClassMatch(m_sourceClasses.getClasses(identity),
-				m_destClasses.getClasses(identity)));
-		for(ClassIdentity identity : m_destClasses.identities())
-			if(!m_sourceClasses.containsIdentity(identity))
-				matches.add(new ClassMatch(new ArrayList<ClassEntry>(),
-					m_destClasses.getClasses(identity)));
-		return matches;
+		// callers get their own copy, since ClassMatches can be edited
+		return Lists.newArrayList(getMatches());
 	}
 	
 	public Collection<ClassEntry> sourceClasses()
 	{
-		Set<ClassEntry> classes = Sets.newHashSet();
-		for(ClassMatch match : matches())
-			classes.addAll(match.sourceClasses);
-		return classes;
+		return Collections.unmodifiableSet(getMatches().getSourceClasses());
 	}
 	
 	public Collection<ClassEntry> destClasses()
 	{
-		Set<ClassEntry> classes = Sets.newHashSet();
-		for(ClassMatch match : matches())
-			classes.addAll(match.destClasses);
-		return classes;
+		return Collections.unmodifiableSet(getMatches().getDestClasses());
 	}
 	
 	public BiMap<ClassEntry, ClassEntry> uniqueMatches()
 	{
-		BiMap<ClassEntry, ClassEntry> uniqueMatches = HashBiMap.create();
-		for(ClassMatch match : matches())
-			if(match.isMatched() && !match.isAmbiguous())
-				uniqueMatches.put(match.getUniqueSource(),
-					match.getUniqueDest());
-		return uniqueMatches;
+		return HashBiMap.create(getMatches().getUniqueMatches());
 	}
 	
 	public Collection<ClassMatch> ambiguousMatches()
 	{
-		List<ClassMatch> ambiguousMatches = Lists.newArrayList();
-		for(ClassMatch match : matches())
-			if(match.isMatched() && match.isAmbiguous())
-				ambiguousMatches.add(match);
-		return ambiguousMatches;
+		return getMatches().getAmbiguousMatches();
 	}
 	
 	public Collection<ClassEntry> unmatchedSourceClasses()
 	{
-		List<ClassEntry> classes = Lists.newArrayList();
-		for(ClassMatch match : matches())
-			if(!match.isMatched() && !match.sourceClasses.isEmpty())
-				classes.addAll(match.sourceClasses);
-		return classes;
+		return Collections.unmodifiableSet(getMatches()
+			.getUnmatchedSourceClasses());
 	}
 	
 	public Collection<ClassEntry> unmatchedDestClasses()
 	{
-		List<ClassEntry> classes = Lists.newArrayList();
-		for(ClassMatch match : matches())
-			if(!match.isMatched() && !match.destClasses.isEmpty())
-				classes.addAll(match.destClasses);
-		return classes;
+		return Collections.unmodifiableSet(getMatches()
+			.getUnmatchedDestClasses());
 	}
 	
 	@Override
@@ -139,8 +167,9 @@ public class ClassMatching
 		buf.append(String.format("%20s%8s%8s\n", "", "Source", "Dest"));
 		buf.append(String.format("%20s%8d%8d\n", "Classes", sourceClasses()
 			.size(), destClasses().size()));
+		int numUniqueMatches = getMatches().getUniqueMatches().size();
 		buf.append(String.format("%20s%8d%8d\n", "Uniquely matched",
-			uniqueMatches().size(), uniqueMatches().size()));
+			numUniqueMatches, numUniqueMatches));
 		buf.append(String.format("%20s%8d%8d\n", "Ambiguously matched",
 			numAmbiguousSource, numAmbiguousDest));
 		buf.append(String.format("%20s%8d%8d\n", "Unmatched",
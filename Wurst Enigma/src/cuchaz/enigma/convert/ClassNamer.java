@@ -31,12 +31,13 @@ public class ClassNamer
 	public ClassNamer(BiMap<ClassEntry, ClassEntry> mappings)
 	{
 		// convert the identity mappings to name maps
+		// NOTE: name each match after its source class, so a class keeps its
+		// name from one matching round to the next
 		m_sourceNames = Maps.newHashMap();
 		m_destNames = Maps.newHashMap();
-		int i = 0;
 		for(Map.Entry<ClassEntry, ClassEntry> entry : mappings.entrySet())
 		{
-			String name = String.format("M%04d", i++);
+			String name = "M" + entry.getKey().getName();
 			m_sourceNames.put(entry.getKey().getName(), name);
 			m_destNames.put(entry.getValue().getName(), name);
 		}
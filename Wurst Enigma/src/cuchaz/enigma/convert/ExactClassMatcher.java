@@ -0,0 +1,265 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Jeff Martin.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public
+ * License v3.0 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * Contributors:
+ * Jeff Martin - initial API and implementation
+ ******************************************************************************/
+package cuchaz.enigma.convert;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import com.google.common.collect.BiMap;
+import com.google.common.collect.HashBiMap;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import cuchaz.enigma.Constants;
+import cuchaz.enigma.convert.ClassFeatures.Access;
+import cuchaz.enigma.convert.ClassFeatures.AccessType;
+import cuchaz.enigma.convert.ClassFeatures.Behavior;
+import cuchaz.enigma.mapping.ClassEntry;
+import cuchaz.enigma.mapping.ClassNameReplacer;
+import cuchaz.enigma.mapping.Signature;
+import cuchaz.enigma.mapping.Type;
+
+public class ExactClassMatcher
+{
+	
+	// NOTE: classes that didn't change between two versions of a jar have the
+	// same bytecode except for the obfuscated names, so they can be matched
+	// by a hash with those names replaced by numbered placeholders before
+	// the (much slower) identity matching even starts
+	
+	private static final HashFunction ExactHash = Hashing.murmur3_128();
+	
+	public static BiMap<ClassEntry, ClassEntry> match(
+		ClassIdentifier sourceIdentifier, Iterable<ClassEntry> sourceClasses,
+		ClassIdentifier destIdentifier, Iterable<ClassEntry> destClasses)
+	{
+		Multimap<HashCode, ClassEntry> sourceHashes =
+			computeHashes(sourceIdentifier, sourceClasses);
+		Multimap<HashCode, ClassEntry> destHashes =
+			computeHashes(destIdentifier, destClasses);
+		
+		// only trust hashes that are unique on both sides
+		BiMap<ClassEntry, ClassEntry> matches = HashBiMap.create();
+		for(HashCode hash : sourceHashes.keySet())
+		{
+			if(sourceHashes.get(hash).size() != 1
+				|| destHashes.get(hash).size() != 1)
+				continue;
+			matches.put(sourceHashes.get(hash).iterator().next(), destHashes
+				.get(hash).iterator().next());
+		}
+		return matches;
+	}
+	
+	private static Multimap<HashCode, ClassEntry> computeHashes(
+		final ClassIdentifier identifier, Iterable<ClassEntry> classes)
+	{
+		
+		// read the classes in parallel, the identifier keeps the features
+		// around for the matching rounds afterwards
+		List<ClassEntry> classList = Lists.newArrayList(classes);
+		List<Callable<HashCode>> tasks = Lists.newArrayList();
+		for(final ClassEntry classEntry : classList)
+			tasks.add(new Callable<HashCode>()
+			{
+				@Override
+				public HashCode call() throws ClassNotFoundException
+				{
+					return computeHash(identifier.getFeatures(classEntry));
+				}
+			});
+		List<Future<HashCode>> hashes = ClassForest.Pool.invokeAll(tasks);
+		
+		Multimap<HashCode, ClassEntry> classesByHash = HashMultimap.create();
+		for(int i = 0; i < classList.size(); i++)
+		{
+			ClassEntry classEntry = classList.get(i);
+			try
+			{
+				classesByHash.put(hashes.get(i).get(), classEntry);
+			}catch(InterruptedException ex)
+			{
+				throw new Error(ex);
+			}catch(ExecutionException ex)
+			{
+				if(ex.getCause() instanceof ClassNotFoundException)
+					throw new Error("Unable to find class "
+						+ classEntry.getName());
+				throw new Error(ex.getCause());
+			}
+		}
+		return classesByHash;
+	}
+	
+	public static HashCode computeHash(ClassFeatures features)
+	{
+		Hasher hasher = ExactHash.newHasher();
+		
+		// number the obfuscated classes in the order they show up, starting
+		// with the class itself
+		ClassNameReplacer replacer =
+			newPlaceholderReplacer(features.getClassEntry());
+		
+		// the obfuscated member names get numbered the same way
+		Map<String, Integer> memberPlaceholders = Maps.newHashMap();
+		
+		putString(hasher, getPlaceholder(replacer, features.getSuperclass()));
+		hasher.putInt(features.getInterfaces().size());
+		for(String interfaceName : features.getInterfaces())
+			putString(hasher, getPlaceholder(replacer, interfaceName));
+		putString(hasher, getPlaceholder(replacer, features.getOuter()));
+		
+		hasher.putInt(features.getFields().size());
+		for(String field : features.getFields())
+			putString(hasher, new Type(new Type(field), replacer).toString());
+		
+		hasher.putInt(features.getMethods().size());
+		for(Behavior method : features.getMethods())
+			putBehavior(hasher, method, replacer, memberPlaceholders);
+		hasher.putInt(features.getConstructors().size());
+		for(Behavior constructor : features.getConstructors())
+			putBehavior(hasher, constructor, replacer, memberPlaceholders);
+		hasher.putBoolean(features.getStaticInitializer() != null);
+		if(features.getStaticInitializer() != null)
+			putBehavior(hasher, features.getStaticInitializer(), replacer,
+				memberPlaceholders);
+		
+		List<String> stringLiterals =
+			Lists.newArrayList(features.getStringLiterals());
+		Collections.sort(stringLiterals);
+		hasher.putInt(stringLiterals.size());
+		for(String literal : stringLiterals)
+			putString(hasher, literal);
+		
+		return hasher.hash();
+	}
+	
+	/**
+	 * Hashes just the one behavior, the same way computeHash() hashes the
+	 * behaviors of a class. Used to tell apart members that have the same
+	 * signature.
+	 */
+	public static HashCode computeHash(ClassEntry classEntry, Behavior behavior)
+	{
+		Hasher hasher = ExactHash.newHasher();
+		putBehavior(hasher, behavior, newPlaceholderReplacer(classEntry),
+			Maps.<String, Integer> newHashMap());
+		return hasher.hash();
+	}
+	
+	private static ClassNameReplacer newPlaceholderReplacer(
+		ClassEntry classEntry)
+	{
+		final Map<String, String> placeholders = Maps.newHashMap();
+		placeholders.put(classEntry.getName(), Constants.NonePackage + "/0");
+		return new ClassNameReplacer()
+		{
+			@Override
+			public String replace(String className)
+			{
+				if(!new ClassEntry(className).getPackageName().equals(
+					Constants.NonePackage))
+					return null;
+				String placeholder = placeholders.get(className);
+				if(placeholder == null)
+				{
+					placeholder =
+						Constants.NonePackage + "/" + placeholders.size();
+					placeholders.put(className, placeholder);
+				}
+				return placeholder;
+			}
+		};
+	}
+	
+	private static void putBehavior(Hasher hasher, Behavior behavior,
+		ClassNameReplacer replacer, Map<String, Integer> memberPlaceholders)
+	{
+		putString(hasher, getSignature(replacer, behavior.getSignature()));
+		hasher.putBoolean(behavior.hasCode());
+		if(!behavior.hasCode())
+			return;
+		hasher.putInt(behavior.getCode().length);
+		hasher.putBytes(behavior.getCode());
+		
+		hasher.putInt(behavior.getAccesses().size());
+		for(Access access : behavior.getAccesses())
+		{
+			hasher.putInt(access.getType().ordinal());
+			String className = getPlaceholder(replacer, access.getClassName());
+			putString(hasher, className);
+			String signature;
+			if(access.getType() == AccessType.FieldAccess)
+				signature =
+					new Type(new Type(access.getSignature()), replacer)
+						.toString();
+			else
+				signature = getSignature(replacer, access.getSignature());
+			putString(hasher, signature);
+			
+			String memberName = access.getMemberName();
+			if(memberName != null
+				&& !className.equals(access.getClassName()))
+			{
+				// the member of an obfuscated class
+				String key = className + "." + memberName + signature;
+				Integer placeholder = memberPlaceholders.get(key);
+				if(placeholder == null)
+				{
+					placeholder = memberPlaceholders.size();
+					memberPlaceholders.put(key, placeholder);
+				}
+				memberName = "m" + placeholder;
+			}
+			putString(hasher, memberName);
+		}
+	}
+	
+	private static String getPlaceholder(ClassNameReplacer replacer,
+		String className)
+	{
+		if(className == null)
+			return null;
+		String placeholder = replacer.replace(className);
+		if(placeholder == null)
+			return className;
+		return placeholder;
+	}
+	
+	private static String getSignature(ClassNameReplacer replacer,
+		String signature)
+	{
+		if(signature == null)
+			return null;
+		return new Signature(new Signature(signature), replacer).toString();
+	}
+	
+	private static void putString(Hasher hasher, String value)
+	{
+		if(value == null)
+		{
+			hasher.putInt(-1);
+			return;
+		}
+		hasher.putInt(value.length());
+		hasher.putUnencodedChars(value);
+	}
+}
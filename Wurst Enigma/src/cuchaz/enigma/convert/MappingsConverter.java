@@ -11,14 +11,19 @@
 package cuchaz.enigma.convert;
 
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.jar.JarFile;
 
 import com.google.common.collect.BiMap;
 import com.google.common.collect.HashMultimap;
+import com.google.common.collect.LinkedHashMultimap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Sets;
+import com.google.common.hash.HashCode;
 
 import cuchaz.enigma.Deobfuscator;
 import cuchaz.enigma.analysis.JarIndex;
@@ -31,6 +36,12 @@ public class MappingsConverter
 	public static ClassMatches computeClassMatches(JarFile sourceJar,
 		JarFile destJar, Mappings mappings)
 	{
+		return computeClassMatches(sourceJar, destJar, mappings, null);
+	}
+	
+	public static ClassMatches computeClassMatches(JarFile sourceJar,
+		JarFile destJar, Mappings mappings, ClassFeaturesCache featuresCache)
+	{
 		
 		// index jars
 		System.out.println("Indexing source jar...");
@@ -42,7 +53,8 @@ public class MappingsConverter
 		
 		// compute the matching
 		ClassMatching matching =
-			computeMatching(sourceJar, sourceIndex, destJar, destIndex, null);
+			computeMatching(sourceJar, sourceIndex, destJar, destIndex, null,
+				featuresCache);
 		return new ClassMatches(matching.matches());
 	}
 	
@@ -50,13 +62,46 @@ public class MappingsConverter
 		JarIndex sourceIndex, JarFile destJar, JarIndex destIndex,
 		BiMap<ClassEntry, ClassEntry> knownMatches)
 	{
+		return computeMatching(sourceJar, sourceIndex, destJar, destIndex,
+			knownMatches, null);
+	}
+	
+	public static ClassMatching computeMatching(JarFile sourceJar,
+		JarIndex sourceIndex, JarFile destJar, JarIndex destIndex,
+		BiMap<ClassEntry, ClassEntry> knownMatches,
+		ClassFeaturesCache featuresCache)
+	{
+		
+		// the bytecode doesn't change between the rounds, so the identifiers
+		// read each class only once
+		ClassIdentifier sourceIdentifier =
+			new ClassIdentifier(sourceJar, sourceIndex, featuresCache, null,
+				false);
+		ClassIdentifier destIdentifier =
+			new ClassIdentifier(destJar, destIndex, featuresCache, null, false);
+		
+		// match the classes that didn't change at all first
+		System.out.println("Matching unchanged classes...");
+		BiMap<ClassEntry, ClassEntry> exactMatches =
+			ExactClassMatcher.match(sourceIdentifier,
+				getUnknownClasses(sourceIndex, knownMatches, true),
+				destIdentifier,
+				getUnknownClasses(destIndex, knownMatches, false));
+		System.out.println("Found " + exactMatches.size()
+			+ " unchanged classes");
+		if(knownMatches != null)
+			exactMatches.putAll(knownMatches);
+		knownMatches = exactMatches;
 		
 		System.out.println("Iteratively matching classes");
 		
 		ClassMatching lastMatching = null;
 		int round = 0;
-		SidedClassNamer sourceNamer = null;
-		SidedClassNamer destNamer = null;
+		
+		// the unchanged classes already have names for the first round
+		ClassNamer knownNamer = new ClassNamer(knownMatches);
+		SidedClassNamer sourceNamer = knownNamer.getSourceNamer();
+		SidedClassNamer destNamer = knownNamer.getDestNamer();
 		for(boolean useReferences : Arrays.asList(false, true))
 		{
 			
@@ -70,14 +115,18 @@ public class MappingsConverter
 				System.out.println("Round " + (++round) + "...");
 				
 				// init the matching with identity settings
+				// reuse what the last round learned about the classes, only
+				// the names of newly-matched classes have changed since then
+				sourceIdentifier =
+					new ClassIdentifier(sourceIdentifier, sourceNamer,
+						useReferences);
+				destIdentifier =
+					new ClassIdentifier(destIdentifier, destNamer,
+						useReferences);
 				ClassMatching matching =
-					new ClassMatching(new ClassIdentifier(sourceJar,
-						sourceIndex, sourceNamer, useReferences),
-						new ClassIdentifier(destJar, destIndex, destNamer,
-							useReferences));
+					new ClassMatching(sourceIdentifier, destIdentifier);
 				
-				if(knownMatches != null)
-					matching.addKnownMatches(knownMatches);
+				matching.addKnownMatches(knownMatches);
 				
 				if(lastMatching == null)
 					// search all classes
@@ -116,6 +165,21 @@ public class MappingsConverter
 		return lastMatching;
 	}
 	
+	private static List<ClassEntry> getUnknownClasses(JarIndex index,
+		BiMap<ClassEntry, ClassEntry> knownMatches, boolean isSource)
+	{
+		List<ClassEntry> classes = Lists.newArrayList();
+		for(ClassEntry classEntry : index.getObfClassEntries())
+		{
+			if(knownMatches != null
+				&& (isSource ? knownMatches.containsKey(classEntry)
+					: knownMatches.containsValue(classEntry)))
+				continue;
+			classes.add(classEntry);
+		}
+		return classes;
+	}
+	
 	public static Mappings newMappings(ClassMatches matches,
 		Mappings oldMappings, Deobfuscator sourceDeobfuscator,
 		Deobfuscator destDeobfuscator)
@@ -249,42 +313,12 @@ public class MappingsConverter
 		BiMap<ClassEntry, ClassEntry> changes)
 	{
 		
-		// sort the changes so classes are renamed in the correct order
-		// ie. if we have the mappings a->b, b->c, we have to apply b->c before
-		// a->b
-		LinkedHashMap<ClassEntry, ClassEntry> sortedChanges =
-			Maps.newLinkedHashMap();
-		int numChangesLeft = changes.size();
-		while(!changes.isEmpty())
-		{
-			Iterator<Map.Entry<ClassEntry, ClassEntry>> iter =
-				changes.entrySet().iterator();
-			while(iter.hasNext())
-			{
-				Map.Entry<ClassEntry, ClassEntry> change = iter.next();
-				if(changes.containsKey(change.getValue()))
-				{
-					sortedChanges.put(change.getKey(), change.getValue());
-					iter.remove();
-				}
-			}
-			
-			// did we remove any changes?
-			if(numChangesLeft - changes.size() > 0)
-				// keep going
-				numChangesLeft = changes.size();
-			else
-				// can't sort anymore. There must be a loop
-				break;
-		}
-		if(!changes.isEmpty())
-			throw new Error(
-				"Unable to sort class changes! There must be a cycle.");
-		
-		// convert the mappings in the correct class order
-		for(Map.Entry<ClassEntry, ClassEntry> entry : sortedChanges.entrySet())
-			mappings.renameObfClass(entry.getKey().getName(), entry.getValue()
-				.getName());
+		// rename all the classes at once, so we don't have to sort the
+		// changes, and cycles like a->b, b->a work too
+		Map<String, String> renames = Maps.newHashMap();
+		for(Map.Entry<ClassEntry, ClassEntry> change : changes.entrySet())
+			renames.put(change.getKey().getName(), change.getValue().getName());
+		mappings.renameObfClasses(renames);
 	}
 	
 	public static interface Doer<T extends Entry>
@@ -299,6 +333,10 @@ public class MappingsConverter
 		Set<T> filterEntries(Collection<T> obfEntries, T obfSourceEntry,
 			ClassMatches classMatches);
 		
+		String getShape(T obfEntry, ClassNameReplacer replacer);
+		
+		HashCode getBodyHash(BehaviorHasher hasher, T obfEntry);
+		
 		void setUpdateObfMember(ClassMapping classMapping,
 			MemberMapping<T> memberMapping, T newEntry);
 		
@@ -339,17 +377,35 @@ public class MappingsConverter
 				FieldEntry obfSourceField, ClassMatches classMatches)
 			{
 				Set<FieldEntry> out = Sets.newHashSet();
+				ClassNameReplacer replacer =
+					getReplacer(classMatches.getUniqueMatches().inverse());
 				for(FieldEntry obfDestField : obfDestFields)
 				{
 					Type translatedDestType =
-						translate(obfDestField.getType(), classMatches
-							.getUniqueMatches().inverse());
+						new Type(obfDestField.getType(), replacer);
 					if(translatedDestType.equals(obfSourceField.getType()))
 						out.add(obfDestField);
 				}
 				return out;
 			}
 			
+			@Override
+			public String getShape(FieldEntry obfField,
+				ClassNameReplacer replacer)
+			{
+				if(replacer == null)
+					return obfField.getType().toString();
+				return new Type(obfField.getType(), replacer).toString();
+			}
+			
+			@Override
+			public HashCode getBodyHash(BehaviorHasher hasher,
+				FieldEntry obfField)
+			{
+				// fields don't have any code
+				return null;
+			}
+			
 			@Override
 			public void setUpdateObfMember(ClassMapping classMapping,
 				MemberMapping<FieldEntry> memberMapping, FieldEntry newField)
@@ -410,11 +466,12 @@ public class MappingsConverter
 				BehaviorEntry obfSourceField, ClassMatches classMatches)
 			{
 				Set<BehaviorEntry> out = Sets.newHashSet();
+				ClassNameReplacer replacer =
+					getReplacer(classMatches.getUniqueMatches().inverse());
 				for(BehaviorEntry obfDestField : obfDestFields)
 				{
 					Signature translatedDestSignature =
-						translate(obfDestField.getSignature(), classMatches
-							.getUniqueMatches().inverse());
+						translate(obfDestField.getSignature(), replacer);
 					if(translatedDestSignature == null
 						&& obfSourceField.getSignature() == null)
 						out.add(obfDestField);
@@ -429,6 +486,26 @@ public class MappingsConverter
 				return out;
 			}
 			
+			@Override
+			public String getShape(BehaviorEntry obfBehavior,
+				ClassNameReplacer replacer)
+			{
+				// NOTE: static initializers don't have a signature
+				if(obfBehavior.getSignature() == null)
+					return "";
+				if(replacer == null)
+					return obfBehavior.getSignature().toString();
+				return translate(obfBehavior.getSignature(), replacer)
+					.toString();
+			}
+			
+			@Override
+			public HashCode getBodyHash(BehaviorHasher hasher,
+				BehaviorEntry obfBehavior)
+			{
+				return hasher.getHash(obfBehavior);
+			}
+			
 			@Override
 			public void setUpdateObfMember(ClassMapping classMapping,
 				MemberMapping<BehaviorEntry> memberMapping,
@@ -463,8 +540,35 @@ public class MappingsConverter
 		Deobfuscator destDeobfuscator, Mappings destMappings,
 		ClassMatches classMatches, Doer<T> doer)
 	{
+		return computeMemberMatches(null, destDeobfuscator, destMappings,
+			classMatches, doer);
+	}
+	
+	public static <T extends Entry> MemberMatches<T> computeMemberMatches(
+		Deobfuscator sourceDeobfuscator, Deobfuscator destDeobfuscator,
+		Mappings destMappings, ClassMatches classMatches, Doer<T> doer)
+	{
+		MemberMatches<T> memberMatches =
+			collectMemberMatches(destDeobfuscator, destMappings, classMatches,
+				doer);
+		automatchMembers(memberMatches, sourceDeobfuscator, destDeobfuscator,
+			classMatches, doer);
+		return memberMatches;
+	}
+	
+	/**
+	 * Returns the matches the mappings already have. The members whose
+	 * mappings broke are left unmatched.
+	 */
+	public static <T extends Entry> MemberMatches<T> collectMemberMatches(
+		Deobfuscator destDeobfuscator, Mappings destMappings,
+		ClassMatches classMatches, Doer<T> doer)
+	{
 		
 		MemberMatches<T> memberMatches = new MemberMatches<T>();
+		BiMap<ClassEntry, ClassEntry> destToSource =
+			classMatches.getUniqueMatches().inverse();
+		ClassNameReplacer destToSourceReplacer = getReplacer(destToSource);
 		
 		// unmatched source fields are easy
 		MappingsChecker checker =
@@ -473,64 +577,181 @@ public class MappingsConverter
 		for(T destObfEntry : doer.getDroppedEntries(checker))
 		{
 			T srcObfEntry =
-				translate(destObfEntry, classMatches.getUniqueMatches()
-					.inverse());
+				translate(destObfEntry, destToSource, destToSourceReplacer);
 			memberMatches.addUnmatchedSourceEntry(srcObfEntry);
 		}
 		
 		// get matched fields (anything that's left after the checks/drops is
 		// matched(
 		for(ClassMapping classMapping : destMappings.classes())
-			collectMatchedFields(memberMatches, classMapping, classMatches,
-				doer);
+			collectMatchedFields(memberMatches, classMapping, destToSource,
+				destToSourceReplacer, doer);
 		
 		// get unmatched dest fields
 		for(T destEntry : doer.getObfEntries(destDeobfuscator.getJarIndex()))
 			if(!memberMatches.isMatchedDestEntry(destEntry))
 				memberMatches.addUnmatchedDestEntry(destEntry);
 		
+		return memberMatches;
+	}
+	
+	/**
+	 * Matches the unmatched members that only have one candidate. The source
+	 * deobfuscator can be null, but then members that share a signature
+	 * can't be told apart by their code.
+	 */
+	public static <T extends Entry> void automatchMembers(
+		MemberMatches<T> memberMatches, Deobfuscator sourceDeobfuscator,
+		Deobfuscator destDeobfuscator, ClassMatches classMatches,
+		final Doer<T> doer)
+	{
+		final ClassNameReplacer destToSourceReplacer =
+			getReplacer(classMatches.getUniqueMatches().inverse());
+		
 		System.out.println("Automatching "
 			+ memberMatches.getUnmatchedSourceEntries().size()
 			+ " unmatched source entries...");
 		
+		// the code can only be compared if we have both jars
+		BehaviorHasher sourceHasher = null;
+		BehaviorHasher destHasher = null;
+		if(sourceDeobfuscator != null)
+		{
+			sourceHasher = new BehaviorHasher(sourceDeobfuscator);
+			destHasher = new BehaviorHasher(destDeobfuscator);
+		}
+		
 		// go through the unmatched source fields and try to pick out the easy
 		// matches
-		for(ClassEntry obfSourceClass : Lists.newArrayList(memberMatches
-			.getSourceClassesWithUnmatchedEntries()))
-			for(T obfSourceEntry : Lists.newArrayList(memberMatches
-				.getUnmatchedSourceEntries(obfSourceClass)))
+		// NOTE: the members of one class can only match members of its
+		// matched class, so each class can be done in parallel
+		List<Callable<MemberMatchResult<T>>> tasks = Lists.newArrayList();
+		for(ClassEntry obfSourceClass : memberMatches
+			.getSourceClassesWithUnmatchedEntries())
+		{
+			ClassEntry obfDestClass =
+				classMatches.getUniqueMatches().get(obfSourceClass);
+			final List<T> obfSourceEntries =
+				Lists.newArrayList(memberMatches
+					.getUnmatchedSourceEntries(obfSourceClass));
+			final List<T> obfDestEntries = Lists.newArrayList();
+			if(obfDestClass != null)
+				obfDestEntries.addAll(memberMatches
+					.getUnmatchedDestEntries(obfDestClass));
+			final BehaviorHasher finalSourceHasher = sourceHasher;
+			final BehaviorHasher finalDestHasher = destHasher;
+			tasks.add(new Callable<MemberMatchResult<T>>()
 			{
-				
-				// get the possible dest matches
-				ClassEntry obfDestClass =
-					classMatches.getUniqueMatches().get(obfSourceClass);
-				
-				// filter by type/signature
-				Set<T> obfDestEntries =
-					doer.filterEntries(
-						memberMatches.getUnmatchedDestEntries(obfDestClass),
-						obfSourceEntry, classMatches);
-				
-				if(obfDestEntries.size() == 1)
-					// make the easy match
-					memberMatches.makeMatch(obfSourceEntry, obfDestEntries
-						.iterator().next());
-				else if(obfDestEntries.isEmpty())
-					// no match is possible =(
-					memberMatches.makeSourceUnmatchable(obfSourceEntry);
+				@Override
+				public MemberMatchResult<T> call()
+				{
+					return matchMembers(obfSourceEntries, obfDestEntries,
+						doer, destToSourceReplacer, finalSourceHasher,
+						finalDestHasher);
+				}
+			});
+		}
+		for(Future<MemberMatchResult<T>> future : ClassForest.Pool
+			.invokeAll(tasks))
+		{
+			MemberMatchResult<T> result;
+			try
+			{
+				result = future.get();
+			}catch(InterruptedException | ExecutionException ex)
+			{
+				throw new Error(ex);
 			}
+			for(Map.Entry<T, T> match : result.matches.entrySet())
+				memberMatches.makeMatch(match.getKey(), match.getValue());
+			for(T obfSourceEntry : result.unmatchable)
+				memberMatches.makeSourceUnmatchable(obfSourceEntry);
+		}
 		
 		System.out.println(String.format(
 			"Ended up with %d ambiguous and %d unmatchable source entries",
 			memberMatches.getUnmatchedSourceEntries().size(), memberMatches
 				.getUnmatchableSourceEntries().size()));
+	}
+	
+	private static class MemberMatchResult<T extends Entry>
+	{
 		
-		return memberMatches;
+		public Map<T, T> matches = Maps.newLinkedHashMap();
+		public List<T> unmatchable = Lists.newArrayList();
+	}
+	
+	private static <T extends Entry> MemberMatchResult<T> matchMembers(
+		List<T> obfSourceEntries, List<T> obfDestEntries, Doer<T> doer,
+		ClassNameReplacer destToSourceReplacer, BehaviorHasher sourceHasher,
+		BehaviorHasher destHasher)
+	{
+		MemberMatchResult<T> result = new MemberMatchResult<T>();
+		
+		// index the dest members by their type/signature in source names
+		Multimap<String, T> obfDestEntriesByShape = LinkedHashMultimap.create();
+		for(T obfDestEntry : obfDestEntries)
+			obfDestEntriesByShape.put(
+				doer.getShape(obfDestEntry, destToSourceReplacer), obfDestEntry);
+		
+		Multimap<String, T> ambiguousSourceEntries =
+			LinkedHashMultimap.create();
+		for(T obfSourceEntry : obfSourceEntries)
+		{
+			String shape = doer.getShape(obfSourceEntry, null);
+			Collection<T> candidates = obfDestEntriesByShape.get(shape);
+			if(candidates.size() == 1)
+			{
+				// make the easy match
+				T obfDestEntry = candidates.iterator().next();
+				result.matches.put(obfSourceEntry, obfDestEntry);
+				obfDestEntriesByShape.remove(shape, obfDestEntry);
+			}else if(candidates.isEmpty())
+				// no match is possible =(
+				result.unmatchable.add(obfSourceEntry);
+			else
+				ambiguousSourceEntries.put(shape, obfSourceEntry);
+		}
+		
+		// members with the same signature and the same code are a match too,
+		// as long as nothing else in the class looks the same
+		if(sourceHasher != null)
+			for(String shape : ambiguousSourceEntries.keySet())
+			{
+				Multimap<HashCode, T> sourceEntriesByHash =
+					indexByBodyHash(ambiguousSourceEntries.get(shape), doer,
+						sourceHasher);
+				Multimap<HashCode, T> destEntriesByHash =
+					indexByBodyHash(obfDestEntriesByShape.get(shape), doer,
+						destHasher);
+				for(HashCode hash : sourceEntriesByHash.keySet())
+					if(sourceEntriesByHash.get(hash).size() == 1
+						&& destEntriesByHash.get(hash).size() == 1)
+						result.matches.put(sourceEntriesByHash.get(hash)
+							.iterator().next(), destEntriesByHash.get(hash)
+							.iterator().next());
+			}
+		
+		return result;
+	}
+	
+	private static <T extends Entry> Multimap<HashCode, T> indexByBodyHash(
+		Collection<T> obfEntries, Doer<T> doer, BehaviorHasher hasher)
+	{
+		Multimap<HashCode, T> obfEntriesByHash = HashMultimap.create();
+		for(T obfEntry : obfEntries)
+		{
+			HashCode hash = doer.getBodyHash(hasher, obfEntry);
+			if(hash != null)
+				obfEntriesByHash.put(hash, obfEntry);
+		}
+		return obfEntriesByHash;
 	}
 	
 	private static <T extends Entry> void collectMatchedFields(
 		MemberMatches<T> memberMatches, ClassMapping destClassMapping,
-		ClassMatches classMatches, Doer<T> doer)
+		BiMap<ClassEntry, ClassEntry> destToSource,
+		ClassNameReplacer destToSourceReplacer, Doer<T> doer)
 	{
 		
 		// get the fields for this class
@@ -540,8 +761,7 @@ public class MappingsConverter
 			T destObfField =
 				destEntryMapping.getObfEntry(destClassMapping.getObfEntry());
 			T srcObfField =
-				translate(destObfField, classMatches.getUniqueMatches()
-					.inverse());
+				translate(destObfField, destToSource, destToSourceReplacer);
 			memberMatches.addMatch(srcObfField, destObfField);
 		}
 		
@@ -549,47 +769,38 @@ public class MappingsConverter
 		for(ClassMapping destInnerClassMapping : destClassMapping
 			.innerClasses())
 			collectMatchedFields(memberMatches, destInnerClassMapping,
-				classMatches, doer);
+				destToSource, destToSourceReplacer, doer);
 	}
 	
 	@SuppressWarnings("unchecked")
 	private static <T extends Entry> T translate(T in,
-		BiMap<ClassEntry, ClassEntry> map)
+		BiMap<ClassEntry, ClassEntry> map, ClassNameReplacer replacer)
 	{
 		if(in instanceof FieldEntry)
 			return (T)new FieldEntry(map.get(in.getClassEntry()), in.getName(),
-				translate(((FieldEntry)in).getType(), map));
+				new Type(((FieldEntry)in).getType(), replacer));
 		else if(in instanceof MethodEntry)
 			return (T)new MethodEntry(map.get(in.getClassEntry()),
-				in.getName(), translate(((MethodEntry)in).getSignature(), map));
+				in.getName(), translate(((MethodEntry)in).getSignature(),
+					replacer));
 		else if(in instanceof ConstructorEntry)
 			return (T)new ConstructorEntry(map.get(in.getClassEntry()),
-				translate(((ConstructorEntry)in).getSignature(), map));
+				translate(((ConstructorEntry)in).getSignature(), replacer));
 		throw new Error("Unhandled entry type: " + in.getClass());
 	}
 	
-	private static Type translate(Type type,
-		final BiMap<ClassEntry, ClassEntry> map)
+	private static Signature translate(Signature signature,
+		ClassNameReplacer replacer)
 	{
-		return new Type(type, new ClassNameReplacer()
-		{
-			@Override
-			public String replace(String inClassName)
-			{
-				ClassEntry outClassEntry = map.get(new ClassEntry(inClassName));
-				if(outClassEntry == null)
-					return null;
-				return outClassEntry.getName();
-			}
-		});
+		if(signature == null)
+			return null;
+		return new Signature(signature, replacer);
 	}
 	
-	private static Signature translate(Signature signature,
+	private static ClassNameReplacer getReplacer(
 		final BiMap<ClassEntry, ClassEntry> map)
 	{
-		if(signature == null)
-			return null;
-		return new Signature(signature, new ClassNameReplacer()
+		return new ClassNameReplacer()
 		{
 			@Override
 			public String replace(String inClassName)
@@ -599,18 +810,23 @@ public class MappingsConverter
 					return null;
 				return outClassEntry.getName();
 			}
-		});
+		};
 	}
 	
 	public static <T extends Entry> void applyMemberMatches(Mappings mappings,
 		ClassMatches classMatches, MemberMatches<T> memberMatches, Doer<T> doer)
 	{
+		BiMap<ClassEntry, ClassEntry> destToSource =
+			classMatches.getUniqueMatches().inverse();
+		ClassNameReplacer destToSourceReplacer = getReplacer(destToSource);
 		for(ClassMapping classMapping : mappings.classes())
-			applyMemberMatches(classMapping, classMatches, memberMatches, doer);
+			applyMemberMatches(classMapping, destToSource,
+				destToSourceReplacer, memberMatches, doer);
 	}
 	
 	private static <T extends Entry> void applyMemberMatches(
-		ClassMapping classMapping, ClassMatches classMatches,
+		ClassMapping classMapping, BiMap<ClassEntry, ClassEntry> destToSource,
+		ClassNameReplacer destToSourceReplacer,
 		MemberMatches<T> memberMatches, Doer<T> doer)
 	{
 		
@@ -624,8 +840,7 @@ public class MappingsConverter
 		{
 			T obfOldDestEntry = memberMapping.getObfEntry(obfDestClass);
 			T obfSourceEntry =
-				getSourceEntryFromDestMapping(memberMapping, obfDestClass,
-					classMatches);
+				translate(obfOldDestEntry, destToSource, destToSourceReplacer);
 			
 			// but drop the unmatchable things
 			if(memberMatches.isUnmatchableSourceEntry(obfSourceEntry))
@@ -683,15 +898,7 @@ public class MappingsConverter
 		
 		// recurse
 		for(ClassMapping innerClassMapping : classMapping.innerClasses())
-			applyMemberMatches(innerClassMapping, classMatches, memberMatches,
-				doer);
-	}
-	
-	private static <T extends Entry> T getSourceEntryFromDestMapping(
-		MemberMapping<T> destMemberMapping, ClassEntry obfDestClass,
-		ClassMatches classMatches)
-	{
-		return translate(destMemberMapping.getObfEntry(obfDestClass),
-			classMatches.getUniqueMatches().inverse());
+			applyMemberMatches(innerClassMapping, destToSource,
+				destToSourceReplacer, memberMatches, doer);
 	}
 }
@@ -31,6 +31,7 @@ import cuchaz.enigma.Deobfuscator;
 import cuchaz.enigma.convert.ClassIdentifier;
 import cuchaz.enigma.convert.ClassIdentity;
 import cuchaz.enigma.convert.ClassMatch;
+import cuchaz.enigma.convert.ClassMatchRanker;
 import cuchaz.enigma.convert.ClassMatches;
 import cuchaz.enigma.convert.ClassMatching;
 import cuchaz.enigma.convert.ClassNamer;
@@ -98,6 +99,9 @@ public class ClassMatchingGui
 		public void save(ClassMatches matches);
 	}
 	
+	// only this many likely matches are shown for a source class
+	private static final int MaxLikelyMatches = 100;
+	
 	// controls
 	private JFrame m_frame;
 	private ClassSelector m_sourceClasses;
@@ -117,6 +121,9 @@ public class ClassMatchingGui
 	private ClassEntry m_destClass;
 	private SourceType m_sourceType;
 	private SaveListener m_saveListener;
+	private ClassIdentifier m_sourceIdentifier;
+	private ClassIdentifier m_destIdentifier;
+	private ClassMatchRanker m_destRanker;
 	
 	public ClassMatchingGui(ClassMatches matches,
 		Deobfuscator sourceDeobfuscator, Deobfuscator destDeobfuscator)
@@ -376,19 +383,31 @@ public class ClassMatchingGui
 				m_destClasses.setClasses(null);
 				
 				// run in a separate thread to keep ui responsive
+				final ClassEntry sourceClass = m_sourceClass;
 				new Thread()
 				{
 					@Override
 					public void run()
 					{
-						m_destClasses
-							.setClasses(deobfuscateClasses(
-								getLikelyMatches(m_sourceClass),
-								m_destDeobfuscator));
-						m_destClasses.expandAll();
-						
-						if(onGetDestClasses != null)
-							onGetDestClasses.run();
+						final Collection<ClassEntry> likelyMatches =
+							deobfuscateClasses(getLikelyMatches(sourceClass),
+								m_destDeobfuscator);
+						SwingUtilities.invokeLater(new Runnable()
+						{
+							@Override
+							public void run()
+							{
+								// did the user pick another class meanwhile?
+								if(sourceClass != m_sourceClass)
+									return;
+								
+								m_destClasses.setClasses(likelyMatches);
+								m_destClasses.expandAll();
+								
+								if(onGetDestClasses != null)
+									onGetDestClasses.run();
+							}
+						});
 					}
 				}.start();
 				
@@ -418,43 +437,56 @@ public class ClassMatchingGui
 		updateMatchButton();
 	}
 	
-	private Collection<ClassEntry> getLikelyMatches(ClassEntry sourceClass)
+	private synchronized Collection<ClassEntry> getLikelyMatches(
+		ClassEntry sourceClass)
 	{
 		
 		ClassEntry obfSourceClass =
 			m_sourceDeobfuscator.obfuscateEntry(sourceClass);
 		
-		// set up identifiers
-		ClassNamer namer = new ClassNamer(m_classMatches.getUniqueMatches());
-		ClassIdentifier sourceIdentifier =
-			new ClassIdentifier(m_sourceDeobfuscator.getJar(),
-				m_sourceDeobfuscator.getJarIndex(), namer.getSourceNamer(),
-				true);
-		ClassIdentifier destIdentifier =
-			new ClassIdentifier(m_destDeobfuscator.getJar(),
-				m_destDeobfuscator.getJarIndex(), namer.getDestNamer(), true);
-		
 		try
 		{
 			
-			// rank all the unmatched dest classes against the source class
-			ClassIdentity sourceIdentity =
-				sourceIdentifier.identify(obfSourceClass);
-			List<ClassEntry> scoredDestClasses = Lists.newArrayList();
-			for(ClassEntry unmatchedDestClass : m_classMatches
-				.getUnmatchedDestClasses())
+			// index the unmatched dest classes once per set of matches
+			if(m_destRanker == null)
 			{
-				ClassIdentity destIdentity =
-					destIdentifier.identify(unmatchedDestClass);
-				float score =
-					100.0f
-						* (sourceIdentity.getMatchScore(destIdentity) + destIdentity
-							.getMatchScore(sourceIdentity))
-						/ (sourceIdentity.getMaxMatchScore() + destIdentity
-							.getMaxMatchScore());
-				scoredDestClasses.add(new ScoredClassEntry(unmatchedDestClass,
-					score));
+				
+				// set up identifiers, keeping what the last ones already
+				// read from the jars
+				ClassNamer namer =
+					new ClassNamer(m_classMatches.getUniqueMatches());
+				if(m_sourceIdentifier == null)
+				{
+					m_sourceIdentifier =
+						new ClassIdentifier(m_sourceDeobfuscator.getJar(),
+							m_sourceDeobfuscator.getJarIndex(),
+							namer.getSourceNamer(), true);
+					m_destIdentifier =
+						new ClassIdentifier(m_destDeobfuscator.getJar(),
+							m_destDeobfuscator.getJarIndex(),
+							namer.getDestNamer(), true);
+				}else
+				{
+					m_sourceIdentifier =
+						new ClassIdentifier(m_sourceIdentifier,
+							namer.getSourceNamer(), true);
+					m_destIdentifier =
+						new ClassIdentifier(m_destIdentifier,
+							namer.getDestNamer(), true);
+				}
+				m_destRanker =
+					new ClassMatchRanker(m_destIdentifier,
+						m_classMatches.getUnmatchedDestClasses());
 			}
+			
+			// rank the unmatched dest classes against the source class
+			ClassIdentity sourceIdentity =
+				m_sourceIdentifier.identify(obfSourceClass);
+			List<ClassEntry> scoredDestClasses = Lists.newArrayList();
+			for(ClassMatchRanker.Candidate candidate : m_destRanker.rank(
+				sourceIdentity, MaxLikelyMatches))
+				scoredDestClasses.add(new ScoredClassEntry(candidate
+					.getClassEntry(), candidate.getScore()));
 			return scoredDestClasses;
 			
 		}catch(ClassNotFoundException ex)
@@ -463,6 +495,11 @@ public class ClassMatchingGui
 		}
 	}
 	
+	private synchronized void invalidateLikelyMatches()
+	{
+		m_destRanker = null;
+	}
+	
 	protected void setDestClass(ClassEntry classEntry)
 	{
 		
@@ -569,6 +606,7 @@ public class ClassMatchingGui
 	
 	private void updateMatches()
 	{
+		invalidateLikelyMatches();
 		updateDestMappings();
 		setDestClass(null);
 		m_destClasses.setClasses(null);
@@ -798,8 +798,21 @@ public class Gui
 		
 		// update menu
 		m_closeJarMenu.setEnabled(true);
-		m_openMappingsMenu.setEnabled(true);
+		m_openMappingsMenu.setEnabled(false);
 		m_saveMappingsMenu.setEnabled(false);
+		m_saveMappingsAsMenu.setEnabled(false);
+		m_closeMappingsMenu.setEnabled(false);
+		m_exportSourceMenu.setEnabled(false);
+		mntmExportSource.setEnabled(false);
+		m_exportJarMenu.setEnabled(false);
+		
+		redraw();
+	}
+	
+	public void onFinishIndexJar()
+	{
+		// update menu
+		m_openMappingsMenu.setEnabled(true);
 		m_saveMappingsAsMenu.setEnabled(true);
 		m_closeMappingsMenu.setEnabled(true);
 		m_exportSourceMenu.setEnabled(true);
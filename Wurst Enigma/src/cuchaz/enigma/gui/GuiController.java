@@ -20,24 +20,32 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Deque;
 import java.util.List;
-import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.jar.JarFile;
 import java.util.regex.Pattern;
 
 import javax.swing.JOptionPane;
 import javax.swing.JTextArea;
+import javax.swing.SwingUtilities;
 
 import tk.wurst_client.enigma.regexlist.RegexListEntry;
 import tk.wurst_client.enigma.regexlist.RegexListReader;
+import tk.wurst_client.enigma.regexlist.SourceRewriter;
 
 import com.google.common.collect.Lists;
 import com.google.common.collect.Queues;
-import com.google.common.collect.Sets;
 import com.strobel.decompiler.languages.java.ast.CompilationUnit;
 
+import cuchaz.enigma.DecompileWatchdog;
+import cuchaz.enigma.DecompileWatchdog.Decompilation;
 import cuchaz.enigma.Deobfuscator;
 import cuchaz.enigma.Deobfuscator.ProgressListener;
+import cuchaz.enigma.ExportManifest;
+import cuchaz.enigma.ExportProfile;
+import cuchaz.enigma.SourceCache;
+import cuchaz.enigma.SourceExporter;
+import cuchaz.enigma.TranslatingTypeLoader;
 import cuchaz.enigma.analysis.*;
 import cuchaz.enigma.gui.ProgressDialog.ProgressRunnable;
 import cuchaz.enigma.mapping.*;
@@ -51,6 +59,7 @@ public class GuiController
 	private ClassEntry m_currentObfClass;
 	private boolean m_isDirty;
 	private Deque<EntryReference<Entry, Entry>> m_referenceStack;
+	private boolean m_useSourceCache;
 	private static final AtomicInteger counter = new AtomicInteger();
 	/**
 	 * <p>
@@ -119,6 +128,15 @@ public class GuiController
 		m_currentObfClass = null;
 		m_isDirty = false;
 		m_referenceStack = Queues.newArrayDeque();
+		m_useSourceCache = true;
+	}
+	
+	/**
+	 * Takes effect the next time a jar is opened.
+	 */
+	public void setUseSourceCache(boolean val)
+	{
+		m_useSourceCache = val;
 	}
 	
 	public boolean isDirty()
@@ -129,9 +147,43 @@ public class GuiController
 	public void openJar(final JarFile jar) throws IOException
 	{
 		m_gui.onStartOpenJar();
-		m_deobfuscator = new Deobfuscator(jar);
+		final Deobfuscator deobfuscator = new Deobfuscator(jar, false);
+		if(m_useSourceCache)
+			deobfuscator.setSourceCache(new SourceCache(SourceCache
+				.getDefaultDir(), SourceCache.DefaultMaxBytes));
+		m_deobfuscator = deobfuscator;
 		m_gui.onFinishOpenJar(m_deobfuscator.getJarName());
 		refreshClasses();
+		
+		// build the rest of the index in the background
+		ProgressDialog.runInThread(m_gui.getFrame(), new ProgressRunnable()
+		{
+			@Override
+			public void run(ProgressListener progress)
+			{
+				deobfuscator.buildIndex(progress);
+				SwingUtilities.invokeLater(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						// was the jar closed in the meantime?
+						if(m_deobfuscator != deobfuscator)
+							return;
+						m_gui.onFinishIndexJar();
+						refreshClasses();
+					}
+				});
+			}
+		});
+	}
+	
+	/**
+	 * Until this is true, everything that needs the jar index is off.
+	 */
+	public boolean isIndexed()
+	{
+		return m_deobfuscator != null && m_deobfuscator.isIndexed();
 	}
 	
 	public void closeJar()
@@ -202,177 +254,103 @@ public class GuiController
 			@Override
 			public void run(ProgressListener progress) throws Exception
 			{
-				m_deobfuscator.writeSources(dirOut, progress);
+				SourceExporter exporter = new SourceExporter(m_deobfuscator);
+				exporter.export(dirOut, progress);
+				writeProfile(exporter.getProfile(), dirOut);
 			}
 		});
 	}
 	
 	public void wurstExportSource(final File dirOut)
 	{
-		m_currentObfClass = null;
 		ProgressDialog.runInThread(m_gui.getFrame(), new ProgressRunnable()
 		{
 			@Override
 			public void run(ProgressListener progress) throws Exception
 			{
-				progress.init(m_deobfuscator.getJarIndex().getObfClassEntries()
-					.size(), "Preparing classes...");
-				int i = 0;
-				for(ClassEntry entry : m_deobfuscator.getJarIndex()
-					.getObfClassEntries())
-				{
-					if(!entry.isInnerClass())
-					{
-						progress.onProgress(i++, entry.getName());
-						continue;
-					}
-					// That string will likely never occur anywhere
-					// TODO: Allow the user to specify a custom string
-					String name = "WurstWurstWurstAllesWirdAusWurstGemacht";
-					try
-					{
-						name +=
-							m_deobfuscator
-								.getMappings()
-								.getClassByObf(entry.getOuterClassName())
-								.getDeobfInnerClassName(
-									entry.getInnermostClassName());
-					}catch(Exception e1)
-					{
-						name += entry.getInnermostClassName();
-					}
-					try
-					{
-						EntryReference<Entry, Entry> obfReference =
-							m_deobfuscator
-								.obfuscateReference(new EntryReference<Entry, Entry>(
-									entry, entry.getName()));
-						m_deobfuscator.rename(obfReference.getNameableEntry(),
-							name);
-					}catch(IllegalNameException e)
-					{
-						e.printStackTrace();
-					}
-					progress.onProgress(i++, entry.getName());
-				}
-				// get the classes to decompile
-				Set<ClassEntry> classEntries = Sets.newHashSet();
-				for(ClassEntry obfClassEntry : m_deobfuscator.getJarIndex()
-					.getObfClassEntries())
-				{
-					// skip inner classes
-					if(obfClassEntry.isInnerClass())
-						continue;
-					
-					classEntries.add(obfClassEntry);
-				}
+				m_deobfuscator.waitForIndex();
+				final SourceExporter exporter =
+					new SourceExporter(m_deobfuscator);
 				
-				if(progress != null)
-					progress.init(classEntries.size(), "Decompiling classes...");
+				// mark the inner classes at export time only, so the user's
+				// mappings stay untouched and the export can't leave them
+				// half-renamed
+				// That string will likely never occur anywhere
+				// TODO: Allow the user to specify a custom string
+				String marker = "WurstWurstWurstAllesWirdAusWurstGemacht";
+				MappingsSnapshot snapshot = exporter.getSnapshot();
+				exporter.setTranslators(new InnerClassMarkingTranslator(
+					snapshot.getTranslator(TranslationDirection.Obfuscating),
+					marker), new InnerClassMarkingTranslator(snapshot
+					.getTranslator(TranslationDirection.Deobfuscating), marker));
 				
-				// DEOBFUSCATE ALL THE THINGS!! @_@
-				i = 0;
-				for(ClassEntry obfClassEntry : classEntries)
+				// compile the post-processing rules once for all classes
+				final SourceRewriter rewriter = new SourceRewriter();
+				rewriter.addLiteral("$" + marker, ".");
+				rewriter.addLiteral(marker, "");
+				rewriter.addRegex(generics, "$2\\.\\<$1\\>$3");
+				rewriter.addRegex(generics2, "$1");
+				rewriter.addRegex(generics3, "$1$2");
+				rewriter.addRegexList(regexList);
+				exporter.setCustomKey(marker + "\n" + rewriter.getKey());
+				
+				// fix inner class references and generic types, then apply
+				// custom regexes
+				final AtomicBoolean isInvalid = new AtomicBoolean(false);
+				exporter.setProcessor(new SourceExporter.SourceProcessor()
 				{
-					ClassEntry deobfClassEntry =
-						m_deobfuscator.deobfuscateEntry(new ClassEntry(
-							obfClassEntry));
-					if(progress != null)
-						progress.onProgress(i++, deobfClassEntry.toString());
-					
-					try
+					@Override
+					public String process(ClassEntry obfClassEntry,
+						String source)
 					{
-						// get the source
-						String source =
-							m_deobfuscator.getSource(m_deobfuscator
-								.getSourceTree(obfClassEntry.getName()));
-						
-						// fix inner class references
-						source =
-							source
-								.replace(
-									"$WurstWurstWurstAllesWirdAusWurstGemacht",
-									".");
-						source =
-							source.replace(
-								"WurstWurstWurstAllesWirdAusWurstGemacht", "");
-						
-						// fix generic types
-						source =
-							generics.matcher(source).replaceAll(
-								"$2\\.\\<$1\\>$3");
-						source = generics2.matcher(source).replaceAll("$1");
-						source = generics3.matcher(source).replaceAll("$1$2");
-						
-						// apply custom regexes
 						try
 						{
-							for(RegexListEntry entry : regexList)
-								if(entry.isTarget(obfClassEntry.getName()))
-									source = entry.replaceAll(source);
-						}catch(IllegalArgumentException e)
+							return rewriter.rewrite(obfClassEntry.getName(),
+								source);
+						}catch(IllegalArgumentException
+							| IndexOutOfBoundsException e)
 						{
+							// classes are processed in parallel, only
+							// complain once
+							if(!isInvalid.compareAndSet(false, true))
+								return null;
+							exporter.cancel();
 							e.printStackTrace();
-							JOptionPane.showMessageDialog(m_gui.getFrame(),
-								"Regex list contains invalid replacement(s).\n"
-									+ "Export aborted.", "Invalid regex list",
-								JOptionPane.ERROR_MESSAGE);
-							return;
-						}
-						
-						// write the file
-						File file =
-							new File(dirOut, deobfClassEntry.getName().replace(
-								'.', '/')
-								+ ".java");
-						file.getParentFile().mkdirs();
-						try(FileWriter out = new FileWriter(file))
-						{
-							out.write(source);
+							SwingUtilities.invokeLater(new Runnable()
+							{
+								@Override
+								public void run()
+								{
+									JOptionPane.showMessageDialog(
+										m_gui.getFrame(),
+										"Regex list contains invalid replacement(s).\n"
+											+ "Export aborted.",
+										"Invalid regex list",
+										JOptionPane.ERROR_MESSAGE);
+								}
+							});
+							return null;
 						}
-					}catch(Throwable t)
-					{
-						throw new Error("Unable to deobfuscate class "
-							+ deobfClassEntry.toString() + " ("
-							+ obfClassEntry.toString() + ")", t);
 					}
-				}
-				// FIXME: Changing the names back
-				// progress.init(m_deobfuscator.getJarIndex().getObfClassEntries()
-				// .size(), "Renaming inner classes back...");
-				// i = 0;
-				// for(ClassEntry entry : m_deobfuscator.getJarIndex()
-				// .getObfClassEntries())
-				// {
-				// if(!entry.isInnerClass())
-				// {
-				// progress.onProgress(i++, entry.getName());
-				// continue;
-				// }
-				// String name = entry.getInnermostClassName();
-				// if(name
-				// .startsWith("WurstWurstWurstAllesWirdAusWurstGemacht"))
-				// name =
-				// name.substring("WurstWurstWurstAllesWirdAusWurstGemacht"
-				// .length());
-				// try
-				// {
-				// EntryReference<Entry, Entry> obfReference =
-				// m_deobfuscator
-				// .obfuscateReference(new EntryReference<Entry, Entry>(
-				// entry, entry.getName()));
-				// m_deobfuscator.rename(obfReference.getNameableEntry(),
-				// name);
-				// }catch(IllegalNameException e)
-				// {
-				// e.printStackTrace();
-				// }
-				// progress.onProgress(i++, name);
-				// }
+				});
+				
+				exporter.export(dirOut, progress);
+				if(!exporter.isCancelled())
+					writeProfile(exporter.getProfile(), dirOut);
 			}
 		});
 	}
 	
+	private void writeProfile(ExportProfile profile, File dirOut)
+		throws IOException
+	{
+		// keep it out of the sources, next to the export manifest
+		File dirProfile = new File(dirOut, ExportManifest.DirName);
+		dirProfile.mkdirs();
+		profile.writeCsv(new File(dirProfile, "export-profile.csv"));
+		profile.printSummary(System.out, 10);
+	}
+	
 	public void exportJar(final File fileOut)
 	{
 		ProgressDialog.runInThread(m_gui.getFrame(), new ProgressRunnable()
@@ -410,12 +388,16 @@ public class GuiController
 	
 	public boolean entryHasDeobfuscatedName(Entry deobfEntry)
 	{
+		if(!isIndexed())
+			return false;
 		return m_deobfuscator.hasDeobfuscatedName(m_deobfuscator
 			.obfuscateEntry(deobfEntry));
 	}
 	
 	public boolean entryIsInJar(Entry deobfEntry)
 	{
+		if(!isIndexed())
+			return false;
 		return m_deobfuscator.isObfuscatedIdentifier(m_deobfuscator
 			.obfuscateEntry(deobfEntry));
 	}
@@ -423,6 +405,8 @@ public class GuiController
 	public boolean referenceIsRenameable(
 		EntryReference<Entry, Entry> deobfReference)
 	{
+		if(!isIndexed())
+			return false;
 		return m_deobfuscator.isRenameable(m_deobfuscator
 			.obfuscateReference(deobfReference));
 	}
@@ -430,6 +414,7 @@ public class GuiController
 	public ClassInheritanceTreeNode getClassInheritance(
 		ClassEntry deobfClassEntry)
 	{
+		m_deobfuscator.waitForIndex();
 		ClassEntry obfClassEntry =
 			m_deobfuscator.obfuscateEntry(deobfClassEntry);
 		ClassInheritanceTreeNode rootNode =
@@ -445,6 +430,7 @@ public class GuiController
 	public ClassImplementationsTreeNode getClassImplementations(
 		ClassEntry deobfClassEntry)
 	{
+		m_deobfuscator.waitForIndex();
 		ClassEntry obfClassEntry =
 			m_deobfuscator.obfuscateEntry(deobfClassEntry);
 		return m_deobfuscator.getJarIndex().getClassImplementations(
@@ -455,6 +441,7 @@ public class GuiController
 	public MethodInheritanceTreeNode getMethodInheritance(
 		MethodEntry deobfMethodEntry)
 	{
+		m_deobfuscator.waitForIndex();
 		MethodEntry obfMethodEntry =
 			m_deobfuscator.obfuscateEntry(deobfMethodEntry);
 		MethodInheritanceTreeNode rootNode =
@@ -470,6 +457,7 @@ public class GuiController
 	public MethodImplementationsTreeNode getMethodImplementations(
 		MethodEntry deobfMethodEntry)
 	{
+		m_deobfuscator.waitForIndex();
 		MethodEntry obfMethodEntry =
 			m_deobfuscator.obfuscateEntry(deobfMethodEntry);
 		List<MethodImplementationsTreeNode> rootNodes =
@@ -490,6 +478,7 @@ public class GuiController
 	
 	public FieldReferenceTreeNode getFieldReferences(FieldEntry deobfFieldEntry)
 	{
+		m_deobfuscator.waitForIndex();
 		FieldEntry obfFieldEntry =
 			m_deobfuscator.obfuscateEntry(deobfFieldEntry);
 		FieldReferenceTreeNode rootNode =
@@ -504,6 +493,7 @@ public class GuiController
 	public BehaviorReferenceTreeNode getMethodReferences(
 		BehaviorEntry deobfBehaviorEntry)
 	{
+		m_deobfuscator.waitForIndex();
 		BehaviorEntry obfBehaviorEntry =
 			m_deobfuscator.obfuscateEntry(deobfBehaviorEntry);
 		BehaviorReferenceTreeNode rootNode =
@@ -541,6 +531,7 @@ public class GuiController
 			@Override
 			public void run(ProgressListener progress) throws Exception
 			{
+				m_deobfuscator.waitForIndex();
 				progress.init(m_deobfuscator.getJarIndex().getObfFieldEntries()
 					.size(), "Fixing field names...");
 				counter.set(0);
@@ -618,11 +609,38 @@ public class GuiController
 			deobfEntry.getName()));
 	}
 	
-	public void openReference(EntryReference<Entry, Entry> deobfReference)
+	public void openReference(
+		final EntryReference<Entry, Entry> deobfReference)
 	{
 		if(deobfReference == null)
 			throw new IllegalArgumentException("Reference cannot be null!");
 		
+		if(!m_deobfuscator.isIndexed())
+		{
+			// wait for the index in a separate thread so we don't block the
+			// GUI event queue, then try again
+			m_gui.setSource("(indexing...)");
+			final Deobfuscator deobfuscator = m_deobfuscator;
+			new Thread()
+			{
+				@Override
+				public void run()
+				{
+					deobfuscator.waitForIndex();
+					SwingUtilities.invokeLater(new Runnable()
+					{
+						@Override
+						public void run()
+						{
+							if(m_deobfuscator == deobfuscator)
+								openReference(deobfReference);
+						}
+					});
+				}
+			}.start();
+			return;
+		}
+		
 		// get the reference target class
 		EntryReference<Entry, Entry> obfReference =
 			m_deobfuscator.obfuscateReference(deobfReference);
@@ -707,17 +725,66 @@ public class GuiController
 			@Override
 			public void run()
 			{
-				// decompile,deobfuscate the bytecode
-				CompilationUnit sourceTree =
-					m_deobfuscator.getSourceTree(classEntry.getClassName());
-				if(sourceTree == null)
+				// use the same mappings for everything, even if there's a
+				// rename meanwhile
+				MappingsSnapshot snapshot = m_deobfuscator.getSnapshot();
+				
+				Translator obfuscatingTranslator =
+					snapshot.getTranslator(TranslationDirection.Obfuscating);
+				Translator deobfuscatingTranslator =
+					snapshot.getTranslator(TranslationDirection.Deobfuscating);
+				
+				// see if the class was decompiled before
+				SourceCache cache = m_deobfuscator.getSourceCache();
+				String key = null;
+				SourceIndex index = null;
+				TranslatingTypeLoader loader = null;
+				if(cache != null)
+				{
+					// a miss decompiles what the key already transformed
+					loader =
+						m_deobfuscator.newTypeLoader(obfuscatingTranslator,
+							deobfuscatingTranslator);
+					key =
+						m_deobfuscator.getSourceKey(classEntry,
+							deobfuscatingTranslator, loader);
+					index = cache.getSourceIndex(key, snapshot);
+				}
+				
+				if(index == null)
 				{
-					// decompilation of this class is not supported
-					m_gui.setSource("Unable to find class: " + classEntry);
-					return;
+					// decompile,deobfuscate the bytecode
+					DecompileWatchdog watchdog =
+						new DecompileWatchdog(m_deobfuscator,
+							DecompileWatchdog.DefaultTimeoutMillis);
+					Decompilation decompilation =
+						watchdog.decompile(classEntry.getClassName(),
+							obfuscatingTranslator, deobfuscatingTranslator,
+							loader);
+					if(decompilation == null)
+					{
+						// at least show what's in the class
+						m_index =
+							new SourceIndex(watchdog.getStubSource(classEntry,
+								deobfuscatingTranslator));
+						m_gui.setSource(m_index.getSource());
+						return;
+					}
+					CompilationUnit sourceTree = decompilation.getSourceTree();
+					if(sourceTree == null)
+					{
+						// decompilation of this class is not supported
+						m_gui.setSource("Unable to find class: " + classEntry);
+						return;
+					}
+					String source = m_deobfuscator.getSource(sourceTree);
+					index =
+						m_deobfuscator.getSourceIndex(sourceTree, source, null,
+							snapshot);
+					if(cache != null && !decompilation.isCheap())
+						cache.put(key, source, index, snapshot);
 				}
-				String source = m_deobfuscator.getSource(sourceTree);
-				m_index = m_deobfuscator.getSourceIndex(sourceTree, source);
+				m_index = index;
 				m_gui.setSource(m_index.getSource());
 				if(obfReference != null)
 					showReference(obfReference);
@@ -730,10 +797,14 @@ public class GuiController
 				{
 					EntryReference<Entry, Entry> reference =
 						m_index.getDeobfReference(token);
-					if(referenceIsRenameable(reference))
+					EntryReference<Entry, Entry> obfReference =
+						new EntryReference<Entry, Entry>(snapshot
+							.obfuscateEntry(reference.entry), snapshot
+							.obfuscateEntry(reference.context), reference);
+					if(m_deobfuscator.isRenameable(obfReference))
 					{
-						if(entryHasDeobfuscatedName(reference
-							.getNameableEntry()))
+						if(m_deobfuscator.hasDeobfuscatedName(
+							obfReference.getNameableEntry(), snapshot))
 							deobfuscatedTokens.add(token);
 						else
 							obfuscatedTokens.add(token);
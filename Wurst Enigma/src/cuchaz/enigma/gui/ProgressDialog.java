@@ -24,6 +24,7 @@ import javax.swing.WindowConstants;
 
 import cuchaz.enigma.Constants;
 import cuchaz.enigma.Deobfuscator.ProgressListener;
+import cuchaz.enigma.ProgressRate;
 
 public class ProgressDialog implements ProgressListener, AutoCloseable
 {
@@ -32,6 +33,7 @@ public class ProgressDialog implements ProgressListener, AutoCloseable
 	private JLabel m_title;
 	private JLabel m_text;
 	private JProgressBar m_progress;
+	private ProgressRate m_rate;
 	
 	public ProgressDialog(JFrame parent)
 	{
@@ -52,6 +54,8 @@ public class ProgressDialog implements ProgressListener, AutoCloseable
 		panel.setLayout(new BorderLayout());
 		m_text = GuiTricks.unboldLabel(new JLabel());
 		m_progress = new JProgressBar();
+		m_progress.setStringPainted(true);
+		m_rate = new ProgressRate();
 		m_text.setBorder(BorderFactory.createEmptyBorder(0, 0, 10, 0));
 		panel.add(m_text, BorderLayout.NORTH);
 		panel.add(m_progress, BorderLayout.CENTER);
@@ -79,6 +83,8 @@ public class ProgressDialog implements ProgressListener, AutoCloseable
 		m_progress.setMinimum(0);
 		m_progress.setMaximum(totalWork);
 		m_progress.setValue(0);
+		m_progress.setString("");
+		m_rate.init(totalWork);
 	}
 	
 	@Override
@@ -86,6 +92,8 @@ public class ProgressDialog implements ProgressListener, AutoCloseable
 	{
 		m_text.setText(message);
 		m_progress.setValue(numDone);
+		m_rate.update(numDone);
+		m_progress.setString(m_rate.toString());
 		
 		// update the frame
 		m_frame.validate();
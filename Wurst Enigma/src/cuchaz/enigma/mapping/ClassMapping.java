@@ -11,7 +11,6 @@
 package cuchaz.enigma.mapping;
 
 import java.io.Serializable;
-import java.util.ArrayList;
 import java.util.Map;
 
 import com.google.common.collect.Maps;
@@ -52,6 +51,46 @@ public class ClassMapping implements Serializable, Comparable<ClassMapping>
 		m_methodsByDeobf = Maps.newHashMap();
 	}
 	
+	public ClassMapping(ClassMapping other)
+	{
+		m_obfFullName = other.m_obfFullName;
+		m_obfSimpleName = other.m_obfSimpleName;
+		m_deobfName = other.m_deobfName;
+		
+		// copy everything, the deobf maps point to the copies in the obf maps
+		m_innerClassesByObfSimple = Maps.newHashMap();
+		m_innerClassesByDeobf = Maps.newHashMap();
+		for(Map.Entry<String, ClassMapping> entry : other.m_innerClassesByObfSimple
+			.entrySet())
+			m_innerClassesByObfSimple.put(entry.getKey(), new ClassMapping(
+				entry.getValue()));
+		for(Map.Entry<String, ClassMapping> entry : other.m_innerClassesByDeobf
+			.entrySet())
+			m_innerClassesByDeobf.put(entry.getKey(), m_innerClassesByObfSimple
+				.get(entry.getValue().getObfSimpleName()));
+		m_fieldsByObf = Maps.newHashMap();
+		m_fieldsByDeobf = Maps.newHashMap();
+		for(Map.Entry<String, FieldMapping> entry : other.m_fieldsByObf
+			.entrySet())
+			m_fieldsByObf.put(entry.getKey(),
+				new FieldMapping(entry.getValue()));
+		for(Map.Entry<String, FieldMapping> entry : other.m_fieldsByDeobf
+			.entrySet())
+			m_fieldsByDeobf.put(entry.getKey(), m_fieldsByObf.get(getFieldKey(
+				entry.getValue().getObfName(), entry.getValue().getObfType())));
+		m_methodsByObf = Maps.newHashMap();
+		m_methodsByDeobf = Maps.newHashMap();
+		for(Map.Entry<String, MethodMapping> entry : other.m_methodsByObf
+			.entrySet())
+			m_methodsByObf.put(entry.getKey(),
+				new MethodMapping(entry.getValue()));
+		for(Map.Entry<String, MethodMapping> entry : other.m_methodsByDeobf
+			.entrySet())
+			m_methodsByDeobf.put(entry.getKey(), m_methodsByObf
+				.get(getMethodKey(entry.getValue().getObfName(), entry
+					.getValue().getObfSignature())));
+	}
+	
 	public String getObfFullName()
 	{
 		return m_obfFullName;
@@ -513,70 +552,83 @@ public class ClassMapping implements Serializable, Comparable<ClassMapping>
 		return m_obfFullName.compareTo(other.m_obfFullName);
 	}
 	
-	public boolean renameObfClass(String oldObfClassName, String newObfClassName)
+	public void renameObfClasses(ClassNameReplacer replacer)
 	{
 		
+		// NOTE: every name is looked up in the original names only, so a->b
+		// and b->a (or any other cycle) just swap the names
+		
 		// rename inner classes
-		for(ClassMapping innerClassMapping : new ArrayList<ClassMapping>(
-			m_innerClassesByObfSimple.values()))
-			if(innerClassMapping.renameObfClass(oldObfClassName,
-				newObfClassName))
-			{
-				boolean wasRemoved =
-					m_innerClassesByObfSimple.remove(oldObfClassName) != null;
-				assert wasRemoved;
-				boolean wasAdded =
-					m_innerClassesByObfSimple.put(newObfClassName,
-						innerClassMapping) == null;
-				assert wasAdded;
-			}
+		for(ClassMapping innerClassMapping : m_innerClassesByObfSimple.values())
+			innerClassMapping.renameObfClasses(replacer);
 		
 		// rename field types
-		for(FieldMapping fieldMapping : new ArrayList<FieldMapping>(
-			m_fieldsByObf.values()))
+		for(FieldMapping fieldMapping : m_fieldsByObf.values())
+			fieldMapping.renameObfClasses(replacer);
+		
+		// rename method signatures
+		for(MethodMapping methodMapping : m_methodsByObf.values())
+			methodMapping.renameObfClasses(replacer);
+		
+		// rename this class
+		String newObfFullName = replacer.replace(m_obfFullName);
+		if(newObfFullName != null)
 		{
-			String oldFieldKey =
-				getFieldKey(fieldMapping.getObfName(),
-					fieldMapping.getObfType());
-			if(fieldMapping.renameObfClass(oldObfClassName, newObfClassName))
-			{
-				boolean wasRemoved = m_fieldsByObf.remove(oldFieldKey) != null;
-				assert wasRemoved;
-				boolean wasAdded =
-					m_fieldsByObf.put(
-						getFieldKey(fieldMapping.getObfName(),
-							fieldMapping.getObfType()), fieldMapping) == null;
-				assert wasAdded;
-			}
+			m_obfFullName = newObfFullName;
+			ClassEntry classEntry = new ClassEntry(newObfFullName);
+			m_obfSimpleName =
+				classEntry.isInnerClass() ? classEntry.getInnermostClassName()
+					: classEntry.getSimpleName();
 		}
 		
-		// rename method signatures
-		for(MethodMapping methodMapping : new ArrayList<MethodMapping>(
-			m_methodsByObf.values()))
+		// rebuild the lookup maps once, now that everything has its new name
+		// the inner classes by deobf name keep their keys
+		Map<String, ClassMapping> innerClassesByObfSimple = Maps.newHashMap();
+		for(ClassMapping innerClassMapping : m_innerClassesByObfSimple.values())
 		{
-			String oldMethodKey =
-				getMethodKey(methodMapping.getObfName(),
-					methodMapping.getObfSignature());
-			if(methodMapping.renameObfClass(oldObfClassName, newObfClassName))
+			boolean wasAdded =
+				innerClassesByObfSimple.put(
+					innerClassMapping.getObfSimpleName(), innerClassMapping) == null;
+			assert wasAdded;
+		}
+		m_innerClassesByObfSimple = innerClassesByObfSimple;
+		Map<String, FieldMapping> fieldsByObf = Maps.newHashMap();
+		Map<String, FieldMapping> fieldsByDeobf = Maps.newHashMap();
+		for(FieldMapping fieldMapping : m_fieldsByObf.values())
+		{
+			boolean obfWasAdded =
+				fieldsByObf.put(
+					getFieldKey(fieldMapping.getObfName(),
+						fieldMapping.getObfType()), fieldMapping) == null;
+			assert obfWasAdded;
+			boolean deobfWasAdded =
+				fieldsByDeobf.put(
+					getFieldKey(fieldMapping.getDeobfName(),
+						fieldMapping.getObfType()), fieldMapping) == null;
+			assert deobfWasAdded;
+		}
+		m_fieldsByObf = fieldsByObf;
+		m_fieldsByDeobf = fieldsByDeobf;
+		Map<String, MethodMapping> methodsByObf = Maps.newHashMap();
+		Map<String, MethodMapping> methodsByDeobf = Maps.newHashMap();
+		for(MethodMapping methodMapping : m_methodsByObf.values())
+		{
+			boolean obfWasAdded =
+				methodsByObf.put(
+					getMethodKey(methodMapping.getObfName(),
+						methodMapping.getObfSignature()), methodMapping) == null;
+			assert obfWasAdded;
+			if(methodMapping.getDeobfName() != null)
 			{
-				boolean wasRemoved =
-					m_methodsByObf.remove(oldMethodKey) != null;
-				assert wasRemoved;
-				boolean wasAdded =
-					m_methodsByObf.put(
-						getMethodKey(methodMapping.getObfName(),
+				boolean deobfWasAdded =
+					methodsByDeobf.put(
+						getMethodKey(methodMapping.getDeobfName(),
 							methodMapping.getObfSignature()), methodMapping) == null;
-				assert wasAdded;
+				assert deobfWasAdded;
 			}
 		}
-		
-		if(m_obfFullName.equals(oldObfClassName))
-		{
-			// rename this class
-			m_obfFullName = newObfClassName;
-			return true;
-		}
-		return false;
+		m_methodsByObf = methodsByObf;
+		m_methodsByDeobf = methodsByDeobf;
 	}
 	
 	public boolean containsArgument(BehaviorEntry obfBehaviorEntry, String name)
@@ -29,6 +29,13 @@ public class FieldMapping implements Serializable, Comparable<FieldMapping>,
 		m_obfType = obfType;
 	}
 	
+	public FieldMapping(FieldMapping other)
+	{
+		m_obfName = other.m_obfName;
+		m_deobfName = other.m_deobfName;
+		m_obfType = other.m_obfType;
+	}
+	
 	public FieldMapping(FieldMapping other,
 		ClassNameReplacer obfClassNameReplacer)
 	{
@@ -75,28 +82,10 @@ public class FieldMapping implements Serializable, Comparable<FieldMapping>,
 			+ other.m_obfType);
 	}
 	
-	public boolean renameObfClass(final String oldObfClassName,
-		final String newObfClassName)
+	public void renameObfClasses(ClassNameReplacer replacer)
 	{
-		
 		// rename obf classes in the type
-		Type newType = new Type(m_obfType, new ClassNameReplacer()
-		{
-			@Override
-			public String replace(String className)
-			{
-				if(className.equals(oldObfClassName))
-					return newObfClassName;
-				return null;
-			}
-		});
-		
-		if(!newType.equals(m_obfType))
-		{
-			m_obfType = newType;
-			return true;
-		}
-		return false;
+		m_obfType = new Type(m_obfType, replacer);
 	}
 	
 	@Override
@@ -0,0 +1,104 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Jeff Martin.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public
+ * License v3.0 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * Contributors:
+ * Jeff Martin - initial API and implementation
+ ******************************************************************************/
+package cuchaz.enigma.mapping;
+
+public class InnerClassMarkingTranslator extends Translator
+{
+	
+	// NOTE: this translator puts a marker in front of every deobfuscated inner
+	// class name, so the exported source can turn "Outer$Inner" into
+	// "Outer.Inner" afterwards. The mappings themselves are never touched.
+	
+	private String m_marker;
+	
+	public InnerClassMarkingTranslator(Translator translator, String marker)
+	{
+		super(translator);
+		m_marker = marker;
+	}
+	
+	public String getMarker()
+	{
+		return m_marker;
+	}
+	
+	@Override
+	public ClassEntry translateEntry(ClassEntry in)
+	{
+		switch(getDirection())
+		{
+			case Deobfuscating:
+				return mark(super.translateEntry(in));
+				
+			case Obfuscating:
+				return super.translateEntry(unmark(in));
+				
+			default:
+				throw new Error("Invalid translation direction!");
+		}
+	}
+	
+	@Override
+	public String translate(FieldEntry in)
+	{
+		if(getDirection() == TranslationDirection.Obfuscating)
+			in = new FieldEntry(in, unmark(in.getClassEntry()));
+		return super.translate(in);
+	}
+	
+	@Override
+	public String translate(MethodEntry in)
+	{
+		if(getDirection() == TranslationDirection.Obfuscating)
+			in = new MethodEntry(in, unmark(in.getClassEntry()).getName());
+		return super.translate(in);
+	}
+	
+	@Override
+	public String translate(ArgumentEntry in)
+	{
+		if(getDirection() == TranslationDirection.Obfuscating)
+			in = new ArgumentEntry(in, unmark(in.getClassEntry()).getName());
+		return super.translate(in);
+	}
+	
+	private ClassEntry mark(ClassEntry in)
+	{
+		if(!in.isInnerClass())
+			return in;
+		String[] parts = in.getName().split("\\$");
+		StringBuilder buf = new StringBuilder(parts[0]);
+		for(int i = 1; i < parts.length; i++)
+		{
+			buf.append("$");
+			buf.append(m_marker);
+			buf.append(parts[i]);
+		}
+		return new ClassEntry(buf.toString());
+	}
+	
+	private ClassEntry unmark(ClassEntry in)
+	{
+		if(!in.isInnerClass())
+			return in;
+		String[] parts = in.getName().split("\\$");
+		StringBuilder buf = new StringBuilder(parts[0]);
+		for(int i = 1; i < parts.length; i++)
+		{
+			buf.append("$");
+			if(parts[i].startsWith(m_marker))
+				buf.append(parts[i].substring(m_marker.length()));
+			else
+				buf.append(parts[i]);
+		}
+		return new ClassEntry(buf.toString());
+	}
+}
@@ -11,8 +11,8 @@
 package cuchaz.enigma.mapping;
 
 import java.io.Serializable;
-import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -49,6 +49,19 @@ public class Mappings implements Serializable
 		}
 	}
 	
+	public Mappings(Mappings other)
+	{
+		this();
+		
+		for(ClassMapping classMapping : other.classes())
+		{
+			ClassMapping copy = new ClassMapping(classMapping);
+			m_classesByObf.put(copy.getObfFullName(), copy);
+			if(copy.getDeobfName() != null)
+				m_classesByDeobf.put(copy.getDeobfName(), copy);
+		}
+	}
+	
 	public Collection<ClassMapping> classes()
 	{
 		assert m_classesByObf.size() >= m_classesByDeobf.size();
@@ -171,15 +184,33 @@ public class Mappings implements Serializable
 	
 	public void renameObfClass(String oldObfName, String newObfName)
 	{
-		for(ClassMapping classMapping : new ArrayList<ClassMapping>(classes()))
-			if(classMapping.renameObfClass(oldObfName, newObfName))
+		renameObfClasses(Collections.singletonMap(oldObfName, newObfName));
+	}
+	
+	public void renameObfClasses(final Map<String, String> renames)
+	{
+		
+		// apply all the renames at once in a single pass over the mappings
+		ClassNameReplacer replacer = new ClassNameReplacer()
+		{
+			@Override
+			public String replace(String className)
 			{
-				boolean wasRemoved = m_classesByObf.remove(oldObfName) != null;
-				assert wasRemoved;
-				boolean wasAdded =
-					m_classesByObf.put(newObfName, classMapping) == null;
-				assert wasAdded;
+				return renames.get(className);
 			}
+		};
+		for(ClassMapping classMapping : m_classesByObf.values())
+			classMapping.renameObfClasses(replacer);
+		
+		// rebuild the lookup map once, the deobf names didn't change
+		Map<String, ClassMapping> classesByObf = Maps.newHashMap();
+		for(ClassMapping classMapping : m_classesByObf.values())
+		{
+			boolean wasAdded =
+				classesByObf.put(classMapping.getObfFullName(), classMapping) == null;
+			assert wasAdded;
+		}
+		m_classesByObf = classesByObf;
 	}
 	
 	public Set<String> getAllObfClassNames()
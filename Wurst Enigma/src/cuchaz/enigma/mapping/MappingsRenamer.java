@@ -17,6 +17,8 @@ import java.util.List;
 import java.util.Set;
 import java.util.zip.GZIPOutputStream;
 
+import com.google.common.collect.Sets;
+
 import cuchaz.enigma.analysis.JarIndex;
 
 public class MappingsRenamer
@@ -24,11 +26,30 @@ public class MappingsRenamer
 	
 	private JarIndex m_index;
 	private Mappings m_mappings;
+	private Set<String> m_changedClasses;
 	
 	public MappingsRenamer(JarIndex index, Mappings mappings)
 	{
 		m_index = index;
 		m_mappings = mappings;
+		
+		// nobody has seen these mappings yet
+		m_changedClasses = null;
+	}
+	
+	/**
+	 * Returns the obf names of the top-level class mappings that changed
+	 * since the last call to {@link #clearChangedClasses()}, or null if
+	 * they all might have.
+	 */
+	public Set<String> getChangedClasses()
+	{
+		return m_changedClasses;
+	}
+	
+	public void clearChangedClasses()
+	{
+		m_changedClasses = Sets.newHashSet();
 	}
 	
 	public void setClassName(ClassEntry obf, String deobfName)
@@ -243,6 +264,8 @@ public class MappingsRenamer
 	public boolean moveFieldToObfClass(ClassMapping classMapping,
 		FieldMapping fieldMapping, ClassEntry obfClass)
 	{
+		// there's no telling which top-level class the mapping came from
+		m_changedClasses = null;
 		classMapping.removeFieldMapping(fieldMapping);
 		ClassMapping targetClassMapping = getOrCreateClassMapping(obfClass);
 		if(!targetClassMapping.containsObfField(fieldMapping.getObfName(),
@@ -261,6 +284,7 @@ public class MappingsRenamer
 	public boolean moveMethodToObfClass(ClassMapping classMapping,
 		MethodMapping methodMapping, ClassEntry obfClass)
 	{
+		m_changedClasses = null;
 		classMapping.removeMethodMapping(methodMapping);
 		ClassMapping targetClassMapping = getOrCreateClassMapping(obfClass);
 		if(!targetClassMapping.containsObfMethod(methodMapping.getObfName(),
@@ -298,6 +322,8 @@ public class MappingsRenamer
 		ClassEntry obfClassEntry)
 	{
 		List<ClassEntry> classChain = obfClassEntry.getClassChain();
+		if(m_changedClasses != null)
+			m_changedClasses.add(classChain.get(0).getName());
 		List<ClassMapping> mappingChain =
 			m_mappings.getClassMappingChain(obfClassEntry);
 		for(int i = 0; i < classChain.size(); i++)
@@ -0,0 +1,84 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Jeff Martin.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public
+ * License v3.0 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * Contributors:
+ * Jeff Martin - initial API and implementation
+ ******************************************************************************/
+package cuchaz.enigma.mapping;
+
+import cuchaz.enigma.analysis.TranslationIndex;
+
+public class MappingsSnapshot
+{
+	
+	// NOTE: the mappings are never modified after the snapshot is made, so
+	// any number of threads can read them (and the translators) without locks
+	
+	private final long m_version;
+	private final Mappings m_mappings;
+	private final TranslationIndex m_index;
+	private volatile Translator m_deobfuscatingTranslator;
+	private volatile Translator m_obfuscatingTranslator;
+	
+	public MappingsSnapshot(long version, Mappings mappings,
+		TranslationIndex index)
+	{
+		m_version = version;
+		m_mappings = mappings;
+		m_index = index;
+		m_deobfuscatingTranslator = null;
+		m_obfuscatingTranslator = null;
+	}
+	
+	public long getVersion()
+	{
+		return m_version;
+	}
+	
+	public Mappings getMappings()
+	{
+		return m_mappings;
+	}
+	
+	public Translator getTranslator(TranslationDirection direction)
+	{
+		// if two threads race here, they just build the same translator twice
+		switch(direction)
+		{
+			case Deobfuscating:
+				if(m_deobfuscatingTranslator == null)
+					m_deobfuscatingTranslator =
+						m_mappings.getTranslator(direction, m_index);
+				return m_deobfuscatingTranslator;
+			
+			case Obfuscating:
+				if(m_obfuscatingTranslator == null)
+					m_obfuscatingTranslator =
+						m_mappings.getTranslator(direction, m_index);
+				return m_obfuscatingTranslator;
+			
+			default:
+				throw new Error("Invalid translation direction!");
+		}
+	}
+	
+	public <T extends Entry> T obfuscateEntry(T deobfEntry)
+	{
+		if(deobfEntry == null)
+			return null;
+		return getTranslator(TranslationDirection.Obfuscating).translateEntry(
+			deobfEntry);
+	}
+	
+	public <T extends Entry> T deobfuscateEntry(T obfEntry)
+	{
+		if(obfEntry == null)
+			return null;
+		return getTranslator(TranslationDirection.Deobfuscating)
+			.translateEntry(obfEntry);
+	}
+}
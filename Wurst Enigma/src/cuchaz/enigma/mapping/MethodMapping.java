@@ -45,6 +45,18 @@ public class MethodMapping implements Serializable, Comparable<MethodMapping>,
 		m_arguments = Maps.newTreeMap();
 	}
 	
+	public MethodMapping(MethodMapping other)
+	{
+		m_obfName = other.m_obfName;
+		m_deobfName = other.m_deobfName;
+		m_obfSignature = other.m_obfSignature;
+		m_arguments = Maps.newTreeMap();
+		for(Entry<Integer, ArgumentMapping> entry : other.m_arguments
+			.entrySet())
+			m_arguments.put(entry.getKey(),
+				new ArgumentMapping(entry.getValue()));
+	}
+	
 	public MethodMapping(MethodMapping other,
 		ClassNameReplacer obfClassNameReplacer)
 	{
@@ -174,29 +186,10 @@ public class MethodMapping implements Serializable, Comparable<MethodMapping>,
 			+ other.m_obfSignature);
 	}
 	
-	public boolean renameObfClass(final String oldObfClassName,
-		final String newObfClassName)
+	public void renameObfClasses(ClassNameReplacer replacer)
 	{
-		
 		// rename obf classes in the signature
-		Signature newSignature =
-			new Signature(m_obfSignature, new ClassNameReplacer()
-			{
-				@Override
-				public String replace(String className)
-				{
-					if(className.equals(oldObfClassName))
-						return newObfClassName;
-					return null;
-				}
-			});
-		
-		if(!newSignature.equals(m_obfSignature))
-		{
-			m_obfSignature = newSignature;
-			return true;
-		}
-		return false;
+		m_obfSignature = new Signature(m_obfSignature, replacer);
 	}
 	
 	public boolean containsArgument(String name)
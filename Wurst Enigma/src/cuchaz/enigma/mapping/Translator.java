@@ -16,11 +16,21 @@ import java.util.Map;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 
+import cuchaz.enigma.Metrics;
 import cuchaz.enigma.analysis.TranslationIndex;
 
 public class Translator
 {
 	
+	private static final Metrics.Counter ClassLookups = Metrics
+		.getCounter("Translator.classLookups");
+	private static final Metrics.Counter ClassHits = Metrics
+		.getCounter("Translator.classHits");
+	private static final Metrics.Counter MemberLookups = Metrics
+		.getCounter("Translator.memberLookups");
+	private static final Metrics.Counter MemberHits = Metrics
+		.getCounter("Translator.memberHits");
+	
 	private TranslationDirection m_direction;
 	private Map<String, ClassMapping> m_classes;
 	private TranslationIndex m_index;
@@ -49,6 +59,13 @@ public class Translator
 		m_index = index;
 	}
 	
+	protected Translator(Translator other)
+	{
+		m_direction = other.m_direction;
+		m_classes = other.m_classes;
+		m_index = other.m_index;
+	}
+	
 	public TranslationDirection getDirection()
 	{
 		return m_direction;
@@ -107,6 +124,7 @@ public class Translator
 	
 	public ClassEntry translateEntry(ClassEntry in)
 	{
+		ClassLookups.increment();
 		
 		if(in.isInnerClass())
 		{
@@ -140,6 +158,7 @@ public class Translator
 			ClassMapping classMapping = m_classes.get(in.getName());
 			if(classMapping == null)
 				return in;
+			ClassHits.increment();
 			return m_direction.choose(classMapping.getDeobfName() != null
 				? new ClassEntry(classMapping.getDeobfName()) : in,
 				new ClassEntry(classMapping.getObfFullName()));
@@ -148,6 +167,7 @@ public class Translator
 	
 	public String translate(FieldEntry in)
 	{
+		MemberLookups.increment();
 		
 		// resolve the class entry
 		ClassEntry resolvedClassEntry = m_index.resolveEntryClass(in);
@@ -166,7 +186,10 @@ public class Translator
 						.getObfFieldName(in.getName(),
 							translateType(in.getType())));
 				if(translatedName != null)
+				{
+					MemberHits.increment();
 					return translatedName;
+				}
 			}
 		}
 		return null;
@@ -183,6 +206,7 @@ public class Translator
 	
 	public String translate(MethodEntry in)
 	{
+		MemberLookups.increment();
 		
 		// resolve the class entry
 		ClassEntry resolvedClassEntry = m_index.resolveEntryClass(in);
@@ -201,8 +225,11 @@ public class Translator
 						.getMethodByDeobf(in.getName(),
 							translateSignature(in.getSignature())));
 				if(methodMapping != null)
+				{
+					MemberHits.increment();
 					return m_direction.choose(methodMapping.getDeobfName(),
 						methodMapping.getObfName());
+				}
 			}
 		}
 		return null;
@@ -237,6 +264,7 @@ public class Translator
 	
 	public String translate(ArgumentEntry in)
 	{
+		MemberLookups.increment();
 		
 		// look for the class
 		ClassMapping classMapping = findClassMapping(in.getClassEntry());
@@ -250,9 +278,15 @@ public class Translator
 					.getMethodByDeobf(in.getMethodName(),
 						translateSignature(in.getMethodSignature())));
 			if(methodMapping != null)
-				return m_direction.choose(
-					methodMapping.getDeobfArgumentName(in.getIndex()),
-					methodMapping.getObfArgumentName(in.getIndex()));
+			{
+				String translatedName =
+					m_direction.choose(
+						methodMapping.getDeobfArgumentName(in.getIndex()),
+						methodMapping.getObfArgumentName(in.getIndex()));
+				if(translatedName != null)
+					MemberHits.increment();
+				return translatedName;
+			}
 		}
 		return null;
 	}
@@ -8,6 +8,7 @@
 package tk.wurst_client.enigma.regexlist;
 
 import java.util.HashSet;
+import java.util.Set;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
@@ -33,6 +34,21 @@ public class RegexListEntry
 		this.replacement = replacement;
 	}
 	
+	public Set<String> getTarget()
+	{
+		return target;
+	}
+	
+	public Pattern getRegex()
+	{
+		return regex;
+	}
+	
+	public String getReplacement()
+	{
+		return replacement;
+	}
+	
 	public boolean isTarget(String name)
 	{
 		if(target == null)
@@ -0,0 +1,378 @@
+/*
+ * Copyright  2015 | Alexander01998 | All rights reserved.
+ * 
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package tk.wurst_client.enigma.regexlist;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Applies a fixed list of rewrite rules to exported sources. Rules run in the
+ * order they were added, because later rules are written against the output
+ * of earlier ones. Each rule is compiled once and has a literal that must
+ * occur in the source for the rule to match at all, so rules that cannot
+ * match are skipped without running the regex or copying the source.
+ * <p>
+ * All rules must be added before the first call to
+ * {@link #rewrite(String, String)}. After that, the rewriter can be shared by
+ * any number of threads.
+ */
+public class SourceRewriter
+{
+	private final ArrayList<Rule> globalRules = new ArrayList<Rule>();
+	private final HashMap<String, ArrayList<Rule>> rulesByTarget =
+		new HashMap<String, ArrayList<Rule>>();
+	private final StringBuilder key = new StringBuilder();
+	
+	public void addLiteral(String target, String replacement)
+	{
+		if(target.isEmpty())
+			throw new IllegalArgumentException("Target cannot be empty!");
+		addRule(null, new Rule(target, null, replacement));
+	}
+	
+	public void addRegex(Pattern regex, String replacement)
+	{
+		addRule(null, new Rule(getRequiredLiteral(regex), regex, replacement));
+	}
+	
+	public void addRegexList(List<RegexListEntry> regexList)
+	{
+		for(RegexListEntry entry : regexList)
+			addRule(entry.getTarget(), new Rule(getRequiredLiteral(entry
+				.getRegex()), entry.getRegex(), entry.getReplacement()));
+	}
+	
+	public String rewrite(String className, String source)
+		throws IllegalArgumentException
+	{
+		ArrayList<Rule> rules = rulesByTarget.get(className);
+		if(rules == null)
+			rules = globalRules;
+		for(Rule rule : rules)
+			source = rule.apply(source);
+		return source;
+	}
+	
+	/**
+	 * Returns a string that describes all rules in order, so two rewriters
+	 * with the same key rewrite every source the same way.
+	 */
+	public String getKey()
+	{
+		return key.toString();
+	}
+	
+	private void addRule(Iterable<String> targets, Rule rule)
+	{
+		// the targets come from a set, so put them in a stable order
+		ArrayList<String> sortedTargets = null;
+		if(targets != null)
+		{
+			sortedTargets = new ArrayList<String>();
+			for(String target : targets)
+				sortedTargets.add(target);
+			Collections.sort(sortedTargets);
+		}
+		key.append(sortedTargets).append('\0').append(rule.literal).append('\0')
+			.append(rule.regex == null ? "" : rule.regex.pattern() + "\0"
+				+ rule.regex.flags()).append('\0').append(rule.replacement)
+			.append('\n');
+		if(targets == null)
+		{
+			globalRules.add(rule);
+			for(ArrayList<Rule> rules : rulesByTarget.values())
+				rules.add(rule);
+		}else
+			for(String target : targets)
+			{
+				ArrayList<Rule> rules = rulesByTarget.get(target);
+				if(rules == null)
+				{
+					rules = new ArrayList<Rule>(globalRules);
+					rulesByTarget.put(target, rules);
+				}
+				rules.add(rule);
+			}
+	}
+	
+	/**
+	 * Returns the longest literal that every match of the given regex must
+	 * contain, or an empty string if no such literal could be found. This is
+	 * deliberately conservative: anything inside groups, character classes or
+	 * repeated parts is ignored, and so is the whole regex if it has flags or
+	 * top-level alternatives.
+	 */
+	static String getRequiredLiteral(Pattern regex)
+	{
+		if(regex.flags() != 0)
+			return "";
+		String pattern = regex.pattern();
+		String best = "";
+		StringBuilder run = new StringBuilder();
+		for(int i = 0; i < pattern.length(); i++)
+		{
+			char c = pattern.charAt(i);
+			switch(c)
+			{
+				case '\\':
+					if(i + 1 >= pattern.length())
+						return "";
+					char escaped = pattern.charAt(++i);
+					if(escaped == 'Q')
+						return "";
+					if(Character.isLetterOrDigit(escaped))
+					{
+						// \w, \d, \n, \1, \x41, ... aren't plain characters
+						best = longer(best, run);
+						run.setLength(0);
+						i = skipEscape(pattern, i);
+					}else
+						run.append(escaped);
+					break;
+				
+				case '*':
+				case '?':
+				case '{':
+					// the last character is optional
+					if(run.length() > 0)
+						run.setLength(run.length() - 1);
+					best = longer(best, run);
+					run.setLength(0);
+					i = skipQuantifier(pattern, i);
+					break;
+				
+				case '+':
+					// the last character is required, but may repeat
+					best = longer(best, run);
+					run.setLength(0);
+					i = skipQuantifier(pattern, i);
+					break;
+				
+				case '|':
+					return "";
+					
+				case '(':
+					if(pattern.startsWith("(?", i) && i + 2 < pattern.length()
+						&& "idmsuxU-".indexOf(pattern.charAt(i + 2)) >= 0)
+						return "";
+					best = longer(best, run);
+					run.setLength(0);
+					i = skipGroup(pattern, i);
+					break;
+				
+				case '[':
+					best = longer(best, run);
+					run.setLength(0);
+					i = skipClass(pattern, i);
+					break;
+				
+				case '.':
+				case '^':
+				case '$':
+					best = longer(best, run);
+					run.setLength(0);
+					break;
+				
+				default:
+					run.append(c);
+					break;
+			}
+			if(i < 0)
+				return "";
+		}
+		return longer(best, run);
+	}
+	
+	private static String longer(String best, StringBuilder run)
+	{
+		return run.length() > best.length() ? run.toString() : best;
+	}
+	
+	/**
+	 * Skips whatever belongs to the alphanumeric escape at i, eg the hex
+	 * digits of \x41 or the name of \k<name>, and returns the index of its
+	 * last character, or -1 if it isn't complete.
+	 */
+	private static int skipEscape(String pattern, int i)
+	{
+		switch(pattern.charAt(i))
+		{
+			case 'x':
+				if(pattern.startsWith("{", i + 1))
+					return pattern.indexOf('}', i);
+				return skipDigits(pattern, i, 16, 2, 2);
+				
+			case 'u':
+				return skipDigits(pattern, i, 16, 4, 4);
+				
+			case '0':
+				return skipDigits(pattern, i, 8, 1, 3);
+				
+			case 'c':
+				return i + 1 < pattern.length() ? i + 1 : -1;
+				
+			case 'p':
+			case 'P':
+				if(pattern.startsWith("{", i + 1))
+					return pattern.indexOf('}', i);
+				return i + 1 < pattern.length() ? i + 1 : -1;
+				
+			case 'N':
+				if(!pattern.startsWith("{", i + 1))
+					return -1;
+				return pattern.indexOf('}', i);
+				
+			case 'k':
+				if(!pattern.startsWith("<", i + 1))
+					return -1;
+				return pattern.indexOf('>', i);
+				
+			default:
+				// back references can have more digits
+				if(Character.isDigit(pattern.charAt(i)))
+					return skipDigits(pattern, i, 10, 0, Integer.MAX_VALUE);
+				return i;
+		}
+	}
+	
+	private static int skipDigits(String pattern, int i, int radix,
+		int minDigits, int maxDigits)
+	{
+		int numDigits = 0;
+		while(numDigits < maxDigits && i + 1 < pattern.length()
+			&& Character.digit(pattern.charAt(i + 1), radix) >= 0)
+		{
+			i++;
+			numDigits++;
+		}
+		return numDigits >= minDigits ? i : -1;
+	}
+	
+	private static int skipQuantifier(String pattern, int i)
+	{
+		if(pattern.charAt(i) == '{')
+		{
+			i = pattern.indexOf('}', i);
+			if(i < 0)
+				return -1;
+		}
+		
+		// lazy and possessive quantifiers
+		if(i + 1 < pattern.length()
+			&& (pattern.charAt(i + 1) == '?' || pattern.charAt(i + 1) == '+'))
+			i++;
+		return i;
+	}
+	
+	private static int skipGroup(String pattern, int i)
+	{
+		int depth = 0;
+		for(; i < pattern.length(); i++)
+			switch(pattern.charAt(i))
+			{
+				case '\\':
+					i++;
+					break;
+				
+				case '[':
+					i = skipClass(pattern, i);
+					if(i < 0)
+						return -1;
+					break;
+				
+				case '(':
+					depth++;
+					break;
+				
+				case ')':
+					if(--depth == 0)
+						return i;
+					break;
+			}
+		return -1;
+	}
+	
+	private static int skipClass(String pattern, int i)
+	{
+		int depth = 0;
+		for(; i < pattern.length(); i++)
+			switch(pattern.charAt(i))
+			{
+				case '\\':
+					i++;
+					break;
+				
+				case '[':
+					depth++;
+					
+					// a ']' right after the opening bracket is a literal
+					if(pattern.startsWith("]", i + 1))
+						i++;
+					else if(pattern.startsWith("^]", i + 1))
+						i += 2;
+					break;
+				
+				case ']':
+					if(--depth == 0)
+						return i;
+					break;
+			}
+		return -1;
+	}
+	
+	private static class Rule
+	{
+		private final String literal;
+		private final Pattern regex;
+		private final String replacement;
+		
+		public Rule(String literal, Pattern regex, String replacement)
+		{
+			this.literal = literal;
+			this.regex = regex;
+			this.replacement = replacement;
+		}
+		
+		public String apply(String source) throws IllegalArgumentException
+		{
+			int start = source.indexOf(literal);
+			if(start < 0)
+				return source;
+			
+			// plain text replacement
+			if(regex == null)
+			{
+				StringBuilder buf = new StringBuilder(source.length());
+				int end = 0;
+				for(; start >= 0; start = source.indexOf(literal, end))
+				{
+					buf.append(source, end, start);
+					buf.append(replacement);
+					end = start + literal.length();
+				}
+				buf.append(source, end, source.length());
+				return buf.toString();
+			}
+			
+			// only copy the source if the regex actually matches
+			Matcher matcher = regex.matcher(source);
+			if(!matcher.find())
+				return source;
+			StringBuffer buf = new StringBuffer(source.length());
+			do
+				matcher.appendReplacement(buf, replacement);
+			while(matcher.find());
+			matcher.appendTail(buf);
+			return buf.toString();
+		}
+	}
+}
@@ -0,0 +1,177 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Jeff Martin.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public
+ * License v3.0 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * Contributors:
+ * Jeff Martin - initial API and implementation
+ ******************************************************************************/
+package cuchaz.enigma;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.jar.JarFile;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import cuchaz.enigma.analysis.JarIndex;
+import cuchaz.enigma.benchmark.SyntheticJars;
+import cuchaz.enigma.convert.ClassFeaturesCache;
+import cuchaz.enigma.convert.ClassIdentifier;
+import cuchaz.enigma.convert.ExactClassMatcher;
+import cuchaz.enigma.mapping.ClassEntry;
+
+public class TestClassFeaturesCache
+{
+	
+	private static final int NumClasses = 50;
+	private static final long Seed = 42;
+	
+	@Rule
+	public SyntheticJars m_jars = new SyntheticJars(NumClasses, Seed);
+	
+	@Test
+	public void missOnOtherBytes() throws Exception
+	{
+		ClassFeaturesCache cache = new ClassFeaturesCache();
+		assertThat(cache.get(new byte[]{1, 2, 3}, m_jars.getSourceIndex()),
+			is(nullValue()));
+		assertThat(cache.isDirty(), is(false));
+		
+		readAll(cache, m_jars.getSourceJar(), m_jars.getSourceIndex());
+		assertThat(cache.size(), is(m_jars.getSourceIndex()
+			.getObfClassEntries().size()));
+		assertThat(cache.isDirty(), is(true));
+		assertThat(cache.get(new byte[]{1, 2, 3}, m_jars.getSourceIndex()),
+			is(nullValue()));
+	}
+	
+	@Test
+	public void sameFeaturesFromCache() throws Exception
+	{
+		ClassFeaturesCache cache = new ClassFeaturesCache();
+		readAll(cache, m_jars.getSourceJar(), m_jars.getSourceIndex());
+		
+		// a cached read has to look just like a fresh one
+		assertSameFeatures(cache, m_jars.getSourceJar(),
+			m_jars.getSourceIndex());
+		assertSameFeatures(writeAndRead(cache), m_jars.getSourceJar(),
+			m_jars.getSourceIndex());
+	}
+	
+	@Test
+	public void writeAndReadBack() throws Exception
+	{
+		ClassFeaturesCache cache = new ClassFeaturesCache();
+		readAll(cache, m_jars.getSourceJar(), m_jars.getSourceIndex());
+		ClassFeaturesCache otherCache = writeAndRead(cache);
+		assertThat(cache.isDirty(), is(false));
+		assertThat(otherCache.size(), is(cache.size()));
+		assertThat(otherCache.isDirty(), is(false));
+		
+		// nothing is read from the bytecode again
+		readAll(otherCache, m_jars.getSourceJar(), m_jars.getSourceIndex());
+		assertThat(otherCache.size(), is(cache.size()));
+		assertThat(otherCache.isDirty(), is(false));
+	}
+	
+	@Test
+	public void changedClasses() throws Exception
+	{
+		ClassFeaturesCache cache = new ClassFeaturesCache();
+		readAll(cache, m_jars.getSourceJar(), m_jars.getSourceIndex());
+		ClassFeaturesCache nextCache = writeAndRead(cache);
+		
+		// only the classes that changed are read again
+		readAll(nextCache, m_jars.getDestJar(), m_jars.getDestIndex());
+		assertThat(nextCache.isDirty(), is(true));
+		assertThat(nextCache.size(), greaterThan(cache.size()));
+		assertSameFeatures(nextCache, m_jars.getDestJar(),
+			m_jars.getDestIndex());
+	}
+	
+	@Test
+	public void pruneUnusedClasses() throws Exception
+	{
+		ClassFeaturesCache cache = new ClassFeaturesCache();
+		readAll(cache, m_jars.getSourceJar(), m_jars.getSourceIndex());
+		ClassFeaturesCache nextCache = writeAndRead(cache);
+		
+		// only the classes of the next jar are left
+		readAll(nextCache, m_jars.getDestJar(), m_jars.getDestIndex());
+		int numClasses = nextCache.size();
+		nextCache.prune();
+		assertThat(nextCache.size(), lessThan(numClasses));
+		assertThat(nextCache.size(), is(m_jars.getDestIndex()
+			.getObfClassEntries().size()));
+		assertThat(nextCache.isDirty(), is(true));
+		
+		// nothing changed since
+		ClassFeaturesCache otherCache = writeAndRead(nextCache);
+		readAll(otherCache, m_jars.getDestJar(), m_jars.getDestIndex());
+		otherCache.prune();
+		assertThat(otherCache.size(), is(nextCache.size()));
+		assertThat(otherCache.isDirty(), is(false));
+	}
+	
+	@Test
+	public void unreadableCache() throws Exception
+	{
+		ClassFeaturesCache cache = new ClassFeaturesCache();
+		readAll(cache, m_jars.getSourceJar(), m_jars.getSourceIndex());
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		cache.write(out);
+		byte[] data = out.toByteArray();
+		
+		// a broken cache is just a cold one
+		ClassFeaturesCache otherCache = new ClassFeaturesCache();
+		otherCache.read(new ByteArrayInputStream(Arrays.copyOf(data,
+			data.length / 2)));
+		assertThat(otherCache.size(), is(0));
+		otherCache.read(new ByteArrayInputStream(new byte[]{1, 2, 3}));
+		assertThat(otherCache.size(), is(0));
+		readAll(otherCache, m_jars.getSourceJar(), m_jars.getSourceIndex());
+		assertThat(otherCache.size(), is(cache.size()));
+	}
+	
+	private void readAll(ClassFeaturesCache cache, JarFile jar, JarIndex index)
+		throws Exception
+	{
+		ClassIdentifier identifier =
+			new ClassIdentifier(jar, index, cache, null, false);
+		for(ClassEntry classEntry : index.getObfClassEntries())
+			identifier.getFeatures(classEntry);
+	}
+	
+	private void assertSameFeatures(ClassFeaturesCache cache, JarFile jar,
+		JarIndex index) throws Exception
+	{
+		ClassIdentifier cachedIdentifier =
+			new ClassIdentifier(jar, index, cache, null, false);
+		ClassIdentifier identifier = new ClassIdentifier(jar, index, null, false);
+		for(ClassEntry classEntry : index.getObfClassEntries())
+			assertThat(ExactClassMatcher.computeHash(cachedIdentifier
+				.getFeatures(classEntry)), is(ExactClassMatcher
+				.computeHash(identifier.getFeatures(classEntry))));
+	}
+	
+	private ClassFeaturesCache writeAndRead(ClassFeaturesCache cache)
+		throws Exception
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		cache.write(out);
+		ClassFeaturesCache otherCache = new ClassFeaturesCache();
+		otherCache.read(new ByteArrayInputStream(out.toByteArray()));
+		return otherCache;
+	}
+}
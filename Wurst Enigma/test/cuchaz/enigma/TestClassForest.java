@@ -0,0 +1,82 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Jeff Martin.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public
+ * License v3.0 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * Contributors:
+ * Jeff Martin - initial API and implementation
+ ******************************************************************************/
+package cuchaz.enigma;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+import java.util.Set;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.Sets;
+
+import cuchaz.enigma.benchmark.SyntheticJars;
+import cuchaz.enigma.convert.ClassForest;
+import cuchaz.enigma.convert.ClassIdentifier;
+import cuchaz.enigma.convert.ClassIdentity;
+import cuchaz.enigma.mapping.ClassEntry;
+
+public class TestClassForest
+{
+	
+	@Rule
+	public SyntheticJars m_jars = new SyntheticJars(100, 42);
+	
+	@Test
+	public void addAllSameAsAdd() throws Exception
+	{
+		checkAddAllSameAsAdd(false);
+	}
+	
+	@Test
+	public void addAllSameAsAddWithReferences() throws Exception
+	{
+		checkAddAllSameAsAdd(true);
+	}
+	
+	private void checkAddAllSameAsAdd(boolean useReferences)
+	{
+		Set<ClassEntry> classEntries =
+			m_jars.getSourceIndex().getObfClassEntries();
+		
+		// separate identifiers, so neither forest gets the other's identities
+		ClassForest sequentialForest = newForest(useReferences);
+		for(ClassEntry classEntry : classEntries)
+			sequentialForest.add(classEntry);
+		ClassForest parallelForest = newForest(useReferences);
+		Set<ClassIdentity> touchedIdentities =
+			parallelForest.addAll(classEntries);
+		
+		// some classes have to share an identity for this to mean anything
+		assertThat(sequentialForest.identities().size(),
+			lessThan(classEntries.size()));
+		
+		assertThat(touchedIdentities,
+			is(Sets.newHashSet(sequentialForest.identities())));
+		assertThat(Sets.newHashSet(parallelForest.identities()),
+			is(Sets.newHashSet(sequentialForest.identities())));
+		for(ClassIdentity identity : sequentialForest.identities())
+			assertThat(Sets.newHashSet(parallelForest.getClasses(identity)),
+				is(Sets.newHashSet(sequentialForest.getClasses(identity))));
+		assertThat(HashMultiset.create(parallelForest.classes()),
+			is(HashMultiset.create(sequentialForest.classes())));
+	}
+	
+	private ClassForest newForest(boolean useReferences)
+	{
+		return new ClassForest(new ClassIdentifier(m_jars.getSourceJar(),
+			m_jars.getSourceIndex(), null, useReferences));
+	}
+}
@@ -0,0 +1,133 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Jeff Martin.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public
+ * License v3.0 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * Contributors:
+ * Jeff Martin - initial API and implementation
+ ******************************************************************************/
+package cuchaz.enigma;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarFile;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.google.common.collect.BiMap;
+import com.google.common.collect.HashBiMap;
+import com.google.common.collect.Lists;
+
+import cuchaz.enigma.analysis.JarIndex;
+import cuchaz.enigma.benchmark.SyntheticJars;
+import cuchaz.enigma.convert.ClassIdentifier;
+import cuchaz.enigma.convert.ClassIdentity;
+import cuchaz.enigma.convert.ClassNamer;
+import cuchaz.enigma.mapping.ClassEntry;
+
+public class TestClassIdentity
+{
+	
+	@Rule
+	public SyntheticJars m_jars = new SyntheticJars(100, 42);
+	
+	@Test
+	public void sameGroupsWithoutNames() throws Exception
+	{
+		checkSameGroups(null, false);
+	}
+	
+	@Test
+	public void sameGroupsWithNamesAndReferences() throws Exception
+	{
+		// name every other known match, so some classes still get numbered
+		BiMap<ClassEntry, ClassEntry> knownMatches = HashBiMap.create();
+		int i = 0;
+		for(Map.Entry<ClassEntry, ClassEntry> match : m_jars.getGenerator()
+			.getClassMatches().getUniqueMatches().entrySet())
+			if(i++ % 2 == 0)
+				knownMatches.put(match.getKey(), match.getValue());
+		checkSameGroups(new ClassNamer(knownMatches), true);
+	}
+	
+	@Test
+	public void reusedIdentifiersSameAsFresh() throws Exception
+	{
+		// rename a few more classes each round, like the converter does
+		JarFile jar = m_jars.getSourceJar();
+		JarIndex index = m_jars.getSourceIndex();
+		List<Map.Entry<ClassEntry, ClassEntry>> matches =
+			Lists.newArrayList(m_jars.getGenerator().getClassMatches()
+				.getUniqueMatches().entrySet());
+		ClassIdentifier identifier =
+			new ClassIdentifier(jar, index, null, false);
+		for(int round = 0; round <= 4; round++)
+		{
+			BiMap<ClassEntry, ClassEntry> knownMatches = HashBiMap.create();
+			for(Map.Entry<ClassEntry, ClassEntry> match : matches.subList(0,
+				matches.size() * round / 4))
+				knownMatches.put(match.getKey(), match.getValue());
+			ClassNamer.SidedClassNamer namer =
+				new ClassNamer(knownMatches).getSourceNamer();
+			boolean useReferences = round >= 2;
+			
+			// touch every identity, so the next round has them all to reuse
+			identifier = new ClassIdentifier(identifier, namer, useReferences);
+			ClassIdentifier freshIdentifier =
+				new ClassIdentifier(jar, index, namer, useReferences);
+			for(ClassEntry classEntry : index.getObfClassEntries())
+			{
+				ClassIdentity identity = identifier.identify(classEntry);
+				ClassIdentity freshIdentity =
+					freshIdentifier.identify(classEntry);
+				assertThat(identity.hasSameFeatures(freshIdentity), is(true));
+				assertThat(identity.toString(), is(freshIdentity.toString()));
+			}
+		}
+	}
+	
+	private void checkSameGroups(ClassNamer namer, boolean useReferences)
+		throws Exception
+	{
+		List<ClassIdentity> identities = Lists.newArrayList();
+		identify(identities, m_jars.getSourceJar(), m_jars.getSourceIndex(),
+			namer != null ? namer.getSourceNamer() : null, useReferences);
+		identify(identities, m_jars.getDestJar(), m_jars.getDestIndex(),
+			namer != null ? namer.getDestNamer() : null, useReferences);
+		
+		// the fingerprints group the classes exactly like their features do
+		int numEqual = 0;
+		for(ClassIdentity a : identities)
+			for(ClassIdentity b : identities)
+			{
+				boolean sameFeatures = a.hasSameFeatures(b);
+				assertThat(a.getClassEntry() + " vs " + b.getClassEntry(),
+					a.equals(b), is(sameFeatures));
+				if(sameFeatures)
+				{
+					assertThat(a.hashCode(), is(b.hashCode()));
+					if(a != b)
+						numEqual++;
+				}
+			}
+		assertThat(numEqual, greaterThan(0));
+	}
+	
+	private void identify(List<ClassIdentity> identities,
+		JarFile jar, JarIndex index,
+		ClassNamer.SidedClassNamer namer, boolean useReferences)
+		throws ClassNotFoundException
+	{
+		ClassIdentifier identifier =
+			new ClassIdentifier(jar, index, namer, useReferences);
+		for(ClassEntry classEntry : index.getObfClassEntries())
+			identities.add(identifier.identify(classEntry));
+	}
+}
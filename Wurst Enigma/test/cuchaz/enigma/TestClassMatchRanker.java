@@ -0,0 +1,77 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Jeff Martin.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public
+ * License v3.0 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * Contributors:
+ * Jeff Martin - initial API and implementation
+ ******************************************************************************/
+package cuchaz.enigma;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThan;
+
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import cuchaz.enigma.analysis.JarIndex;
+import cuchaz.enigma.benchmark.SyntheticJars;
+import cuchaz.enigma.convert.ClassIdentifier;
+import cuchaz.enigma.convert.ClassIdentity;
+import cuchaz.enigma.convert.ClassMatchRanker;
+import cuchaz.enigma.convert.ClassMatchRanker.Candidate;
+import cuchaz.enigma.mapping.ClassEntry;
+
+public class TestClassMatchRanker
+{
+	
+	private static final int NumClasses = 300;
+	private static final long Seed = 42;
+	
+	@Rule
+	public SyntheticJars m_jars = new SyntheticJars(NumClasses, Seed);
+	
+	@Test
+	public void exactScores() throws Exception
+	{
+		JarIndex sourceIndex = m_jars.getSourceIndex();
+		JarIndex destIndex = m_jars.getDestIndex();
+		ClassIdentifier sourceIdentifier =
+			new ClassIdentifier(m_jars.getSourceJar(), sourceIndex, null, false);
+		ClassIdentifier destIdentifier =
+			new ClassIdentifier(m_jars.getDestJar(), destIndex, null, false);
+		ClassMatchRanker ranker =
+			new ClassMatchRanker(destIdentifier, destIndex.getObfClassEntries());
+		assertThat(ranker.getNumCommonFeatures(), greaterThan(0));
+		
+		// leaving out common features only changes who's a candidate
+		for(ClassEntry sourceClass : sourceIndex.getObfClassEntries())
+		{
+			ClassIdentity sourceIdentity =
+				sourceIdentifier.identify(sourceClass);
+			List<Candidate> candidates =
+				ranker.rank(sourceIdentity, NumClasses);
+			assertThat(candidates.size(), greaterThan(0));
+			assertThat(candidates.size(),
+				lessThan(destIndex.getObfClassEntries().size()));
+			for(Candidate candidate : candidates)
+			{
+				ClassIdentity destIdentity =
+					destIdentifier.identify(candidate.getClassEntry());
+				float score =
+					100.0f
+						* (sourceIdentity.getMatchScore(destIdentity) + destIdentity
+							.getMatchScore(sourceIdentity))
+						/ (sourceIdentity.getMaxMatchScore() + destIdentity
+							.getMaxMatchScore());
+				assertThat((double)candidate.getScore(), closeTo(score, 0.001));
+			}
+		}
+	}
+}
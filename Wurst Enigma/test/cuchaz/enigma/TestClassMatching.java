@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Jeff Martin.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public
+ * License v3.0 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * Contributors:
+ * Jeff Martin - initial API and implementation
+ ******************************************************************************/
+package cuchaz.enigma;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.google.common.collect.BiMap;
+import com.google.common.collect.HashBiMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import cuchaz.enigma.benchmark.SyntheticJars;
+import cuchaz.enigma.convert.ClassIdentifier;
+import cuchaz.enigma.convert.ClassMatching;
+import cuchaz.enigma.mapping.ClassEntry;
+
+public class TestClassMatching
+{
+	
+	@Rule
+	public SyntheticJars m_jars = new SyntheticJars(100, 42);
+	
+	@Test
+	public void updatedSameAsRebuilt() throws Exception
+	{
+		List<ClassEntry> sourceClasses =
+			Lists.newArrayList(m_jars.getSourceIndex().getObfClassEntries());
+		List<ClassEntry> destClasses =
+			Lists.newArrayList(m_jars.getDestIndex().getObfClassEntries());
+		BiMap<ClassEntry, ClassEntry> knownMatches = HashBiMap.create();
+		int i = 0;
+		for(Map.Entry<ClassEntry, ClassEntry> match : m_jars.getGenerator()
+			.getClassMatches().getUniqueMatches().entrySet())
+			if(i++ % 4 == 0)
+				knownMatches.put(match.getKey(), match.getValue());
+		
+		// query after every step, so each new batch updates the partition
+		ClassMatching updatedMatching = newMatching();
+		updatedMatching.addKnownMatches(knownMatches);
+		int numSteps = 4;
+		for(int step = 0; step < numSteps; step++)
+		{
+			updatedMatching.match(getPart(sourceClasses, step, numSteps),
+				getPart(destClasses, step, numSteps));
+			updatedMatching.matches();
+		}
+		
+		// classes can come back, like ambiguous ones do in the next round
+		updatedMatching.match(sourceClasses.subList(0, 10),
+			destClasses.subList(0, 10));
+		
+		// and only ask once at the end, so the partition is built from scratch
+		ClassMatching rebuiltMatching = newMatching();
+		rebuiltMatching.addKnownMatches(knownMatches);
+		rebuiltMatching.match(sourceClasses, destClasses);
+		
+		assertThat(Sets.newHashSet(updatedMatching.matches()),
+			is(Sets.newHashSet(rebuiltMatching.matches())));
+		assertThat(updatedMatching.uniqueMatches(),
+			is(rebuiltMatching.uniqueMatches()));
+		assertThat(Sets.newHashSet(updatedMatching.ambiguousMatches()),
+			is(Sets.newHashSet(rebuiltMatching.ambiguousMatches())));
+		assertThat(Sets.newHashSet(updatedMatching.sourceClasses()),
+			is(Sets.newHashSet(rebuiltMatching.sourceClasses())));
+		assertThat(Sets.newHashSet(updatedMatching.destClasses()),
+			is(Sets.newHashSet(rebuiltMatching.destClasses())));
+		assertThat(Sets.newHashSet(updatedMatching.unmatchedSourceClasses()),
+			is(Sets.newHashSet(rebuiltMatching.unmatchedSourceClasses())));
+		assertThat(Sets.newHashSet(updatedMatching.unmatchedDestClasses()),
+			is(Sets.newHashSet(rebuiltMatching.unmatchedDestClasses())));
+		assertThat(rebuiltMatching.uniqueMatches().size(),
+			greaterThan(knownMatches.size()));
+		assertThat(rebuiltMatching.ambiguousMatches().isEmpty(), is(false));
+	}
+	
+	private ClassMatching newMatching()
+	{
+		return new ClassMatching(new ClassIdentifier(m_jars.getSourceJar(),
+			m_jars.getSourceIndex(), null, false), new ClassIdentifier(
+			m_jars.getDestJar(), m_jars.getDestIndex(), null, false));
+	}
+	
+	private static List<ClassEntry> getPart(List<ClassEntry> classes,
+		int part, int numParts)
+	{
+		return classes.subList(classes.size() * part / numParts,
+			classes.size() * (part + 1) / numParts);
+	}
+}
@@ -0,0 +1,198 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Jeff Martin.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public
+ * License v3.0 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * Contributors:
+ * Jeff Martin - initial API and implementation
+ ******************************************************************************/
+package cuchaz.enigma;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.startsWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.collect.Lists;
+
+import cuchaz.enigma.benchmark.SyntheticJars;
+import cuchaz.enigma.mapping.ClassEntry;
+import cuchaz.enigma.mapping.ClassMapping;
+
+public class TestCommandDaemon
+{
+	
+	@Rule
+	public SyntheticJars m_jars = new SyntheticJars(10, 42);
+	
+	private Deobfuscator m_deobfuscator;
+	private ClassMapping m_classMapping;
+	
+	@Before
+	public void setUp() throws Exception
+	{
+		m_deobfuscator = new Deobfuscator(m_jars.getSourceJar());
+		m_deobfuscator.setMappings(m_jars.getGenerator().getMappings());
+		m_deobfuscator.waitForIndex();
+		
+		// any top-level class will do
+		for(ClassMapping classMapping : m_deobfuscator.getMappings()
+			.classes())
+			if(classMapping.getDeobfName() != null
+				&& m_deobfuscator.getJarIndex().containsObfClass(
+					new ClassEntry(classMapping.getObfFullName())))
+			{
+				m_classMapping = classMapping;
+				break;
+			}
+	}
+	
+	@Test
+	public void entries() throws Exception
+	{
+		List<String> lines =
+			serve("deobfuscate-entry\t" + m_classMapping.getObfFullName(),
+				"obfuscate-entry\t" + m_classMapping.getDeobfName());
+		assertThat(lines, is((List<String>)Lists.newArrayList("ok 1",
+			m_classMapping.getDeobfName(), "ok 1",
+			m_classMapping.getObfFullName())));
+	}
+	
+	@Test
+	public void errors() throws Exception
+	{
+		// a bad command doesn't stop the daemon
+		List<String> lines =
+			serve("foo", "deobfuscate-entry", "decompile-class\tnone/Missing",
+				"deobfuscate-entry\t" + m_classMapping.getObfFullName());
+		assertThat(lines.size(), is(5));
+		assertThat(lines.get(0), is("error Command not recognized: foo"));
+		assertThat(lines.get(1), is("error deobfuscate-entry needs a entry"));
+		assertThat(lines.get(2), startsWith("error "));
+		assertThat(lines.get(3), is("ok 1"));
+		assertThat(lines.get(4), is(m_classMapping.getDeobfName()));
+	}
+	
+	@Test
+	public void decompileClass() throws Exception
+	{
+		List<String> lines =
+			serve("decompile-class\t" + m_classMapping.getDeobfName());
+		assertThat(lines.get(0), is("ok " + (lines.size() - 1)));
+		String source = Joiner.on('\n').join(lines.subList(1, lines.size()));
+		String simpleName =
+			new ClassEntry(m_classMapping.getDeobfName()).getSimpleName();
+		assertThat(source.contains("class " + simpleName), is(true));
+	}
+	
+	@Test
+	public void quit() throws Exception
+	{
+		List<String> lines =
+			serve("quit", "deobfuscate-entry\t" + m_classMapping.getObfFullName());
+		assertThat(lines.size(), is(0));
+	}
+	
+	@Test
+	public void listenNeedsToken() throws Exception
+	{
+		// find a free port for the daemon
+		final int port;
+		try(ServerSocket socket =
+			new ServerSocket(0, 0, InetAddress.getLoopbackAddress()))
+		{
+			port = socket.getLocalPort();
+		}
+		final File fileToken =
+			new File(m_jars.getTempFolder().getRoot(), "daemon.token");
+		final CommandDaemon daemon = new CommandDaemon(m_deobfuscator, null);
+		Thread thread = new Thread("Daemon")
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					daemon.listen(port, fileToken);
+				}catch(IOException ex)
+				{
+					throw new Error(ex);
+				}
+			}
+		};
+		thread.start();
+		long deadline = System.currentTimeMillis() + 5000;
+		while(!fileToken.exists() && System.currentTimeMillis() < deadline)
+			Thread.sleep(10);
+		
+		// only the user who started the daemon can read the token
+		if(FileSystems.getDefault().supportedFileAttributeViews()
+			.contains("posix"))
+			assertThat(Files.getPosixFilePermissions(fileToken.toPath()),
+				is(PosixFilePermissions.fromString("rw-------")));
+		
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		PrintStream out = new PrintStream(buf, true, "UTF-8");
+		assertThat(CommandDaemon.send(port, fileToken, Arrays.asList(
+			"deobfuscate-entry", m_classMapping.getObfFullName()), out),
+			is(true));
+		assertThat(buf.toString("UTF-8").trim(),
+			is(m_classMapping.getDeobfName()));
+		
+		// a client without the token gets nothing
+		File fileWrongToken = m_jars.getTempFolder().newFile("wrong.token");
+		Files.write(fileWrongToken.toPath(), "0".getBytes(Charsets.UTF_8));
+		buf.reset();
+		assertThat(CommandDaemon.send(port, fileWrongToken, Arrays.asList(
+			"deobfuscate-entry", m_classMapping.getObfFullName()), out),
+			is(false));
+		assertThat(buf.size(), is(0));
+		
+		assertThat(CommandDaemon.send(port, fileToken,
+			Arrays.asList("shutdown"), out), is(true));
+		thread.join(5000);
+		assertThat(thread.isAlive(), is(false));
+		assertThat(fileToken.exists(), is(false));
+	}
+	
+	@Test
+	public void takesPath()
+	{
+		assertThat(CommandDaemon.takesPath("decompile"), is(true));
+		assertThat(CommandDaemon.takesPath("reload-mappings"), is(true));
+		assertThat(CommandDaemon.takesPath("decompile-class"), is(false));
+	}
+	
+	private List<String> serve(String... commands) throws Exception
+	{
+		String in = Joiner.on('\n').join(commands) + "\n";
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new CommandDaemon(m_deobfuscator, null).serve(new ByteArrayInputStream(
+			in.getBytes(Charsets.UTF_8)), out);
+		String text = new String(out.toByteArray(), Charsets.UTF_8);
+		List<String> lines = Lists.newArrayList(text.split("\n"));
+		if(text.isEmpty())
+			lines.clear();
+		return lines;
+	}
+}
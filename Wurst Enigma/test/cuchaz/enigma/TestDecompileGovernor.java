@@ -0,0 +1,70 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Jeff Martin.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public
+ * License v3.0 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * Contributors:
+ * Jeff Martin - initial API and implementation
+ ******************************************************************************/
+package cuchaz.enigma;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class TestDecompileGovernor
+{
+	
+	@Test
+	public void abandonedDecompilesKeepTheirSlot() throws Exception
+	{
+		final DecompileGovernor governor = new DecompileGovernor(2);
+		governor.acquire(0);
+		governor.holdAbandoned(0);
+		assertThat(governor.getNumAbandoned(), is(1));
+		
+		final CountDownLatch acquired = new CountDownLatch(1);
+		Thread thread = new Thread()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					governor.acquire(0);
+					acquired.countDown();
+				}catch(InterruptedException ex)
+				{
+					throw new Error(ex);
+				}
+			}
+		};
+		thread.start();
+		
+		// one running and one abandoned fill both slots
+		assertThat(acquired.await(300, TimeUnit.MILLISECONDS), is(false));
+		
+		governor.releaseAbandoned(0);
+		assertThat(acquired.await(5, TimeUnit.SECONDS), is(true));
+		assertThat(governor.getNumAbandoned(), is(0));
+		thread.join();
+	}
+	
+	@Test
+	public void abandonedDecompilesDontBlockForever() throws Exception
+	{
+		DecompileGovernor governor = new DecompileGovernor(1);
+		governor.holdAbandoned(0);
+		governor.holdAbandoned(0);
+		
+		// nothing is actually running, so the export still makes progress
+		governor.acquire(0);
+		governor.release(0);
+	}
+}
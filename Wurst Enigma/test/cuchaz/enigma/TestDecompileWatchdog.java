@@ -0,0 +1,163 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Jeff Martin.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public
+ * License v3.0 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * Contributors:
+ * Jeff Martin - initial API and implementation
+ ******************************************************************************/
+package cuchaz.enigma;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.jar.JarFile;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.strobel.decompiler.languages.java.ast.CompilationUnit;
+
+import cuchaz.enigma.benchmark.SyntheticJars;
+import cuchaz.enigma.mapping.ClassEntry;
+import cuchaz.enigma.mapping.TranslationDirection;
+import cuchaz.enigma.mapping.Translator;
+
+public class TestDecompileWatchdog
+{
+	
+	private static final long TimeoutMillis = 50;
+	
+	@Rule
+	public SyntheticJars m_jars = new SyntheticJars(10, 42);
+	
+	private CountDownLatch m_finish = new CountDownLatch(1);
+	private List<Boolean> m_tries = Lists.newArrayList();
+	
+	@After
+	public void finishAbandoned() throws Exception
+	{
+		// let the abandoned decompiles go, so the next test starts clean
+		m_finish.countDown();
+		long deadline = System.currentTimeMillis() + 5000;
+		while(DecompileWatchdog.getNumAbandoned() > 0
+			&& System.currentTimeMillis() < deadline)
+			Thread.sleep(10);
+		assertThat(DecompileWatchdog.getNumAbandoned(), is(0));
+	}
+	
+	@Test
+	public void timeoutFallsBackToCheapThenStub() throws Exception
+	{
+		Deobfuscator deobfuscator =
+			new StuckDeobfuscator(m_jars.getSourceJar());
+		DecompileWatchdog watchdog =
+			new DecompileWatchdog(deobfuscator, TimeoutMillis);
+		DecompileGovernor governor = new DecompileGovernor(1);
+		watchdog.setGovernor(governor);
+		
+		ClassEntry obfClassEntry = getAnyClass(deobfuscator);
+		Translator deobfuscatingTranslator =
+			deobfuscator.getTranslator(TranslationDirection.Deobfuscating);
+		assertThat(watchdog.decompile(obfClassEntry.getName(), deobfuscator
+			.getTranslator(TranslationDirection.Obfuscating),
+			deobfuscatingTranslator), is(nullValue()));
+		
+		// the full decompile, then the cheap one, both abandoned
+		assertThat(getTries(), is((List<Boolean>)Lists.newArrayList(false,
+			true)));
+		assertThat(DecompileWatchdog.getNumAbandoned(), is(2));
+		assertThat(governor.getNumAbandoned(), is(2));
+		assertThat(watchdog.getStubSource(obfClassEntry,
+			deobfuscatingTranslator), containsString(
+			DecompileWatchdog.StubMarker));
+		
+		// they give their reservations back once they finish after all
+		finishAbandoned();
+		assertThat(governor.getNumAbandoned(), is(0));
+	}
+	
+	@Test
+	public void abandonedDecompilesAreCapped() throws Exception
+	{
+		Deobfuscator deobfuscator =
+			new StuckDeobfuscator(m_jars.getSourceJar());
+		DecompileWatchdog watchdog =
+			new DecompileWatchdog(deobfuscator, TimeoutMillis);
+		String className = getAnyClass(deobfuscator).getName();
+		Translator obfuscatingTranslator =
+			deobfuscator.getTranslator(TranslationDirection.Obfuscating);
+		Translator deobfuscatingTranslator =
+			deobfuscator.getTranslator(TranslationDirection.Deobfuscating);
+		
+		// each stuck class abandons two decompiles until the cap is reached
+		while(DecompileWatchdog.getNumAbandoned() < DecompileWatchdog
+			.getMaxAbandoned())
+			assertThat(watchdog.decompile(className, obfuscatingTranslator,
+				deobfuscatingTranslator), is(nullValue()));
+		assertThat(DecompileWatchdog.getNumAbandoned(),
+			is(DecompileWatchdog.getMaxAbandoned()));
+		
+		// after that, classes go straight to the stub without a new thread
+		int numTries = getTries().size();
+		assertThat(watchdog.decompile(className, obfuscatingTranslator,
+			deobfuscatingTranslator), is(nullValue()));
+		assertThat(getTries().size(), is(numTries));
+		assertThat(DecompileWatchdog.getNumAbandoned(),
+			is(DecompileWatchdog.getMaxAbandoned()));
+	}
+	
+	private List<Boolean> getTries() throws InterruptedException
+	{
+		// the decompile threads record their tries on their own time
+		Thread.sleep(TimeoutMillis);
+		synchronized(m_tries)
+		{
+			return Lists.newArrayList(m_tries);
+		}
+	}
+	
+	private ClassEntry getAnyClass(Deobfuscator deobfuscator)
+	{
+		return deobfuscator.getJarIndex().getObfClassEntries().iterator()
+			.next();
+	}
+	
+	private class StuckDeobfuscator extends Deobfuscator
+	{
+		
+		public StuckDeobfuscator(JarFile jar) throws IOException
+		{
+			super(jar);
+		}
+		
+		@Override
+		public CompilationUnit getSourceTree(String className,
+			Translator deobfuscatingTranslator, TranslatingTypeLoader loader,
+			boolean isCheap)
+		{
+			// never finishes on its own, like Procyon on a pathological class
+			synchronized(m_tries)
+			{
+				m_tries.add(isCheap);
+			}
+			try
+			{
+				m_finish.await();
+			}catch(InterruptedException ex)
+			{
+				throw new Error(ex);
+			}
+			throw new IllegalStateException("Gave up on " + className);
+		}
+	}
+}
@@ -11,20 +11,31 @@
 package cuchaz.enigma;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.List;
 import java.util.jar.JarFile;
 
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import com.google.common.collect.Lists;
 
+import cuchaz.enigma.benchmark.SyntheticJarGenerator;
 import cuchaz.enigma.mapping.ClassEntry;
+import cuchaz.enigma.mapping.MappingsSnapshot;
 
 public class TestDeobfuscator
 {
 	
+	@Rule
+	public TemporaryFolder m_tempFolder = new TemporaryFolder();
+	
 	private Deobfuscator getDeobfuscator() throws IOException
 	{
 		return new Deobfuscator(new JarFile("build/testLoneClass.obf.jar"));
@@ -49,6 +60,71 @@ public class TestDeobfuscator
 		assertEquals("cuchaz/enigma/inputs/Keep", deobfClasses.get(0).getName());
 	}
 	
+	@Test
+	public void getClassesBeforeIndex() throws Exception
+	{
+		Deobfuscator deobfuscator =
+			new Deobfuscator(new JarFile("build/testLoneClass.obf.jar"), false);
+		assertFalse(deobfuscator.isIndexed());
+		List<ClassEntry> obfClasses = Lists.newArrayList();
+		List<ClassEntry> deobfClasses = Lists.newArrayList();
+		deobfuscator.getSeparatedClasses(obfClasses, deobfClasses);
+		assertEquals(1, obfClasses.size());
+		assertEquals("none/a", obfClasses.get(0).getName());
+		assertEquals(1, deobfClasses.size());
+		
+		deobfuscator.buildIndex(null);
+		assertTrue(deobfuscator.isIndexed());
+		deobfuscator.getSource(deobfuscator.getSourceTree("none/a"));
+	}
+	
+	@Test
+	public void snapshotIgnoresLaterRenames() throws Exception
+	{
+		Deobfuscator deobfuscator = getDeobfuscator();
+		MappingsSnapshot snapshot = deobfuscator.getSnapshot();
+		deobfuscator.rename(new ClassEntry("none/a"), "none/Renamed");
+		assertEquals("none/a",
+			snapshot.deobfuscateEntry(new ClassEntry("none/a")).getName());
+		assertEquals("none/Renamed",
+			deobfuscator.deobfuscateEntry(new ClassEntry("none/a")).getName());
+		assertTrue(deobfuscator.getSnapshot().getVersion() > snapshot
+			.getVersion());
+	}
+	
+	@Test
+	public void snapshotsShareUnchangedClasses() throws Exception
+	{
+		File file = m_tempFolder.newFile("synthetic.jar");
+		new SyntheticJarGenerator(20, 42).writeJar(file);
+		Deobfuscator deobfuscator = new Deobfuscator(new JarFile(file));
+		List<ClassEntry> obfClasses = Lists.newArrayList();
+		deobfuscator.getSeparatedClasses(obfClasses,
+			Lists.<ClassEntry> newArrayList());
+		ClassEntry first = obfClasses.get(0);
+		ClassEntry second = obfClasses.get(1);
+		
+		deobfuscator.rename(first, "none/First");
+		MappingsSnapshot snapshot = deobfuscator.getSnapshot();
+		deobfuscator.rename(second, "none/Second");
+		assertEquals(second,
+			snapshot.deobfuscateEntry(new ClassEntry(second)));
+		assertEquals("none/First",
+			deobfuscator.deobfuscateEntry(first).getName());
+		assertEquals("none/Second",
+			deobfuscator.deobfuscateEntry(second).getName());
+		
+		// the second rename didn't copy the first class again
+		assertSame(snapshot.getMappings().getClassByObf(first),
+			deobfuscator.getSnapshot().getMappings().getClassByObf(first));
+		
+		// but it's still a copy of the working mappings
+		deobfuscator.rename(first, "none/Third");
+		assertEquals("none/First",
+			snapshot.deobfuscateEntry(new ClassEntry(first)).getName());
+		deobfuscator.getJar().close();
+	}
+	
 	@Test
 	public void decompileClass() throws Exception
 	{
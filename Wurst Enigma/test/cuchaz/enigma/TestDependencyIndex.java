@@ -0,0 +1,110 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Jeff Martin.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public
+ * License v3.0 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * Contributors:
+ * Jeff Martin - initial API and implementation
+ ******************************************************************************/
+package cuchaz.enigma;
+
+import static cuchaz.enigma.TestEntryFactory.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+
+import java.util.Arrays;
+import java.util.jar.JarFile;
+
+import org.junit.Test;
+
+import cuchaz.enigma.analysis.DependencyIndex;
+import cuchaz.enigma.analysis.JarIndex;
+import cuchaz.enigma.mapping.ArgumentEntry;
+import cuchaz.enigma.mapping.ClassEntry;
+import cuchaz.enigma.mapping.FieldEntry;
+import cuchaz.enigma.mapping.MethodEntry;
+
+public class TestDependencyIndex
+{
+	
+	private DependencyIndex m_index;
+	
+	private ClassEntry m_baseClass = newClass("none/a");
+	private ClassEntry m_subClassA = newClass("none/b");
+	private ClassEntry m_subClassAA = newClass("none/d");
+	private ClassEntry m_subClassB = newClass("none/c");
+	
+	public TestDependencyIndex() throws Exception
+	{
+		JarFile jar = new JarFile("build/testInheritanceTree.obf.jar");
+		JarIndex jarIndex = new JarIndex();
+		jarIndex.indexJar(jar, true);
+		m_index = new DependencyIndex(jarIndex);
+		m_index.indexJar(jar);
+	}
+	
+	@Test
+	public void classes()
+	{
+		assertThat(m_index.getDependentClasses(m_baseClass),
+			containsInAnyOrder(m_baseClass, m_subClassA, m_subClassB));
+		assertThat(m_index.getDependentClasses(m_subClassA),
+			containsInAnyOrder(m_subClassA, m_subClassAA));
+		assertThat(m_index.getDependentClasses(m_subClassB),
+			containsInAnyOrder(m_subClassB));
+	}
+	
+	@Test
+	public void fields()
+	{
+		FieldEntry nameField =
+			newField(m_baseClass, "a", "Ljava/lang/String;");
+		assertThat(m_index.getDependentClasses(nameField),
+			containsInAnyOrder(m_baseClass));
+		FieldEntry numThingsField = newField(m_subClassB, "a", "I");
+		assertThat(m_index.getDependentClasses(numThingsField),
+			containsInAnyOrder(m_subClassB));
+	}
+	
+	@Test
+	public void methods()
+	{
+		// calls through subclasses count for the declaring class too
+		MethodEntry getName =
+			newMethod(m_baseClass, "a", "()Ljava/lang/String;");
+		assertThat(m_index.getDependentClasses(getName),
+			containsInAnyOrder(m_baseClass, m_subClassB, m_subClassAA));
+		MethodEntry doBThings = newMethod(m_subClassB, "b", "()V");
+		assertThat(m_index.getDependentClasses(doBThings),
+			containsInAnyOrder(m_subClassB));
+	}
+	
+	@Test
+	public void arguments()
+	{
+		ArgumentEntry nameArg =
+			new ArgumentEntry(newConstructor(m_subClassA,
+				"(Ljava/lang/String;)V"), 0, "");
+		assertThat(m_index.getDependentClasses(nameArg),
+			containsInAnyOrder(m_subClassA));
+	}
+	
+	@Test
+	public void dependencies()
+	{
+		assertThat(m_index.getDependencies(m_subClassA), containsInAnyOrder(
+			m_baseClass, m_subClassA,
+			newConstructor(m_baseClass, "(Ljava/lang/String;)V"),
+			newConstructor(m_subClassA, "(Ljava/lang/String;)V")));
+	}
+	
+	@Test
+	public void affectedClasses()
+	{
+		assertThat(m_index.getAffectedClasses(Arrays.asList(
+			newField(m_subClassB, "a", "I"), m_subClassA)),
+			containsInAnyOrder(m_subClassA, m_subClassAA, m_subClassB));
+	}
+}
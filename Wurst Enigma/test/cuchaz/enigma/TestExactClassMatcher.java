@@ -0,0 +1,87 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Jeff Martin.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public
+ * License v3.0 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * Contributors:
+ * Jeff Martin - initial API and implementation
+ ******************************************************************************/
+package cuchaz.enigma;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.google.common.collect.BiMap;
+
+import cuchaz.enigma.analysis.JarIndex;
+import cuchaz.enigma.benchmark.SyntheticJars;
+import cuchaz.enigma.convert.ClassIdentifier;
+import cuchaz.enigma.convert.ExactClassMatcher;
+import cuchaz.enigma.mapping.ClassEntry;
+
+public class TestExactClassMatcher
+{
+	
+	private static final int NumClasses = 100;
+	private static final long Seed = 42;
+	
+	@Rule
+	public SyntheticJars m_jars = new SyntheticJars(NumClasses, Seed);
+	
+	@Test
+	public void sameJar()
+	{
+		// only classes that look exactly like another one stay unmatched
+		JarIndex index = m_jars.getSourceIndex();
+		BiMap<ClassEntry, ClassEntry> matches =
+			ExactClassMatcher.match(newSourceIdentifier(),
+				index.getObfClassEntries(), newSourceIdentifier(),
+				index.getObfClassEntries());
+		assertThat(matches.size(), greaterThan(NumClasses / 2));
+		for(Map.Entry<ClassEntry, ClassEntry> match : matches.entrySet())
+			assertThat(match.getValue(), is(match.getKey()));
+	}
+	
+	@Test
+	public void nextVersion()
+	{
+		BiMap<ClassEntry, ClassEntry> matches =
+			ExactClassMatcher.match(newSourceIdentifier(), m_jars
+				.getSourceIndex().getObfClassEntries(), new ClassIdentifier(
+				m_jars.getDestJar(), m_jars.getDestIndex(), null, false),
+				m_jars.getDestIndex().getObfClassEntries());
+		
+		// renamed classes match, changed ones don't, and none match wrong
+		BiMap<ClassEntry, ClassEntry> expectedMatches =
+			m_jars.getGenerator().getClassMatches().getUniqueMatches();
+		assertThat(matches.size(), greaterThan(0));
+		assertThat(matches.size(), lessThan(expectedMatches.size()));
+		for(Map.Entry<ClassEntry, ClassEntry> match : matches.entrySet())
+			assertThat(getFlatEntry(match.getValue()),
+				is(expectedMatches.get(getFlatEntry(match.getKey()))));
+	}
+	
+	private ClassEntry getFlatEntry(ClassEntry classEntry)
+	{
+		// the generator names inner classes by their own name only
+		if(!classEntry.isInnerClass())
+			return classEntry;
+		return new ClassEntry(classEntry.getPackageName() + "/"
+			+ classEntry.getInnermostClassName());
+	}
+	
+	private ClassIdentifier newSourceIdentifier()
+	{
+		return new ClassIdentifier(m_jars.getSourceJar(),
+			m_jars.getSourceIndex(), null, false);
+	}
+}
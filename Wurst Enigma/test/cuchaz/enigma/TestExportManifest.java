@@ -0,0 +1,69 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Jeff Martin.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public
+ * License v3.0 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * Contributors:
+ * Jeff Martin - initial API and implementation
+ ******************************************************************************/
+package cuchaz.enigma;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.io.File;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+import cuchaz.enigma.ExportManifest.ClassRecord;
+
+public class TestExportManifest
+{
+	
+	@Rule
+	public TemporaryFolder m_tempFolder = new TemporaryFolder();
+	
+	@Test
+	public void writeAndRead() throws Exception
+	{
+		File file = ExportManifest.getFile(m_tempFolder.getRoot());
+		assertThat(ExportManifest.read(file), is(nullValue()));
+		
+		ExportManifest manifest = new ExportManifest("key");
+		manifest.put(new ClassRecord("none/a", "in", "map", "none/A.java",
+			"out"));
+		manifest.put(new ClassRecord("none/b", "in2", "map2", "none/B.java",
+			null));
+		manifest.write(file);
+		
+		ExportManifest otherManifest = ExportManifest.read(file);
+		assertThat(otherManifest.getKey(), is("key"));
+		assertThat(otherManifest.getRecords().size(), is(2));
+		ClassRecord record = otherManifest.get("none/a");
+		assertThat(record.getPath(), is("none/A.java"));
+		assertThat(record.getOutputHash(), is("out"));
+		assertThat(record.hasSameInputs(manifest.get("none/a")), is(true));
+		assertThat(record.hasSameInputs(manifest.get("none/b")), is(false));
+		assertThat(otherManifest.get("none/c"), is(nullValue()));
+	}
+	
+	@Test
+	public void otherFormat() throws Exception
+	{
+		File file = m_tempFolder.newFile();
+		Files.write("enigma-export-manifest 0\nkey\n", file, Charsets.UTF_8);
+		assertThat(ExportManifest.read(file), is(nullValue()));
+		
+		Files.write("enigma-export-manifest 1\nkey\nnone/a\tin\n", file,
+			Charsets.UTF_8);
+		assertThat(ExportManifest.read(file), is(nullValue()));
+	}
+}
@@ -0,0 +1,223 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Jeff Martin.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public
+ * License v3.0 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * Contributors:
+ * Jeff Martin - initial API and implementation
+ ******************************************************************************/
+package cuchaz.enigma;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import cuchaz.enigma.ExportProfile.ClassProfile;
+import cuchaz.enigma.ExportWorker.Result;
+import cuchaz.enigma.benchmark.SyntheticJars;
+import cuchaz.enigma.mapping.ClassEntry;
+
+public class TestExportWorkerPool
+{
+	
+	@Rule
+	public SyntheticJars m_jars = new SyntheticJars(10, 42);
+	
+	@Test
+	public void resultRoundTrip() throws Exception
+	{
+		ClassProfile classProfile = new ClassProfile("a/b/C", "none/a");
+		classProfile.setDecompileNanos(123);
+		classProfile.setRenderNanos(456);
+		classProfile.setTransformedBytes(789);
+		classProfile.setCached(true);
+		classProfile.setFallback("cheap");
+		
+		// sources can be longer than writeUTF() allows
+		String source = Strings.repeat("class C { String s = \"\u00e4\"; }\n",
+			5000);
+		Result result = roundTrip(new Result(classProfile, source));
+		assertThat(result.getSource(), is(source));
+		assertThat(result.getProfile().getClassName(), is("a/b/C"));
+		assertThat(result.getProfile().getObfClassName(), is("none/a"));
+		assertThat(result.getProfile().getDecompileNanos(), is(123L));
+		assertThat(result.getProfile().getRenderNanos(), is(456L));
+		assertThat(result.getProfile().getTransformedBytes(), is(789));
+		assertThat(result.getProfile().isCached(), is(true));
+		assertThat(result.getProfile().getFallback(), is("cheap"));
+		assertThat(result.getProfile().getFailure(), is(nullValue()));
+		
+		// failures don't have a source
+		classProfile = new ClassProfile("a/b/C", "none/a");
+		classProfile.setFailure("broken");
+		result = roundTrip(new Result(classProfile, null));
+		assertThat(result.getSource(), is(nullValue()));
+		assertThat(result.getProfile().getFallback(), is(nullValue()));
+		assertThat(result.getProfile().getFailure(), is("broken"));
+	}
+	
+	@Test
+	public void deadWorkersAreReplaced() throws Exception
+	{
+		// the first worker dies on b, its replacement gets b again
+		Map<ClassEntry, String> sources =
+			export(0, "none/a", "none/b", "none/c");
+		assertThat(sources.get(new ClassEntry("none/a")), is("none/a"));
+		assertThat(sources.get(new ClassEntry("none/b")), is("none/b"));
+		assertThat(sources.get(new ClassEntry("none/c")), is("none/c"));
+		assertThat(sources.size(), is(3));
+	}
+	
+	@Test
+	public void classesThatKeepKillingWorkersFail() throws Exception
+	{
+		Map<ClassEntry, String> sources =
+			export(0, "none/a", FakeWorker.Crash, "none/c");
+		assertThat(sources.get(new ClassEntry("none/a")), is("none/a"));
+		assertThat(sources.get(new ClassEntry(FakeWorker.Crash)),
+			containsString("Export worker died"));
+		assertThat(sources.get(new ClassEntry("none/c")), is("none/c"));
+	}
+	
+	@Test
+	public void stuckWorkersAreKilled() throws Exception
+	{
+		// a worker that doesn't answer in time counts as dead
+		Map<ClassEntry, String> sources =
+			export(500, "none/a", FakeWorker.Hang, "none/c");
+		assertThat(sources.get(new ClassEntry(FakeWorker.Hang)),
+			containsString("No answer after 500 ms"));
+		assertThat(sources.get(new ClassEntry("none/c")), is("none/c"));
+	}
+	
+	@Test
+	public void noTimeoutStillHasADeadline() throws Exception
+	{
+		Deobfuscator deobfuscator = newDeobfuscator();
+		ExportWorkerPool pool =
+			new ExportWorkerPool(deobfuscator, deobfuscator.getSnapshot(), 1,
+				0);
+		assertThat(pool.getReadTimeoutMillis() > 0, is(true));
+	}
+	
+	private Result roundTrip(Result result) throws IOException
+	{
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(buf);
+		ExportWorker.writeResult(out, result);
+		out.flush();
+		return ExportWorker.readResult(new DataInputStream(
+			new ByteArrayInputStream(buf.toByteArray())));
+	}
+	
+	/**
+	 * Returns the sources of the exported classes, or their failures. A read
+	 * timeout of 0 keeps the pool's own.
+	 */
+	private Map<ClassEntry, String> export(final long readTimeoutMillis,
+		String... obfClassNames) throws Exception
+	{
+		Deobfuscator deobfuscator = newDeobfuscator();
+		final File dirMarkers = m_jars.getTempFolder().newFolder("markers");
+		ExportWorkerPool pool =
+			new ExportWorkerPool(deobfuscator, deobfuscator.getSnapshot(), 1,
+				0)
+			{
+				@Override
+				long getReadTimeoutMillis()
+				{
+					if(readTimeoutMillis > 0)
+						return readTimeoutMillis;
+					return super.getReadTimeoutMillis();
+				}
+				
+				@Override
+				List<String> getWorkerCommand()
+				{
+					return Arrays.asList(new File(new File(System
+						.getProperty("java.home"), "bin"), "java").getPath(),
+						"-cp", System.getProperty("java.class.path"),
+						FakeWorker.class.getName(), dirMarkers.getPath());
+				}
+			};
+		
+		final Map<ClassEntry, String> sources = Maps.newHashMap();
+		List<ClassEntry> obfClassEntries = Lists.newArrayList();
+		for(String obfClassName : obfClassNames)
+			obfClassEntries.add(new ClassEntry(obfClassName));
+		pool.run(obfClassEntries, new ExportWorkerPool.ResultListener()
+		{
+			@Override
+			public void onResult(ClassEntry obfClassEntry,
+				ClassProfile classProfile, String source)
+			{
+				sources.put(obfClassEntry, source != null ? source
+					: classProfile.getFailure());
+			}
+		});
+		return sources;
+	}
+	
+	private Deobfuscator newDeobfuscator() throws IOException
+	{
+		Deobfuscator deobfuscator = new Deobfuscator(m_jars.getSourceJar());
+		deobfuscator.waitForIndex();
+		return deobfuscator;
+	}
+	
+	/**
+	 * Answers with the class name as its source, dies the first time it sees
+	 * none/b, and always dies or hangs on the classes named that way.
+	 */
+	public static class FakeWorker
+	{
+		
+		public static final String Crash = "none/crash";
+		public static final String Hang = "none/hang";
+		
+		public static void main(String[] args) throws Exception
+		{
+			DataInputStream in =
+				new DataInputStream(new BufferedInputStream(System.in));
+			DataOutputStream out =
+				new DataOutputStream(new BufferedOutputStream(System.out));
+			while(true)
+			{
+				String obfClassName = in.readUTF();
+				if(obfClassName.isEmpty())
+					break;
+				if(obfClassName.equals(Crash)
+					|| obfClassName.equals("none/b")
+					&& new File(args[0], "died").createNewFile())
+					System.exit(1);
+				if(obfClassName.equals(Hang))
+					Thread.sleep(Long.MAX_VALUE);
+				ExportWorker.writeResult(out, new Result(new ClassProfile(
+					obfClassName, obfClassName), obfClassName));
+				out.flush();
+			}
+		}
+	}
+}
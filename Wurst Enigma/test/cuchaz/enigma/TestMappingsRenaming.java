@@ -0,0 +1,87 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Jeff Martin.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public
+ * License v3.0 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * Contributors:
+ * Jeff Martin - initial API and implementation
+ ******************************************************************************/
+package cuchaz.enigma;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.io.StringReader;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.google.common.collect.Maps;
+
+import cuchaz.enigma.mapping.ClassMapping;
+import cuchaz.enigma.mapping.Mappings;
+import cuchaz.enigma.mapping.MappingsReader;
+import cuchaz.enigma.mapping.Signature;
+import cuchaz.enigma.mapping.Type;
+
+public class TestMappingsRenaming
+{
+	
+	private static final String MAPPINGS = "CLASS none/a deobf/A\n"
+		+ "\tFIELD a f1 Lnone/b;\n"
+		+ "\tMETHOD a m1 (Lnone/a;)Lnone/b;\n"
+		+ "\tCLASS none/a$a Inner\n"
+		+ "CLASS none/b deobf/B\n"
+		+ "\tFIELD a f1 Lnone/a;\n";
+	
+	@Test
+	public void swapClasses() throws Exception
+	{
+		Mappings mappings = read();
+		Map<String, String> renames = Maps.newHashMap();
+		renames.put("none/a", "none/b");
+		renames.put("none/a$a", "none/b$c");
+		renames.put("none/b", "none/a");
+		mappings.renameObfClasses(renames);
+		
+		ClassMapping a = mappings.getClassByObf("none/b");
+		assertThat(a.getDeobfName(), is("deobf/A"));
+		assertThat(a.getFieldByObf("a", new Type("Lnone/a;")),
+			is(notNullValue()));
+		assertThat(a.getMethodByObf("a", new Signature("(Lnone/b;)Lnone/a;")),
+			is(notNullValue()));
+		assertThat(a.getObfFieldName("f1", new Type("Lnone/a;")), is("a"));
+		assertThat(a.getInnerClassByObfSimple("c").getObfFullName(),
+			is("none/b$c"));
+		assertThat(a.getInnerClassByObfSimple("a"), is(nullValue()));
+		
+		ClassMapping b = mappings.getClassByObf("none/a");
+		assertThat(b.getDeobfName(), is("deobf/B"));
+		assertThat(b.getFieldByObf("a", new Type("Lnone/b;")),
+			is(notNullValue()));
+		
+		assertThat(mappings.getClassByDeobf("deobf/A"), is(a));
+	}
+	
+	@Test
+	public void renameOneClass() throws Exception
+	{
+		Mappings mappings = read();
+		mappings.renameObfClass("none/b", "none/c");
+		
+		assertThat(mappings.getClassByObf("none/b"), is(nullValue()));
+		assertThat(mappings.getClassByObf("none/c").getDeobfName(),
+			is("deobf/B"));
+		assertThat(mappings.getClassByObf("none/a").getFieldByObf("a",
+			new Type("Lnone/c;")), is(notNullValue()));
+	}
+	
+	private Mappings read() throws Exception
+	{
+		return new MappingsReader().read(new StringReader(MAPPINGS));
+	}
+}
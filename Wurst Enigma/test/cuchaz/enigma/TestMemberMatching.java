@@ -0,0 +1,220 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Jeff Martin.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public
+ * License v3.0 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * Contributors:
+ * Jeff Martin - initial API and implementation
+ ******************************************************************************/
+package cuchaz.enigma;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtNewMethod;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import cuchaz.enigma.benchmark.SyntheticJarGenerator;
+import cuchaz.enigma.benchmark.SyntheticJars;
+import cuchaz.enigma.convert.ClassMatch;
+import cuchaz.enigma.convert.ClassMatches;
+import cuchaz.enigma.convert.MappingsConverter;
+import cuchaz.enigma.convert.MemberMatches;
+import cuchaz.enigma.mapping.BehaviorEntry;
+import cuchaz.enigma.mapping.ClassEntry;
+import cuchaz.enigma.mapping.ClassMapping;
+import cuchaz.enigma.mapping.Entry;
+import cuchaz.enigma.mapping.Mappings;
+import cuchaz.enigma.mapping.MethodMapping;
+import cuchaz.enigma.mapping.Signature;
+
+public class TestMemberMatching
+{
+	
+	@Rule
+	public SyntheticJars m_jars = new SyntheticJars(newGenerator());
+	
+	@Rule
+	public TemporaryFolder m_tempFolder = new TemporaryFolder();
+	
+	@Test
+	public void sameAsFilteredFields() throws Exception
+	{
+		checkSameAsFiltered(MappingsConverter.getFieldDoer(), false);
+	}
+	
+	@Test
+	public void sameAsFilteredMethods() throws Exception
+	{
+		checkSameAsFiltered(MappingsConverter.getMethodDoer(), true);
+	}
+	
+	@Test
+	public void sameSignatureDifferentCode() throws Exception
+	{
+		File sourceFile = m_tempFolder.newFile("source.jar");
+		File destFile = m_tempFolder.newFile("dest.jar");
+		writeGetters(sourceFile, "b", "c");
+		writeGetters(destFile, "B", "C");
+		
+		Mappings mappings = new Mappings();
+		ClassMapping classMapping = new ClassMapping("none/a", "Getters");
+		classMapping.addMethodMapping(new MethodMapping("b", new Signature(
+			"()I"), "getOne"));
+		classMapping.addMethodMapping(new MethodMapping("c", new Signature(
+			"()I"), "getTwo"));
+		mappings.addClassMapping(classMapping);
+		ClassMatches classMatches = new ClassMatches();
+		classMatches.add(new ClassMatch(new ClassEntry("none/a"),
+			new ClassEntry("none/a")));
+		
+		try(JarFile sourceJar = new JarFile(sourceFile);
+			JarFile destJar = new JarFile(destFile))
+		{
+			Deobfuscator sourceDeobfuscator = new Deobfuscator(sourceJar);
+			sourceDeobfuscator.setMappings(mappings);
+			Deobfuscator destDeobfuscator = new Deobfuscator(destJar);
+			MappingsConverter.Doer<BehaviorEntry> doer =
+				MappingsConverter.getMethodDoer();
+			
+			// the signatures alone can't tell the getters apart
+			MemberMatches<BehaviorEntry> signatureMatches =
+				MappingsConverter.computeMemberMatches(destDeobfuscator,
+					MappingsConverter.newMappings(classMatches, mappings,
+						sourceDeobfuscator, destDeobfuscator), classMatches,
+					doer);
+			assertThat(signatureMatches.matches().isEmpty(), is(true));
+			assertThat(signatureMatches.getUnmatchedSourceEntries().size(),
+				is(2));
+			
+			// but the code can
+			MemberMatches<BehaviorEntry> codeMatches =
+				MappingsConverter.computeMemberMatches(sourceDeobfuscator,
+					destDeobfuscator, MappingsConverter.newMappings(
+						classMatches, mappings, sourceDeobfuscator,
+						destDeobfuscator), classMatches, doer);
+			assertThat(codeMatches.getUnmatchedSourceEntries(), is(empty()));
+			assertThat(codeMatches.matches().size(), is(2));
+			for(Map.Entry<BehaviorEntry, BehaviorEntry> match : codeMatches
+				.matches().entrySet())
+				assertThat(match.getValue().getName(), is(getDestName(match
+					.getKey())));
+		}
+	}
+	
+	private <T extends Entry> void checkSameAsFiltered(
+		MappingsConverter.Doer<T> doer, boolean hasCode) throws Exception
+	{
+		Mappings mappings = m_jars.getGenerator().getMappings();
+		ClassMatches classMatches = m_jars.getGenerator().getClassMatches();
+		Deobfuscator sourceDeobfuscator =
+			new Deobfuscator(m_jars.getSourceJar());
+		sourceDeobfuscator.setMappings(mappings);
+		Deobfuscator destDeobfuscator = new Deobfuscator(m_jars.getDestJar());
+		
+		// match the members one at a time by their type/signature, the way
+		// the converter used to
+		MemberMatches<T> filteredMatches =
+			MappingsConverter.collectMemberMatches(destDeobfuscator,
+				MappingsConverter.newMappings(classMatches, mappings,
+					sourceDeobfuscator, destDeobfuscator), classMatches, doer);
+		assertThat(filteredMatches.getUnmatchedSourceEntries().size(),
+			greaterThan(0));
+		for(ClassEntry obfSourceClass : Lists.newArrayList(filteredMatches
+			.getSourceClassesWithUnmatchedEntries()))
+			for(T obfSourceEntry : Lists.newArrayList(filteredMatches
+				.getUnmatchedSourceEntries(obfSourceClass)))
+			{
+				ClassEntry obfDestClass =
+					classMatches.getUniqueMatches().get(obfSourceClass);
+				Set<T> obfDestEntries =
+					doer.filterEntries(
+						filteredMatches.getUnmatchedDestEntries(obfDestClass),
+						obfSourceEntry, classMatches);
+				if(obfDestEntries.size() == 1)
+					filteredMatches.makeMatch(obfSourceEntry, obfDestEntries
+						.iterator().next());
+				else if(obfDestEntries.isEmpty())
+					filteredMatches.makeSourceUnmatchable(obfSourceEntry);
+			}
+		
+		// without the code, the shapes find exactly the same matches
+		MemberMatches<T> shapeMatches =
+			MappingsConverter.computeMemberMatches(destDeobfuscator,
+				MappingsConverter.newMappings(classMatches, mappings,
+					sourceDeobfuscator, destDeobfuscator), classMatches, doer);
+		assertThat(shapeMatches.matches(), is(filteredMatches.matches()));
+		assertThat(Sets.newHashSet(shapeMatches.getUnmatchedSourceEntries()),
+			is(Sets.newHashSet(filteredMatches.getUnmatchedSourceEntries())));
+		assertThat(
+			Sets.newHashSet(shapeMatches.getUnmatchableSourceEntries()),
+			is(Sets.newHashSet(filteredMatches.getUnmatchableSourceEntries())));
+		
+		// the code only adds matches, and only right ones
+		MemberMatches<T> codeMatches =
+			MappingsConverter.computeMemberMatches(sourceDeobfuscator,
+				destDeobfuscator, MappingsConverter.newMappings(classMatches,
+					mappings, sourceDeobfuscator, destDeobfuscator),
+				classMatches, doer);
+		for(Map.Entry<T, T> match : filteredMatches.matches().entrySet())
+			assertThat(codeMatches.matches().get(match.getKey()), is(match
+				.getValue()));
+		for(Map.Entry<T, T> match : codeMatches.matches().entrySet())
+			assertThat(match.getValue().getName(), is(getDestName(match
+				.getKey())));
+		if(hasCode)
+			assertThat(codeMatches.matches().size(),
+				greaterThan(filteredMatches.matches().size()));
+	}
+	
+	private static String getDestName(Entry obfSourceEntry)
+	{
+		return obfSourceEntry.getName().toUpperCase(Locale.ROOT);
+	}
+	
+	private static SyntheticJarGenerator newGenerator()
+	{
+		SyntheticJarGenerator generator = new SyntheticJarGenerator(100, 42);
+		generator.setRenamesMembers(true);
+		return generator;
+	}
+	
+	private static void writeGetters(File file, String oneName,
+		String twoName) throws Exception
+	{
+		ClassPool pool = new ClassPool(true);
+		CtClass c = pool.makeClass("a");
+		c.addMethod(CtNewMethod.make("public int " + oneName
+			+ "() { return 1; }", c));
+		c.addMethod(CtNewMethod.make("public int " + twoName
+			+ "() { return 2; }", c));
+		try(JarOutputStream out =
+			new JarOutputStream(new FileOutputStream(file)))
+		{
+			out.putNextEntry(new JarEntry("a.class"));
+			out.write(c.toBytecode());
+			out.closeEntry();
+		}
+	}
+}
@@ -0,0 +1,95 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Jeff Martin.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public
+ * License v3.0 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * Contributors:
+ * Jeff Martin - initial API and implementation
+ ******************************************************************************/
+package cuchaz.enigma;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class TestMetrics
+{
+	
+	@After
+	public void tearDown()
+	{
+		Metrics.setEnabled(false);
+		Metrics.reset();
+	}
+	
+	@Test
+	public void enabled() throws Exception
+	{
+		Metrics.setEnabled(true);
+		Metrics.Counter counter = Metrics.getCounter("TestMetrics.enabled");
+		counter.increment();
+		counter.add(4);
+		assertThat(counter.getCount(), is(5L));
+		
+		Metrics.Timer timer = Metrics.getTimer("TestMetrics.enabled");
+		timer.stop(timer.start(), "fast");
+		long startNanos = timer.start();
+		Thread.sleep(5);
+		timer.stop(startNanos, "slow");
+		assertThat(timer.getCount(), is(2L));
+		assertThat(timer.getMaxNanos(), greaterThan(0L));
+		assertThat(timer.getTotalNanos() >= timer.getMaxNanos(), is(true));
+		assertThat(timer.getMaxLabel(), is("slow"));
+		
+		// the same name gets the same metric
+		assertThat(Metrics.getCounter("TestMetrics.enabled") == counter,
+			is(true));
+		assertThat(Metrics.getTimer("TestMetrics.enabled") == timer, is(true));
+		assertThat(getSummary(), containsString("TestMetrics.enabled"));
+		
+		Metrics.reset();
+		assertThat(counter.getCount(), is(0L));
+		assertThat(timer.getCount(), is(0L));
+		assertThat(timer.getMaxLabel(), is(nullValue()));
+	}
+	
+	@Test
+	public void disabled() throws Exception
+	{
+		Metrics.setEnabled(false);
+		Metrics.Counter counter = Metrics.getCounter("TestMetrics.disabled");
+		counter.increment();
+		counter.add(4);
+		Metrics.Timer timer = Metrics.getTimer("TestMetrics.disabled");
+		timer.stop(timer.start(), "label");
+		
+		// a timer started while disabled doesn't count once enabled either
+		long startNanos = timer.start();
+		Metrics.setEnabled(true);
+		timer.stop(startNanos);
+		
+		assertThat(counter.getCount(), is(0L));
+		assertThat(timer.getCount(), is(0L));
+		assertThat(timer.getTotalNanos(), is(0L));
+		assertThat(timer.getMaxLabel(), is(nullValue()));
+		assertThat(getSummary(), not(containsString("TestMetrics.disabled")));
+	}
+	
+	private static String getSummary() throws Exception
+	{
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		Metrics.printSummary(new PrintStream(buf, true, "UTF-8"));
+		return buf.toString("UTF-8");
+	}
+}
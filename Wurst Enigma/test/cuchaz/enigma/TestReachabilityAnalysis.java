@@ -0,0 +1,210 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Jeff Martin.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public
+ * License v3.0 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * Contributors:
+ * Jeff Martin - initial API and implementation
+ ******************************************************************************/
+package cuchaz.enigma;
+
+import static cuchaz.enigma.TestEntryFactory.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.hasItem;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtField;
+import javassist.CtNewConstructor;
+import javassist.CtNewMethod;
+import javassist.bytecode.ClassFile;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import cuchaz.enigma.analysis.JarIndex;
+import cuchaz.enigma.analysis.ReachabilityAnalysis;
+import cuchaz.enigma.mapping.ClassEntry;
+
+public class TestReachabilityAnalysis
+{
+	
+	@Rule
+	public TemporaryFolder m_tempFolder = new TemporaryFolder();
+	
+	private JarIndex m_index;
+	
+	private ClassEntry m_baseClass = newClass("none/a");
+	private ClassEntry m_subClassA = newClass("none/b");
+	private ClassEntry m_subClassAA = newClass("none/d");
+	private ClassEntry m_subClassB = newClass("none/c");
+	
+	public TestReachabilityAnalysis() throws Exception
+	{
+		m_index = new JarIndex();
+		m_index.indexJar(new JarFile("build/testInheritanceTree.obf.jar"),
+			true);
+	}
+	
+	@Test
+	public void method()
+	{
+		// the class isn't constructed, so its other methods don't count
+		ReachabilityAnalysis analysis = new ReachabilityAnalysis(m_index);
+		analysis.addRoot(newMethod(m_subClassB, "b", "()V"));
+		analysis.analyze();
+		assertThat(analysis.getClasses(),
+			containsInAnyOrder(m_baseClass, m_subClassB));
+		assertThat(analysis.getBehaviors(),
+			containsInAnyOrder(newMethod(m_subClassB, "b", "()V")));
+	}
+	
+	@Test
+	public void constructor()
+	{
+		ReachabilityAnalysis analysis = new ReachabilityAnalysis(m_index);
+		analysis.addRoot(newConstructor(m_subClassB, "()V"));
+		analysis.analyze();
+		
+		// a constructed class reaches all of its methods
+		assertThat(analysis.getBehaviors(),
+			hasItem(newMethod(m_subClassB, "b", "()V")));
+		assertThat(analysis.getBehaviors(),
+			hasItem(newConstructor(m_baseClass, "(Ljava/lang/String;)V")));
+		
+		// getName() might be overridden
+		assertThat(analysis.getBehaviors(),
+			hasItem(newMethod(m_subClassAA, "a", "()Ljava/lang/String;")));
+		assertThat(analysis.getClasses(), containsInAnyOrder(m_baseClass,
+			m_subClassA, m_subClassAA, m_subClassB));
+	}
+	
+	@Test
+	public void inheritedMethods() throws Exception
+	{
+		// only the default method b inherits from e calls into c, the methods
+		// of a are reached anyway through its constructor
+		ClassPool pool = new ClassPool(true);
+		CtClass c = pool.makeClass("none.c");
+		c.addMethod(CtNewMethod.make("public static void a() {}", c));
+		CtClass a = pool.makeClass("none.a");
+		a.addConstructor(CtNewConstructor.defaultConstructor(a));
+		a.addMethod(CtNewMethod.make("public void a() {}", a));
+		CtClass e = pool.makeClass("none.e");
+		e.addMethod(CtNewMethod.make("public void b() { none.c.a(); }", e));
+		
+		// javassist won't add a default method to an interface
+		e.setModifiers(Modifier.PUBLIC | Modifier.INTERFACE | Modifier.ABSTRACT);
+		e.getClassFile().setMajorVersion(ClassFile.JAVA_8);
+		CtClass b = pool.makeClass("none.b", a);
+		b.addInterface(e);
+		b.addConstructor(CtNewConstructor.defaultConstructor(b));
+		File file = m_tempFolder.newFile("inherited.jar");
+		writeJar(file, a, b, c, e);
+		JarIndex index = indexJar(file);
+		
+		ReachabilityAnalysis analysis = new ReachabilityAnalysis(index);
+		analysis.addRoot(newConstructor("none/b", "()V"));
+		analysis.analyze();
+		assertThat(analysis.getBehaviors(),
+			hasItem(newMethod("none/a", "a", "()V")));
+		assertThat(analysis.getBehaviors(),
+			hasItem(newMethod("none/e", "b", "()V")));
+		assertThat(analysis.getBehaviors(),
+			hasItem(newMethod("none/c", "a", "()V")));
+		assertThat(analysis.getClasses(),
+			containsInAnyOrder(newClass("none/a"), newClass("none/b"),
+				newClass("none/c"), newClass("none/e")));
+	}
+	
+	@Test
+	public void typeReferences() throws Exception
+	{
+		// a only names the other classes as types, it never calls into them
+		ClassPool pool = new ClassPool(true);
+		CtClass b = pool.makeClass("none.b");
+		CtClass c = pool.makeClass("none.c");
+		CtClass d = pool.makeClass("none.d");
+		CtClass e = pool.makeClass("none.e");
+		CtClass f = pool.makeClass("none.f");
+		CtClass g = pool.makeClass("none.g", pool.get("java.lang.Exception"));
+		CtClass h = pool.makeClass("none.h");
+		CtClass i = pool.makeClass("none.i");
+		CtClass a = pool.makeClass("none.a");
+		a.addMethod(CtNewMethod.make("public static void a(none.b x) {}", a));
+		a.addMethod(CtNewMethod.make(
+			"public static none.c b(Object x) { return (none.c)x; }", a));
+		a.addMethod(CtNewMethod.make(
+			"public static boolean c(Object x) { return x instanceof none.d; }",
+			a));
+		a.addMethod(CtNewMethod.make(
+			"public static Class d() { return none.e.class; }", a));
+		a.addMethod(CtNewMethod.make(
+			"public static none.f[] e() { return new none.f[1]; }", a));
+		a.addMethod(CtNewMethod.make("public static void f(Object x) {"
+			+ " try { x.hashCode(); } catch(none.g ex) {} }", a));
+		a.addField(CtField.make("public static none.h a;", a));
+		File file = m_tempFolder.newFile("types.jar");
+		writeJar(file, a, b, c, d, e, f, g, h, i);
+		JarIndex index = indexJar(file);
+		
+		// the parameter type alone keeps a class
+		ReachabilityAnalysis analysis = new ReachabilityAnalysis(index);
+		analysis.addRoot(newMethod("none/a", "a", "(Lnone/b;)V"));
+		analysis.analyze();
+		assertThat(analysis.getClasses(), containsInAnyOrder(
+			newClass("none/a"), newClass("none/b"), newClass("none/h")));
+		
+		// and so do the types in the code
+		assertThat(ReachabilityAnalysis.getTopClasses(index,
+			Arrays.asList(newClass("none/a"))), containsInAnyOrder(
+			newClass("none/a"), newClass("none/b"), newClass("none/c"),
+			newClass("none/d"), newClass("none/e"), newClass("none/f"),
+			newClass("none/g"), newClass("none/h")));
+	}
+	
+	@Test
+	public void topClasses()
+	{
+		assertThat(ReachabilityAnalysis.getTopClasses(m_index,
+			Arrays.asList(m_subClassA)), containsInAnyOrder(m_baseClass,
+			m_subClassA));
+	}
+	
+	private static void writeJar(File file, CtClass... classes)
+		throws Exception
+	{
+		try(JarOutputStream out =
+			new JarOutputStream(new FileOutputStream(file)))
+		{
+			for(CtClass ctClass : classes)
+			{
+				out.putNextEntry(new JarEntry(ctClass.getName().replace('.',
+					'/') + ".class"));
+				out.write(ctClass.toBytecode());
+			}
+		}
+	}
+	
+	private static JarIndex indexJar(File file) throws Exception
+	{
+		JarIndex index = new JarIndex();
+		try(JarFile jar = new JarFile(file))
+		{
+			index.indexJar(jar, true);
+		}
+		return index;
+	}
+}
@@ -0,0 +1,242 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Jeff Martin.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public
+ * License v3.0 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * Contributors:
+ * Jeff Martin - initial API and implementation
+ ******************************************************************************/
+package cuchaz.enigma;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.jar.JarFile;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.strobel.decompiler.languages.java.ast.CompilationUnit;
+
+import cuchaz.enigma.analysis.SourceIndex;
+import cuchaz.enigma.analysis.Token;
+import cuchaz.enigma.benchmark.SyntheticJarGenerator;
+import cuchaz.enigma.mapping.ClassEntry;
+import cuchaz.enigma.mapping.TranslationDirection;
+
+public class TestSourceCache
+{
+	
+	private static final String KeyA = "aa00000000000000000000000000000000000000";
+	private static final String KeyB = "bb00000000000000000000000000000000000000";
+	private static final String KeyC = "cc00000000000000000000000000000000000000";
+	
+	@Rule
+	public TemporaryFolder m_tempFolder = new TemporaryFolder();
+	
+	@Test
+	public void putAndGet() throws Exception
+	{
+		SourceCache cache =
+			new SourceCache(m_tempFolder.getRoot(), SourceCache.DefaultMaxBytes);
+		assertThat(cache.getSource(KeyA), is(nullValue()));
+		cache.put(KeyA, "class A {}", null, null);
+		assertThat(cache.getSource(KeyA), is("class A {}"));
+		assertThat(cache.size(), is(1));
+		
+		// without an index, the GUI has to decompile again
+		assertThat(cache.getSourceIndex(KeyA, null), is(nullValue()));
+		
+		// another session sees it too
+		SourceCache otherCache =
+			new SourceCache(m_tempFolder.getRoot(), SourceCache.DefaultMaxBytes);
+		assertThat(otherCache.size(), is(1));
+		assertThat(otherCache.getSource(KeyA), is("class A {}"));
+	}
+	
+	@Test
+	public void evictLeastRecentlyUsed() throws Exception
+	{
+		SourceCache sizeCache =
+			new SourceCache(m_tempFolder.newFolder(),
+				SourceCache.DefaultMaxBytes);
+		sizeCache.put(KeyA, "class X {}", null, null);
+		long fileBytes = sizeCache.getNumBytes();
+		
+		// room for two files
+		SourceCache cache =
+			new SourceCache(m_tempFolder.newFolder(), fileBytes * 5 / 2);
+		cache.put(KeyA, "class A {}", null, null);
+		cache.put(KeyB, "class B {}", null, null);
+		cache.getSource(KeyA);
+		cache.put(KeyC, "class C {}", null, null);
+		assertThat(cache.size(), is(2));
+		assertThat(cache.getSource(KeyA), is("class A {}"));
+		assertThat(cache.getSource(KeyB), is(nullValue()));
+		assertThat(cache.getSource(KeyC), is("class C {}"));
+	}
+	
+	@Test
+	public void onlySweepOldTempFiles() throws Exception
+	{
+		File dir = m_tempFolder.newFolder("aa");
+		File oldTempFile = new File(dir, KeyA + ".1.tmp");
+		File newTempFile = new File(dir, KeyA + ".2.tmp");
+		oldTempFile.createNewFile();
+		newTempFile.createNewFile();
+		oldTempFile.setLastModified(System.currentTimeMillis() - 24L * 60
+			* 60 * 1000);
+		
+		// a worker that just started mustn't break its siblings' writes
+		SourceCache cache =
+			new SourceCache(m_tempFolder.getRoot(), SourceCache.DefaultMaxBytes);
+		assertThat(oldTempFile.exists(), is(false));
+		assertThat(newTempFile.exists(), is(true));
+		assertThat(cache.size(), is(0));
+		
+		// writes don't get in each other's way
+		cache.put(KeyA, "class A {}", null, null);
+		assertThat(cache.getSource(KeyA), is("class A {}"));
+		assertThat(newTempFile.exists(), is(true));
+	}
+	
+	@Test
+	public void keyFollowsMappings() throws Exception
+	{
+		File fileJar = m_tempFolder.newFile("synthetic.jar");
+		new SyntheticJarGenerator(20, 42).writeJar(fileJar);
+		try(JarFile jar = new JarFile(fileJar))
+		{
+			Deobfuscator deobfuscator = new Deobfuscator(jar);
+			deobfuscator.waitForIndex();
+			
+			// find a class and another one its source doesn't mention
+			ClassEntry obfClassEntry = null;
+			ClassEntry obfOtherClassEntry = null;
+			for(ClassEntry a : deobfuscator.getJarIndex().getObfClassEntries())
+				for(ClassEntry b : deobfuscator.getJarIndex()
+					.getObfClassEntries())
+					if(!a.isInnerClass() && !b.isInnerClass() && !a.equals(b)
+						&& !deobfuscator.getDependencyIndex()
+							.getDependencies(a).contains(b))
+					{
+						obfClassEntry = a;
+						obfOtherClassEntry = b;
+					}
+			String key = getSourceKey(deobfuscator, obfClassEntry);
+			assertThat(getSourceKey(deobfuscator, obfClassEntry), is(key));
+			
+			deobfuscator.rename(obfOtherClassEntry, "none/Other");
+			assertThat(getSourceKey(deobfuscator, obfClassEntry), is(key));
+			
+			deobfuscator.rename(obfClassEntry, "none/Renamed");
+			assertThat(getSourceKey(deobfuscator, obfClassEntry), is(not(key)));
+		}
+	}
+	
+	@Test
+	public void indexRoundTrip() throws Exception
+	{
+		File fileJar = m_tempFolder.newFile("synthetic.jar");
+		SyntheticJarGenerator generator = new SyntheticJarGenerator(20, 42);
+		generator.writeJar(fileJar);
+		try(JarFile jar = new JarFile(fileJar))
+		{
+			Deobfuscator deobfuscator = new Deobfuscator(jar);
+			deobfuscator.setMappings(generator.getMappings());
+			deobfuscator.waitForIndex();
+			
+			// every kind of entry the index can hold has to make it back
+			SourceCache cache =
+				new SourceCache(m_tempFolder.newFolder(),
+					SourceCache.DefaultMaxBytes);
+			int numIndexes = 0;
+			for(ClassEntry obfClassEntry : deobfuscator.getJarIndex()
+				.getObfClassEntries())
+			{
+				if(obfClassEntry.isInnerClass())
+					continue;
+				CompilationUnit sourceTree =
+					deobfuscator.getSourceTree(obfClassEntry.getName());
+				String source = deobfuscator.getSource(sourceTree);
+				SourceIndex index =
+					deobfuscator.getSourceIndex(sourceTree, source);
+				cache.put(KeyA, source, index, deobfuscator.getSnapshot());
+				SourceIndex cachedIndex =
+					cache.getSourceIndex(KeyA, deobfuscator.getSnapshot());
+				assertThat(cachedIndex, is(not(nullValue())));
+				assertThat(cachedIndex.getSource(), is(source));
+				assertThat(Lists.newArrayList(cachedIndex.referenceTokens()),
+					is(Lists.newArrayList(index.referenceTokens())));
+				for(Token token : index.referenceTokens())
+				{
+					assertThat(cachedIndex.getDeobfReference(token).entry,
+						is(index.getDeobfReference(token).entry));
+					assertThat(cachedIndex.getDeobfReference(token).context,
+						is(index.getDeobfReference(token).context));
+				}
+				assertThat(Sets.newHashSet(cachedIndex.declarations()),
+					is(Sets.newHashSet(index.declarations())));
+				numIndexes++;
+			}
+			assertThat(numIndexes, greaterThan(0));
+		}
+	}
+	
+	@Test
+	public void onlyCachedClassesAreRead() throws Exception
+	{
+		// someone else put something in the folder
+		File file = new File(m_tempFolder.newFolder("aa"), KeyA);
+		try(ObjectOutputStream out =
+			new ObjectOutputStream(new GZIPOutputStream(new FileOutputStream(
+				file))))
+		{
+			out.writeInt(1);
+			out.writeObject(new Gadget());
+		}
+		
+		SourceCache cache =
+			new SourceCache(m_tempFolder.getRoot(), SourceCache.DefaultMaxBytes);
+		assertThat(cache.getSource(KeyA), is(nullValue()));
+		assertThat(Gadget.NumRead, is(0));
+	}
+	
+	private String getSourceKey(Deobfuscator deobfuscator,
+		ClassEntry obfClassEntry)
+	{
+		return deobfuscator.getSourceKey(obfClassEntry, deobfuscator
+			.getTranslator(TranslationDirection.Obfuscating), deobfuscator
+			.getTranslator(TranslationDirection.Deobfuscating));
+	}
+	
+	private static class Gadget implements Serializable
+	{
+		
+		private static final long serialVersionUID = 1L;
+		
+		public static int NumRead = 0;
+		
+		private void readObject(ObjectInputStream in) throws IOException,
+			ClassNotFoundException
+		{
+			in.defaultReadObject();
+			NumRead++;
+		}
+	}
+}
@@ -0,0 +1,230 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Jeff Martin.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public
+ * License v3.0 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * Contributors:
+ * Jeff Martin - initial API and implementation
+ ******************************************************************************/
+package cuchaz.enigma;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.Writer;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+import cuchaz.enigma.CommandMain.ConsoleProgressListener;
+import cuchaz.enigma.ExportManifest.ClassRecord;
+import cuchaz.enigma.ExportProfile.ClassProfile;
+import cuchaz.enigma.benchmark.SyntheticJars;
+import cuchaz.enigma.mapping.ClassEntry;
+
+public class TestSourceExporter
+{
+	
+	private static final int NumClasses = 20;
+	private static final long Seed = 42;
+	
+	@Rule
+	public SyntheticJars m_jars = new SyntheticJars(NumClasses, Seed);
+	
+	private File m_dirOut;
+	private Deobfuscator m_deobfuscator;
+	
+	@Before
+	public void setUp() throws Exception
+	{
+		m_dirOut = m_jars.getTempFolder().newFolder("export");
+		m_deobfuscator = new Deobfuscator(m_jars.getSourceJar());
+		m_deobfuscator.waitForIndex();
+	}
+	
+	@Test
+	public void exportTwice() throws Exception
+	{
+		ExportProfile first = export();
+		assertThat(first.getClasses().size(), greaterThan(0));
+		assertThat(first.getNumUnchanged(), is(0));
+		
+		// the manifest stays out of the sources
+		assertThat(ExportManifest.getFile(m_dirOut).isFile(), is(true));
+		assertThat(new File(m_dirOut, ExportManifest.FileName).exists(),
+			is(false));
+		
+		// nothing changed, so there's nothing to do
+		ExportProfile second = export();
+		assertThat(second.getClasses().size(), is(0));
+		assertThat(second.getNumUnchanged(), is(first.getClasses().size()));
+		assertThat(second.getNumDeleted(), is(0));
+	}
+	
+	@Test
+	public void renameClass() throws Exception
+	{
+		ExportProfile first = export();
+		ClassProfile classProfile = first.getClasses().get(0);
+		File oldFile = getFile(classProfile.getClassName());
+		m_deobfuscator.rename(new ClassEntry(classProfile.getObfClassName()),
+			"none/Renamed");
+		
+		// the class moves, classes that don't mention it stay as they were
+		ExportProfile second = export();
+		assertThat(second.getClasses().size(), greaterThan(0));
+		assertThat(second.getClasses().size(),
+			lessThan(first.getClasses().size()));
+		assertThat(second.getNumUnchanged() + second.getClasses().size(),
+			is(first.getClasses().size()));
+		assertThat(second.getNumDeleted(), is(1));
+		assertThat(oldFile.exists(), is(false));
+		assertThat(getFile("none/Renamed").isFile(), is(true));
+	}
+	
+	@Test
+	public void editedSource() throws Exception
+	{
+		ExportProfile first = export();
+		File file = getFile(first.getClasses().get(0).getClassName());
+		String source = Files.toString(file, Charsets.UTF_8);
+		Files.append("// edited\n", file, Charsets.UTF_8);
+		
+		// only the edited source is written again
+		ExportProfile second = export();
+		assertThat(second.getClasses().size(), is(1));
+		assertThat(second.getNumUnchanged(), is(first.getClasses().size() - 1));
+		assertThat(Files.toString(file, Charsets.UTF_8), is(source));
+	}
+	
+	@Test
+	public void deletedSource() throws Exception
+	{
+		ExportProfile first = export();
+		File file = getFile(first.getClasses().get(0).getClassName());
+		file.delete();
+		
+		ExportProfile second = export();
+		assertThat(second.getClasses().size(), is(1));
+		assertThat(file.isFile(), is(true));
+	}
+	
+	@Test
+	public void malformedManifest() throws Exception
+	{
+		ExportProfile first = export();
+		try(Writer out =
+			new FileWriter(ExportManifest.getFile(m_dirOut), true))
+		{
+			out.write("not a record\n");
+		}
+		
+		// a manifest that can't be trusted means exporting everything again
+		ExportProfile second = export();
+		assertThat(second.getClasses().size(), is(first.getClasses().size()));
+		assertThat(second.getNumUnchanged(), is(0));
+		
+		ExportProfile third = export();
+		assertThat(third.getClasses().size(), is(0));
+	}
+	
+	@Test
+	public void fullExportDeletesStaleSources() throws Exception
+	{
+		checkDeletesStaleSources(false, null);
+	}
+	
+	@Test
+	public void changedKeyDeletesStaleSources() throws Exception
+	{
+		checkDeletesStaleSources(true, "other");
+	}
+	
+	@Test
+	public void nonAsciiSource() throws Exception
+	{
+		SourceExporter.SourceProcessor processor =
+			new SourceExporter.SourceProcessor()
+			{
+				@Override
+				public String process(ClassEntry obfClassEntry, String source)
+				{
+					return source + "// \u00e4\u20ac\n";
+				}
+			};
+		ExportProfile first = export(true, "non-ascii", processor);
+		File file = getFile(first.getClasses().get(0).getClassName());
+		assertThat(Files.toString(file, Charsets.UTF_8).endsWith(
+			"// \u00e4\u20ac\n"), is(true));
+		
+		// the manifest has the hash of what's in the file
+		ExportProfile second = export(true, "non-ascii", processor);
+		assertThat(second.getClasses().size(), is(0));
+		assertThat(second.getNumUnchanged(), is(first.getClasses().size()));
+	}
+	
+	@Test
+	public void manifestCantDeleteOutside() throws Exception
+	{
+		export();
+		File fileOutside = m_jars.getTempFolder().newFile("Outside.java");
+		File fileManifest = ExportManifest.getFile(m_dirOut);
+		ExportManifest manifest = ExportManifest.read(fileManifest);
+		manifest.put(new ClassRecord("none/gone", "0", "0", "../Outside.java",
+			"0"));
+		manifest.write(fileManifest);
+		
+		ExportProfile second = export();
+		assertThat(second.getNumDeleted(), is(0));
+		assertThat(fileOutside.isFile(), is(true));
+	}
+	
+	private void checkDeletesStaleSources(boolean isIncremental,
+		String customKey) throws Exception
+	{
+		ExportProfile first = export();
+		ClassProfile classProfile = first.getClasses().get(0);
+		File oldFile = getFile(classProfile.getClassName());
+		m_deobfuscator.rename(new ClassEntry(classProfile.getObfClassName()),
+			"none/Renamed");
+		
+		// everything is written again, but the old source still goes away
+		ExportProfile second = export(isIncremental, customKey, null);
+		assertThat(second.getClasses().size(), is(first.getClasses().size()));
+		assertThat(second.getNumDeleted(), is(1));
+		assertThat(oldFile.exists(), is(false));
+		assertThat(getFile("none/Renamed").isFile(), is(true));
+	}
+	
+	private File getFile(String className)
+	{
+		return new File(m_dirOut, className + ".java");
+	}
+	
+	private ExportProfile export() throws Exception
+	{
+		return export(true, null, null);
+	}
+	
+	private ExportProfile export(boolean isIncremental, String customKey,
+		SourceExporter.SourceProcessor processor) throws Exception
+	{
+		SourceExporter exporter = new SourceExporter(m_deobfuscator);
+		exporter.setNumThreads(1);
+		exporter.setIncremental(isIncremental);
+		exporter.setCustomKey(customKey);
+		exporter.setProcessor(processor);
+		exporter.export(m_dirOut, new ConsoleProgressListener());
+		return exporter.getProfile();
+	}
+}
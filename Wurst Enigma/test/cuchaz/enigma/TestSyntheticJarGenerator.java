@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Jeff Martin.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public
+ * License v3.0 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * Contributors:
+ * Jeff Martin - initial API and implementation
+ ******************************************************************************/
+package cuchaz.enigma;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+
+import java.io.File;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.util.jar.JarFile;
+
+import org.junit.Test;
+
+import cuchaz.enigma.analysis.JarIndex;
+import cuchaz.enigma.benchmark.SyntheticJarGenerator;
+import cuchaz.enigma.convert.ClassMatches;
+import cuchaz.enigma.mapping.ClassEntry;
+import cuchaz.enigma.mapping.Mappings;
+import cuchaz.enigma.mapping.MappingsReader;
+import cuchaz.enigma.mapping.MappingsWriter;
+
+public class TestSyntheticJarGenerator
+{
+	
+	private static final int NumClasses = 200;
+	private static final long Seed = 42;
+	
+	@Test
+	public void deterministic() throws Exception
+	{
+		File first = File.createTempFile("synthetic", ".jar");
+		File second = File.createTempFile("synthetic", ".jar");
+		try
+		{
+			new SyntheticJarGenerator(NumClasses, Seed).writeJar(first);
+			new SyntheticJarGenerator(NumClasses, Seed).writeJar(second);
+			assertThat(Files.readAllBytes(first.toPath()),
+				is(Files.readAllBytes(second.toPath())));
+		}finally
+		{
+			first.delete();
+			second.delete();
+		}
+	}
+	
+	@Test
+	public void innerClasses() throws Exception
+	{
+		JarIndex index = indexJar(false);
+		assertThat(index.getObfClassEntries().size(), is(NumClasses));
+		int numInnerClasses = 0;
+		int numAnonymousClasses = 0;
+		for(ClassEntry classEntry : index.getObfClassEntries())
+		{
+			if(!classEntry.isInnerClass())
+				continue;
+			numInnerClasses++;
+			
+			// anonymous classes are indexed by their obfuscated names
+			if(index.isAnonymousClass(new ClassEntry(Constants.NonePackage
+				+ "/" + classEntry.getInnermostClassName())))
+				numAnonymousClasses++;
+		}
+		assertThat(numInnerClasses, greaterThan(numAnonymousClasses));
+		assertThat(numAnonymousClasses, greaterThan(0));
+	}
+	
+	@Test
+	public void nextVersion() throws Exception
+	{
+		SyntheticJarGenerator generator =
+			new SyntheticJarGenerator(NumClasses, Seed);
+		ClassMatches matches = generator.getClassMatches();
+		assertThat(matches.getAmbiguousMatches(), is(empty()));
+		assertThat(matches.getUnmatchedSourceClasses().size(), greaterThan(0));
+		assertThat(matches.getUnmatchedDestClasses().size(), greaterThan(0));
+		
+		JarIndex sourceIndex = indexJar(false);
+		JarIndex destIndex = indexJar(true);
+		assertThat(matches.getSourceClasses().size(), is(sourceIndex
+			.getObfClassEntries().size()));
+		assertThat(matches.getDestClasses().size(), is(destIndex
+			.getObfClassEntries().size()));
+	}
+	
+	@Test
+	public void mappings() throws Exception
+	{
+		Mappings mappings =
+			new SyntheticJarGenerator(NumClasses, Seed).getMappings();
+		assertThat(mappings.classes().size(), greaterThan(0));
+		
+		StringWriter out = new StringWriter();
+		new MappingsWriter().write(out, mappings);
+		Mappings readMappings =
+			new MappingsReader().read(new StringReader(out.toString()));
+		assertThat(readMappings.classes().size(), is(mappings.classes()
+			.size()));
+	}
+	
+	private JarIndex indexJar(boolean isNextVersion) throws Exception
+	{
+		SyntheticJarGenerator generator =
+			new SyntheticJarGenerator(NumClasses, Seed);
+		File file = File.createTempFile("synthetic", ".jar");
+		try
+		{
+			if(isNextVersion)
+				generator.writeNextJar(file);
+			else
+				generator.writeJar(file);
+			JarIndex index = new JarIndex();
+			try(JarFile jar = new JarFile(file))
+			{
+				index.indexJar(jar, true);
+			}
+			return index;
+		}finally
+		{
+			file.delete();
+		}
+	}
+}
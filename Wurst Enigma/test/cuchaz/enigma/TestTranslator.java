@@ -24,6 +24,7 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 
 import cuchaz.enigma.mapping.Entry;
+import cuchaz.enigma.mapping.InnerClassMarkingTranslator;
 import cuchaz.enigma.mapping.Mappings;
 import cuchaz.enigma.mapping.MappingsReader;
 import cuchaz.enigma.mapping.TranslationDirection;
@@ -217,6 +218,41 @@ public class TestTranslator
 				"()Ljava/lang/Object;"));
 	}
 	
+	@Test
+	public void markedInnerClasses()
+	{
+		Translator deobfTranslator =
+			new InnerClassMarkingTranslator(m_deobfTranslator, "M_");
+		Translator obfTranslator =
+			new InnerClassMarkingTranslator(m_obfTranslator, "M_");
+		
+		// classes
+		assertThat(deobfTranslator.translateEntry(newClass("none/g")),
+			is(newClass("deobf/G_OuterClass")));
+		assertThat(deobfTranslator.translateEntry(newClass("none/g$a$a")),
+			is(newClass("deobf/G_OuterClass$M_A_InnerClass$M_A_InnerInnerClass")));
+		assertThat(obfTranslator.translateEntry(newClass(
+			"deobf/G_OuterClass$M_A_InnerClass$M_A_InnerInnerClass")),
+			is(newClass("none/g$a$a")));
+		assertThat(obfTranslator.translateEntry(newClass(
+			"deobf/G_OuterClass$M_b$M_A_NamedInnerClass")),
+			is(newClass("none/g$b$a")));
+		
+		// members
+		assertThat(
+			obfTranslator.translateEntry(newField(
+				"deobf/G_OuterClass$M_A_InnerClass", "f1", "I")),
+			is(newField("none/g$a", "a", "I")));
+		assertThat(
+			obfTranslator.translateEntry(newMethod(
+				"deobf/G_OuterClass$M_A_InnerClass", "m1", "()V")),
+			is(newMethod("none/g$a", "a", "()V")));
+		
+		// the base translators are left alone
+		assertMapping(newClass("none/g$a"),
+			newClass("deobf/G_OuterClass$A_InnerClass"));
+	}
+	
 	private void assertMapping(Entry obf, Entry deobf)
 	{
 		assertThat(m_deobfTranslator.translateEntry(obf), is(deobf));
@@ -0,0 +1,208 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Jeff Martin.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public
+ * License v3.0 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * Contributors:
+ * Jeff Martin - initial API and implementation
+ ******************************************************************************/
+package cuchaz.enigma.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+public abstract class Benchmark
+{
+	
+	// NOTE: each benchmark runs in timed iterations on the calling thread,
+	// first some to warm up the JIT, then the ones that are measured. The
+	// allocation rate comes from the per-thread allocation counter of the
+	// HotSpot JVM, like the GC profiler of JMH. Benchmarks that have to
+	// prepare each operation, eg because it changes its input, are timed one
+	// operation at a time, so the preparation isn't measured.
+	
+	public static class Result
+	{
+		
+		private String m_name;
+		private double m_opsPerSecond;
+		private double m_bytesPerOp;
+		private double m_bytesPerSecond;
+		
+		public Result(String name, long numOps, long nanos, long bytes)
+		{
+			m_name = name;
+			m_opsPerSecond = numOps * 1e9 / nanos;
+			if(bytes < 0)
+			{
+				m_bytesPerOp = Double.NaN;
+				m_bytesPerSecond = Double.NaN;
+			}else
+			{
+				m_bytesPerOp = (double)bytes / numOps;
+				m_bytesPerSecond = bytes * 1e9 / nanos;
+			}
+		}
+		
+		public String getName()
+		{
+			return m_name;
+		}
+		
+		public double getOpsPerSecond()
+		{
+			return m_opsPerSecond;
+		}
+		
+		public double getBytesPerOp()
+		{
+			return m_bytesPerOp;
+		}
+		
+		public double getBytesPerSecond()
+		{
+			return m_bytesPerSecond;
+		}
+		
+		@Override
+		public String toString()
+		{
+			return String.format("%-40s %14.1f ops/s %14.1f B/op %10.1f MB/s",
+				m_name, m_opsPerSecond, m_bytesPerOp, m_bytesPerSecond
+					/ 1024 / 1024);
+		}
+	}
+	
+	public static int WarmupIterations = 5;
+	public static int MeasurementIterations = 5;
+	public static long IterationMillis = 1000;
+	
+	// results go here, so the JIT can't throw away the work
+	private static volatile int Sink;
+	
+	private String m_name;
+	private long m_numOps;
+	private long m_nanos;
+	private long m_bytes;
+	
+	protected Benchmark(String name)
+	{
+		m_name = name;
+	}
+	
+	public String getName()
+	{
+		return m_name;
+	}
+	
+	public void setUp() throws Exception
+	{
+		// nothing to do by default
+	}
+	
+	/**
+	 * Returns true if prepare() has to run before each operation. Reading
+	 * the clock for each operation isn't free, so only slow operations
+	 * should need it.
+	 */
+	public boolean isPrepared()
+	{
+		return false;
+	}
+	
+	/**
+	 * Gets the next operation ready, without being measured.
+	 */
+	public void prepare() throws Exception
+	{
+		// nothing to do by default
+	}
+	
+	/**
+	 * Does one operation. Return whatever the operation computed.
+	 */
+	public abstract Object run() throws Exception;
+	
+	public Result measure() throws Exception
+	{
+		setUp();
+		for(int i = 0; i < WarmupIterations; i++)
+			runIteration();
+		
+		m_numOps = 0;
+		m_nanos = 0;
+		m_bytes = 0;
+		for(int i = 0; i < MeasurementIterations; i++)
+			runIteration();
+		return new Result(m_name, m_numOps, m_nanos, m_bytes);
+	}
+	
+	private void runIteration() throws Exception
+	{
+		if(isPrepared())
+		{
+			runPreparedIteration();
+			return;
+		}
+		long startBytes = getAllocatedBytes();
+		long startNanos = System.nanoTime();
+		long endNanos = startNanos + IterationMillis * 1000000;
+		long numOps = 0;
+		int sink = 0;
+		do
+		{
+			Object out = run();
+			if(out != null)
+				sink ^= out.hashCode();
+			numOps++;
+		}while(System.nanoTime() < endNanos);
+		long nanos = System.nanoTime() - startNanos;
+		Sink ^= sink;
+		addMeasurement(numOps, nanos, startBytes, getAllocatedBytes());
+	}
+	
+	private void runPreparedIteration() throws Exception
+	{
+		long endNanos = System.nanoTime() + IterationMillis * 1000000;
+		int sink = 0;
+		do
+		{
+			prepare();
+			long startBytes = getAllocatedBytes();
+			long startNanos = System.nanoTime();
+			Object out = run();
+			long nanos = System.nanoTime() - startNanos;
+			addMeasurement(1, nanos, startBytes, getAllocatedBytes());
+			if(out != null)
+				sink ^= out.hashCode();
+		}while(System.nanoTime() < endNanos);
+		Sink ^= sink;
+	}
+	
+	private void addMeasurement(long numOps, long nanos, long startBytes,
+		long endBytes)
+	{
+		m_numOps += numOps;
+		m_nanos += nanos;
+		if(startBytes < 0 || endBytes < 0)
+			m_bytes = -1;
+		else if(m_bytes >= 0)
+			m_bytes += endBytes - startBytes;
+	}
+	
+	private static long getAllocatedBytes()
+	{
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if(!(threads instanceof com.sun.management.ThreadMXBean))
+			return -1;
+		com.sun.management.ThreadMXBean hotspotThreads =
+			(com.sun.management.ThreadMXBean)threads;
+		if(!hotspotThreads.isThreadAllocatedMemorySupported()
+			|| !hotspotThreads.isThreadAllocatedMemoryEnabled())
+			return -1;
+		return hotspotThreads.getThreadAllocatedBytes(Thread.currentThread()
+			.getId());
+	}
+}
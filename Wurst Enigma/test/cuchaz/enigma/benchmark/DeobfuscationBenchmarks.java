@@ -0,0 +1,295 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Jeff Martin.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public
+ * License v3.0 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * Contributors:
+ * Jeff Martin - initial API and implementation
+ ******************************************************************************/
+package cuchaz.enigma.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileReader;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.List;
+import java.util.jar.JarFile;
+
+import javassist.ClassPool;
+import javassist.CtClass;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.CharStreams;
+import com.strobel.decompiler.languages.java.ast.CompilationUnit;
+
+import cuchaz.enigma.Deobfuscator;
+import cuchaz.enigma.TranslatingTypeLoader;
+import cuchaz.enigma.analysis.JarIndex;
+import cuchaz.enigma.convert.ClassIdentity;
+import cuchaz.enigma.mapping.*;
+
+public class DeobfuscationBenchmarks
+{
+	
+	// NOTE: by default, this runs on the jar and mappings of TestTranslator.
+	// Pass a jar and a mappings file to run on something bigger, eg:
+	// DeobfuscationBenchmarks client.jar client.mappings
+	
+	public static void main(String[] args) throws Exception
+	{
+		
+		// read the inputs
+		final JarFile jar;
+		final String mappingsText;
+		if(args.length >= 2)
+		{
+			jar = new JarFile(new File(args[0]));
+			try(Reader in = new FileReader(args[1]))
+			{
+				mappingsText = CharStreams.toString(in);
+			}
+		}else
+		{
+			jar = new JarFile("build/testTranslation.obf.jar");
+			try(Reader in =
+				new InputStreamReader(
+					DeobfuscationBenchmarks.class
+						.getResourceAsStream("/cuchaz/enigma/resources/translation.mappings")))
+			{
+				mappingsText = CharStreams.toString(in);
+			}
+		}
+		final Deobfuscator deobfuscator = new Deobfuscator(jar);
+		final Mappings mappings =
+			new MappingsReader().read(new StringReader(mappingsText));
+		deobfuscator.setMappings(mappings);
+		final JarIndex index = deobfuscator.getJarIndex();
+		
+		// collect the entries to work on
+		final List<ClassEntry> classEntries =
+			Lists.newArrayList(index.getObfClassEntries());
+		final List<ClassEntry> outerClassEntries = Lists.newArrayList();
+		for(ClassEntry classEntry : classEntries)
+			if(!classEntry.isInnerClass())
+				outerClassEntries.add(classEntry);
+		final List<FieldEntry> fieldEntries =
+			Lists.newArrayList(index.getObfFieldEntries());
+		final List<BehaviorEntry> behaviorEntries =
+			Lists.newArrayList(index.getObfBehaviorEntries());
+		final List<ArgumentEntry> argumentEntries = Lists.newArrayList();
+		final List<String> types = Lists.newArrayList();
+		final List<String> signatures = Lists.newArrayList();
+		for(FieldEntry fieldEntry : fieldEntries)
+			types.add(fieldEntry.getType().toString());
+		for(BehaviorEntry behaviorEntry : behaviorEntries)
+		{
+			if(behaviorEntry.getSignature() == null)
+				continue;
+			signatures.add(behaviorEntry.getSignature().toString());
+			int numArgs =
+				behaviorEntry.getSignature().getArgumentTypes().size();
+			for(int i = 0; i < numArgs; i++)
+				argumentEntries.add(new ArgumentEntry(behaviorEntry, i, "a"
+					+ i));
+		}
+		final Translator deobfuscatingTranslator =
+			deobfuscator.getTranslator(TranslationDirection.Deobfuscating);
+		final TranslatingTypeLoader loader =
+			new TranslatingTypeLoader(jar, index);
+		
+		List<Benchmark> benchmarks = Lists.newArrayList();
+		benchmarks.add(new Benchmark("JarIndex.indexJar")
+		{
+			@Override
+			public Object run()
+			{
+				JarIndex newIndex = new JarIndex();
+				newIndex.indexJar(jar, true);
+				return newIndex;
+			}
+		});
+		benchmarks.add(new CyclingBenchmark<ClassEntry>(
+			"Translator.translateEntry(class)", classEntries)
+		{
+			@Override
+			public Object run(ClassEntry entry)
+			{
+				return deobfuscatingTranslator.translateEntry(entry);
+			}
+		});
+		benchmarks.add(new CyclingBenchmark<FieldEntry>(
+			"Translator.translateEntry(field)", fieldEntries)
+		{
+			@Override
+			public Object run(FieldEntry entry)
+			{
+				return deobfuscatingTranslator.translateEntry(entry);
+			}
+		});
+		benchmarks.add(new CyclingBenchmark<BehaviorEntry>(
+			"Translator.translateEntry(method)", behaviorEntries)
+		{
+			@Override
+			public Object run(BehaviorEntry entry)
+			{
+				return deobfuscatingTranslator.translateEntry(entry);
+			}
+		});
+		benchmarks.add(new CyclingBenchmark<ArgumentEntry>(
+			"Translator.translateEntry(argument)", argumentEntries)
+		{
+			@Override
+			public Object run(ArgumentEntry entry)
+			{
+				return deobfuscatingTranslator.translateEntry(entry);
+			}
+		});
+		benchmarks.add(new CyclingBenchmark<String>("Type(String)", types)
+		{
+			@Override
+			public Object run(String type)
+			{
+				return new Type(type);
+			}
+		});
+		benchmarks.add(new CyclingBenchmark<String>("Signature(String)",
+			signatures)
+		{
+			@Override
+			public Object run(String signature)
+			{
+				return new Signature(signature);
+			}
+		});
+		benchmarks.add(new Benchmark("MappingsReader.read")
+		{
+			@Override
+			public Object run() throws Exception
+			{
+				return new MappingsReader().read(new StringReader(
+					mappingsText));
+			}
+		});
+		benchmarks.add(new Benchmark("MappingsWriter.write")
+		{
+			@Override
+			public Object run() throws Exception
+			{
+				StringWriter out = new StringWriter();
+				new MappingsWriter().write(out, mappings);
+				return out.getBuffer().length();
+			}
+		});
+		benchmarks.add(new Benchmark("TranslatingTypeLoader.transformClass")
+		{
+			private List<byte[]> m_data = Lists.newArrayList();
+			private int m_next = 0;
+			private CtClass m_class;
+			
+			@Override
+			public void setUp() throws Exception
+			{
+				for(ClassEntry classEntry : classEntries)
+					m_data.add(loader.loadRawType(classEntry));
+			}
+			
+			@Override
+			public boolean isPrepared()
+			{
+				return true;
+			}
+			
+			@Override
+			public void prepare() throws Exception
+			{
+				// transforming changes the class, so parse a fresh one every
+				// time, named like in the jar, since inner classes aren't
+				m_class =
+					new ClassPool().makeClass(new ByteArrayInputStream(m_data
+						.get(m_next)));
+				m_next = (m_next + 1) % m_data.size();
+			}
+			
+			@Override
+			public Object run() throws Exception
+			{
+				return loader.transformClass(m_class);
+			}
+		});
+		benchmarks.add(new CyclingBenchmark<ClassEntry>(
+			"Deobfuscator.getSourceTree+Index", outerClassEntries)
+		{
+			@Override
+			public Object run(ClassEntry classEntry)
+			{
+				CompilationUnit tree =
+					deobfuscator.getSourceTree(classEntry.getName());
+				String source = deobfuscator.getSource(tree);
+				return deobfuscator.getSourceIndex(tree, source);
+			}
+		});
+		final List<CtClass> classes = Lists.newArrayList();
+		benchmarks.add(new CyclingBenchmark<CtClass>("ClassIdentity(CtClass)",
+			classes)
+		{
+			@Override
+			public void setUp()
+			{
+				for(ClassEntry classEntry : classEntries)
+				{
+					CtClass c = loader.loadClass(classEntry.getName());
+					if(c != null)
+						classes.add(c);
+				}
+				super.setUp();
+			}
+			
+			@Override
+			public Object run(CtClass c)
+			{
+				return new ClassIdentity(c, null, index, true);
+			}
+		});
+		
+		for(Benchmark benchmark : benchmarks)
+			System.out.println(benchmark.measure());
+	}
+	
+	private static abstract class CyclingBenchmark<T> extends Benchmark
+	{
+		
+		// runs on a different input each time
+		
+		private List<T> m_inputs;
+		private int m_next;
+		
+		public CyclingBenchmark(String name, List<T> inputs)
+		{
+			super(name);
+			m_inputs = inputs;
+			m_next = 0;
+		}
+		
+		@Override
+		public void setUp()
+		{
+			if(m_inputs.isEmpty())
+				throw new Error("No inputs for " + getName());
+		}
+		
+		@Override
+		public Object run() throws Exception
+		{
+			T input = m_inputs.get(m_next);
+			m_next = (m_next + 1) % m_inputs.size();
+			return run(input);
+		}
+		
+		public abstract Object run(T input) throws Exception;
+	}
+}
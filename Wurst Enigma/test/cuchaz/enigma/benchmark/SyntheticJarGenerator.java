@@ -0,0 +1,807 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Jeff Martin.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public
+ * License v3.0 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * Contributors:
+ * Jeff Martin - initial API and implementation
+ ******************************************************************************/
+package cuchaz.enigma.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import javassist.CannotCompileException;
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtConstructor;
+import javassist.CtField;
+import javassist.CtMethod;
+import javassist.CtNewConstructor;
+import javassist.Modifier;
+import javassist.NotFoundException;
+import javassist.bytecode.AccessFlag;
+import javassist.bytecode.Bytecode;
+import javassist.bytecode.Descriptor;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import cuchaz.enigma.Constants;
+import cuchaz.enigma.convert.ClassMatch;
+import cuchaz.enigma.convert.ClassMatches;
+import cuchaz.enigma.convert.MatchesWriter;
+import cuchaz.enigma.mapping.*;
+
+public class SyntheticJarGenerator
+{
+	
+	// NOTE: the jars look like the output of an obfuscator: short class
+	// names in the default package, short member names, inner classes
+	// flattened into top-level classes that only the jar index can put back
+	// together. Everything comes from the seed, so the same arguments always
+	// give the same jars.
+	// The "next version" renames every class, changes some of them, drops
+	// some and adds some, the way a new release of the obfuscated program
+	// would. The true class matches between the two jars are written out
+	// too, so conversions can be checked against them.
+	
+	private static final int TypeInt = -1;
+	private static final int TypeString = -2;
+	private static final int TypeObject = -3;
+	private static final int TypeVoid = -4;
+	
+	private static final Set<String> Keywords = Sets.newHashSet("do", "if",
+		"for", "int", "new", "try", "byte", "case", "char", "else", "enum",
+		"goto", "long", "null", "this", "true", "void", "false", "final",
+		"float", "short", "super", "throw", "while", "break", "catch",
+		"class", "const");
+	
+	private static class MethodSpec
+	{
+		
+		public int nameIndex;
+		public List<Integer> argumentTypes = Lists.newArrayList();
+		public int returnType;
+		public int constant;
+		public List<int[]> calls = Lists.newArrayList();
+		public boolean isOverride;
+		public boolean isGenericGetter;
+		public boolean isSpecializedGetter;
+		public int createdInnerClass = -1;
+	}
+	
+	private static class ClassSpec
+	{
+		
+		public int id;
+		public int superclass = -1;
+		public int depth;
+		public int outerClass = -1;
+		public boolean isAnonymous;
+		public boolean isGenericBase;
+		public boolean isSpecialized;
+		public boolean isChanged;
+		public boolean isInSource = true;
+		public boolean isInDest = true;
+		public boolean isReferenced;
+		public int numInheritedMethodNames;
+		public List<Integer> fieldTypes = Lists.newArrayList();
+		public List<MethodSpec> methods = Lists.newArrayList();
+		
+		public int getNumMethodNames()
+		{
+			int numNames = numInheritedMethodNames;
+			for(MethodSpec method : methods)
+				if(!method.isOverride && !method.isSpecializedGetter)
+					numNames++;
+			return numNames;
+		}
+	}
+	
+	private List<ClassSpec> m_classes;
+	private Map<Integer, String> m_sourceNames;
+	private Map<Integer, String> m_destNames;
+	private boolean m_renamesMembers;
+	
+	public SyntheticJarGenerator(int numClasses, long seed)
+	{
+		this(numClasses, seed, 0.1, 0.02, 0.02);
+	}
+	
+	public SyntheticJarGenerator(int numClasses, long seed,
+		double changedFraction, double removedFraction, double addedFraction)
+	{
+		Random random = new Random(seed);
+		m_classes = Lists.newArrayList();
+		while(m_classes.size() < numClasses)
+		{
+			ClassSpec spec = newClass(random);
+			if(random.nextInt(4) == 0 && m_classes.size() < numClasses)
+				newInnerClass(random, spec, true);
+			if(random.nextInt(8) == 0 && m_classes.size() < numClasses)
+				newInnerClass(random, spec, false);
+		}
+		
+		// make the next version, only classes nothing else needs can go away
+		List<ClassSpec> removable = Lists.newArrayList();
+		for(ClassSpec spec : m_classes)
+		{
+			if(spec.outerClass >= 0 || spec.isGenericBase)
+				continue;
+			if(random.nextDouble() < changedFraction)
+				spec.isChanged = true;
+			else if(!spec.isReferenced && !hasInnerClasses(spec))
+				removable.add(spec);
+		}
+		Collections.shuffle(removable, random);
+		int numRemoved =
+			Math.min(removable.size(), (int)(numClasses * removedFraction));
+		for(ClassSpec spec : removable.subList(0, numRemoved))
+			spec.isInDest = false;
+		int numAdded = (int)(numClasses * addedFraction);
+		for(int i = 0; i < numAdded; i++)
+		{
+			ClassSpec spec = newPlainClass(random);
+			spec.isInSource = false;
+		}
+		
+		m_sourceNames = assignNames(new Random(seed + 1), true);
+		m_destNames = assignNames(new Random(seed + 2), false);
+		m_renamesMembers = false;
+	}
+	
+	/**
+	 * If true, the members of the next version get new names too, the way
+	 * they would if the obfuscator assigned them again.
+	 */
+	public void setRenamesMembers(boolean val)
+	{
+		m_renamesMembers = val;
+	}
+	
+	public void writeJar(File file) throws IOException
+	{
+		writeJar(file, false);
+	}
+	
+	public void writeNextJar(File file) throws IOException
+	{
+		writeJar(file, true);
+	}
+	
+	public Mappings getMappings()
+	{
+		Mappings mappings = new Mappings();
+		for(ClassSpec spec : m_classes)
+		{
+			if(!spec.isInSource || spec.outerClass >= 0)
+				continue;
+			ClassMapping classMapping =
+				new ClassMapping(getObfName(spec.id, false), "gen/Class"
+					+ spec.id);
+			
+			// the inner classes stay unmapped, so leave out the members that
+			// use them
+			for(int i = 0; i < spec.fieldTypes.size(); i++)
+				if(!isInnerClass(spec.fieldTypes.get(i)))
+					classMapping.addFieldMapping(new FieldMapping(getName(i),
+						new Type(getDescriptor(spec.fieldTypes.get(i), false)),
+						"field" + i));
+			for(MethodSpec method : spec.methods)
+				if(!method.isOverride && !method.isSpecializedGetter
+					&& !isInnerClass(method.returnType))
+					classMapping.addMethodMapping(new MethodMapping(
+						getName(method.nameIndex), new Signature(
+							getDescriptor(method, false)), "method"
+							+ method.nameIndex));
+			mappings.addClassMapping(classMapping);
+		}
+		return mappings;
+	}
+	
+	public ClassMatches getClassMatches()
+	{
+		ClassMatches matches = new ClassMatches();
+		for(ClassSpec spec : m_classes)
+		{
+			ClassEntry sourceClass = null;
+			if(spec.isInSource)
+				sourceClass = new ClassEntry(getObfName(spec.id, false));
+			ClassEntry destClass = null;
+			if(spec.isInDest)
+				destClass = new ClassEntry(getObfName(spec.id, true));
+			matches.add(new ClassMatch(sourceClass, destClass));
+		}
+		return matches;
+	}
+	
+	public static void main(String[] args) throws Exception
+	{
+		if(args.length < 2)
+		{
+			System.out
+				.println("Usage: SyntheticJarGenerator <out dir> <num classes> [seed]");
+			return;
+		}
+		File dir = new File(args[0]);
+		int numClasses = Integer.parseInt(args[1]);
+		long seed = 0;
+		if(args.length > 2)
+			seed = Long.parseLong(args[2]);
+		
+		dir.mkdirs();
+		String name = "synthetic" + numClasses;
+		SyntheticJarGenerator generator =
+			new SyntheticJarGenerator(numClasses, seed);
+		generator.writeJar(new File(dir, name + ".jar"));
+		generator.writeNextJar(new File(dir, name + ".next.jar"));
+		try(FileWriter out = new FileWriter(new File(dir, name + ".mappings")))
+		{
+			new MappingsWriter().write(out, generator.getMappings());
+		}
+		MatchesWriter.writeClasses(generator.getClassMatches(), new File(dir,
+			name + ".class.matches"));
+		System.out.println("Wrote " + name + " to " + dir.getAbsolutePath());
+	}
+	
+	private ClassSpec newClass(Random random)
+	{
+		ClassSpec spec = newPlainClass(random);
+		
+		// most classes extend something, and the hierarchies get deep
+		if(spec.id > 0 && random.nextInt(3) != 0)
+		{
+			ClassSpec superclass =
+				m_classes.get(Math.max(0, spec.id - 1 - random.nextInt(10)));
+			if(superclass.outerClass < 0 && superclass.depth < 12)
+			{
+				spec.superclass = superclass.id;
+				spec.depth = superclass.depth + 1;
+				spec.numInheritedMethodNames = superclass.getNumMethodNames();
+				superclass.isReferenced = true;
+				
+				// the superclass already has the plain method
+				spec.methods.clear();
+				spec.isSpecialized =
+					superclass.isGenericBase && random.nextBoolean();
+			}
+		}
+		spec.isGenericBase = spec.superclass < 0 && random.nextInt(10) == 0;
+		
+		// fields can have the types of the classes we already made
+		for(int i = random.nextInt(4); i >= 0; i--)
+			spec.fieldTypes.add(pickType(random, spec, false));
+		
+		// override some of the superclass methods
+		if(spec.superclass >= 0)
+			for(MethodSpec superMethod : m_classes.get(spec.superclass).methods)
+			{
+				if(superMethod.isGenericGetter)
+				{
+					if(spec.isSpecialized)
+					{
+						MethodSpec method = new MethodSpec();
+						method.nameIndex = superMethod.nameIndex;
+						method.returnType = TypeString;
+						method.constant = random.nextInt(1000);
+						method.isSpecializedGetter = true;
+						spec.methods.add(method);
+					}
+					continue;
+				}
+				if(superMethod.createdInnerClass >= 0
+					|| superMethod.isSpecializedGetter
+					|| random.nextInt(3) != 0)
+					continue;
+				MethodSpec method = new MethodSpec();
+				method.nameIndex = superMethod.nameIndex;
+				method.argumentTypes.addAll(superMethod.argumentTypes);
+				method.returnType = superMethod.returnType;
+				method.constant = random.nextInt(1000);
+				method.isOverride = true;
+				spec.methods.add(method);
+			}
+		
+		// then add new methods
+		int nameIndex = spec.getNumMethodNames();
+		if(spec.isGenericBase)
+		{
+			MethodSpec method = new MethodSpec();
+			method.nameIndex = nameIndex++;
+			method.returnType = TypeObject;
+			method.isGenericGetter = true;
+			spec.methods.add(method);
+		}
+		for(int i = random.nextInt(5); i >= 0; i--)
+		{
+			MethodSpec method = new MethodSpec();
+			method.nameIndex = nameIndex++;
+			for(int j = random.nextInt(3); j > 0; j--)
+				method.argumentTypes.add(pickType(random, spec, false));
+			method.returnType = pickType(random, spec, true);
+			method.constant = random.nextInt(1000);
+			spec.methods.add(method);
+		}
+		
+		// and make the methods call each other
+		for(MethodSpec method : spec.methods)
+			if(!method.isGenericGetter && !method.isSpecializedGetter)
+				pickCalls(random, spec, method);
+		return spec;
+	}
+	
+	private ClassSpec newPlainClass(Random random)
+	{
+		ClassSpec spec = new ClassSpec();
+		spec.id = m_classes.size();
+		m_classes.add(spec);
+		if(random.nextBoolean())
+			spec.fieldTypes.add(TypeInt);
+		if(random.nextBoolean())
+			spec.fieldTypes.add(TypeString);
+		MethodSpec method = new MethodSpec();
+		method.argumentTypes.add(TypeInt);
+		method.returnType = TypeInt;
+		method.constant = random.nextInt(1000);
+		spec.methods.add(method);
+		return spec;
+	}
+	
+	private void newInnerClass(Random random, ClassSpec outerSpec,
+		boolean isAnonymous)
+	{
+		ClassSpec spec = new ClassSpec();
+		spec.id = m_classes.size();
+		spec.outerClass = outerSpec.id;
+		spec.isAnonymous = isAnonymous;
+		m_classes.add(spec);
+		outerSpec.isReferenced = true;
+		spec.isReferenced = true;
+		
+		// anonymous classes are Runnables, the named ones get a method and
+		// the outer class keeps the instance in a field, which tells the jar
+		// index that they're not anonymous
+		if(!isAnonymous)
+		{
+			MethodSpec method = new MethodSpec();
+			method.argumentTypes.add(TypeInt);
+			method.returnType = TypeInt;
+			method.constant = random.nextInt(1000);
+			spec.methods.add(method);
+			outerSpec.fieldTypes.add(spec.id);
+		}
+		
+		// the outer class makes the only instance
+		MethodSpec creator = new MethodSpec();
+		creator.nameIndex = outerSpec.getNumMethodNames();
+		creator.returnType = isAnonymous ? TypeObject : spec.id;
+		creator.createdInnerClass = spec.id;
+		outerSpec.methods.add(creator);
+	}
+	
+	private int pickType(Random random, ClassSpec spec, boolean isReturnType)
+	{
+		switch(random.nextInt(isReturnType ? 5 : 4))
+		{
+			case 0:
+			case 1:
+				return TypeInt;
+			
+			case 2:
+				return TypeString;
+			
+			case 3:
+				// some class we already made
+				ClassSpec other = m_classes.get(random.nextInt(spec.id + 1));
+				if(other.outerClass >= 0)
+					return TypeInt;
+				other.isReferenced = other != spec;
+				return other.id;
+			
+			default:
+				return TypeVoid;
+		}
+	}
+	
+	private void pickCalls(Random random, ClassSpec spec, MethodSpec method)
+	{
+		for(int i = 0; i < spec.fieldTypes.size(); i++)
+		{
+			int type = spec.fieldTypes.get(i);
+			if(type < 0 || random.nextBoolean())
+				continue;
+			List<MethodSpec> targets = Lists.newArrayList();
+			for(MethodSpec target : m_classes.get(type).methods)
+				if(target.returnType == TypeInt && !target.isOverride)
+					targets.add(target);
+			if(targets.isEmpty())
+				continue;
+			MethodSpec target = targets.get(random.nextInt(targets.size()));
+			method.calls.add(new int[]{i,
+				m_classes.get(type).methods.indexOf(target)});
+		}
+	}
+	
+	private boolean isInnerClass(int type)
+	{
+		return type >= 0 && m_classes.get(type).outerClass >= 0;
+	}
+	
+	private boolean hasInnerClasses(ClassSpec spec)
+	{
+		for(MethodSpec method : spec.methods)
+			if(method.createdInnerClass >= 0)
+				return true;
+		return false;
+	}
+	
+	private Map<Integer, String> assignNames(Random random, boolean isSource)
+	{
+		List<Integer> ids = Lists.newArrayList();
+		for(ClassSpec spec : m_classes)
+			if(isSource ? spec.isInSource : spec.isInDest)
+				ids.add(spec.id);
+		Collections.shuffle(ids, random);
+		Map<Integer, String> names = Maps.newHashMap();
+		for(int i = 0; i < ids.size(); i++)
+			names.put(ids.get(i), getName(i));
+		return names;
+	}
+	
+	private static String getName(int index)
+	{
+		// a, b, ..., z, aa, ab, ... without the java keywords
+		int numSkipped = 0;
+		for(int i = 0;; i++)
+		{
+			StringBuilder buf = new StringBuilder();
+			int n = i;
+			do
+			{
+				buf.insert(0, (char)('a' + n % 26));
+				n = n / 26 - 1;
+			}while(n >= 0);
+			String name = buf.toString();
+			if(Keywords.contains(name))
+				continue;
+			if(numSkipped++ == index)
+				return name;
+		}
+	}
+	
+	private String getMemberName(int index, boolean isDest)
+	{
+		// upper case never clashes with a keyword or the outer field
+		if(isDest && m_renamesMembers)
+			return getName(index).toUpperCase(Locale.ROOT);
+		return getName(index);
+	}
+	
+	private String getObfName(int id, boolean isDest)
+	{
+		return Constants.NonePackage + "/"
+			+ (isDest ? m_destNames : m_sourceNames).get(id);
+	}
+	
+	private String getDescriptor(int type, boolean isDest)
+	{
+		switch(type)
+		{
+			case TypeInt:
+				return "I";
+			case TypeString:
+				return "Ljava/lang/String;";
+			case TypeObject:
+				return "Ljava/lang/Object;";
+			case TypeVoid:
+				return "V";
+			default:
+				return "L" + getObfName(type, isDest) + ";";
+		}
+	}
+	
+	private String getDescriptor(MethodSpec method, boolean isDest)
+	{
+		StringBuilder buf = new StringBuilder();
+		buf.append("(");
+		for(int type : method.argumentTypes)
+			buf.append(getDescriptor(type, isDest));
+		buf.append(")");
+		buf.append(getDescriptor(method.returnType, isDest));
+		return buf.toString();
+	}
+	
+	private void writeJar(File file, boolean isDest) throws IOException
+	{
+		Map<Integer, String> names = isDest ? m_destNames : m_sourceNames;
+		try
+		{
+			Map<Integer, CtClass> classes = makeClasses(names, isDest);
+			try(JarOutputStream out =
+				new JarOutputStream(new FileOutputStream(file)))
+			{
+				for(ClassSpec spec : m_classes)
+				{
+					CtClass c = classes.get(spec.id);
+					if(c == null)
+						continue;
+					
+					// keep the jar the same from run to run
+					JarEntry entry = new JarEntry(names.get(spec.id) + ".class");
+					entry.setTime(315532800000L);
+					out.putNextEntry(entry);
+					out.write(c.toBytecode());
+					out.closeEntry();
+				}
+			}
+		}catch(NotFoundException | CannotCompileException ex)
+		{
+			throw new Error(ex);
+		}
+	}
+	
+	private Map<Integer, CtClass> makeClasses(Map<Integer, String> names,
+		boolean isDest) throws NotFoundException, CannotCompileException
+	{
+		ClassPool pool = new ClassPool(true);
+		Map<Integer, CtClass> classes = Maps.newHashMap();
+		List<ClassSpec> specs = Lists.newArrayList();
+		for(ClassSpec spec : m_classes)
+			if(names.containsKey(spec.id))
+			{
+				specs.add(spec);
+				classes.put(spec.id, pool.makeClass(names.get(spec.id)));
+			}
+		
+		// declare everything first, so the method bodies can use it
+		for(ClassSpec spec : specs)
+		{
+			CtClass c = classes.get(spec.id);
+			if(spec.superclass >= 0)
+				c.setSuperclass(classes.get(spec.superclass));
+			if(spec.isAnonymous)
+				c.addInterface(pool.get("java.lang.Runnable"));
+			if(spec.isGenericBase)
+				c.setGenericSignature("<T:Ljava/lang/Object;>Ljava/lang/Object;");
+			if(spec.isSpecialized)
+				c.setGenericSignature("L"
+					+ names.get(spec.superclass)
+					+ "<Ljava/lang/String;>;");
+			
+			List<Integer> fieldTypes = getFieldTypes(spec, isDest);
+			for(int i = 0; i < fieldTypes.size(); i++)
+				c.addField(new CtField(getType(pool, classes, fieldTypes
+					.get(i)), getMemberName(i, isDest), c));
+			
+			if(spec.outerClass >= 0)
+				addInnerConstructor(c, classes.get(spec.outerClass));
+			else
+				c.addConstructor(CtNewConstructor.defaultConstructor(c));
+			
+			for(MethodSpec method : spec.methods)
+			{
+				CtClass[] argumentTypes =
+					new CtClass[method.argumentTypes.size()];
+				for(int i = 0; i < argumentTypes.length; i++)
+					argumentTypes[i] =
+						getType(pool, classes, method.argumentTypes.get(i));
+				c.addMethod(new CtMethod(getType(pool, classes,
+					method.returnType), getMemberName(method.nameIndex, isDest),
+					argumentTypes, c));
+			}
+			if(spec.isAnonymous)
+				c.addMethod(new CtMethod(CtClass.voidType, "run",
+					new CtClass[0], c));
+		}
+		
+		// then write the code
+		for(ClassSpec spec : specs)
+		{
+			CtClass c = classes.get(spec.id);
+			for(MethodSpec method : spec.methods)
+			{
+				CtMethod m =
+					c.getMethod(getMemberName(method.nameIndex, isDest), getMethodDescriptor(
+						method, classes));
+				m.setBody(getBody(spec, method, names, isDest));
+				if(method.isGenericGetter)
+					m.setGenericSignature("()TT;");
+				if(method.isSpecializedGetter)
+					addBridge(pool, c, m);
+			}
+			if(spec.isAnonymous)
+			{
+				ClassSpec outerSpec = m_classes.get(spec.outerClass);
+				String body = "{ this.a.hashCode(); }";
+				for(MethodSpec target : outerSpec.methods)
+					if(target.returnType == TypeInt && !target.isOverride)
+					{
+						body =
+							"{ this.a." + getMemberName(target.nameIndex, isDest) + "("
+								+ getArguments(target, "1") + "); }";
+						break;
+					}
+				c.getMethod("run", "()V").setBody(body);
+			}
+			
+			// adding the methods without code made the class abstract
+			c.setModifiers(c.getModifiers() & ~Modifier.ABSTRACT);
+		}
+		return classes;
+	}
+	
+	private List<Integer> getFieldTypes(ClassSpec spec, boolean isDest)
+	{
+		List<Integer> fieldTypes = Lists.newArrayList(spec.fieldTypes);
+		if(isDest && spec.isChanged)
+			fieldTypes.add(TypeInt);
+		return fieldTypes;
+	}
+	
+	private void addInnerConstructor(CtClass c, CtClass outerClass)
+		throws CannotCompileException, NotFoundException
+	{
+		// the synthetic outer field is set before calling the super
+		// constructor, just like javac does it
+		CtField outerField = new CtField(outerClass, "a", c);
+		outerField.getFieldInfo().setAccessFlags(
+			AccessFlag.FINAL | AccessFlag.SYNTHETIC);
+		c.addField(outerField);
+		
+		CtConstructor constructor =
+			new CtConstructor(new CtClass[]{outerClass}, c);
+		Bytecode code = new Bytecode(c.getClassFile().getConstPool(), 2, 2);
+		code.addAload(0);
+		code.addAload(1);
+		code.addPutfield(c, "a", Descriptor.of(outerClass));
+		code.addAload(0);
+		code.addInvokespecial(c.getSuperclass(), "<init>", "()V");
+		code.addReturn(null);
+		constructor.getMethodInfo().setCodeAttribute(code.toCodeAttribute());
+		c.addConstructor(constructor);
+	}
+	
+	private void addBridge(ClassPool pool, CtClass c, CtMethod method)
+		throws CannotCompileException, NotFoundException
+	{
+		CtMethod bridge =
+			new CtMethod(pool.get("java.lang.Object"), method.getName(),
+				new CtClass[0], c);
+		Bytecode code = new Bytecode(c.getClassFile().getConstPool(), 1, 1);
+		code.addAload(0);
+		code.addInvokevirtual(c, method.getName(), method.getSignature());
+		code.addOpcode(Bytecode.ARETURN);
+		bridge.getMethodInfo().setCodeAttribute(code.toCodeAttribute());
+		bridge.getMethodInfo().setAccessFlags(
+			AccessFlag.PUBLIC | AccessFlag.BRIDGE | AccessFlag.SYNTHETIC);
+		c.addMethod(bridge);
+	}
+	
+	private String getMethodDescriptor(MethodSpec method,
+		Map<Integer, CtClass> classes)
+	{
+		StringBuilder buf = new StringBuilder();
+		buf.append("(");
+		for(int type : method.argumentTypes)
+			buf.append(getJvmDescriptor(type, classes));
+		buf.append(")");
+		buf.append(getJvmDescriptor(method.returnType, classes));
+		return buf.toString();
+	}
+	
+	private String getJvmDescriptor(int type, Map<Integer, CtClass> classes)
+	{
+		if(type >= 0)
+			return Descriptor.of(classes.get(type));
+		return getDescriptor(type, false);
+	}
+	
+	private String getBody(ClassSpec spec, MethodSpec method,
+		Map<Integer, String> names, boolean isDest)
+	{
+		int constant = method.constant;
+		if(isDest && spec.isChanged)
+			constant++;
+		
+		if(method.createdInnerClass >= 0)
+		{
+			String newInstance =
+				"new " + names.get(method.createdInnerClass) + "(this)";
+			int fieldIndex =
+				spec.fieldTypes.indexOf(method.createdInnerClass);
+			if(fieldIndex < 0)
+				return "{ return " + newInstance + "; }";
+			return "{ this." + getMemberName(fieldIndex, isDest) + " = " + newInstance
+				+ "; return this." + getMemberName(fieldIndex, isDest) + "; }";
+		}
+		if(method.isGenericGetter)
+			return "{ return null; }";
+		if(method.isSpecializedGetter)
+			return "{ return \"s" + constant + "\"; }";
+		
+		StringBuilder buf = new StringBuilder();
+		buf.append("{ int v = ").append(constant).append(";");
+		for(int[] call : method.calls)
+		{
+			int fieldType = spec.fieldTypes.get(call[0]);
+			MethodSpec target = m_classes.get(fieldType).methods.get(call[1]);
+			buf.append(" v += this.").append(getMemberName(call[0], isDest)).append(".")
+				.append(getMemberName(target.nameIndex, isDest)).append("(")
+				.append(getArguments(target, "v")).append(");");
+		}
+		for(int i = 0; i < spec.fieldTypes.size(); i++)
+			if(spec.fieldTypes.get(i) == TypeInt)
+			{
+				buf.append(" this.").append(getMemberName(i, isDest)).append(" = v;");
+				break;
+			}
+		switch(method.returnType)
+		{
+			case TypeInt:
+				buf.append(" return v;");
+				break;
+			
+			case TypeVoid:
+				break;
+			
+			case TypeString:
+				buf.append(" return String.valueOf(v);");
+				break;
+			
+			default:
+				buf.append(" return null;");
+				break;
+		}
+		buf.append(" }");
+		return buf.toString();
+	}
+	
+	private String getArguments(MethodSpec method, String intValue)
+	{
+		StringBuilder buf = new StringBuilder();
+		for(int type : method.argumentTypes)
+		{
+			if(buf.length() > 0)
+				buf.append(", ");
+			if(type == TypeInt)
+				buf.append(intValue);
+			else if(type == TypeString)
+				buf.append("\"x\"");
+			else
+				buf.append("null");
+		}
+		return buf.toString();
+	}
+	
+	private CtClass getType(ClassPool pool, Map<Integer, CtClass> classes,
+		int type) throws NotFoundException
+	{
+		switch(type)
+		{
+			case TypeInt:
+				return CtClass.intType;
+			case TypeString:
+				return pool.get("java.lang.String");
+			case TypeObject:
+				return pool.get("java.lang.Object");
+			case TypeVoid:
+				return CtClass.voidType;
+			default:
+				return classes.get(type);
+		}
+	}
+}
@@ -0,0 +1,126 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Jeff Martin.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public
+ * License v3.0 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * Contributors:
+ * Jeff Martin - initial API and implementation
+ ******************************************************************************/
+package cuchaz.enigma.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.jar.JarFile;
+
+import org.junit.rules.ExternalResource;
+import org.junit.rules.TemporaryFolder;
+
+import cuchaz.enigma.analysis.JarIndex;
+
+public class SyntheticJars extends ExternalResource
+{
+	
+	// NOTE: a test rule that writes a synthetic jar and its next version to
+	// a temp folder, and closes and deletes them after the test
+	
+	private SyntheticJarGenerator m_generator;
+	private TemporaryFolder m_tempFolder;
+	private JarFile m_sourceJar;
+	private JarIndex m_sourceIndex;
+	private JarFile m_destJar;
+	private JarIndex m_destIndex;
+	
+	public SyntheticJars(int numClasses, long seed)
+	{
+		this(new SyntheticJarGenerator(numClasses, seed));
+	}
+	
+	public SyntheticJars(SyntheticJarGenerator generator)
+	{
+		m_generator = generator;
+		m_tempFolder = new TemporaryFolder();
+	}
+	
+	@Override
+	protected void before() throws Throwable
+	{
+		m_tempFolder.create();
+		m_generator.writeJar(getSourceFile());
+		m_generator.writeNextJar(getDestFile());
+		m_sourceJar = new JarFile(getSourceFile());
+		m_destJar = new JarFile(getDestFile());
+	}
+	
+	@Override
+	protected void after()
+	{
+		try
+		{
+			m_sourceJar.close();
+			m_destJar.close();
+		}catch(IOException ex)
+		{
+			throw new Error(ex);
+		}
+		m_tempFolder.delete();
+	}
+	
+	public SyntheticJarGenerator getGenerator()
+	{
+		return m_generator;
+	}
+	
+	/**
+	 * Returns a temp folder the test can use for anything else.
+	 */
+	public TemporaryFolder getTempFolder()
+	{
+		return m_tempFolder;
+	}
+	
+	public File getSourceFile()
+	{
+		return new File(m_tempFolder.getRoot(), "source.jar");
+	}
+	
+	public File getDestFile()
+	{
+		return new File(m_tempFolder.getRoot(), "dest.jar");
+	}
+	
+	public JarFile getSourceJar()
+	{
+		return m_sourceJar;
+	}
+	
+	public JarFile getDestJar()
+	{
+		return m_destJar;
+	}
+	
+	/**
+	 * The jars are only indexed if a test asks for it.
+	 */
+	public JarIndex getSourceIndex()
+	{
+		if(m_sourceIndex == null)
+			m_sourceIndex = indexJar(m_sourceJar);
+		return m_sourceIndex;
+	}
+	
+	public JarIndex getDestIndex()
+	{
+		if(m_destIndex == null)
+			m_destIndex = indexJar(m_destJar);
+		return m_destIndex;
+	}
+	
+	private static JarIndex indexJar(JarFile jar)
+	{
+		JarIndex index = new JarIndex();
+		index.indexJar(jar, true);
+		return index;
+	}
+}
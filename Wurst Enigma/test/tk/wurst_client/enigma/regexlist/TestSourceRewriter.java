@@ -0,0 +1,117 @@
+/*
+ * Copyright  2015 | Alexander01998 | All rights reserved.
+ * 
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package tk.wurst_client.enigma.regexlist;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+public class TestSourceRewriter
+{
+	private static final String[] Sources = {"", "Abc", "xAbcx", "abc",
+		"\u00e9t\u00e9", "Aa", "foo\rbar", "foo\r\nbar", "bar", "bab",
+		"\u00e9\u00e9", "abab", "a1b", "a{b", "a.b", "aXb"};
+	
+	@Test
+	public void plainLiterals()
+	{
+		assertThat(getLiteral("foo\\.bar"), is("foo.bar"));
+		assertThat(getLiteral("foo(bar)baz"), is("foo"));
+		assertThat(getLiteral("ab*cde"), is("cde"));
+		assertThat(getLiteral("a|b"), is(""));
+		assertThat(getLiteral("(?i)foo"), is(""));
+	}
+	
+	@Test
+	public void alphanumericEscapes()
+	{
+		assertThat(getLiteral("\\x41bc"), is("bc"));
+		assertThat(getLiteral("\\x{41}bc"), is("bc"));
+		assertThat(getLiteral("\\u00e9t\\u00e9"), is("t"));
+		assertThat(getLiteral("\\0101a"), is("a"));
+		assertThat(getLiteral("fo\\cMbar"), is("bar"));
+		assertThat(getLiteral("\\pLab"), is("ab"));
+		assertThat(getLiteral("\\p{Lu}ab"), is("ab"));
+		assertThat(getLiteral("(?<x>b)a\\k<x>b"), is("a"));
+		assertThat(getLiteral("(a)b\\1b"), is("b"));
+		assertThat(getLiteral("\\d+xyz"), is("xyz"));
+	}
+	
+	@Test
+	public void quotedLiterals()
+	{
+		// not worth parsing, just don't filter
+		assertThat(getLiteral("ab\\Qcd\\E"), is(""));
+	}
+	
+	@Test
+	public void sameOutputWithoutLiteral()
+	{
+		String[] regexes = {"\\x41bc", "\\x{41}bc", "\\u00e9t\\u00e9", "\\0101a",
+			"foo\\cMbar", "foo\\r\\nbar", "\\pLa", "\\p{Lu}a", "(?<x>b)a\\k<x>",
+			"(a)b\\1b", "a\\d?b", "a\\{b", "a\\.b", "a.b", "\\x41a", "b\\Da"};
+		for(String regex : regexes)
+		{
+			Pattern pattern = Pattern.compile(regex);
+			SourceRewriter rewriter = new SourceRewriter();
+			rewriter.addRegex(pattern, "#");
+			for(String source : Sources)
+				assertThat(regex + " on " + source,
+					rewriter.rewrite("Foo", source),
+					is(pattern.matcher(source).replaceAll("#")));
+		}
+	}
+	
+	@Test
+	public void rulesInOrder()
+	{
+		SourceRewriter rewriter = new SourceRewriter();
+		rewriter.addLiteral("foo", "bar");
+		rewriter.addRegexList(Arrays.asList(new RegexListEntry(
+			new String[]{"Foo"}, "bar", "baz"), new RegexListEntry("ba(.)",
+			"qu$1")));
+		rewriter.addLiteral("quz", "end");
+		
+		// targeted rules only apply to their classes, but keep their place
+		assertThat(rewriter.rewrite("Foo", "foo bar"), is("end end"));
+		assertThat(rewriter.rewrite("Bar", "foo bar"), is("qur qur"));
+	}
+	
+	@Test
+	public void keyFollowsRules()
+	{
+		assertThat(newRewriter("a", "b").getKey(),
+			is(newRewriter("a", "b").getKey()));
+		assertThat(newRewriter("a", "b").getKey(),
+			is(not(newRewriter("a", "c").getKey())));
+		assertThat(newRewriter("a", "b").getKey(),
+			is(not(newRewriter("(?i)a", "b").getKey())));
+		
+		SourceRewriter rewriter = newRewriter("a", "b");
+		rewriter.addRegexList(Arrays.asList(new RegexListEntry(
+			new String[]{"Foo"}, "a", "b")));
+		assertThat(rewriter.getKey(), is(not(newRewriter("a", "b").getKey())));
+	}
+	
+	private static SourceRewriter newRewriter(String regex, String replacement)
+	{
+		SourceRewriter rewriter = new SourceRewriter();
+		rewriter.addRegex(Pattern.compile(regex), replacement);
+		return rewriter;
+	}
+	
+	private static String getLiteral(String regex)
+	{
+		return SourceRewriter.getRequiredLiteral(Pattern.compile(regex));
+	}
+}